@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors;
+
+import io.gravitee.policy.cors.configuration.CorsPolicyConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of a whole exchange going through the policy: simple requests, requests without origin, and preflight
+ * requests answered through the invoker or directly.
+ *
+ * @author GraviteeSource Team
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CorsPolicyBenchmark {
+
+    @Param({"false", "true"})
+    private boolean credentials;
+
+    @Param({"1", "10"})
+    private int requestHeaders;
+
+    private Scenarios.Exchange simple;
+    private Scenarios.Exchange preflightInvoker;
+    private Scenarios.Exchange preflightDirect;
+    private Scenarios.Exchange withoutOrigin;
+
+    @Setup
+    public void setup() {
+        CorsPolicyConfiguration configuration = Scenarios.configuration(credentials, requestHeaders, 10);
+        CorsPolicyConfiguration direct = Scenarios.configuration(credentials, requestHeaders, 10);
+        direct.setPreflightDirectResponse(true);
+
+        simple = new Scenarios.Exchange(configuration, Scenarios.simpleRequest());
+        preflightInvoker = new Scenarios.Exchange(configuration, Scenarios.preflightRequest(requestHeaders));
+        preflightDirect = new Scenarios.Exchange(direct, Scenarios.preflightRequest(requestHeaders));
+
+        CorsPolicyConfiguration skip = Scenarios.configuration(credentials, requestHeaders, 10);
+        skip.setSkipRequestsWithoutOrigin(true);
+        withoutOrigin = new Scenarios.Exchange(skip, Scenarios.requestWithoutOrigin());
+    }
+
+    @Benchmark
+    public int simpleRequest() {
+        return simple.run();
+    }
+
+    @Benchmark
+    public int requestWithoutOrigin() {
+        return withoutOrigin.run();
+    }
+
+    @Benchmark
+    public int preflightThroughInvoker() {
+        return preflightInvoker.run();
+    }
+
+    @Benchmark
+    public int preflightDirectResponse() {
+        return preflightDirect.run();
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors;
+
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import io.gravitee.policy.cors.configuration.CorsPolicyConfiguration;
+import io.gravitee.policy.cors.plan.CorsPlan;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to deploy the CORS configurations of N APIs, each one with its own origins:
+ * <ul>
+ *     <li><code>compiled</code>: read, validated and compiled at deployment</li>
+ *     <li><code>reflective</code>: read through Jackson bean introspection, as before, the plan being compiled by the
+ *     first request of each API</li>
+ *     <li><code>reflectiveWithFirstRequest</code>: the same, including the compilation done by the first request</li>
+ * </ul>
+ *
+ * @author GraviteeSource Team
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@Fork(1)
+@State(Scope.Thread)
+public class DeploymentBenchmark {
+
+    @Param({"5000"})
+    private int apis;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final ObjectMapper reflectiveMapper = new ObjectMapper()
+            .addMixIn(CorsPolicyConfiguration.class, ReflectiveConfiguration.class);
+
+    private String[] configurations;
+
+    private long generation;
+
+    @Setup(Level.Invocation)
+    public void setup() {
+        // New origins for each deployment, so that no plan compiled by a previous one is reused
+        generation++;
+        configurations = new String[apis];
+        for (int i = 0; i < apis; i++) {
+            configurations[i] = "{" +
+                    "\"accessControlAllowOrigin\": [\"https://app-" + generation + "-" + i + ".example.com\", " +
+                    "\"https://*.tenant-" + i + ".example.com\", \"http://localhost:8080\"], " +
+                    "\"accessControlAllowMethods\": [\"GET\", \"POST\", \"PUT\", \"DELETE\"], " +
+                    "\"accessControlAllowHeaders\": [\"Content-Type\", \"Authorization\", \"X-Gravitee-Api-Key\"], " +
+                    "\"accessControlExposeHeaders\": [\"X-Gravitee-Transaction-Id\"], " +
+                    "\"accessControlAllowCredentials\": true, " +
+                    "\"accessControlMaxAge\": 600}";
+        }
+    }
+
+    @Benchmark
+    public void compiled(Blackhole blackhole) throws IOException {
+        for (String configuration : configurations) {
+            blackhole.consume(mapper.readValue(configuration, CorsPolicyConfiguration.class));
+        }
+    }
+
+    @Benchmark
+    public void reflective(Blackhole blackhole) throws IOException {
+        for (String configuration : configurations) {
+            blackhole.consume(reflectiveMapper.readValue(configuration, CorsPolicyConfiguration.class));
+        }
+    }
+
+    @Benchmark
+    public void reflectiveWithFirstRequest(Blackhole blackhole) throws IOException {
+        for (String configuration : configurations) {
+            blackhole.consume(CorsPlan.of(reflectiveMapper.readValue(configuration, CorsPolicyConfiguration.class)));
+        }
+    }
+
+    @JsonDeserialize(using = JsonDeserializer.None.class)
+    abstract static class ReflectiveConfiguration {
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors;
+
+import io.gravitee.policy.cors.origin.OriginMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of matching an origin depending on the size of the allow-list.
+ *
+ * @author GraviteeSource Team
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OriginMatchingBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    private int origins;
+
+    private OriginMatcher matcher;
+    private String exact;
+    private String wildcard;
+
+    @Setup
+    public void setup() {
+        matcher = OriginMatcher.of(Scenarios.origins(origins));
+        exact = "https://app" + (origins - 2) + ".example.com";
+        wildcard = "https://portal.tenant" + (origins - 1) + ".example.com";
+    }
+
+    @Benchmark
+    public boolean exactOrigin() {
+        return matcher.isAllowed(exact);
+    }
+
+    @Benchmark
+    public boolean wildcardOrigin() {
+        return matcher.isAllowed(wildcard);
+    }
+
+    @Benchmark
+    public boolean unknownOrigin() {
+        return matcher.isAllowed("https://evil.io");
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors;
+
+import io.gravitee.policy.cors.origin.OriginPatterns;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Cost of matching an origin against N origin patterns: the combined automaton of {@link OriginPatterns} against one
+ * <code>java.util.regex</code> pattern per entry, for a matching origin (the last pattern), an unknown origin and a long
+ * origin crafted to make backtracking patterns slow.
+ *
+ * @author GraviteeSource Team
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OriginPatternBenchmark {
+
+    @Param({"1", "10", "100"})
+    private int patterns;
+
+    private OriginPatterns automaton;
+    private Pattern[] regexes;
+    private String matching;
+    private String adversarial;
+
+    @Setup
+    public void setup() {
+        List<String> sources = new ArrayList<>(patterns);
+        for (int i = 0; i < patterns; i++) {
+            sources.add("https://pr-([a-z0-9]+-?)+\\.preview" + i + "\\.example\\.com");
+        }
+
+        automaton = OriginPatterns.compile(sources);
+        regexes = new Pattern[patterns];
+        for (int i = 0; i < patterns; i++) {
+            regexes[i] = Pattern.compile(sources.get(i));
+        }
+
+        matching = "https://pr-4242-fix-login.preview" + (patterns - 1) + ".example.com";
+        StringBuilder origin = new StringBuilder("https://pr-");
+        for (int i = 0; i < 16; i++) {
+            origin.append('a');
+        }
+        adversarial = origin.append('!').toString();
+    }
+
+    @Benchmark
+    public boolean automatonMatching() {
+        return automaton.matches(matching);
+    }
+
+    @Benchmark
+    public boolean automatonUnknown() {
+        return automaton.matches("https://evil.io");
+    }
+
+    @Benchmark
+    public boolean automatonAdversarial() {
+        return automaton.matches(adversarial);
+    }
+
+    @Benchmark
+    public boolean regexMatching() {
+        return anyRegex(matching);
+    }
+
+    @Benchmark
+    public boolean regexUnknown() {
+        return anyRegex("https://evil.io");
+    }
+
+    @Benchmark
+    public boolean regexAdversarial() {
+        return anyRegex(adversarial);
+    }
+
+    private boolean anyRegex(String origin) {
+        for (Pattern regex : regexes) {
+            if (regex.matcher(origin).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors;
+
+import io.gravitee.policy.cors.configuration.CorsPathRule;
+import io.gravitee.policy.cors.configuration.CorsPolicyConfiguration;
+import io.gravitee.policy.cors.plan.PathRuleTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Cost of resolving the path rule of a request among N rules: the {@link PathRuleTree} against one
+ * <code>java.util.regex</code> pattern per rule evaluated in turn, as flow conditions would be, for the path of the
+ * last rule and a path matching none. <code>preflight</code> is a whole preflight exchange answered directly with the
+ * settings of the last rule.
+ *
+ * @author GraviteeSource Team
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PathRuleBenchmark {
+
+    @Param({"1", "10", "100", "500"})
+    private int rules;
+
+    private PathRuleTree<String> tree;
+    private Pattern[] regexes;
+    private String matching;
+    private Scenarios.Exchange preflight;
+
+    @Setup
+    public void setup() {
+        List<String> patterns = new ArrayList<>(rules);
+        List<String> paths = new ArrayList<>(rules);
+        for (int i = 0; i < rules; i++) {
+            switch (i % 3) {
+                case 0:
+                    patterns.add("/resources-" + i + "/**");
+                    paths.add("/resources-" + i + "/items/42");
+                    break;
+                case 1:
+                    patterns.add("/resources-" + i + "/*/items");
+                    paths.add("/resources-" + i + "/42/items");
+                    break;
+                default:
+                    patterns.add("/resources-" + i + "/orders/*/lines/**");
+                    paths.add("/resources-" + i + "/orders/42/lines/7");
+            }
+        }
+
+        tree = PathRuleTree.of(patterns, patterns);
+        regexes = new Pattern[rules];
+        for (int i = 0; i < rules; i++) {
+            regexes[i] = Pattern.compile(patterns.get(i).replace("/**", "(/.*)?").replace("*", "[^/]+"));
+        }
+        matching = paths.get(rules - 1);
+
+        CorsPolicyConfiguration configuration = Scenarios.configuration(false, 10, 10);
+        List<CorsPathRule> pathRules = new ArrayList<>(rules);
+        for (String pattern : patterns) {
+            CorsPathRule rule = new CorsPathRule();
+            rule.setPath(pattern);
+            rule.setAccessControlAllowOrigin(Collections.singleton(Scenarios.ORIGIN));
+            rule.setAccessControlAllowMethods(configuration.getAccessControlAllowMethods());
+            rule.setAccessControlAllowHeaders(configuration.getAccessControlAllowHeaders());
+            rule.setPreflightDirectResponse(true);
+            pathRules.add(rule);
+        }
+        configuration.setPaths(pathRules);
+        preflight = new Scenarios.Exchange(configuration, Scenarios.preflightRequest(10).path(matching));
+    }
+
+    @Benchmark
+    public String treeMatching() {
+        return tree.find(matching, null);
+    }
+
+    @Benchmark
+    public String treeUnknown() {
+        return tree.find("/unknown/items/42", null);
+    }
+
+    @Benchmark
+    public int regexMatching() {
+        return scan(matching);
+    }
+
+    @Benchmark
+    public int regexUnknown() {
+        return scan("/unknown/items/42");
+    }
+
+    @Benchmark
+    public int preflight() {
+        return preflight.run();
+    }
+
+    private int scan(String path) {
+        for (int i = 0; i < regexes.length; i++) {
+            if (regexes[i].matcher(path).matches()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
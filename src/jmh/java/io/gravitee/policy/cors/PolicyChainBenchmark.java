@@ -0,0 +1,188 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors;
+
+import io.gravitee.common.http.HttpHeaders;
+import io.gravitee.gateway.api.ExecutionContext;
+import io.gravitee.gateway.api.Invoker;
+import io.gravitee.gateway.api.Request;
+import io.gravitee.gateway.api.Response;
+import io.gravitee.policy.api.PolicyChain;
+import io.gravitee.policy.api.PolicyResult;
+import io.gravitee.policy.cors.configuration.CorsPolicyConfiguration;
+import io.gravitee.policy.cors.stub.StubExecutionContext;
+import io.gravitee.policy.cors.stub.StubReadStream;
+import io.gravitee.policy.cors.stub.StubRequest;
+import io.gravitee.policy.cors.stub.StubResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of preflight requests going through a chain where the CORS policy is followed by the usual policies of
+ * an API: API key validation, rate limiting, header transformation and logging. Preflight requests are answered
+ * through the invoker, or by ending the chain from the CORS policy.
+ *
+ * @author GraviteeSource Team
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PolicyChainBenchmark {
+
+    private static final String API_KEY_HEADER = "X-Gravitee-Api-Key";
+
+    @Param({"invoker", "shortCircuit"})
+    private String preflight;
+
+    private Chain chain;
+
+    @Setup
+    public void setup() {
+        CorsPolicyConfiguration configuration = Scenarios.configuration(false, 10, 10);
+        configuration.setPreflightShortCircuit("shortCircuit".equals(preflight));
+
+        ConcurrentMap<String, String> apiKeys = new ConcurrentHashMap<>();
+        apiKeys.put("d4a5c1f0-api-key", "application");
+        ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+        // Browsers do not send credentials with preflight requests, the key is given here so that the whole chain
+        // runs when the preflight request goes through it
+        StubRequest preflightRequest = Scenarios.preflightRequest(10).header(API_KEY_HEADER, "d4a5c1f0-api-key");
+
+        chain = new Chain(configuration, preflightRequest, Arrays.asList(
+                (request, response, context, next) -> {
+                    String apiKey = request.headers().getFirst(API_KEY_HEADER);
+                    if (apiKey == null || ! apiKeys.containsKey(apiKey)) {
+                        next.failWith(PolicyResult.failure(401, "Unauthorized"));
+                    } else {
+                        next.doNext(request, response);
+                    }
+                },
+                (request, response, context, next) -> {
+                    long count = counters.computeIfAbsent(request.headers().getFirst(HttpHeaders.ORIGIN),
+                            origin -> new AtomicLong()).incrementAndGet();
+                    response.headers().set("X-Rate-Limit-Remaining", Long.toString(Long.MAX_VALUE - count));
+                    next.doNext(request, response);
+                },
+                (request, response, context, next) -> {
+                    request.headers().set("X-Gravitee-Transaction-Id", request.transactionId());
+                    request.headers().set("X-Forwarded-Prefix", "/benchmark");
+                    next.doNext(request, response);
+                },
+                (request, response, context, next) -> {
+                    context.setAttribute("log", request.method() + " " + request.path() + " " + request.headers());
+                    next.doNext(request, response);
+                }));
+    }
+
+    @Benchmark
+    public int preflight() {
+        return chain.run();
+    }
+
+    /**
+     * Policy following the CORS policy in the chain.
+     */
+    @FunctionalInterface
+    interface Policy {
+        void onRequest(Request request, Response response, ExecutionContext context, PolicyChain chain);
+    }
+
+    /**
+     * Request policy chain as run by the gateway: the CORS policy, then the other policies, then the invoker and the
+     * response phase of the CORS policy. A failure ends the exchange with its status.
+     */
+    static final class Chain implements PolicyChain {
+
+        private final CorsPolicyConfiguration configuration;
+        private final StubRequest request;
+        private final List<Policy> policies;
+        private final StubResponse response = new StubResponse();
+        private final StubExecutionContext executionContext = new StubExecutionContext();
+        private final StubReadStream stream = new StubReadStream();
+
+        private int index;
+        private boolean failed;
+
+        Chain(CorsPolicyConfiguration configuration, StubRequest request, List<Policy> policies) {
+            this.configuration = configuration;
+            this.request = request;
+            this.policies = policies;
+            this.executionContext.setAttribute(ExecutionContext.ATTR_API, Scenarios.API);
+        }
+
+        int run() {
+            response.reset();
+            executionContext.removeAttribute(ExecutionContext.ATTR_INVOKER);
+            index = -1;
+            failed = false;
+
+            new CorsPolicy(configuration).onRequest(request, response, executionContext, this);
+            if (failed || response.ended() || index < policies.size()) {
+                return response.status();
+            }
+
+            Invoker invoker = (Invoker) executionContext.getAttribute(ExecutionContext.ATTR_INVOKER);
+            if (invoker != null) {
+                invoker.invoke(executionContext, request, stream, connection -> connection.responseHandler(proxyResponse -> {
+                    response.status(proxyResponse.status());
+                    proxyResponse.endHandler(result -> new CorsPolicy(configuration).onResponse(request, response, executionContext, this));
+                }));
+                stream.end();
+            }
+
+            return response.status();
+        }
+
+        @Override
+        public void doNext(Request request, Response response) {
+            if (++index < policies.size()) {
+                policies.get(index).onRequest(request, response, executionContext, this);
+            }
+        }
+
+        @Override
+        public void failWith(PolicyResult policyResult) {
+            failed = true;
+            response.status(policyResult.httpStatusCode());
+            response.end();
+        }
+
+        @Override
+        public void streamFailWith(PolicyResult policyResult) {
+            failWith(policyResult);
+        }
+    }
+}
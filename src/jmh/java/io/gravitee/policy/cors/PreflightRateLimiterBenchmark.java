@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors;
+
+import io.gravitee.policy.cors.plan.PreflightRateLimiter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the per-origin preflight rate limit, shared by all the benchmark threads (run with <code>-t</code> to add
+ * threads): distinct origins, which hit different sets of the table, and a single flooding origin, whose preflight
+ * requests are rejected.
+ *
+ * @author GraviteeSource Team
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PreflightRateLimiterBenchmark {
+
+    private PreflightRateLimiter limiter;
+
+    @Setup
+    public void setup() {
+        limiter = PreflightRateLimiter.of(10, 10);
+    }
+
+    @State(Scope.Thread)
+    public static class Origins {
+
+        private final String[] origins = new String[1 << 16];
+
+        private int next = ThreadLocalRandom.current().nextInt(origins.length);
+
+        @Setup
+        public void setup() {
+            for (int i = 0; i < origins.length; i++) {
+                origins[i] = "https://app" + i + ".example.com";
+            }
+        }
+
+        String next() {
+            return origins[next++ & (origins.length - 1)];
+        }
+    }
+
+    @Benchmark
+    public long distinctOrigins(Origins origins) {
+        return limiter.acquire(origins.next());
+    }
+
+    @Benchmark
+    public long floodingOrigin() {
+        return limiter.acquire(Scenarios.ORIGIN);
+    }
+}
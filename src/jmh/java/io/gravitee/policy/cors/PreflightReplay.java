@@ -0,0 +1,479 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.gravitee.common.http.HttpHeaders;
+import io.gravitee.common.http.HttpMethod;
+import io.gravitee.policy.cors.configuration.CorsPolicyConfiguration;
+import io.gravitee.policy.cors.metrics.CorsMetrics;
+import io.gravitee.policy.cors.metrics.CorsMetricsRegistry;
+import io.gravitee.policy.cors.plan.PreflightModel;
+import io.gravitee.policy.cors.plan.RejectionReason;
+import io.gravitee.policy.cors.stub.StubRequest;
+import io.gravitee.policy.cors.utils.CaseInsensitiveHashSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays preflight traffic through the policy to size the preflight decision cache, its time-to-live and the
+ * preflight rate limit from the shape of real traffic, without a gateway:
+ *
+ * <pre>
+ * mvn -Pbenchmarks,replay verify -DskipTests -Dreplay.args="--records preflights.tsv --config cors.json"
+ * </pre>
+ *
+ * The traffic is either a file of recorded preflight requests, one per line with tab-separated time (milliseconds),
+ * origin, requested method and requested headers (optional), or synthetic requests of origins following a Zipf
+ * distribution. The report gives:
+ * <ul>
+ *     <li>the throughput of the policy and the bytes it allocates per request, the requests being replayed as fast as
+ *     possible on a single thread, with the rate limit off;</li>
+ *     <li>the decisions taken on the requests;</li>
+ *     <li>the hit ratio of the decision cache for candidate sizes and time-to-live, and the requests over candidate rate
+ *     limits. They are modelled by the cache and the limiter of the policy, run at the time of the recorded requests.</li>
+ * </ul>
+ *
+ * @author GraviteeSource Team
+ */
+public final class PreflightReplay {
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Options:",
+            "  --records <file>        Recorded preflight requests: time (ms) TAB origin TAB method [TAB headers]",
+            "  --zipf <exponent>       Synthetic requests of origins following a Zipf distribution (default: 1.0)",
+            "  --origins <count>       Number of synthetic origins (default: 10000)",
+            "  --requests <count>      Number of synthetic requests (default: 1000000)",
+            "  --rate <requests/s>     Rate of the synthetic requests (default: 2000)",
+            "  --seed <seed>           Seed of the synthetic requests (default: 42)",
+            "  --config <file>         CORS configuration of the policy (JSON). The default one allows",
+            "                          https://*.example.com, GET, POST and PUT, content-type, authorization and",
+            "                          x-request-id",
+            "  --passes <count>        Measured replays of the traffic through the policy (default: 5)",
+            "  --warmup <count>        Replays of the traffic before measuring (default: 2)",
+            "  --cache-sizes <list>    Candidate cache sizes (default: 64,256,1024,4096,16384)",
+            "  --cache-ttls <list>     Candidate time-to-live of the cache, in seconds (default: the configured one)",
+            "  --rate-limits <list>    Candidate rate limits per origin, per second (default: 1,5,10,50)",
+            "  --burst <count>         Burst of the candidate rate limits (default: the configured one)");
+
+    private static final String[] SYNTHETIC_METHODS = { "GET", "GET", "GET", "GET", "POST", "POST", "POST", "PUT", "PUT",
+            "DELETE" };
+
+    private static final String[] SYNTHETIC_HEADERS = { null, "content-type", "authorization, content-type",
+            "authorization, content-type, x-request-id", "x-api-key" };
+
+    private PreflightReplay() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (Arrays.asList(args).contains("--help")) {
+            System.out.println(USAGE);
+            return;
+        }
+
+        final Options options;
+        try {
+            options = new Options(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+            return;
+        }
+
+        final CorsPolicyConfiguration configuration = options.config != null ?
+                new ObjectMapper().readValue(new File(options.config), CorsPolicyConfiguration.class) :
+                defaultConfiguration();
+        final List<Record> records = options.records != null ? read(options.records) : synthesize(options);
+        if (records.isEmpty()) {
+            System.err.println("No preflight request to replay");
+            System.exit(1);
+            return;
+        }
+
+        new PreflightReplay().run(options, configuration, records, System.out);
+    }
+
+    private void run(Options options, CorsPolicyConfiguration configuration, List<Record> records, PrintStream out) {
+        final int rateLimit = configuration.getPreflightRateLimit();
+        final int burst = options.burst >= 0 ? options.burst : configuration.getPreflightRateLimitBurst();
+        final int ttl = configuration.getPreflightCacheTtl();
+        final long duration = records.get(records.size() - 1).time;
+
+        out.printf(Locale.ROOT, "%,d preflight requests of %,d origins over %.1f s, %s%n", records.size(),
+                records.stream().map(record -> record.origin).distinct().count(),
+                duration / 1e9, options.records != null ? options.records : "Zipf exponent " + options.zipf);
+        out.println();
+
+        // The rate limit runs on the clock: replayed faster than recorded, every origin would go over it
+        configuration.update(c -> c.setPreflightRateLimit(0));
+        replayThroughPolicy(options, configuration, records, out);
+
+        out.println();
+        out.printf(Locale.ROOT, "Decision cache hit ratio (%s)%n", rateLimit > 0 ?
+                "rate limit of " + rateLimit + "/s applied first" : "no rate limit");
+        List<Integer> ttls = options.cacheTtls != null ? options.cacheTtls : Collections.singletonList(ttl);
+        StringBuilder header = new StringBuilder(String.format(Locale.ROOT, "  %-12s", "size \\ ttl"));
+        for (int candidate : ttls) {
+            header.append(String.format(Locale.ROOT, "%10s", candidate + " s"));
+        }
+        out.println(header);
+        for (int size : options.cacheSizes) {
+            StringBuilder row = new StringBuilder(String.format(Locale.ROOT, "  %-12s", String.format(Locale.ROOT, "%,d", size)));
+            for (int candidate : ttls) {
+                PreflightModel model = new PreflightModel(size, candidate, rateLimit, burst);
+                for (Record record : records) {
+                    model.replay(record.origin, record.method, record.headers, record.time);
+                }
+                row.append(String.format(Locale.ROOT, "%9.1f%%", model.hitRatio() * 100));
+            }
+            out.println(row);
+        }
+        StringBuilder unbounded = new StringBuilder(String.format(Locale.ROOT, "  %-12s", "unbounded"));
+        for (int candidate : ttls) {
+            unbounded.append(String.format(Locale.ROOT, "%9.1f%%", unboundedHitRatio(records, candidate, rateLimit, burst) * 100));
+        }
+        out.println(unbounded);
+
+        out.println();
+        out.printf(Locale.ROOT, "Preflight rate limit per origin (burst %s)%n", burst > 0 ? burst : "= rate");
+        for (int candidate : options.rateLimits) {
+            PreflightModel model = new PreflightModel(0, 0, candidate, burst);
+            for (Record record : records) {
+                model.replay(record.origin, record.method, record.headers, record.time);
+            }
+            out.printf(Locale.ROOT, "  %,6d/s  %6.2f%% of the requests limited, %,d origins over the limit%n",
+                    candidate, model.limited() * 100.0 / records.size(), model.limitedOrigins());
+        }
+    }
+
+    /**
+     * Run the requests through the policy as the gateway does, on the current thread.
+     */
+    private void replayThroughPolicy(Options options, CorsPolicyConfiguration configuration, List<Record> records,
+                                     PrintStream out) {
+        // Build each distinct request once, so that replaying only allocates what the policy does
+        final Map<String, StubRequest> distinct = new HashMap<>();
+        final StubRequest[] requests = new StubRequest[records.size()];
+        for (int i = 0; i < requests.length; i++) {
+            Record record = records.get(i);
+            requests[i] = distinct.computeIfAbsent(record.origin + '\n' + record.method + '\n' + record.headers,
+                    key -> record.request());
+        }
+
+        final Scenarios.Exchange exchange = new Scenarios.Exchange(configuration, requests[0]);
+        final Runnable pass = () -> {
+            for (StubRequest request : requests) {
+                exchange.run(request);
+            }
+        };
+
+        for (int i = 0; i < options.warmup; i++) {
+            pass.run();
+        }
+
+        final CorsMetrics metrics = CorsMetricsRegistry.of(Scenarios.API);
+        final long preflights = metrics.getPreflightRequests();
+        final long[] rejections = rejections(metrics);
+
+        long bytes = 0;
+        long nanos = 0;
+        for (int i = 0; i < options.passes; i++) {
+            long start = System.nanoTime();
+            if (AllocationMeter.isSupported()) {
+                bytes += AllocationMeter.bytesPerOperation(pass, 0, 1);
+            } else {
+                pass.run();
+            }
+            nanos += System.nanoTime() - start;
+        }
+
+        final long replayed = (long) requests.length * options.passes;
+        out.printf(Locale.ROOT, "Policy (%,d distinct requests, rate limit off)%n", distinct.size());
+        out.printf(Locale.ROOT, "  throughput   %,.0f requests/s%n", replayed * 1e9 / nanos);
+        if (AllocationMeter.isSupported()) {
+            out.printf(Locale.ROOT, "  allocation   %,d bytes/request, %,.1f MB/s%n", bytes / replayed,
+                    bytes * 1e9 / nanos / (1024 * 1024));
+        }
+
+        final long decided = metrics.getPreflightRequests() - preflights;
+        final long[] rejected = rejections(metrics);
+        long allowed = decided;
+        StringJoiner reasons = new StringJoiner(", ");
+        for (RejectionReason reason : RejectionReason.values()) {
+            long count = rejected[reason.ordinal()] - rejections[reason.ordinal()];
+            allowed -= count;
+            if (count > 0) {
+                reasons.add(String.format(Locale.ROOT, "%s %.2f%%", reason.name().toLowerCase(Locale.ROOT),
+                        count * 100.0 / decided));
+            }
+        }
+        out.printf(Locale.ROOT, "  decisions    allowed %.2f%%, rejected %.2f%%%s%n", allowed * 100.0 / decided,
+                (decided - allowed) * 100.0 / decided, reasons.length() > 0 ? " (" + reasons + ")" : "");
+    }
+
+    private static long[] rejections(CorsMetrics metrics) {
+        long[] rejections = new long[RejectionReason.values().length];
+        for (RejectionReason reason : RejectionReason.values()) {
+            rejections[reason.ordinal()] = metrics.getRejections(reason);
+        }
+        return rejections;
+    }
+
+    /**
+     * Hit ratio of a cache keeping every decision for the given time-to-live: the best any cache size can do.
+     */
+    private static double unboundedHitRatio(List<Record> records, int ttl, int rateLimit, int burst) {
+        final long ttlNanos = TimeUnit.SECONDS.toNanos(ttl);
+        final Map<String, Long> expirations = new HashMap<>();
+        final PreflightModel limiter = new PreflightModel(0, 0, rateLimit, burst);
+        long hits = 0;
+        long cached = 0;
+        for (Record record : records) {
+            long limited = limiter.limited();
+            limiter.replay(record.origin, record.method, record.headers, record.time);
+            if (limiter.limited() > limited) {
+                continue;
+            }
+
+            cached++;
+            String key = record.canonicalKey();
+            Long expiresAt = expirations.get(key);
+            if (expiresAt != null && expiresAt - record.time > 0) {
+                hits++;
+            } else {
+                expirations.put(key, record.time + ttlNanos);
+            }
+        }
+        return cached == 0 ? 0 : (double) hits / cached;
+    }
+
+    private static CorsPolicyConfiguration defaultConfiguration() {
+        CorsPolicyConfiguration configuration = new CorsPolicyConfiguration();
+        configuration.setAccessControlAllowOrigin(new LinkedHashSet<>(Collections.singleton("https://*.example.com")));
+        configuration.setAccessControlAllowMethods(new CaseInsensitiveHashSet(Arrays.asList("GET", "POST", "PUT")));
+        configuration.setAccessControlAllowHeaders(new CaseInsensitiveHashSet(Arrays.asList("Content-Type",
+                "Authorization", "X-Request-Id")));
+        configuration.setAccessControlMaxAge(600);
+        return configuration;
+    }
+
+    /**
+     * Read recorded preflight requests: time in milliseconds, origin, requested method and requested headers,
+     * separated by tabs. Empty lines and lines starting with '#' are ignored.
+     */
+    static List<Record> read(String file) throws IOException {
+        List<Record> records = new ArrayList<>();
+        int number = 0;
+        for (String line : Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8)) {
+            number++;
+            if (line.trim().isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            String[] fields = line.split("\t", -1);
+            if (fields.length < 3) {
+                throw new IllegalArgumentException(file + ":" + number + ": expected time, origin and method");
+            }
+
+            String headers = fields.length > 3 && ! fields[3].trim().isEmpty() && ! fields[3].trim().equals("-") ?
+                    fields[3].trim() : null;
+            try {
+                records.add(new Record(TimeUnit.MILLISECONDS.toNanos(Long.parseLong(fields[0].trim())),
+                        fields[1].trim(), fields[2].trim(), headers));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(file + ":" + number + ": invalid time '" + fields[0] + "'");
+            }
+        }
+
+        // Replay in time order, from the first request
+        records.sort(Comparator.comparingLong(record -> record.time));
+        if (! records.isEmpty()) {
+            long first = records.get(0).time;
+            records.replaceAll(record -> new Record(record.time - first, record.origin, record.method, record.headers));
+        }
+        return records;
+    }
+
+    /**
+     * Synthetic preflight requests arriving at a steady rate, of origins whose popularity follows a Zipf distribution.
+     * One origin out of 20 is not allowed by the default configuration, as well as the DELETE method and the
+     * x-api-key header.
+     */
+    static List<Record> synthesize(Options options) {
+        final double[] cumulative = new double[options.origins];
+        double sum = 0;
+        for (int rank = 0; rank < options.origins; rank++) {
+            sum += 1 / Math.pow(rank + 1, options.zipf);
+            cumulative[rank] = sum;
+        }
+
+        final Random random = new Random(options.seed);
+        final String[] origins = new String[options.origins];
+        final List<Record> records = new ArrayList<>(options.requests);
+        double time = 0;
+        for (int i = 0; i < options.requests; i++) {
+            int rank = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            rank = rank >= 0 ? rank : Math.min(-rank - 1, options.origins - 1);
+            if (origins[rank] == null) {
+                origins[rank] = "https://app" + rank + (rank % 20 == 19 ? ".example.net" : ".example.com");
+            }
+
+            // Exponential inter-arrival times
+            time += -Math.log(1 - random.nextDouble()) / options.rate;
+            records.add(new Record((long) (time * 1e9), origins[rank],
+                    SYNTHETIC_METHODS[random.nextInt(SYNTHETIC_METHODS.length)],
+                    SYNTHETIC_HEADERS[random.nextInt(SYNTHETIC_HEADERS.length)]));
+        }
+        return records;
+    }
+
+    /**
+     * A preflight request, at a time relative to the first one.
+     */
+    static final class Record {
+
+        final long time;
+        final String origin;
+        final String method;
+        final String headers;
+
+        Record(long time, String origin, String method, String headers) {
+            this.time = time;
+            this.origin = origin;
+            this.method = method;
+            this.headers = headers;
+        }
+
+        StubRequest request() {
+            StubRequest request = new StubRequest()
+                    .method(HttpMethod.OPTIONS)
+                    .header(HttpHeaders.ORIGIN, origin)
+                    .header(HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD, method);
+            if (headers != null) {
+                request.header(HttpHeaders.ACCESS_CONTROL_REQUEST_HEADERS, headers);
+            }
+            return request;
+        }
+
+        /**
+         * @return the key of the request in the decision cache: origin, method and set of headers, ignoring case
+         */
+        String canonicalKey() {
+            StringJoiner key = new StringJoiner("\n").add(origin).add(method.toUpperCase(Locale.ROOT));
+            if (headers != null) {
+                List<String> names = new ArrayList<>();
+                for (String name : headers.split(",")) {
+                    if (! name.trim().isEmpty()) {
+                        names.add(name.trim().toLowerCase(Locale.ROOT));
+                    }
+                }
+                Collections.sort(names);
+                key.add(String.join(",", new LinkedHashSet<>(names)));
+            }
+            return key.toString();
+        }
+    }
+
+    static final class Options {
+
+        String records;
+        double zipf = 1.0;
+        int origins = 10_000;
+        int requests = 1_000_000;
+        double rate = 2_000;
+        long seed = 42;
+        String config;
+        int passes = 5;
+        int warmup = 2;
+        List<Integer> cacheSizes = Arrays.asList(64, 256, 1024, 4096, 16384);
+        List<Integer> cacheTtls;
+        List<Integer> rateLimits = Arrays.asList(1, 5, 10, 50);
+        int burst = -1;
+
+        Options(String[] args) {
+            final Map<String, String> values = new LinkedHashMap<>();
+            for (int i = 0; i < args.length; i += 2) {
+                if (! args[i].startsWith("--") || i + 1 == args.length) {
+                    throw new IllegalArgumentException("Invalid option: " + args[i]);
+                }
+                values.put(args[i].substring(2), args[i + 1]);
+            }
+
+            for (Map.Entry<String, String> option : values.entrySet()) {
+                final String value = option.getValue();
+                try {
+                    switch (option.getKey()) {
+                        case "records": records = value; break;
+                        case "zipf": zipf = Double.parseDouble(value); break;
+                        case "origins": origins = positive(Integer.parseInt(value)); break;
+                        case "requests": requests = positive(Integer.parseInt(value)); break;
+                        case "rate": rate = Double.parseDouble(value); break;
+                        case "seed": seed = Long.parseLong(value); break;
+                        case "config": config = value; break;
+                        case "passes": passes = positive(Integer.parseInt(value)); break;
+                        case "warmup": warmup = Integer.parseInt(value); break;
+                        case "cache-sizes": cacheSizes = list(value); break;
+                        case "cache-ttls": cacheTtls = list(value); break;
+                        case "rate-limits": rateLimits = list(value); break;
+                        case "burst": burst = Integer.parseInt(value); break;
+                        default:
+                            throw new IllegalArgumentException("Unknown option: --" + option.getKey());
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid value of --" + option.getKey() + ": " + value);
+                }
+            }
+
+            if (rate <= 0) {
+                throw new IllegalArgumentException("Invalid value of --rate: " + rate);
+            }
+        }
+
+        private static int positive(int value) {
+            if (value <= 0) {
+                throw new NumberFormatException();
+            }
+            return value;
+        }
+
+        private static List<Integer> list(String value) {
+            List<Integer> values = new ArrayList<>();
+            for (String item : value.split(",")) {
+                values.add(Integer.parseInt(item.trim()));
+            }
+            return values;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors;
+
+import io.gravitee.policy.cors.configuration.CorsPolicyConfiguration;
+import io.gravitee.policy.cors.utils.CaseInsensitiveHashSet;
+import io.gravitee.policy.cors.utils.FrozenCaseInsensitiveSet;
+import io.gravitee.policy.cors.utils.HeaderTrie;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of validating the <code>Access-Control-Request-*</code> headers of a preflight request, and of the header
+ * sets backing it. The <code>gc.alloc.rate.norm</code> of the <code>build</code> benchmarks is the footprint of the
+ * sets. The <code>headerTrie</code> benchmarks and <code>isRequestHeadersValidWithPrefix</code> measure the same
+ * lookups when a header name prefix is allowed too.
+ *
+ * @author GraviteeSource Team
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RequestValidationBenchmark {
+
+    @Param({"1", "10", "100"})
+    private int requestHeaders;
+
+    private CorsPolicy policy;
+    private CorsPolicy policyWithPrefix;
+    private String accessControlRequestHeaders;
+    private CaseInsensitiveHashSet caseInsensitiveHashSet;
+    private FrozenCaseInsensitiveSet frozenSet;
+    private HeaderTrie headerTrie;
+    private String lookedUp;
+    private List<String> names;
+    private List<String> namesWithPrefix;
+
+    @Setup
+    public void setup() {
+        CorsPolicyConfiguration configuration = Scenarios.configuration(false, requestHeaders, 10);
+        policy = new CorsPolicy(configuration);
+        accessControlRequestHeaders = Scenarios.requestHeaders(requestHeaders);
+
+        names = Scenarios.headerNames(requestHeaders);
+        caseInsensitiveHashSet = new CaseInsensitiveHashSet(names);
+        frozenSet = FrozenCaseInsensitiveSet.of(names);
+        lookedUp = names.get(names.size() - 1).toUpperCase();
+
+        namesWithPrefix = new ArrayList<>(names);
+        namesWithPrefix.add("X-Acme-*");
+        headerTrie = HeaderTrie.of(namesWithPrefix);
+
+        CorsPolicyConfiguration withPrefix = Scenarios.configuration(false, requestHeaders, 10);
+        withPrefix.setAccessControlAllowHeaders(new CaseInsensitiveHashSet(namesWithPrefix));
+        policyWithPrefix = new CorsPolicy(withPrefix);
+    }
+
+    @Benchmark
+    public boolean isRequestHeadersValid() {
+        return policy.isRequestHeadersValid(accessControlRequestHeaders);
+    }
+
+    @Benchmark
+    public boolean isRequestHeadersValidWithPrefix() {
+        return policyWithPrefix.isRequestHeadersValid(accessControlRequestHeaders);
+    }
+
+    @Benchmark
+    public boolean isRequestMethodsValid() {
+        return policy.isRequestMethodsValid("POST");
+    }
+
+    @Benchmark
+    public boolean caseInsensitiveHashSetContains() {
+        return caseInsensitiveHashSet.contains(lookedUp);
+    }
+
+    @Benchmark
+    public boolean frozenCaseInsensitiveSetContains() {
+        return frozenSet.contains(lookedUp);
+    }
+
+    @Benchmark
+    public boolean headerTrieMatch() {
+        return headerTrie.matches(lookedUp, 0, lookedUp.length());
+    }
+
+    @Benchmark
+    public CaseInsensitiveHashSet caseInsensitiveHashSetBuild() {
+        return new CaseInsensitiveHashSet(names);
+    }
+
+    @Benchmark
+    public FrozenCaseInsensitiveSet frozenCaseInsensitiveSetBuild() {
+        return FrozenCaseInsensitiveSet.of(names);
+    }
+
+    @Benchmark
+    public HeaderTrie headerTrieBuild() {
+        return HeaderTrie.of(namesWithPrefix);
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors;
+
+import io.gravitee.common.http.HttpHeaders;
+import io.gravitee.common.http.HttpMethod;
+import io.gravitee.gateway.api.ExecutionContext;
+import io.gravitee.gateway.api.Invoker;
+import io.gravitee.policy.cors.configuration.CorsPolicyConfiguration;
+import io.gravitee.policy.cors.stub.StubExecutionContext;
+import io.gravitee.policy.cors.stub.StubPolicyChain;
+import io.gravitee.policy.cors.stub.StubReadStream;
+import io.gravitee.policy.cors.stub.StubRequest;
+import io.gravitee.policy.cors.stub.StubResponse;
+import io.gravitee.policy.cors.utils.CaseInsensitiveHashSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.StringJoiner;
+
+/**
+ * Shared fixtures of the benchmarks: configurations, requests and a minimal driver reproducing how the gateway runs
+ * the policy.
+ *
+ * @author GraviteeSource Team
+ */
+final class Scenarios {
+
+    static final String ORIGIN = "https://app.gravitee.io";
+
+    static final String API = "benchmark";
+
+    private Scenarios() {
+    }
+
+    static CorsPolicyConfiguration configuration(boolean credentials, int headers, int origins) {
+        CorsPolicyConfiguration configuration = new CorsPolicyConfiguration();
+        List<String> allowedOrigins = new ArrayList<>(origins(origins));
+        allowedOrigins.add(ORIGIN);
+        configuration.setAccessControlAllowOrigin(new LinkedHashSet<>(allowedOrigins));
+        configuration.setAccessControlAllowCredentials(credentials);
+        configuration.setAccessControlMaxAge(600);
+        configuration.setAccessControlAllowMethods(new CaseInsensitiveHashSet(Arrays.asList("GET", "POST", "PUT", "DELETE")));
+        configuration.setAccessControlAllowHeaders(new CaseInsensitiveHashSet(headerNames(headers)));
+        configuration.setAccessControlExposeHeaders(new CaseInsensitiveHashSet(Collections.singleton("X-Gravitee-Transaction-Id")));
+        return configuration;
+    }
+
+    static List<String> headerNames(int count) {
+        List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            names.add("X-Custom-Header-" + i);
+        }
+        return names;
+    }
+
+    static String requestHeaders(int count) {
+        StringJoiner joiner = new StringJoiner(",");
+        for (String name : headerNames(count)) {
+            joiner.add(name.toLowerCase());
+        }
+        return joiner.toString();
+    }
+
+    static List<String> origins(int count) {
+        List<String> origins = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            origins.add(i % 2 == 0 ? "https://app" + i + ".example.com" : "https://*.tenant" + i + ".example.com");
+        }
+        return origins;
+    }
+
+    static StubRequest simpleRequest() {
+        return new StubRequest()
+                .method(HttpMethod.GET)
+                .header(HttpHeaders.ORIGIN, ORIGIN);
+    }
+
+    static StubRequest requestWithoutOrigin() {
+        return new StubRequest()
+                .method(HttpMethod.GET);
+    }
+
+    static StubRequest preflightRequest(int headers) {
+        return new StubRequest()
+                .method(HttpMethod.OPTIONS)
+                .header(HttpHeaders.ORIGIN, ORIGIN)
+                .header(HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD, "POST")
+                .header(HttpHeaders.ACCESS_CONTROL_REQUEST_HEADERS, requestHeaders(headers));
+    }
+
+    /**
+     * Minimal reproduction of the gateway processing of a request: request policies, invoker (if replaced) and
+     * response policies. Policies are instantiated per request, as done by the gateway.
+     */
+    static final class Exchange {
+
+        private final CorsPolicyConfiguration configuration;
+        private final StubRequest request;
+        private final StubResponse response = new StubResponse();
+        private final StubExecutionContext executionContext = new StubExecutionContext();
+        private final StubPolicyChain policyChain = new StubPolicyChain();
+        private final StubReadStream stream = new StubReadStream();
+
+        Exchange(CorsPolicyConfiguration configuration, StubRequest request) {
+            this.configuration = configuration;
+            this.request = request;
+            this.executionContext.setAttribute(ExecutionContext.ATTR_API, API);
+        }
+
+        int run() {
+            return run(request);
+        }
+
+        /**
+         * Run the given request instead of the one of this exchange.
+         */
+        int run(StubRequest request) {
+            response.reset();
+            executionContext.removeAttribute(ExecutionContext.ATTR_INVOKER);
+            policyChain.reset();
+
+            new CorsPolicy(configuration).onRequest(request, response, executionContext, policyChain);
+            if (policyChain.next() == 0) {
+                // The policy ended the chain, the gateway answers with its result
+                return policyChain.failure() != null ? policyChain.failure().httpStatusCode() : response.status();
+            }
+
+            Invoker invoker = (Invoker) executionContext.getAttribute(ExecutionContext.ATTR_INVOKER);
+            if (invoker == null) {
+                // Backend call is out of the scope of the benchmark
+                new CorsPolicy(configuration).onResponse(request, response, executionContext, policyChain);
+            } else {
+                invoker.invoke(executionContext, request, stream, connection -> connection.responseHandler(proxyResponse -> {
+                    response.status(proxyResponse.status());
+                    proxyResponse.endHandler(result -> new CorsPolicy(configuration).onResponse(request, response, executionContext, policyChain));
+                }));
+                stream.end();
+            }
+
+            return response.status();
+        }
+    }
+}
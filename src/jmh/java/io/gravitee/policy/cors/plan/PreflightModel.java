@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.plan;
+
+import io.gravitee.common.http.HttpStatusCode;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The preflight decision cache and rate limiter of the policy, driven by the time of recorded preflight requests
+ * instead of the clock: time-to-live and rates apply as they did when the traffic was recorded, however fast it is
+ * replayed. The cache and the limiter are the ones of the policy, with the same sizing and eviction.
+ *
+ * @author GraviteeSource Team
+ */
+public final class PreflightModel {
+
+    // The cached decision does not matter, only whether there is one
+    private static final PreflightResult DECISION =
+            PreflightResult.rejected(HttpStatusCode.BAD_REQUEST_400, RejectionReason.ORIGIN);
+
+    private final PreflightCache cache;
+    private final PreflightRateLimiter rateLimiter;
+
+    // Time of the request being replayed, the clock of the cache and of the limiter
+    private long now;
+
+    private final Set<String> limitedOrigins = new HashSet<>();
+    private long hits;
+    private long misses;
+    private long limited;
+
+    /**
+     * @param cacheSize the number of cached decisions, 0 without cache
+     * @param cacheTtl the time-to-live of the cached decisions, in seconds
+     * @param rateLimit the preflight requests per second of an origin, 0 without limit
+     * @param rateLimitBurst the preflight requests an idle origin may send at once, 0 for the rate limit
+     */
+    public PreflightModel(int cacheSize, int cacheTtl, int rateLimit, int rateLimitBurst) {
+        this.cache = cacheSize > 0 ? new PreflightCache(cacheSize, cacheTtl * 1_000_000_000L, this::now) : null;
+        this.rateLimiter = rateLimit > 0 ? new PreflightRateLimiter(rateLimit,
+                rateLimitBurst > 0 ? rateLimitBurst : rateLimit, PreflightRateLimiter.DEFAULT_CAPACITY, this::now) : null;
+    }
+
+    /**
+     * Take a preflight request into account, as the policy does: rate limit first, then the decision cache.
+     *
+     * @param time the time of the request since the beginning of the traffic, in nanoseconds
+     */
+    public void replay(String origin, String method, String headers, long time) {
+        now = time;
+
+        if (rateLimiter != null && rateLimiter.acquire(origin) > 0) {
+            limited++;
+            limitedOrigins.add(origin);
+            return;
+        }
+
+        if (cache == null) {
+            misses++;
+        } else if (cache.get(origin, method, headers) != null) {
+            hits++;
+        } else {
+            misses++;
+            cache.put(origin, method, headers, DECISION);
+        }
+    }
+
+    private long now() {
+        return now;
+    }
+
+    public long hits() {
+        return hits;
+    }
+
+    public long misses() {
+        return misses;
+    }
+
+    /**
+     * @return the share of the requests reaching the cache which have been decided from it
+     */
+    public double hitRatio() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    /**
+     * @return the number of requests over the rate limit of their origin
+     */
+    public long limited() {
+        return limited;
+    }
+
+    /**
+     * @return the number of distinct origins which went over their rate limit
+     */
+    public int limitedOrigins() {
+        return limitedOrigins.size();
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors;
+
+import io.gravitee.gateway.api.ExecutionContext;
+import io.gravitee.policy.cors.configuration.CorsPolicyConfiguration;
+import io.gravitee.policy.cors.metrics.CorsMetrics;
+import io.gravitee.policy.cors.metrics.CorsMetricsRegistry;
+import io.gravitee.policy.cors.plan.CorsPlan;
+import io.gravitee.policy.cors.plan.PreflightRateLimiter;
+import io.gravitee.policy.cors.utils.Releaser;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * What the policy keeps for an API, whatever its CORS settings: its metrics and the preflight rate limits of its
+ * origins. APIs with identical settings share a plan, not these: an API can not use the rate limit of another one,
+ * and a change of the settings does not reset them.
+ *
+ * It is leased by the configurations the policy runs with for the API, which hold it. Once the last of them is
+ * garbage collected, that is once the API is undeployed, its metrics are dropped from the
+ * {@link CorsMetricsRegistry}. A redeployed API keeps them, as long as its previous configuration is not collected.
+ *
+ * @author GraviteeSource Team
+ */
+public final class ApiResources {
+
+    private final static ConcurrentMap<String, ApiResources> APIS = new ConcurrentHashMap<>();
+
+    private final static int MAX_PREFLIGHT_RATE_LIMITERS = 16;
+
+    private final String api;
+
+    private final CorsMetrics metrics;
+
+    // By rate and burst, the ones of the policy and of its path rules
+    private final ConcurrentMap<Long, PreflightRateLimiter> preflightRateLimiters = new ConcurrentHashMap<>();
+
+    // The last limiter used, found without boxing its key
+    private volatile PreflightRateLimiter preflightRateLimiter;
+
+    // Guarded by the map
+    private int leases;
+
+    private ApiResources(String api) {
+        this.api = api;
+        this.metrics = CorsMetricsRegistry.of(api);
+    }
+
+    /**
+     * Get the resources of the API of the given execution context, leasing them for the configuration on first use.
+     *
+     * @param configuration the configuration the policy runs with
+     * @param executionContext the execution context, may be <code>null</code>
+     * @return the resources of the API
+     */
+    public static ApiResources of(CorsPolicyConfiguration configuration, ExecutionContext executionContext) {
+        Object attribute = executionContext == null ? null : executionContext.getAttribute(ExecutionContext.ATTR_API);
+        String api = attribute == null ? CorsMetricsRegistry.UNKNOWN_API : attribute.toString();
+
+        ApiResources resources = configuration.getResources();
+        return resources != null && resources.api.equals(api) ? resources : lease(configuration, api);
+    }
+
+    private static ApiResources lease(CorsPolicyConfiguration configuration, String api) {
+        ApiResources resources = APIS.compute(api, (key, current) -> {
+            ApiResources leased = current != null ? current : new ApiResources(key);
+            leased.leases++;
+            return leased;
+        });
+
+        Releaser.track(configuration, () -> release(api));
+        configuration.setResources(resources);
+        return resources;
+    }
+
+    private static void release(String api) {
+        APIS.computeIfPresent(api, (key, current) -> {
+            if (--current.leases > 0) {
+                return current;
+            }
+
+            CorsMetricsRegistry.remove(key);
+            return null;
+        });
+    }
+
+    /**
+     * Get the preflight rate limiter of the API for the given plan.
+     *
+     * @param plan the plan of the request, which rate limits preflight requests
+     * @return the limiter with the rate and burst of the plan, created on first use
+     */
+    public PreflightRateLimiter preflightRateLimiter(CorsPlan plan) {
+        PreflightRateLimiter limiter = preflightRateLimiter;
+        if (limiter == null || limiter.rate() != plan.getPreflightRateLimit()
+                || limiter.burst() != plan.getPreflightRateLimitBurst()) {
+            limiter = preflightRateLimiter(plan.getPreflightRateLimit(), plan.getPreflightRateLimitBurst());
+            preflightRateLimiter = limiter;
+        }
+
+        return limiter;
+    }
+
+    private PreflightRateLimiter preflightRateLimiter(int rate, int burst) {
+        Long key = ((long) rate << Integer.SIZE) | burst;
+        PreflightRateLimiter limiter = preflightRateLimiters.get(key);
+        if (limiter == null) {
+            if (preflightRateLimiters.size() >= MAX_PREFLIGHT_RATE_LIMITERS) {
+                // The settings changed several times: drop the limiters of the previous ones
+                preflightRateLimiters.clear();
+            }
+            limiter = preflightRateLimiters.computeIfAbsent(key, settings -> PreflightRateLimiter.of(rate, burst));
+        }
+
+        return limiter;
+    }
+
+    /**
+     * @return the identifier of the API
+     */
+    public String api() {
+        return api;
+    }
+
+    /**
+     * @return the metrics of the API
+     */
+    public CorsMetrics metrics() {
+        return metrics;
+    }
+}
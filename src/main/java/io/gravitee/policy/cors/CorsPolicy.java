@@ -31,10 +31,17 @@ import io.gravitee.policy.api.PolicyChain;
 import io.gravitee.policy.api.annotations.OnRequest;
 import io.gravitee.policy.api.annotations.OnResponse;
 import io.gravitee.policy.cors.configuration.CorsPolicyConfiguration;
-
-import java.util.Collection;
-import java.util.Set;
-import java.util.stream.Collectors;
+import io.gravitee.policy.cors.metrics.CorsMetrics;
+import io.gravitee.policy.cors.plan.CorsPlan;
+import io.gravitee.policy.cors.plan.PreflightRateLimiter;
+import io.gravitee.policy.cors.plan.PreflightResult;
+import io.gravitee.policy.cors.plan.RejectionReason;
+import io.gravitee.policy.cors.utils.AsciiCase;
+import io.gravitee.policy.cors.utils.HeaderListScanner;
+import io.gravitee.policy.cors.utils.TokenMatcher;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * @author David BRASSELY (david.brassely at graviteesource.com)
@@ -45,12 +52,21 @@ public class CorsPolicy {
 
     private final static String ALLOW_ORIGIN_PUBLIC_WILDCARD = "*";
 
-    private final static String JOINER_CHAR_SEQUENCE = ", ";
+    private final static String ALLOW_CREDENTIALS_TRUE = Boolean.TRUE.toString();
+
+    private final static String NO_CONTENT_LENGTH = "0";
+
+    private final static String VARY_ANY = "*";
+
+    // Accepts the Vary tokens which do not already cover the origin
+    private final static TokenMatcher NOT_VARY_ORIGIN = (value, start, end) ->
+            ! AsciiCase.regionEquals(HttpHeaders.ORIGIN, value, start, end) &&
+                    ! AsciiCase.regionEquals(VARY_ANY, value, start, end);
 
     /**
      * The associated configuration to this Cors Policy
      */
-    private CorsPolicyConfiguration configuration;
+    private final CorsPolicyConfiguration configuration;
 
     /**
      * Create a new Cors Policy instance based on its associated configuration
@@ -61,118 +77,285 @@ public class CorsPolicy {
         this.configuration = configuration;
     }
 
-    @OnResponse
+    /**
+     * Response phase without the execution context: the metrics are recorded for an unknown API, and the request
+     * phase decision is not reused.
+     *
+     * @deprecated use {@link #onResponse(Request, Response, ExecutionContext, PolicyChain)}, which the gateway calls
+     */
+    @Deprecated
     public void onResponse(Request request, Response response, PolicyChain policyChain) {
-        if (! isPreflightRequest(request)) {
-            if (configuration.getAccessControlExposeHeaders() != null && ! configuration.getAccessControlExposeHeaders().isEmpty()) {
-                response.headers().set(HttpHeaders.ACCESS_CONTROL_EXPOSE_HEADERS,
-                        String.join(JOINER_CHAR_SEQUENCE, configuration.getAccessControlExposeHeaders()));
-            }
-        } else {
-            response.headers().set(HttpHeaders.ACCESS_CONTROL_ALLOW_HEADERS,
-                    String.join(JOINER_CHAR_SEQUENCE, configuration.getAccessControlAllowHeaders()));
-
-            response.headers().set(HttpHeaders.ACCESS_CONTROL_ALLOW_METHODS,
-                    configuration.getAccessControlAllowMethods()
-                            .stream()
-                            .map(String::toUpperCase)
-                            .collect(Collectors.joining(JOINER_CHAR_SEQUENCE)));
-
-            if (configuration.getAccessControlMaxAge() > -1) {
-                response.headers().set(HttpHeaders.ACCESS_CONTROL_MAX_AGE,
-                        Integer.toString(configuration.getAccessControlMaxAge()));
+        onResponse(request, response, null, policyChain);
+    }
+
+    @OnResponse
+    public void onResponse(Request request, Response response, ExecutionContext executionContext, PolicyChain policyChain) {
+        final CorsRequestContext cors = CorsRequestContext.get(executionContext, configuration);
+        // Keep to the plan the request has been decided with, even if the configuration has been replaced since
+        final CorsPlan plan = cors != null && cors.plan() != null ? cors.plan() : plan(request);
+        if (plan == null) {
+            // CORS is disabled for this path
+            policyChain.doNext(request, response);
+            return;
+        }
+
+        final String origin = cors != null ? cors.origin() : request.headers().getFirst(HttpHeaders.ORIGIN);
+        if (origin == null && plan.isSkipRequestsWithoutOrigin()) {
+            // Not a CORS request: only tell caches that a request with an origin may get another response
+            if (plan.isVaryOrigin()) {
+                varyOnOrigin(response.headers());
             }
+            policyChain.doNext(request, response);
+            return;
         }
 
-        if (configuration.isAccessControlAllowCredentials()) {
-            response.headers().set(HttpHeaders.ACCESS_CONTROL_ALLOW_CREDENTIALS,
-                    Boolean.TRUE.toString());
-            response.headers().set(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN,
-                    request.headers().getFirst(HttpHeaders.ORIGIN));
+        final long start = CorsMetrics.start();
+        final CorsMetrics metrics = ApiResources.of(configuration, executionContext).metrics();
+
+        if (cors != null) {
+            writeCorsHeaders(plan, response, origin, cors.isPreflight(), cors.isOriginAllowed(), cors.requestHeaders(),
+                    metrics);
         } else {
-            response.headers().set(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, ALLOW_ORIGIN_PUBLIC_WILDCARD);
+            // The request phase of this configuration did not run
+            boolean preflight = isPreflightRequest(request);
+            writeCorsHeaders(plan, response, origin, preflight, origin != null && plan.isOriginAllowed(origin),
+                    preflight ? request.headers().getFirst(HttpHeaders.ACCESS_CONTROL_REQUEST_HEADERS) : null,
+                    metrics);
         }
 
+        metrics.record(CorsMetrics.Phase.RESPONSE, start);
         policyChain.doNext(request, response);
     }
 
     @OnRequest
     public void onRequest(Request request, Response response, ExecutionContext executionContext, PolicyChain policyChain) {
-        if (isPreflightRequest(request)) {
+        final CorsPlan plan = plan(request);
+        if (plan == null) {
+            // CORS is disabled for this path
+            policyChain.doNext(request, response);
+            return;
+        }
+
+        final CorsRequestContext cors = CorsRequestContext.of(request, plan);
+        if (cors == CorsRequestContext.WITHOUT_ORIGIN && plan.isSkipRequestsWithoutOrigin()) {
+            // Not a CORS request
+            policyChain.doNext(request, response);
+            return;
+        }
+
+        final long start = CorsMetrics.start();
+        final ApiResources resources = ApiResources.of(configuration, executionContext);
+        final CorsMetrics metrics = resources.metrics();
+
+        if (cors.isPreflight()) {
+            metrics.preflightRequest();
+
+            if (plan.isPreflightVolumeReduction() && plan.getMaxAgeNanos() > 0) {
+                // Relative to the context path, as the path rules
+                metrics.getPreflightRepeats().record(cors.origin(), request.pathInfo(), plan.getMaxAgeNanos());
+            }
+
+            if (plan.getPreflightRateLimit() > 0) {
+                long wait = resources.preflightRateLimiter(plan).acquire(cors.origin());
+                if (wait > 0) {
+                    // Flood of preflight requests from this origin: answer right away, without deciding on it
+                    rejected(plan, RejectionReason.RATE_LIMIT, cors, metrics);
+                    response.headers().set(HttpHeaders.RETRY_AFTER, PreflightRateLimiter.retryAfter(wait));
+                    policyChain.failWith(plan.getPreflightRejected(RejectionReason.RATE_LIMIT).policyResult());
+                    metrics.record(CorsMetrics.Phase.REQUEST, start);
+                    return;
+                }
+            }
+
+            if (plan.isPreflightShortCircuit() || plan.isPreflightDirectResponse()) {
+                // End the preflight here: neither the following policies nor the backend are involved, and the
+                // gateway completes the exchange with the verdict
+                PreflightResult result = decidePreflight(plan, request, cors, metrics);
+                result.writeTo(response.headers());
+                metrics.record(CorsMetrics.Phase.REQUEST, start);
+                policyChain.failWith(result.policyResult());
+                return;
+            }
+
             // Update invoker to skip remote call
-            executionContext.setAttribute(ExecutionContext.ATTR_INVOKER, new PreflightInvoker(request));
+            executionContext.setAttribute(ExecutionContext.ATTR_INVOKER, new PreflightInvoker(plan, cors, metrics));
+        } else {
+            metrics.simpleRequest();
+
+            if (cors.origin() != null && plan.isEnforceAllowedOrigins() && ! cors.isOriginAllowed()) {
+                // The user-agent would block the response anyway: do not let the request reach the backend
+                rejected(plan, RejectionReason.ORIGIN, cors, metrics);
+                if (plan.isVaryOrigin()) {
+                    varyOnOrigin(response.headers());
+                }
+                metrics.record(CorsMetrics.Phase.REQUEST, start);
+                policyChain.failWith(plan.getPreflightRejected(RejectionReason.ORIGIN).policyResult());
+                return;
+            }
         }
 
+        executionContext.setAttribute(configuration.getRequestAttribute(), cors);
+        metrics.record(CorsMetrics.Phase.REQUEST, start);
         policyChain.doNext(request, response);
     }
 
-    private boolean isOriginAllowed(String origin) {
-        return origin.contains(ALLOW_ORIGIN_PUBLIC_WILDCARD) || origin.contains(origin);
-    }
+    /**
+     * Decide on a preflight request from the request phase, before its body has been read.
+     */
+    private PreflightResult decidePreflight(CorsPlan plan, Request request, CorsRequestContext cors,
+                                            CorsMetrics metrics) {
+        if (hasBody(request)) {
+            // A preflight request must not carry a body: reject it up front instead of reading it
+            rejected(plan, RejectionReason.BODY, cors, metrics);
+            return plan.getPreflightRejected(RejectionReason.BODY);
+        }
 
-    boolean isRequestHeadersValid(String accessControlRequestHeaders) {
-        return isRequestValid(accessControlRequestHeaders, configuration.getAccessControlAllowHeaders(), false);
+        return preflight(plan, cors, metrics);
     }
 
-    boolean isRequestMethodsValid(String accessControlRequestMethods) {
-        return isRequestValid(accessControlRequestMethods, configuration.getAccessControlAllowMethods(), true);
-    }
+    private void writeCorsHeaders(CorsPlan plan, Response response, String origin, boolean preflight,
+                                  boolean originAllowed, String requestHeaders, CorsMetrics metrics) {
+        if (plan.isVaryOrigin()) {
+            varyOnOrigin(response.headers());
+        }
 
-    private boolean isRequestValid(String incoming, Set<String> configuredValues, boolean required) {
-        String [] inputs = splitAndTrim(incoming, ",");
-        if ((inputs == null || (inputs.length == 1 && inputs[0].isEmpty()))) {
-            return true;
+        // The origin is not allowed: do not set any CORS header so that the user-agent blocks the response
+        if (origin != null && ! originAllowed) {
+            if (! preflight) {
+                // Rejected preflight requests are counted when they are decided
+                rejected(plan, RejectionReason.ORIGIN, origin, null, null, metrics);
+            }
+            return;
         }
-        return (inputs == null && (configuredValues == null || configuredValues.isEmpty())) ||
-                (inputs != null && containsAll(configuredValues, inputs));
-    }
 
-    private boolean isPreflightRequest(Request request) {
-        String originHeader = request.headers().getFirst(HttpHeaders.ORIGIN);
-        String accessControlRequestMethod = request.headers().getFirst(HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD);
-        return request.method() == HttpMethod.OPTIONS &&
-                originHeader != null &&
-                accessControlRequestMethod != null;
+        if (! preflight) {
+            String exposeHeaders = plan.getExposeHeaders(response.headers());
+            if (exposeHeaders != null) {
+                response.headers().set(HttpHeaders.ACCESS_CONTROL_EXPOSE_HEADERS, exposeHeaders);
+            }
+        } else {
+            response.headers().set(HttpHeaders.ACCESS_CONTROL_ALLOW_HEADERS, plan.getAllowHeaders(requestHeaders));
+            response.headers().set(HttpHeaders.ACCESS_CONTROL_ALLOW_METHODS, plan.getAllowMethods());
+
+            if (plan.getMaxAge() != null) {
+                response.headers().set(HttpHeaders.ACCESS_CONTROL_MAX_AGE, plan.getMaxAge());
+            }
+        }
+
+        if (plan.isAllowCredentials()) {
+            // Never reflect a missing origin
+            if (origin != null) {
+                response.headers().set(HttpHeaders.ACCESS_CONTROL_ALLOW_CREDENTIALS, ALLOW_CREDENTIALS_TRUE);
+                response.headers().set(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, origin);
+            }
+        } else if (plan.isAllowAllOrigins()) {
+            response.headers().set(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, ALLOW_ORIGIN_PUBLIC_WILDCARD);
+        } else if (origin != null) {
+            response.headers().set(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, origin);
+        }
     }
 
-    private static String[] splitAndTrim(String value, String regex) {
-        if (value == null)
-            return null;
+    /**
+     * Add <code>Origin</code> to the <code>Vary</code> header of the response, keeping the values set by the backend.
+     */
+    private static void varyOnOrigin(HttpHeaders headers) {
+        List<String> vary = headers.get(HttpHeaders.VARY);
+        if (vary == null || vary.isEmpty()) {
+            headers.set(HttpHeaders.VARY, HttpHeaders.ORIGIN);
+            return;
+        }
 
-        String [] values = value.split(regex);
-        String [] ret = new String[values.length];
-        for (int i = 0 ; i < values.length ; i++) {
-            ret[i] = values[i].trim();
+        for (int i = 0; i < vary.size(); i++) {
+            if (HeaderListScanner.scan(vary.get(i), Integer.MAX_VALUE, Integer.MAX_VALUE, NOT_VARY_ORIGIN) !=
+                    HeaderListScanner.ACCEPTED) {
+                return;
+            }
         }
 
-        return ret;
+        headers.add(HttpHeaders.VARY, HttpHeaders.ORIGIN);
     }
 
-    private static boolean containsAll(Collection<String> col, String [] values) {
-        if (col == null) {
-            return false;
+    /**
+     * Decide on a preflight request, and count it if it is rejected.
+     */
+    private PreflightResult preflight(CorsPlan plan, CorsRequestContext cors, CorsMetrics metrics) {
+        PreflightResult result = plan.preflight(cors.origin(), cors.requestMethod(), cors.requestHeaders(), metrics);
+
+        if (! result.isAllowed()) {
+            rejected(plan, result.rejectionReason(), cors, metrics);
         }
 
-        for (String val: values) {
-            if (! col.contains(val)) {
-                return false;
-            }
+        return result;
+    }
+
+    private void rejected(CorsPlan plan, RejectionReason reason, CorsRequestContext cors, CorsMetrics metrics) {
+        rejected(plan, reason, cors.origin(), cors.requestMethod(), cors.requestHeaders(), metrics);
+    }
+
+    /**
+     * Count a rejected request, and record it in the rejection log of the API if it is sampled. Looking for the
+     * rejected header is only done for the sampled requests.
+     */
+    private void rejected(CorsPlan plan, RejectionReason reason, String origin, String requestMethod,
+                          String requestHeaders, CorsMetrics metrics) {
+        metrics.rejected(reason);
+
+        final int sampling = plan.getRejectionLogSampling();
+        if (sampling > 0 && ThreadLocalRandom.current().nextInt(sampling) == 0) {
+            metrics.getRejectionLog().record(reason, origin, requestMethod,
+                    reason == RejectionReason.HEADERS ? plan.getRejectedRequestHeader(requestHeaders) : null);
         }
+    }
+
+    private static boolean hasBody(Request request) {
+        String contentLength = request.headers().getFirst(HttpHeaders.CONTENT_LENGTH);
+        return (contentLength != null && ! NO_CONTENT_LENGTH.equals(contentLength)) ||
+                request.headers().getFirst(HttpHeaders.TRANSFER_ENCODING) != null;
+    }
 
-        return true;
+    private CorsPlan plan() {
+        // Read each time: the plan is replaced as a whole when the configuration changes
+        return CorsPlan.of(configuration);
+    }
+
+    /**
+     * @return the plan of the path rule matching the request, or <code>null</code> if CORS is disabled for it
+     */
+    private CorsPlan plan(Request request) {
+        return plan().resolve(request.pathInfo());
+    }
+
+    boolean isRequestHeadersValid(String accessControlRequestHeaders) {
+        return plan().checkRequestHeaders(accessControlRequestHeaders) == HeaderListScanner.ACCEPTED;
+    }
+
+    boolean isRequestMethodsValid(String accessControlRequestMethods) {
+        return plan().checkRequestMethod(accessControlRequestMethods) == HeaderListScanner.ACCEPTED;
+    }
+
+    private boolean isPreflightRequest(Request request) {
+        String originHeader = request.headers().getFirst(HttpHeaders.ORIGIN);
+        String accessControlRequestMethod = request.headers().getFirst(HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD);
+        return request.method() == HttpMethod.OPTIONS &&
+                originHeader != null &&
+                accessControlRequestMethod != null;
     }
 
     class PreflightInvoker implements Invoker {
 
-        private final Request request;
+        private final CorsPlan plan;
+        private final CorsRequestContext cors;
+        private final CorsMetrics metrics;
 
-        PreflightInvoker(final Request request) {
-            this.request = request;
+        PreflightInvoker(final CorsPlan plan, final CorsRequestContext cors, final CorsMetrics metrics) {
+            this.plan = plan;
+            this.cors = cors;
+            this.metrics = metrics;
         }
 
         @Override
         public Request invoke(ExecutionContext executionContext, Request serverRequest, ReadStream<Buffer> stream, Handler<ProxyConnection> connectionHandler) {
-            final ProxyConnection proxyConnection = new PreflightProxyConnection(serverRequest);
+            final ProxyConnection proxyConnection = new PreflightProxyConnection(plan, cors, metrics);
 
             stream
                     .bodyHandler(proxyConnection::write)
@@ -187,10 +370,14 @@ public class CorsPolicy {
     class PreflightProxyConnection implements ProxyConnection {
 
         private Handler<ProxyResponse> proxyResponseHandler;
-        private final Request request;
-
-        PreflightProxyConnection(final Request request) {
-            this.request = request;
+        private final CorsPlan plan;
+        private final CorsRequestContext cors;
+        private final CorsMetrics metrics;
+
+        PreflightProxyConnection(final CorsPlan plan, final CorsRequestContext cors, final CorsMetrics metrics) {
+            this.plan = plan;
+            this.cors = cors;
+            this.metrics = metrics;
         }
 
         @Override
@@ -206,30 +393,12 @@ public class CorsPolicy {
 
         @Override
         public void end() {
+            final long start = CorsMetrics.start();
+
             // Prepare response
             PreflightProxyResponse preflightProxyResponse = new PreflightProxyResponse();
-
-            // 1. If the Origin header is not present terminate this set of steps. The request is outside the scope of
-            //  this specification.
-            // 2. If the value of the Origin header is not a case-sensitive match for any of the values in list of
-            //  origins, do not set any additional headers and terminate this set of steps.
-            String originHeader = request.headers().getFirst(HttpHeaders.ORIGIN);
-            if (! isOriginAllowed(originHeader)) {
-                preflightProxyResponse.status = configuration.getCorsErrorStatusCode();
-            }
-
-            // 3. Let method be the value as result of parsing the Access-Control-Request-Method header.
-            // If there is no Access-Control-Request-Method header or if parsing failed, do not set any additional
-            //  headers and terminate this set of steps. The request is outside the scope of this specification.
-            String accessControlRequestMethod = request.headers().getFirst(HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD);
-            if (! isRequestMethodsValid(accessControlRequestMethod)) {
-                preflightProxyResponse.status = configuration.getCorsErrorStatusCode();
-            }
-
-            String accessControlRequestHeaders = request.headers().getFirst(HttpHeaders.ACCESS_CONTROL_REQUEST_HEADERS);
-            if (! isRequestHeadersValid(accessControlRequestHeaders)) {
-                preflightProxyResponse.status = configuration.getCorsErrorStatusCode();
-            }
+            preflightProxyResponse.status = preflight(plan, cors, metrics).status();
+            metrics.record(CorsMetrics.Phase.PREFLIGHT, start);
 
             proxyResponseHandler.handle(preflightProxyResponse);
             preflightProxyResponse.endHandler.handle(null);
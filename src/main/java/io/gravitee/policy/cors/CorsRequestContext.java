@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors;
+
+import io.gravitee.common.http.HttpHeaders;
+import io.gravitee.common.http.HttpMethod;
+import io.gravitee.gateway.api.ExecutionContext;
+import io.gravitee.gateway.api.Request;
+import io.gravitee.policy.cors.configuration.CorsPolicyConfiguration;
+import io.gravitee.policy.cors.plan.CorsPlan;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * What the policy needs to know about a request, read from its headers once in the request phase and kept in the
+ * {@link ExecutionContext} for the response phase and the preflight responder.
+ *
+ * @author GraviteeSource Team
+ */
+public final class CorsRequestContext {
+
+    /**
+     * Prefix of the attributes of the {@link ExecutionContext} holding the context of the current request, one per
+     * configuration: each CORS policy of a chain keeps to its own decision.
+     *
+     * @see CorsPolicyConfiguration#getRequestAttribute()
+     */
+    public static final String ATTR_CORS_REQUEST = ExecutionContext.ATTR_PREFIX + "cors.request";
+
+    private static final AtomicLong ATTRIBUTES = new AtomicLong();
+
+    // Requests without Origin are not CORS requests, they all share the same context
+    static final CorsRequestContext WITHOUT_ORIGIN = new CorsRequestContext(null, false, false, null, null, null);
+
+    private final String origin;
+    private final boolean originAllowed;
+    private final boolean preflight;
+    private final String requestMethod;
+    private final String requestHeaders;
+    private final CorsPlan plan;
+
+    private CorsRequestContext(String origin, boolean originAllowed, boolean preflight, String requestMethod,
+                               String requestHeaders, CorsPlan plan) {
+        this.origin = origin;
+        this.originAllowed = originAllowed;
+        this.preflight = preflight;
+        this.requestMethod = requestMethod;
+        this.requestHeaders = requestHeaders;
+        this.plan = plan;
+    }
+
+    /**
+     * Classify the given request.
+     */
+    static CorsRequestContext of(Request request, CorsPlan plan) {
+        final HttpHeaders headers = request.headers();
+        final String origin = headers.getFirst(HttpHeaders.ORIGIN);
+        if (origin == null) {
+            return WITHOUT_ORIGIN;
+        }
+
+        final String requestMethod = request.method() == HttpMethod.OPTIONS ?
+                headers.getFirst(HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD) : null;
+        final boolean preflight = requestMethod != null;
+
+        return new CorsRequestContext(origin, plan.isOriginAllowed(origin), preflight, requestMethod,
+                preflight ? headers.getFirst(HttpHeaders.ACCESS_CONTROL_REQUEST_HEADERS) : null, plan);
+    }
+
+    /**
+     * @return a new attribute of the {@link ExecutionContext}, to hold the context of the requests decided with a
+     * configuration
+     */
+    public static String newAttribute() {
+        return ATTR_CORS_REQUEST + '.' + ATTRIBUTES.incrementAndGet();
+    }
+
+    /**
+     * @return the context stored by the request phase of the given configuration, or <code>null</code> if there is
+     * none
+     */
+    static CorsRequestContext get(ExecutionContext executionContext, CorsPolicyConfiguration configuration) {
+        if (executionContext == null) {
+            return null;
+        }
+
+        Object context = executionContext.getAttribute(configuration.getRequestAttribute());
+        return context instanceof CorsRequestContext ? (CorsRequestContext) context : null;
+    }
+
+    /**
+     * @return the value of the <code>Origin</code> header, or <code>null</code>
+     */
+    public String origin() {
+        return origin;
+    }
+
+    /**
+     * @return <code>true</code> if the origin was allowed when the request has been received
+     */
+    public boolean isOriginAllowed() {
+        return originAllowed;
+    }
+
+    public boolean isPreflight() {
+        return preflight;
+    }
+
+    /**
+     * @return the value of the <code>Access-Control-Request-Method</code> header of a preflight request
+     */
+    public String requestMethod() {
+        return requestMethod;
+    }
+
+    /**
+     * @return the value of the <code>Access-Control-Request-Headers</code> header of a preflight request, or
+     * <code>null</code>
+     */
+    public String requestHeaders() {
+        return requestHeaders;
+    }
+
+    /**
+     * @return the plan the request has been decided with, or <code>null</code> for a request without origin
+     */
+    CorsPlan plan() {
+        return plan;
+    }
+}
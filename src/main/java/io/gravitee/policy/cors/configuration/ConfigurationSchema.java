@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.configuration;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The subset of <code>schema-form.json</code> a configuration is validated against when it is deployed: the type of
+ * each property, the type and the allowed values of the items of the arrays, and the required properties. Enumerated
+ * values are compared ignoring case, as the configuration does.
+ *
+ * @author GraviteeSource Team
+ */
+final class ConfigurationSchema {
+
+    static final String RESOURCE = "/schemas/schema-form.json";
+
+    private static final ConfigurationSchema ROOT = load();
+
+    private final String type;
+    private final Map<String, ConfigurationSchema> properties;
+    private final Set<String> required;
+    private final Set<String> allowedValues;
+    private final ConfigurationSchema items;
+
+    private ConfigurationSchema(JsonNode node) {
+        this.type = node.path("type").asText(null);
+
+        Map<String, ConfigurationSchema> properties = new HashMap<>();
+        Iterator<Map.Entry<String, JsonNode>> fields = node.path("properties").fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            properties.put(field.getKey(), new ConfigurationSchema(field.getValue()));
+        }
+        this.properties = Collections.unmodifiableMap(properties);
+
+        Set<String> required = new LinkedHashSet<>();
+        node.path("required").forEach(name -> required.add(name.asText()));
+        this.required = Collections.unmodifiableSet(required);
+
+        Set<String> allowedValues = new LinkedHashSet<>();
+        node.path("enum").forEach(value -> allowedValues.add(value.asText().toUpperCase(Locale.ROOT)));
+        this.allowedValues = allowedValues.isEmpty() ? null : Collections.unmodifiableSet(allowedValues);
+
+        this.items = node.has("items") ? new ConfigurationSchema(node.get("items")) : null;
+    }
+
+    /**
+     * @return the schema of the policy configuration
+     */
+    static ConfigurationSchema root() {
+        return ROOT;
+    }
+
+    /**
+     * @return the JSON type of the values, or <code>null</code> if not constrained
+     */
+    String type() {
+        return type;
+    }
+
+    /**
+     * @return the schema of the given property of an object, or <code>null</code> if it is not described
+     */
+    ConfigurationSchema property(String name) {
+        return properties.get(name);
+    }
+
+    Set<String> required() {
+        return required;
+    }
+
+    /**
+     * @return the schema of the items of an array, or <code>null</code> if not constrained
+     */
+    ConfigurationSchema items() {
+        return items;
+    }
+
+    /**
+     * @return the allowed values, upper-cased, or <code>null</code> if any value is allowed
+     */
+    Set<String> allowedValues() {
+        return allowedValues;
+    }
+
+    boolean allows(String value) {
+        return allowedValues == null || allowedValues.contains(value.toUpperCase(Locale.ROOT));
+    }
+
+    private static ConfigurationSchema load() {
+        try (InputStream schema = ConfigurationSchema.class.getResourceAsStream(RESOURCE)) {
+            if (schema == null) {
+                throw new IllegalStateException("Missing configuration schema " + RESOURCE);
+            }
+            return new ConfigurationSchema(new ObjectMapper().readTree(schema));
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Unable to read configuration schema " + RESOURCE, ioe);
+        }
+    }
+}
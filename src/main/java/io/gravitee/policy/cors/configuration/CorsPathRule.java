@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.configuration;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import java.util.LinkedHashSet;
+
+/**
+ * CORS settings applying to the requests whose path matches a pattern, in place of the ones of the policy. Path
+ * rules do not nest. Path rules are read and validated along with the policy configuration, by
+ * {@link CorsPolicyConfigurationDeserializer}.
+ *
+ * @author GraviteeSource Team
+ */
+@JsonSerialize(include = JsonSerialize.Inclusion.NON_NULL)
+@JsonIgnoreProperties("paths")
+@JsonDeserialize(using = JsonDeserializer.None.class)
+public class CorsPathRule extends CorsPolicyConfiguration {
+
+    // Pattern of the paths, relative to the context path of the API, the rule applies to
+    @JsonProperty("path")
+    private String path;
+
+    // When disabled, the requests matching the rule are not handled as CORS requests
+    @JsonProperty("enabled")
+    private boolean enabled = true;
+
+    public CorsPathRule() {
+        // Unlike the policy, a rule does not allow any origin unless told so
+        setAccessControlAllowOrigin(new LinkedHashSet<>());
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public synchronized void setPath(String path) {
+        this.path = path;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+}
@@ -15,25 +15,52 @@
  */
 package io.gravitee.policy.cors.configuration;
 
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import io.gravitee.common.http.HttpStatusCode;
 import io.gravitee.policy.api.PolicyConfiguration;
+import io.gravitee.policy.cors.ApiResources;
+import io.gravitee.policy.cors.CorsRequestContext;
+import io.gravitee.policy.cors.origin.OriginMatcher;
+import io.gravitee.policy.cors.plan.CorsPlan;
+import io.gravitee.policy.cors.plan.CorsPlanRegistry;
+import io.gravitee.policy.cors.plan.PathRuleTree;
 import io.gravitee.policy.cors.utils.CaseInsensitiveHashSet;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * @author David BRASSELY (david.brassely at graviteesource.com)
  * @author GraviteeSource Team
  */
 @JsonSerialize(include = JsonSerialize.Inclusion.NON_NULL)
+@JsonDeserialize(using = CorsPolicyConfigurationDeserializer.class)
 public class CorsPolicyConfiguration implements PolicyConfiguration {
 
-    // Access-Control-Allow-Origin
+    public static final int DEFAULT_MAX_REQUEST_HEADERS_LENGTH = 8192;
+
+    public static final int DEFAULT_MAX_REQUEST_HEADERS_COUNT = 128;
+
+    public static final int DEFAULT_PREFLIGHT_CACHE_SIZE = 1024;
+
+    public static final int DEFAULT_PREFLIGHT_CACHE_TTL = 600;
+
+    // Access-Control-Max-Age when reducing the pre-flight volume, the longest one honoured by Chromium
+    public static final int DEFAULT_REDUCED_PREFLIGHT_MAX_AGE = 7200;
+
+    // Access-Control-Allow-Origin, any origin unless set
     @JsonProperty("accessControlAllowOrigin")
-    private String accessControlAllowOrigin;
+    @JsonFormat(with = JsonFormat.Feature.ACCEPT_SINGLE_VALUE_AS_ARRAY)
+    @JsonDeserialize(as = LinkedHashSet.class)
+    private Set<String> accessControlAllowOrigin = new LinkedHashSet<>(Collections.singleton(OriginMatcher.ALLOW_ALL));
 
     // Access-Control-Expose-Headers
     @JsonProperty("accessControlExposeHeaders")
@@ -60,12 +87,91 @@ public class CorsPolicyConfiguration implements PolicyConfiguration {
 
     private int corsErrorStatusCode = HttpStatusCode.BAD_REQUEST_400;
 
+    // Maximum length of the Access-Control-Request-Headers value of a preflight request
+    @JsonProperty("maxRequestHeadersLength")
+    private int maxRequestHeadersLength = DEFAULT_MAX_REQUEST_HEADERS_LENGTH;
+
+    // Maximum number of headers listed by the Access-Control-Request-Headers value of a preflight request
+    @JsonProperty("maxRequestHeadersCount")
+    private int maxRequestHeadersCount = DEFAULT_MAX_REQUEST_HEADERS_COUNT;
+
+    // Answer preflight requests from the request phase, without going through an invoker
+    @JsonProperty("preflightDirectResponse")
+    private boolean preflightDirectResponse;
+
+    // Maximum number of cached preflight decisions (0 to disable the cache)
+    @JsonProperty("preflightCacheSize")
+    private int preflightCacheSize = DEFAULT_PREFLIGHT_CACHE_SIZE;
+
+    // Time-to-live of cached preflight decisions, in seconds
+    @JsonProperty("preflightCacheTtl")
+    private int preflightCacheTtl = DEFAULT_PREFLIGHT_CACHE_TTL;
+
+    // Do not process requests without Origin header, they are not CORS requests
+    @JsonProperty("skipRequestsWithoutOrigin")
+    private boolean skipRequestsWithoutOrigin;
+
+    // Answer preflight requests so that browsers cache them as long and as widely as possible
+    @JsonProperty("preflightVolumeReduction")
+    private boolean preflightVolumeReduction;
+
+    // Location of additional allowed origins, reloaded when they change
+    @JsonProperty("accessControlAllowOriginSource")
+    private String accessControlAllowOriginSource;
+
+    // End preflight requests from this policy, the following policies of the chain are not executed
+    @JsonProperty("preflightShortCircuit")
+    private boolean preflightShortCircuit;
+
+    // Reject actual requests from origins which are not allowed, before they reach the backend
+    @JsonProperty("enforceAllowedOrigins")
+    private boolean enforceAllowedOrigins;
+
+    // Maximum number of preflight requests per second of an origin (0 to disable the limit)
+    @JsonProperty("preflightRateLimit")
+    private int preflightRateLimit;
+
+    // Number of preflight requests an idle origin may send at once (0 for the rate limit)
+    @JsonProperty("preflightRateLimitBurst")
+    private int preflightRateLimitBurst;
+
+    // Record one rejected request out of this number in the rejection log of the API (0 to disable the log)
+    @JsonProperty("rejectionLogSampling")
+    private int rejectionLogSampling;
+
+    // CORS settings of the paths matching a pattern, in place of the ones above
+    @JsonProperty("paths")
+    private List<CorsPathRule> paths = new ArrayList<>();
+
+    // Compiled view of this configuration, shared by all the policy instances created from it. It is an immutable
+    // snapshot of the settings, replaced by a single write once a change is compiled: requests read it without
+    // locking, and never see a change half-applied. The plan holds its own copies of the collections above, a
+    // collection changed in place is taken into account once it is set again
+    @JsonIgnore
+    private volatile CorsPlan plan;
+
+    // Number of changes applied, guarded by the lock of the configuration
+    @JsonIgnore
+    private long version;
+
+    // Depth of the running updates, guarded by the lock of the configuration
+    @JsonIgnore
+    private int updates;
+
+    // What the policy keeps for the API this configuration is deployed for, released once it is collected
+    @JsonIgnore
+    private volatile ApiResources resources;
+
+    // Attribute of the execution context holding the requests decided with this configuration
+    @JsonIgnore
+    private final String requestAttribute = CorsRequestContext.newAttribute();
+
     public boolean isAccessControlAllowCredentials() {
         return accessControlAllowCredentials;
     }
 
     public void setAccessControlAllowCredentials(boolean accessControlAllowCredentials) {
-        this.accessControlAllowCredentials = accessControlAllowCredentials;
+        update(configuration -> this.accessControlAllowCredentials = accessControlAllowCredentials);
     }
 
     public Set<String> getAccessControlAllowHeaders() {
@@ -73,7 +179,7 @@ public class CorsPolicyConfiguration implements PolicyConfiguration {
     }
 
     public void setAccessControlAllowHeaders(Set<String> accessControlAllowHeaders) {
-        this.accessControlAllowHeaders = accessControlAllowHeaders;
+        update(configuration -> this.accessControlAllowHeaders = accessControlAllowHeaders);
     }
 
     public Set<String> getAccessControlAllowMethods() {
@@ -81,15 +187,29 @@ public class CorsPolicyConfiguration implements PolicyConfiguration {
     }
 
     public void setAccessControlAllowMethods(Set<String> accessControlAllowMethods) {
-        this.accessControlAllowMethods = accessControlAllowMethods;
+        update(configuration -> this.accessControlAllowMethods = accessControlAllowMethods);
     }
 
-    public String getAccessControlAllowOrigin() {
+    public Set<String> getAccessControlAllowOrigin() {
         return accessControlAllowOrigin;
     }
 
+    public void setAccessControlAllowOrigin(Set<String> accessControlAllowOrigin) {
+        OriginMatcher.validate(accessControlAllowOrigin);
+        update(configuration -> this.accessControlAllowOrigin = accessControlAllowOrigin);
+    }
+
+    /**
+     * Allow a single origin, or any origin with <code>*</code>.
+     *
+     * @param accessControlAllowOrigin the allowed origin, any origin if <code>null</code>
+     * @deprecated use {@link #setAccessControlAllowOrigin(Set)}, which allows several origins
+     */
+    @Deprecated
+    @JsonIgnore
     public void setAccessControlAllowOrigin(String accessControlAllowOrigin) {
-        this.accessControlAllowOrigin = accessControlAllowOrigin;
+        setAccessControlAllowOrigin(new LinkedHashSet<>(Collections.singleton(
+                accessControlAllowOrigin == null ? OriginMatcher.ALLOW_ALL : accessControlAllowOrigin)));
     }
 
     public Set<String> getAccessControlExposeHeaders() {
@@ -97,7 +217,7 @@ public class CorsPolicyConfiguration implements PolicyConfiguration {
     }
 
     public void setAccessControlExposeHeaders(Set<String> accessControlExposeHeaders) {
-        this.accessControlExposeHeaders = accessControlExposeHeaders;
+        update(configuration -> this.accessControlExposeHeaders = accessControlExposeHeaders);
     }
 
     public int getAccessControlMaxAge() {
@@ -105,7 +225,7 @@ public class CorsPolicyConfiguration implements PolicyConfiguration {
     }
 
     public void setAccessControlMaxAge(int accessControlMaxAge) {
-        this.accessControlMaxAge = accessControlMaxAge;
+        update(configuration -> this.accessControlMaxAge = accessControlMaxAge);
     }
 
     public int getCorsErrorStatusCode() {
@@ -113,6 +233,212 @@ public class CorsPolicyConfiguration implements PolicyConfiguration {
     }
 
     public void setCorsErrorStatusCode(int corsErrorStatusCode) {
-        this.corsErrorStatusCode = corsErrorStatusCode;
+        update(configuration -> this.corsErrorStatusCode = corsErrorStatusCode);
+    }
+
+    public int getMaxRequestHeadersLength() {
+        return maxRequestHeadersLength;
+    }
+
+    public void setMaxRequestHeadersLength(int maxRequestHeadersLength) {
+        update(configuration -> this.maxRequestHeadersLength = maxRequestHeadersLength);
+    }
+
+    public int getMaxRequestHeadersCount() {
+        return maxRequestHeadersCount;
+    }
+
+    public void setMaxRequestHeadersCount(int maxRequestHeadersCount) {
+        update(configuration -> this.maxRequestHeadersCount = maxRequestHeadersCount);
+    }
+
+    public boolean isPreflightDirectResponse() {
+        return preflightDirectResponse;
+    }
+
+    public void setPreflightDirectResponse(boolean preflightDirectResponse) {
+        update(configuration -> this.preflightDirectResponse = preflightDirectResponse);
+    }
+
+    public int getPreflightCacheSize() {
+        return preflightCacheSize;
+    }
+
+    public void setPreflightCacheSize(int preflightCacheSize) {
+        update(configuration -> this.preflightCacheSize = preflightCacheSize);
+    }
+
+    public int getPreflightCacheTtl() {
+        return preflightCacheTtl;
+    }
+
+    public void setPreflightCacheTtl(int preflightCacheTtl) {
+        update(configuration -> this.preflightCacheTtl = preflightCacheTtl);
+    }
+
+    public boolean isSkipRequestsWithoutOrigin() {
+        return skipRequestsWithoutOrigin;
+    }
+
+    public void setSkipRequestsWithoutOrigin(boolean skipRequestsWithoutOrigin) {
+        update(configuration -> this.skipRequestsWithoutOrigin = skipRequestsWithoutOrigin);
+    }
+
+    public boolean isPreflightVolumeReduction() {
+        return preflightVolumeReduction;
+    }
+
+    public void setPreflightVolumeReduction(boolean preflightVolumeReduction) {
+        update(configuration -> this.preflightVolumeReduction = preflightVolumeReduction);
+    }
+
+    public String getAccessControlAllowOriginSource() {
+        return accessControlAllowOriginSource;
+    }
+
+    public void setAccessControlAllowOriginSource(String accessControlAllowOriginSource) {
+        update(configuration -> this.accessControlAllowOriginSource = accessControlAllowOriginSource);
+    }
+
+    public boolean isPreflightShortCircuit() {
+        return preflightShortCircuit;
+    }
+
+    public void setPreflightShortCircuit(boolean preflightShortCircuit) {
+        update(configuration -> this.preflightShortCircuit = preflightShortCircuit);
+    }
+
+    public boolean isEnforceAllowedOrigins() {
+        return enforceAllowedOrigins;
+    }
+
+    public void setEnforceAllowedOrigins(boolean enforceAllowedOrigins) {
+        update(configuration -> this.enforceAllowedOrigins = enforceAllowedOrigins);
+    }
+
+    public int getPreflightRateLimit() {
+        return preflightRateLimit;
+    }
+
+    public void setPreflightRateLimit(int preflightRateLimit) {
+        update(configuration -> this.preflightRateLimit = preflightRateLimit);
+    }
+
+    public int getPreflightRateLimitBurst() {
+        return preflightRateLimitBurst;
+    }
+
+    public void setPreflightRateLimitBurst(int preflightRateLimitBurst) {
+        update(configuration -> this.preflightRateLimitBurst = preflightRateLimitBurst);
+    }
+
+    public int getRejectionLogSampling() {
+        return rejectionLogSampling;
+    }
+
+    public void setRejectionLogSampling(int rejectionLogSampling) {
+        update(configuration -> this.rejectionLogSampling = rejectionLogSampling);
+    }
+
+    public List<CorsPathRule> getPaths() {
+        return paths;
+    }
+
+    public void setPaths(List<CorsPathRule> paths) {
+        if (paths == null) {
+            update(configuration -> this.paths = new ArrayList<>());
+            return;
+        }
+
+        List<String> patterns = new ArrayList<>();
+        for (CorsPathRule rule : paths) {
+            if (! rule.getPaths().isEmpty()) {
+                throw new IllegalArgumentException("Path rule '" + rule.getPath() + "' cannot have path rules");
+            }
+            patterns.add(rule.getPath());
+        }
+
+        PathRuleTree.validate(patterns);
+        update(configuration -> this.paths = paths);
+    }
+
+    /**
+     * Apply several changes at once. Once they are applied, the plan of the new settings is compiled out of the lock
+     * of the configuration, and published in place of the previous one: requests never wait for it, they are decided
+     * with the settings in effect before the changes until it is published, and with all of them after. Changing a
+     * path rule which is already set is only taken into account once the path rules are set again.
+     *
+     * Updates nested in an update are published along with it. A configuration which has never been used is only
+     * compiled on first use.
+     *
+     * @param changes the changes to apply to this configuration
+     */
+    public void update(Consumer<? super CorsPolicyConfiguration> changes) {
+        boolean outermost = false;
+        try {
+            synchronized (this) {
+                outermost = ++updates == 1;
+                try {
+                    changes.accept(this);
+                } finally {
+                    updates--;
+                    version++;
+                }
+            }
+        } finally {
+            // Even if the changes failed halfway: the plan always follows the settings
+            if (outermost && plan != null) {
+                CorsPlanRegistry.intern(this);
+            }
+        }
+    }
+
+    /**
+     * @return the number of changes applied to this configuration, to be read under its lock
+     */
+    @JsonIgnore
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the last plan published for this configuration, or <code>null</code> if it has never been used
+     */
+    @JsonIgnore
+    public CorsPlan getPlan() {
+        return plan;
+    }
+
+    /**
+     * Publish the plan compiled for the given version of this configuration, unless it has changed since: the plan
+     * of the change will be published instead.
+     *
+     * @param plan the plan compiled for the configuration
+     * @param version the version of the configuration the plan was compiled for
+     */
+    @JsonIgnore
+    public synchronized void publish(CorsPlan plan, long version) {
+        if (version == this.version) {
+            this.plan = plan;
+        }
+    }
+
+    @JsonIgnore
+    public ApiResources getResources() {
+        return resources;
+    }
+
+    @JsonIgnore
+    public void setResources(ApiResources resources) {
+        this.resources = resources;
+    }
+
+    /**
+     * @return the attribute of the execution context holding the context of the requests decided with this
+     * configuration, distinct from the one of any other configuration
+     */
+    @JsonIgnore
+    public String getRequestAttribute() {
+        return requestAttribute;
     }
 }
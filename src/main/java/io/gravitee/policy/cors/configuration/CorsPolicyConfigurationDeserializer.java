@@ -0,0 +1,306 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.configuration;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import io.gravitee.policy.cors.plan.CorsPlan;
+import io.gravitee.policy.cors.utils.CaseInsensitiveHashSet;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compile a {@link CorsPolicyConfiguration} when it is deployed: the configuration is read token by token, without
+ * reflection, checked against <code>schema-form.json</code> (see {@link ConfigurationSchema}) and compiled into its
+ * {@link CorsPlan} right away. Mistakes are reported with the property and the location they were found at, instead
+ * of surfacing when the first request is handled.
+ *
+ * @author GraviteeSource Team
+ */
+public class CorsPolicyConfigurationDeserializer extends StdDeserializer<CorsPolicyConfiguration> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String ARRAY = "array";
+    private static final String BOOLEAN = "boolean";
+    private static final String INTEGER = "integer";
+    private static final String OBJECT = "object";
+    private static final String STRING = "string";
+
+    // An array of path rules
+    private static final String RULES = "rules";
+
+    private static final Map<String, Binding> BINDINGS = new HashMap<>();
+
+    private static final Map<String, Binding> RULE_BINDINGS;
+
+    static {
+        strings("accessControlAllowOrigin", true,
+                (configuration, origins) -> configuration.setAccessControlAllowOrigin(new LinkedHashSet<>(origins)));
+        strings("accessControlExposeHeaders", false, (configuration, headers) ->
+                configuration.setAccessControlExposeHeaders(new CaseInsensitiveHashSet(headers)));
+        strings("accessControlAllowMethods", false, (configuration, methods) ->
+                configuration.setAccessControlAllowMethods(new CaseInsensitiveHashSet(methods)));
+        strings("accessControlAllowHeaders", false, (configuration, headers) ->
+                configuration.setAccessControlAllowHeaders(new CaseInsensitiveHashSet(headers)));
+        bind("accessControlMaxAge", INTEGER, CorsPolicyConfiguration::setAccessControlMaxAge);
+        bind("accessControlAllowCredentials", BOOLEAN, CorsPolicyConfiguration::setAccessControlAllowCredentials);
+        bind("corsErrorStatusCode", INTEGER, CorsPolicyConfiguration::setCorsErrorStatusCode);
+        bind("maxRequestHeadersLength", INTEGER, CorsPolicyConfiguration::setMaxRequestHeadersLength);
+        bind("maxRequestHeadersCount", INTEGER, CorsPolicyConfiguration::setMaxRequestHeadersCount);
+        bind("preflightDirectResponse", BOOLEAN, CorsPolicyConfiguration::setPreflightDirectResponse);
+        bind("preflightCacheSize", INTEGER, CorsPolicyConfiguration::setPreflightCacheSize);
+        bind("preflightCacheTtl", INTEGER, CorsPolicyConfiguration::setPreflightCacheTtl);
+        bind("skipRequestsWithoutOrigin", BOOLEAN, CorsPolicyConfiguration::setSkipRequestsWithoutOrigin);
+        bind("preflightVolumeReduction", BOOLEAN, CorsPolicyConfiguration::setPreflightVolumeReduction);
+        bind("accessControlAllowOriginSource", STRING, CorsPolicyConfiguration::setAccessControlAllowOriginSource);
+        bind("preflightShortCircuit", BOOLEAN, CorsPolicyConfiguration::setPreflightShortCircuit);
+        bind("enforceAllowedOrigins", BOOLEAN, CorsPolicyConfiguration::setEnforceAllowedOrigins);
+        bind("preflightRateLimit", INTEGER, CorsPolicyConfiguration::setPreflightRateLimit);
+        bind("preflightRateLimitBurst", INTEGER, CorsPolicyConfiguration::setPreflightRateLimitBurst);
+        bind("rejectionLogSampling", INTEGER, CorsPolicyConfiguration::setRejectionLogSampling);
+
+        RULE_BINDINGS = new HashMap<>(BINDINGS);
+        RULE_BINDINGS.put("path", new Binding(STRING, false,
+                (Setter<String>) (rule, path) -> ((CorsPathRule) rule).setPath(path)));
+        RULE_BINDINGS.put("enabled", new Binding(BOOLEAN, false,
+                (Setter<Boolean>) (rule, enabled) -> ((CorsPathRule) rule).setEnabled(enabled)));
+        RULE_BINDINGS.put("paths", new Binding(RULES, false, (rule, rules) -> {
+            throw new IllegalArgumentException("path rules do not nest");
+        }));
+
+        bind("paths", RULES, CorsPolicyConfiguration::setPaths);
+    }
+
+    public CorsPolicyConfigurationDeserializer() {
+        super(CorsPolicyConfiguration.class);
+    }
+
+    @Override
+    public CorsPolicyConfiguration deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+        CorsPolicyConfiguration configuration = new CorsPolicyConfiguration();
+        readObject(parser, context, configuration, ConfigurationSchema.root(), BINDINGS, "");
+
+        checkOrigins(parser, configuration, "");
+        for (int i = 0; i < configuration.getPaths().size(); i++) {
+            CorsPathRule rule = configuration.getPaths().get(i);
+            if (rule.isEnabled()) {
+                checkOrigins(parser, rule, "paths[" + i + "].");
+            }
+        }
+
+        try {
+            CorsPlan.of(configuration);
+        } catch (IllegalArgumentException | IllegalStateException | UncheckedIOException e) {
+            throw JsonMappingException.from(parser, "Invalid CORS configuration: " + e.getMessage(), e);
+        }
+
+        return configuration;
+    }
+
+    private void readObject(JsonParser parser, DeserializationContext context, CorsPolicyConfiguration configuration,
+                            ConfigurationSchema schema, Map<String, Binding> bindings, String path) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.START_OBJECT) {
+            token = parser.nextToken();
+        } else if (token != JsonToken.FIELD_NAME && token != JsonToken.END_OBJECT) {
+            throw invalid(parser, path.isEmpty() ? "configuration" : trimDot(path), "must be an object");
+        }
+
+        Set<String> present = new HashSet<>();
+        for (; token == JsonToken.FIELD_NAME; token = parser.nextToken()) {
+            String name = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+
+            Binding binding = bindings.get(name);
+            if (binding == null) {
+                context.handleUnknownProperty(parser, this, configuration, name);
+                continue;
+            }
+            if (value == JsonToken.VALUE_NULL) {
+                continue;
+            }
+
+            String location = path + name;
+            ConfigurationSchema property = schema == null ? null : schema.property(name);
+            Object read = read(parser, context, binding, property, location);
+            try {
+                binding.setter.set(configuration, read);
+            } catch (IllegalArgumentException iae) {
+                throw invalid(parser, location, iae.getMessage());
+            }
+            present.add(name);
+        }
+
+        if (schema != null) {
+            for (String name : schema.required()) {
+                if (! present.contains(name)) {
+                    throw invalid(parser, path + name, "is required");
+                }
+            }
+        }
+    }
+
+    private static void checkOrigins(JsonParser parser, CorsPolicyConfiguration configuration, String path)
+            throws JsonMappingException {
+        boolean none = configuration.getAccessControlAllowOrigin().stream()
+                .allMatch(origin -> origin == null || origin.trim().isEmpty());
+        if (none && configuration.getAccessControlAllowOriginSource() == null) {
+            // Nothing would ever be allowed: it is a mistake rather than a way to disable CORS
+            throw invalid(parser, path + "accessControlAllowOrigin",
+                    "must list at least one origin ('*' for any origin) unless accessControlAllowOriginSource is set");
+        }
+    }
+
+    private Object read(JsonParser parser, DeserializationContext context, Binding binding,
+                        ConfigurationSchema property, String location) throws IOException {
+        String type = property != null && property.type() != null ? property.type() :
+                RULES.equals(binding.type) ? ARRAY : binding.type;
+        JsonToken token = parser.getCurrentToken();
+
+        if (binding.singleValue && token == JsonToken.VALUE_STRING) {
+            return Collections.singletonList(readString(parser, property == null ? null : property.items(), location));
+        }
+        if (! is(token, type)) {
+            throw invalid(parser, location, "must be " + article(type) + " " + type);
+        }
+
+        switch (binding.type) {
+            case STRING:
+                return readString(parser, property, location);
+            case INTEGER:
+                if (parser.getNumberType() != JsonParser.NumberType.INT) {
+                    throw invalid(parser, location, parser.getText() + " is out of range");
+                }
+                return parser.getIntValue();
+            case BOOLEAN:
+                return token == JsonToken.VALUE_TRUE;
+            case ARRAY:
+                return readStrings(parser, property == null ? null : property.items(), location);
+            default:
+                return readRules(parser, context, property == null ? null : property.items(), location);
+        }
+    }
+
+    private List<String> readStrings(JsonParser parser, ConfigurationSchema items, String location)
+            throws IOException {
+        List<String> values = new ArrayList<>();
+        for (JsonToken token = parser.nextToken(); token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+            String item = location + '[' + values.size() + ']';
+            if (token != JsonToken.VALUE_STRING) {
+                throw invalid(parser, item, "must be a string");
+            }
+            values.add(readString(parser, items, item));
+        }
+
+        return values;
+    }
+
+    private List<CorsPathRule> readRules(JsonParser parser, DeserializationContext context, ConfigurationSchema items,
+                                         String location) throws IOException {
+        List<CorsPathRule> rules = new ArrayList<>();
+        for (JsonToken token = parser.nextToken(); token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+            String item = location + '[' + rules.size() + ']';
+            if (token != JsonToken.START_OBJECT) {
+                throw invalid(parser, item, "must be an object");
+            }
+
+            CorsPathRule rule = new CorsPathRule();
+            readObject(parser, context, rule, items, RULE_BINDINGS, item + '.');
+            rules.add(rule);
+        }
+
+        return rules;
+    }
+
+    private static String readString(JsonParser parser, ConfigurationSchema schema, String location)
+            throws IOException {
+        String value = parser.getText();
+        if (schema != null && ! schema.allows(value)) {
+            throw invalid(parser, location, "'" + value + "' is not one of " + String.join(", ", schema.allowedValues()));
+        }
+
+        return value;
+    }
+
+    private static boolean is(JsonToken token, String type) {
+        switch (type) {
+            case STRING:
+                return token == JsonToken.VALUE_STRING;
+            case INTEGER:
+                return token == JsonToken.VALUE_NUMBER_INT;
+            case BOOLEAN:
+                return token == JsonToken.VALUE_TRUE || token == JsonToken.VALUE_FALSE;
+            case ARRAY:
+                return token == JsonToken.START_ARRAY;
+            case OBJECT:
+                return token == JsonToken.START_OBJECT;
+            default:
+                return false;
+        }
+    }
+
+    private static String article(String type) {
+        return type.equals(ARRAY) || type.equals(INTEGER) || type.equals(OBJECT) ? "an" : "a";
+    }
+
+    private static String trimDot(String path) {
+        return path.endsWith(".") ? path.substring(0, path.length() - 1) : path;
+    }
+
+    private static JsonMappingException invalid(JsonParser parser, String location, String reason) {
+        return JsonMappingException.from(parser, "Invalid CORS configuration, " + location + ": " + reason);
+    }
+
+    private static <T> void bind(String name, String type, Setter<T> setter) {
+        BINDINGS.put(name, new Binding(type, false, setter));
+    }
+
+    private static void strings(String name, boolean singleValue, Setter<List<String>> setter) {
+        BINDINGS.put(name, new Binding(ARRAY, singleValue, setter));
+    }
+
+    @FunctionalInterface
+    private interface Setter<T> {
+        void set(CorsPolicyConfiguration configuration, T value);
+    }
+
+    private static final class Binding {
+
+        private final String type;
+        private final boolean singleValue;
+        private final Setter<Object> setter;
+
+        @SuppressWarnings("unchecked")
+        private Binding(String type, boolean singleValue, Setter<?> setter) {
+            this.type = type;
+            this.singleValue = singleValue;
+            this.setter = (Setter<Object>) setter;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.metrics;
+
+import io.gravitee.policy.cors.plan.RejectionReason;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latencies of the CORS policy for a single API.
+ *
+ * Every update is a {@link LongAdder} increment (or a {@link LatencyHistogram} recording), which does not allocate
+ * and does not contend between threads, so the metrics can stay enabled on the hot path. Counters are exact, while
+ * latencies are sampled: reading the clock costs more than the policy itself for simple requests, so only one phase
+ * out of {@value #LATENCY_SAMPLING} is timed.
+ *
+ * @author GraviteeSource Team
+ */
+public final class CorsMetrics {
+
+    /**
+     * The phases of the policy which are timed.
+     */
+    public enum Phase {
+
+        /**
+         * The request phase, including preflight requests answered directly
+         */
+        REQUEST,
+
+        /**
+         * The decision on a preflight request answered through the invoker
+         */
+        PREFLIGHT,
+
+        /**
+         * The response phase
+         */
+        RESPONSE
+    }
+
+    /**
+     * One phase out of <code>LATENCY_SAMPLING</code> is timed, must be a power of two
+     */
+    public final static int LATENCY_SAMPLING = 32;
+
+    private final static long NOT_TIMED = Long.MIN_VALUE;
+
+    private final static RejectionReason[] REASONS = RejectionReason.values();
+
+    private final static Phase[] PHASES = Phase.values();
+
+    private final String api;
+
+    private final LongAdder simpleRequests = new LongAdder();
+
+    private final LongAdder preflightRequests = new LongAdder();
+
+    private final LongAdder preflightCacheHits = new LongAdder();
+
+    private final LongAdder[] rejections = new LongAdder[REASONS.length];
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[PHASES.length];
+
+    // Created on first use, most APIs never track repeats
+    private volatile PreflightRepeatTracker preflightRepeats;
+
+    // Created on first use, most APIs never sample their rejections
+    private volatile RejectionLog rejectionLog;
+
+    CorsMetrics(String api) {
+        this.api = api;
+        for (int i = 0; i < rejections.length; i++) {
+            rejections[i] = new LongAdder();
+        }
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    public String getApi() {
+        return api;
+    }
+
+    public void simpleRequest() {
+        simpleRequests.increment();
+    }
+
+    public void preflightRequest() {
+        preflightRequests.increment();
+    }
+
+    public void preflightCacheHit() {
+        preflightCacheHits.increment();
+    }
+
+    public void rejected(RejectionReason reason) {
+        rejections[reason.ordinal()].increment();
+    }
+
+    /**
+     * Start timing a phase, if it is part of the sampled ones.
+     *
+     * @return the value to give to {@link #record(Phase, long)} once the phase is over
+     */
+    public static long start() {
+        return (ThreadLocalRandom.current().nextInt() & (LATENCY_SAMPLING - 1)) == 0 ? System.nanoTime() : NOT_TIMED;
+    }
+
+    /**
+     * Record the time spent in a phase.
+     *
+     * @param phase the phase
+     * @param start the value returned by {@link #start()} at the beginning of the phase
+     */
+    public void record(Phase phase, long start) {
+        if (start != NOT_TIMED) {
+            latencies[phase.ordinal()].record(System.nanoTime() - start);
+        }
+    }
+
+    public long getSimpleRequests() {
+        return simpleRequests.sum();
+    }
+
+    public long getPreflightRequests() {
+        return preflightRequests.sum();
+    }
+
+    public long getPreflightCacheHits() {
+        return preflightCacheHits.sum();
+    }
+
+    public long getRejections(RejectionReason reason) {
+        return rejections[reason.ordinal()].sum();
+    }
+
+    /**
+     * @return the preflight requests repeated within their max-age, only tracked when reducing the preflight volume
+     */
+    public PreflightRepeatTracker getPreflightRepeats() {
+        PreflightRepeatTracker tracker = preflightRepeats;
+        if (tracker == null) {
+            synchronized (this) {
+                tracker = preflightRepeats;
+                if (tracker == null) {
+                    tracker = new PreflightRepeatTracker(PreflightRepeatTracker.DEFAULT_CAPACITY);
+                    preflightRepeats = tracker;
+                }
+            }
+        }
+
+        return tracker;
+    }
+
+    /**
+     * @return the last sampled rejections, only recorded when rejections are sampled
+     */
+    public RejectionLog getRejectionLog() {
+        RejectionLog log = rejectionLog;
+        if (log == null) {
+            synchronized (this) {
+                log = rejectionLog;
+                if (log == null) {
+                    log = new RejectionLog(RejectionLog.DEFAULT_CAPACITY);
+                    rejectionLog = log;
+                }
+            }
+        }
+
+        return log;
+    }
+
+    /**
+     * @param phase the phase
+     * @return the sampled latencies of the phase
+     */
+    public LatencyHistogram getLatency(Phase phase) {
+        return latencies[phase.ordinal()];
+    }
+}
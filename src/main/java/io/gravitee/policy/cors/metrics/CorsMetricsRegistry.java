@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.metrics;
+
+import io.gravitee.gateway.api.ExecutionContext;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of the {@link CorsMetrics} of every API the policy runs for. It is the entry point for the gateway (or
+ * any reporter) to scrape the metrics. The metrics of an API are dropped once it is undeployed, see
+ * {@link io.gravitee.policy.cors.ApiResources}.
+ *
+ * @author GraviteeSource Team
+ */
+public final class CorsMetricsRegistry {
+
+    /**
+     * The API of the metrics recorded when the execution context does not tell which API is called
+     */
+    public final static String UNKNOWN_API = "unknown";
+
+    private final static ConcurrentMap<String, CorsMetrics> METRICS = new ConcurrentHashMap<>();
+
+    private CorsMetricsRegistry() {
+    }
+
+    /**
+     * Get the metrics of the API of the given execution context.
+     *
+     * @param executionContext the execution context, may be <code>null</code>
+     * @return the metrics of the API, created on first use
+     */
+    public static CorsMetrics of(ExecutionContext executionContext) {
+        Object api = executionContext == null ? null : executionContext.getAttribute(ExecutionContext.ATTR_API);
+        return of(api == null ? UNKNOWN_API : api.toString());
+    }
+
+    /**
+     * Get the metrics of an API.
+     *
+     * @param api the API identifier
+     * @return the metrics of the API, created on first use
+     */
+    public static CorsMetrics of(String api) {
+        CorsMetrics metrics = METRICS.get(api);
+        return metrics != null ? metrics : METRICS.computeIfAbsent(api, CorsMetrics::new);
+    }
+
+    /**
+     * @param api the API identifier
+     * @return the metrics of the API, or <code>null</code> if the policy never ran for it
+     */
+    public static CorsMetrics get(String api) {
+        return METRICS.get(api);
+    }
+
+    /**
+     * @return the metrics of every API
+     */
+    public static Collection<CorsMetrics> all() {
+        return Collections.unmodifiableCollection(METRICS.values());
+    }
+
+    /**
+     * Drop the metrics of an API.
+     *
+     * @param api the API identifier
+     */
+    public static void remove(String api) {
+        METRICS.remove(api);
+    }
+}
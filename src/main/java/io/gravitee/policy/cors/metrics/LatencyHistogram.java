@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations, in nanoseconds.
+ *
+ * Values are counted in log-linear buckets: each power of two is split in {@value #SUB_BUCKETS} buckets, so that a
+ * percentile is known within 25% of its actual value. Every bucket is a {@link LongAdder} so that concurrent
+ * recordings do not contend on the same memory location.
+ *
+ * @author GraviteeSource Team
+ */
+public final class LatencyHistogram {
+
+    private final static int SUB_BUCKET_BITS = 2;
+
+    private final static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    // Values above 2^41 ns (~36 min) are counted in the last bucket
+    private final static int MAX_EXPONENT = 40;
+
+    private final static int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+    private final LongAdder total = new LongAdder();
+
+    private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Record a duration.
+     *
+     * @param nanos the duration in nanoseconds, negative values are counted as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        buckets[bucket(value)].increment();
+        total.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * @return the number of recorded durations
+     */
+    public long count() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+
+        return count;
+    }
+
+    /**
+     * @return the sum of the recorded durations, in nanoseconds
+     */
+    public long totalNanos() {
+        return total.sum();
+    }
+
+    /**
+     * @return the longest recorded duration, in nanoseconds
+     */
+    public long maxNanos() {
+        return max.get();
+    }
+
+    /**
+     * Get an upper bound of the given percentile of the recorded durations.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the upper bound of the bucket holding the percentile, in nanoseconds, or 0 if nothing was recorded
+     */
+    public long percentile(double percentile) {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            count += counts[i];
+        }
+
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(count * Math.min(Math.max(percentile, 0), 100) / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), maxNanos());
+            }
+        }
+
+        return maxNanos();
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) | subBucket;
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        int exponent = (bucket >>> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+        int subBucket = bucket & (SUB_BUCKETS - 1);
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((SUB_BUCKETS + subBucket) * width) + width - 1;
+    }
+}
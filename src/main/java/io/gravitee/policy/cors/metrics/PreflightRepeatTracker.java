@@ -0,0 +1,142 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.metrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Detect preflight requests sent again by the same origin, for the same path, while the browser could still have
+ * used the response to the previous one (within its max-age). Such repeats are preflight round trips the browser
+ * cache did not save: a private browsing session, a cache evicted early, a max-age capped by the browser, or a
+ * request the previous response did not cover.
+ *
+ * Origins and paths are tracked in a fixed size, direct-mapped table: a new (origin, path) pair replaces the one
+ * sharing its slot, so memory is bounded whatever the number of origins. Recording a known pair does not allocate.
+ *
+ * @author GraviteeSource Team
+ */
+public final class PreflightRepeatTracker {
+
+    public final static int DEFAULT_CAPACITY = 1024;
+
+    private final AtomicReferenceArray<Entry> slots;
+
+    private final int mask;
+
+    private final LongAdder repeats = new LongAdder();
+
+    public PreflightRepeatTracker(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Record a preflight request.
+     *
+     * @param origin the origin of the request
+     * @param path the path of the request, relative to the context path of the API
+     * @param maxAgeNanos the max-age granted to the previous preflight response, in nanoseconds
+     * @return <code>true</code> if the same origin sent a preflight request for the same path within the max-age
+     */
+    public boolean record(String origin, String path, long maxAgeNanos) {
+        final long now = System.nanoTime();
+        final int hash = mix(origin.hashCode() * 31 + path.hashCode());
+        final int index = hash & mask;
+
+        Entry entry = slots.get(index);
+        if (entry != null && entry.hash == hash && entry.origin.equals(origin) && entry.path.equals(path)) {
+            boolean repeat = now - entry.lastSeen < maxAgeNanos;
+            entry.lastSeen = now;
+            if (repeat) {
+                entry.repeats.increment();
+                repeats.increment();
+            }
+            return repeat;
+        }
+
+        slots.set(index, new Entry(origin, path, hash, now));
+        return false;
+    }
+
+    /**
+     * @return the number of preflight requests repeated within the max-age
+     */
+    public long repeats() {
+        return repeats.sum();
+    }
+
+    /**
+     * Get the (origin, path) pairs which repeat their preflight requests the most.
+     *
+     * @param limit the maximum number of pairs to report
+     * @return the pairs with at least one repeat, most repeated first
+     */
+    public List<Entry> report(int limit) {
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < slots.length(); i++) {
+            Entry entry = slots.get(i);
+            if (entry != null && entry.repeats() > 0) {
+                entries.add(entry);
+            }
+        }
+
+        entries.sort(Comparator.comparingLong(Entry::repeats).reversed());
+        return entries.size() > limit ? new ArrayList<>(entries.subList(0, limit)) : entries;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Preflight requests of an origin for a path.
+     */
+    public static final class Entry {
+
+        private final String origin;
+        private final String path;
+        private final int hash;
+        private final LongAdder repeats = new LongAdder();
+        private volatile long lastSeen;
+
+        private Entry(String origin, String path, int hash, long lastSeen) {
+            this.origin = origin;
+            this.path = path;
+            this.hash = hash;
+            this.lastSeen = lastSeen;
+        }
+
+        public String origin() {
+            return origin;
+        }
+
+        public String path() {
+            return path;
+        }
+
+        /**
+         * @return the number of preflight requests repeated within the max-age since this pair is tracked
+         */
+        public long repeats() {
+            return repeats.sum();
+        }
+    }
+}
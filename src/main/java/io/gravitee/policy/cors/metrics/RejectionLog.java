@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.metrics;
+
+import io.gravitee.policy.cors.plan.RejectionReason;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The last rejected CORS requests of an API, kept to diagnose why the requests of a front-end are rejected.
+ *
+ * The log is a fixed size ring: recording an event claims the next sequence number and stores the event in its slot,
+ * replacing the oldest one, without locking. Only sampled rejections are recorded, the request path does not touch
+ * the log, nor allocate, for the others.
+ *
+ * @author GraviteeSource Team
+ */
+public final class RejectionLog {
+
+    public final static int DEFAULT_CAPACITY = 256;
+
+    private final AtomicReferenceArray<Event> slots;
+
+    private final int mask;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    public RejectionLog(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Record a rejected request.
+     *
+     * @param reason the check the request failed
+     * @param origin the origin of the request
+     * @param method the requested method of a preflight request, <code>null</code> otherwise
+     * @param header the first requested header which is not allowed, <code>null</code> if none
+     */
+    public void record(RejectionReason reason, String origin, String method, String header) {
+        long number = sequence.getAndIncrement();
+        slots.set((int) number & mask, new Event(number, System.currentTimeMillis(), reason, origin, method, header));
+    }
+
+    /**
+     * @return the number of events recorded since the log has been created, including the replaced ones
+     */
+    public long recorded() {
+        return sequence.get();
+    }
+
+    /**
+     * @return the recorded events still in the log, oldest first
+     */
+    public List<Event> events() {
+        final long last = sequence.get();
+        final long first = Math.max(0, last - slots.length());
+
+        List<Event> events = new ArrayList<>((int) (last - first));
+        for (long number = first; number < last; number++) {
+            Event event = slots.get((int) number & mask);
+            // Skip the slots being written, and the ones already replaced by a more recent event
+            if (event != null && event.sequence == number) {
+                events.add(event);
+            }
+        }
+
+        return events;
+    }
+
+    /**
+     * A rejected request.
+     */
+    public static final class Event {
+
+        private final long sequence;
+        private final long timestamp;
+        private final RejectionReason reason;
+        private final String origin;
+        private final String method;
+        private final String header;
+
+        private Event(long sequence, long timestamp, RejectionReason reason, String origin, String method,
+                      String header) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.reason = reason;
+            this.origin = origin;
+            this.method = method;
+            this.header = header;
+        }
+
+        /**
+         * @return the time of the rejection, in milliseconds since the epoch
+         */
+        public long timestamp() {
+            return timestamp;
+        }
+
+        public RejectionReason reason() {
+            return reason;
+        }
+
+        public String origin() {
+            return origin;
+        }
+
+        /**
+         * @return the requested method of a preflight request, <code>null</code> for an actual request
+         */
+        public String method() {
+            return method;
+        }
+
+        /**
+         * @return the first requested header which is not allowed, <code>null</code> if the request has not been
+         * rejected because of one of its headers, or if it listed too many of them
+         */
+        public String header() {
+            return header;
+        }
+
+        @Override
+        public String toString() {
+            return "Event{" +
+                    "timestamp=" + timestamp +
+                    ", reason=" + reason +
+                    ", origin='" + origin + '\'' +
+                    ", method='" + method + '\'' +
+                    ", header='" + header + '\'' +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.origin;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded cache of recent origin decisions, evicting with the CLOCK (second chance) algorithm.
+ *
+ * Lookups are lock-free and do not allocate. Insertions are serialized, and simply skipped when another thread is
+ * already inserting, so that a flood of distinct origins can neither block the event-loops nor grow the cache.
+ *
+ * @author GraviteeSource Team
+ */
+final class OriginDecisionCache {
+
+    private final ConcurrentHashMap<String, Entry> entries;
+    private final Entry[] clock;
+    private final ReentrantLock lock = new ReentrantLock();
+    private int hand;
+
+    OriginDecisionCache(int capacity) {
+        this.entries = new ConcurrentHashMap<>(capacity * 2);
+        this.clock = new Entry[capacity];
+    }
+
+    /**
+     * @return the cached decision, or <code>null</code> if the origin is unknown
+     */
+    Boolean get(String origin) {
+        Entry entry = entries.get(origin);
+        if (entry == null) {
+            return null;
+        }
+
+        entry.referenced = true;
+        return entry.allowed ? Boolean.TRUE : Boolean.FALSE;
+    }
+
+    void put(String origin, boolean allowed) {
+        if (! lock.tryLock()) {
+            return;
+        }
+
+        try {
+            if (entries.containsKey(origin)) {
+                return;
+            }
+
+            // Look for a slot which has not been referenced since the hand last went over it
+            Entry victim = clock[hand];
+            while (victim != null && victim.referenced) {
+                victim.referenced = false;
+                hand = (hand + 1) % clock.length;
+                victim = clock[hand];
+            }
+
+            if (victim != null) {
+                entries.remove(victim.origin);
+            }
+
+            Entry entry = new Entry(origin, allowed);
+            clock[hand] = entry;
+            hand = (hand + 1) % clock.length;
+            entries.put(origin, entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private static final class Entry {
+        private final String origin;
+        private final boolean allowed;
+        private volatile boolean referenced;
+
+        private Entry(String origin, boolean allowed) {
+            this.origin = origin;
+            this.allowed = allowed;
+        }
+    }
+}
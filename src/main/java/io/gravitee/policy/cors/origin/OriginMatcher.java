@@ -0,0 +1,229 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.origin;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Decide whether an origin is part of the configured list of allowed origins. Entries can be:
+ * <ul>
+ *     <li><code>*</code>: any origin is allowed</li>
+ *     <li>an exact origin, such as <code>https://app.example.com</code>, looked up in a hash set</li>
+ *     <li>a sub-domain wildcard, such as <code>https://*.example.com</code>, looked up in a {@link SubdomainTrie}</li>
+ *     <li>a pattern, prefixed with <code>~</code>, such as <code>~https://pr-[0-9]+\.preview\.example\.com</code>: all
+ *     the patterns are compiled together into {@link OriginPatterns}, matched in one pass over the origin</li>
+ * </ul>
+ *
+ * Decisions requiring a trie walk are kept in a bounded {@link OriginDecisionCache}.
+ *
+ * @author GraviteeSource Team
+ */
+public final class OriginMatcher {
+
+    public static final String ALLOW_ALL = "*";
+
+    static final int DECISION_CACHE_SIZE = 1024;
+
+    private static final String SCHEME_SEPARATOR = "://";
+
+    private static final String WILDCARD_PREFIX = "*.";
+
+    // Origin sent by user-agents for opaque origins (sandboxed documents, file: URLs, ...)
+    private static final String NULL_ORIGIN = "null";
+
+    // scheme://host[:port], the host being possibly prefixed with *. or an IPv6 address
+    private static final Pattern ORIGIN_SYNTAX = Pattern.compile(
+            "[a-z][a-z0-9+.-]*://(\\*\\.)?([^/?#\\s*:\\[\\]]+|\\[[0-9a-f:.]+])(:[0-9]{1,5})?", Pattern.CASE_INSENSITIVE);
+
+    private final boolean allowAll;
+
+    private final Set<String> exact;
+
+    private final SubdomainTrie wildcards;
+
+    private final OriginPatterns patterns;
+
+    private final OriginDecisionCache decisions;
+
+    private OriginMatcher(Collection<String> origins) {
+        boolean all = false;
+        Set<String> exactOrigins = new HashSet<>();
+        SubdomainTrie.Builder trie = new SubdomainTrie.Builder();
+        List<String> patternList = new ArrayList<>();
+
+        if (origins != null) {
+            for (String origin : origins) {
+                if (origin == null) {
+                    continue;
+                }
+
+                String pattern = pattern(origin);
+                if (pattern != null) {
+                    patternList.add(pattern);
+                    continue;
+                }
+
+                String value = normalize(origin);
+                if (value.isEmpty()) {
+                    continue;
+                }
+
+                if (ALLOW_ALL.equals(value)) {
+                    all = true;
+                    continue;
+                }
+
+                int separator = value.indexOf(SCHEME_SEPARATOR);
+                if (separator > 0 && value.startsWith(WILDCARD_PREFIX, separator + SCHEME_SEPARATOR.length())) {
+                    String authority = value.substring(separator + SCHEME_SEPARATOR.length() + WILDCARD_PREFIX.length());
+                    int port = authority.indexOf(':');
+                    trie.add(value.substring(0, separator),
+                            port == -1 ? authority : authority.substring(0, port),
+                            port == -1 ? "" : authority.substring(port));
+                } else {
+                    exactOrigins.add(value);
+                }
+            }
+        }
+
+        this.allowAll = all;
+        this.exact = exactOrigins;
+        this.wildcards = trie.size() == 0 ? null : trie.build();
+        this.patterns = patternList.isEmpty() ? null : OriginPatterns.compile(patternList);
+        this.decisions = wildcards == null ? null : new OriginDecisionCache(DECISION_CACHE_SIZE);
+    }
+
+    /**
+     * @throws IllegalArgumentException if a pattern is invalid, see {@link OriginPatterns}
+     */
+    public static OriginMatcher of(Collection<String> origins) {
+        return new OriginMatcher(origins);
+    }
+
+    /**
+     * Check the syntax of a list of allowed origins and compile their patterns, so that an invalid entry is reported
+     * when the configuration is loaded rather than silently never matching.
+     *
+     * @throws IllegalArgumentException if an origin is malformed or a pattern is invalid, see {@link OriginPatterns}
+     */
+    public static void validate(Collection<String> origins) {
+        if (origins == null) {
+            return;
+        }
+
+        List<String> patternList = new ArrayList<>();
+        for (String origin : origins) {
+            String pattern = origin == null ? null : pattern(origin);
+            if (pattern != null) {
+                patternList.add(pattern);
+            } else if (origin != null) {
+                checkSyntax(origin);
+            }
+        }
+
+        if (!patternList.isEmpty()) {
+            OriginPatterns.compile(patternList);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if any origin is allowed
+     */
+    public boolean isAllowAll() {
+        return allowAll;
+    }
+
+    /**
+     * @param origin the value of the <code>Origin</code> header
+     * @return <code>true</code> if the origin is allowed
+     */
+    public boolean isAllowed(String origin) {
+        if (origin == null) {
+            return false;
+        }
+
+        if (allowAll || exact.contains(origin)) {
+            return true;
+        }
+
+        if (patterns != null && patterns.matches(origin)) {
+            return true;
+        }
+
+        if (wildcards == null) {
+            return false;
+        }
+
+        Boolean decision = decisions.get(origin);
+        if (decision != null) {
+            return decision;
+        }
+
+        boolean allowed = matchesWildcard(origin);
+        decisions.put(origin, allowed);
+        return allowed;
+    }
+
+    private boolean matchesWildcard(String origin) {
+        int schemeEnd = origin.indexOf(SCHEME_SEPARATOR);
+        if (schemeEnd <= 0) {
+            return false;
+        }
+
+        int hostStart = schemeEnd + SCHEME_SEPARATOR.length();
+        int hostEnd = origin.indexOf(':', hostStart);
+        if (hostEnd == -1) {
+            hostEnd = origin.length();
+        }
+
+        return wildcards.matches(origin, schemeEnd, hostStart, hostEnd);
+    }
+
+    /**
+     * @return the pattern of a <code>~</code> prefixed entry, or <code>null</code> if the entry is not a pattern
+     */
+    private static String pattern(String origin) {
+        String value = origin.trim();
+        return value.startsWith(OriginPatterns.PREFIX) ? value.substring(OriginPatterns.PREFIX.length()) : null;
+    }
+
+    private static void checkSyntax(String origin) {
+        String value = normalize(origin);
+        if (! value.isEmpty() && ! ALLOW_ALL.equals(value) && ! NULL_ORIGIN.equals(value) &&
+                ! ORIGIN_SYNTAX.matcher(value).matches()) {
+            throw new IllegalArgumentException("Invalid origin '" + origin + "': expected '*', scheme://host[:port], " +
+                    "scheme://*.domain[:port] or a pattern starting with '" + OriginPatterns.PREFIX + "'");
+        }
+    }
+
+    /**
+     * Origins are serialized by user-agents as lower-case <code>scheme://host[:port]</code>, without trailing slash.
+     */
+    private static String normalize(String origin) {
+        String value = origin.trim();
+        while (value.endsWith("/")) {
+            value = value.substring(0, value.length() - 1);
+        }
+
+        return value.contains(SCHEME_SEPARATOR) ? value.toLowerCase(Locale.ROOT) : value;
+    }
+}
@@ -0,0 +1,723 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.origin;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Origin patterns, such as <code>https://pr-[0-9]+\.preview\.example\.com</code>, compiled together into a single
+ * deterministic automaton: an origin is checked against all the patterns in one pass over its characters, without
+ * backtracking, whatever the patterns and the origin.
+ * <p>
+ * Patterns match the whole origin and use the subset of the regular expression syntax whose cost can be guaranteed:
+ * literals and escaped characters, <code>.</code>, character classes (<code>[a-z0-9-]</code>, <code>[^.]</code>,
+ * <code>\d</code>, <code>\w</code>), groups, alternation and the <code>?</code>, <code>*</code>, <code>+</code> and
+ * <code>{n,m}</code> quantifiers. Back-references, look-arounds, lazy or possessive quantifiers and inline flags are
+ * rejected with an {@link IllegalArgumentException}, as well as patterns whose automaton would be too large.
+ * <p>
+ * Letters are matched case-insensitively in patterns, as for exact origins: user-agents serialize origins lower-case.
+ *
+ * @author GraviteeSource Team
+ */
+public final class OriginPatterns {
+
+    /**
+     * Marks an entry of the allowed origins as a pattern.
+     */
+    public static final String PREFIX = "~";
+
+    static final int MAX_REPEAT = 64;
+
+    static final int MAX_NFA_STATES = 65_536;
+
+    static final int MAX_STATES = 10_000;
+
+    private static final int ALPHABET = 128;
+
+    private static final int DEAD = -1;
+
+    private final int patterns;
+
+    private final byte[] classes;
+
+    private final int classCount;
+
+    private final int[] transitions;
+
+    private final boolean[] accepting;
+
+    private OriginPatterns(int patterns, byte[] classes, int classCount, int[] transitions, boolean[] accepting) {
+        this.patterns = patterns;
+        this.classes = classes;
+        this.classCount = classCount;
+        this.transitions = transitions;
+        this.accepting = accepting;
+    }
+
+    /**
+     * @param patterns the patterns, without {@link #PREFIX}
+     * @return the automaton matching any of the patterns
+     * @throws IllegalArgumentException if a pattern is invalid, uses an unsupported construct or is too large
+     */
+    public static OriginPatterns compile(Collection<String> patterns) {
+        List<Node> alternatives = new ArrayList<>(patterns.size());
+        for (String pattern : patterns) {
+            alternatives.add(new Parser(pattern).parse());
+        }
+
+        Nfa nfa = new Nfa();
+        int start = new Alternation(alternatives).compile(nfa, Nfa.MATCH);
+        return nfa.determinize(start, patterns.size());
+    }
+
+    /**
+     * @param origin the value of the <code>Origin</code> header
+     * @return <code>true</code> if the whole origin matches one of the patterns
+     */
+    public boolean matches(CharSequence origin) {
+        int state = 0;
+        for (int i = 0, length = origin.length(); i < length; i++) {
+            char c = origin.charAt(i);
+            if (c >= ALPHABET) {
+                return false;
+            }
+
+            state = transitions[state * classCount + classes[c]];
+            if (state == DEAD) {
+                return false;
+            }
+        }
+
+        return accepting[state];
+    }
+
+    /**
+     * @return the number of compiled patterns
+     */
+    public int size() {
+        return patterns;
+    }
+
+    /**
+     * @return the number of states of the automaton
+     */
+    public int states() {
+        return accepting.length;
+    }
+
+    /**
+     * Recursive descent parser of a pattern into a syntax tree.
+     */
+    private static final class Parser {
+
+        private final String pattern;
+
+        private final int end;
+
+        private int position;
+
+        Parser(String pattern) {
+            this.pattern = pattern;
+            int length = pattern.length();
+            // The pattern is anchored anyway: accept the explicit anchors around it
+            if (length > 0 && pattern.charAt(0) == '^') {
+                position = 1;
+            }
+            if (length > position && pattern.charAt(length - 1) == '$' && !escaped(length - 1)) {
+                length--;
+            }
+            this.end = length;
+        }
+
+        Node parse() {
+            if (position == end) {
+                throw error("empty pattern");
+            }
+
+            Node node = alternation();
+            if (position < end) {
+                throw error("unbalanced ')'");
+            }
+            return node;
+        }
+
+        private Node alternation() {
+            List<Node> alternatives = new ArrayList<>(1);
+            alternatives.add(sequence());
+            while (position < end && pattern.charAt(position) == '|') {
+                position++;
+                alternatives.add(sequence());
+            }
+            return alternatives.size() == 1 ? alternatives.get(0) : new Alternation(alternatives);
+        }
+
+        private Node sequence() {
+            List<Node> nodes = new ArrayList<>();
+            while (position < end) {
+                char c = pattern.charAt(position);
+                if (c == '|' || c == ')') {
+                    break;
+                }
+                nodes.add(quantified(atom()));
+            }
+            return nodes.size() == 1 ? nodes.get(0) : new Sequence(nodes);
+        }
+
+        private Node quantified(Node atom) {
+            if (position == end) {
+                return atom;
+            }
+
+            int min;
+            int max;
+            switch (pattern.charAt(position)) {
+                case '?':
+                    min = 0;
+                    max = 1;
+                    position++;
+                    break;
+                case '*':
+                    min = 0;
+                    max = Repetition.UNBOUNDED;
+                    position++;
+                    break;
+                case '+':
+                    min = 1;
+                    max = Repetition.UNBOUNDED;
+                    position++;
+                    break;
+                case '{':
+                    position++;
+                    min = number();
+                    max = min;
+                    if (position < end && pattern.charAt(position) == ',') {
+                        position++;
+                        max = position < end && pattern.charAt(position) == '}' ? Repetition.UNBOUNDED : number();
+                    }
+                    if (position == end || pattern.charAt(position) != '}') {
+                        throw error("unterminated quantifier");
+                    }
+                    position++;
+                    if (max != Repetition.UNBOUNDED && max < min) {
+                        throw error("invalid quantifier range");
+                    }
+                    break;
+                default:
+                    return atom;
+            }
+
+            if (position < end && isQuantifier(pattern.charAt(position))) {
+                throw error("lazy, possessive and nested quantifiers are not supported");
+            }
+            return new Repetition(atom, min, max);
+        }
+
+        private int number() {
+            int start = position;
+            int value = 0;
+            while (position < end && Character.isDigit(pattern.charAt(position))) {
+                value = value * 10 + (pattern.charAt(position++) - '0');
+                if (value > MAX_REPEAT) {
+                    throw error("repetition count greater than " + MAX_REPEAT);
+                }
+            }
+            if (position == start) {
+                throw error("missing repetition count");
+            }
+            return value;
+        }
+
+        private Node atom() {
+            char c = pattern.charAt(position);
+            switch (c) {
+                case '(':
+                    return group();
+                case '[':
+                    return characterClass();
+                case '.':
+                    position++;
+                    return new CharacterSet(any());
+                case '\\':
+                    position++;
+                    return new CharacterSet(escape(false));
+                case '^':
+                case '$':
+                    throw error("anchors are only supported around the whole pattern");
+                case '*':
+                case '+':
+                case '?':
+                case '{':
+                    throw error("quantifier without operand");
+                default:
+                    position++;
+                    return new CharacterSet(literal(c));
+            }
+        }
+
+        private Node group() {
+            position++;
+            if (position < end && pattern.charAt(position) == '?') {
+                char kind = position + 1 < end ? pattern.charAt(position + 1) : 0;
+                if (kind == '=' || kind == '!' || kind == '<') {
+                    throw error("look-arounds and named groups are not supported");
+                }
+                if (kind != ':') {
+                    throw error("inline flags and special groups are not supported");
+                }
+                position += 2;
+            }
+
+            Node node = position < end && pattern.charAt(position) == ')' ? Sequence.EMPTY : alternation();
+            if (position == end || pattern.charAt(position) != ')') {
+                throw error("unbalanced '('");
+            }
+            position++;
+            return node;
+        }
+
+        private Node characterClass() {
+            position++;
+            boolean negated = position < end && pattern.charAt(position) == '^';
+            if (negated) {
+                position++;
+            }
+
+            long[] set = new long[2];
+            boolean empty = true;
+            while (position < end && pattern.charAt(position) != ']') {
+                long[] item = classItem();
+                if (item == null) {
+                    char low = pattern.charAt(position - 1);
+                    position++;
+                    char high = rangeEnd();
+                    if (high < low) {
+                        throw error("invalid range " + low + '-' + high);
+                    }
+                    item = range(low, high);
+                }
+                or(set, item);
+                empty = false;
+            }
+            if (position == end) {
+                throw error("unterminated character class");
+            }
+            if (empty) {
+                throw error("empty character class");
+            }
+            position++;
+
+            fold(set);
+            if (negated) {
+                set[0] = ~set[0];
+                set[1] = ~set[1];
+            }
+            return new CharacterSet(set);
+        }
+
+        /**
+         * @return the characters of the next item of a class, or <code>null</code> if it starts a range
+         */
+        private long[] classItem() {
+            char c = pattern.charAt(position++);
+            if (c == '[' || (c == '&' && position < end && pattern.charAt(position) == '&')) {
+                throw error("nested classes and intersections are not supported");
+            }
+            if (c == '\\') {
+                long[] set = escape(true);
+                if (position + 1 < end && pattern.charAt(position) == '-' && pattern.charAt(position + 1) != ']') {
+                    throw error("ranges must start with a literal character");
+                }
+                return set;
+            }
+            if (c >= ALPHABET) {
+                throw error("non-ASCII character, use the punycode form of the host");
+            }
+            if (position + 1 < end && pattern.charAt(position) == '-' && pattern.charAt(position + 1) != ']') {
+                return null;
+            }
+            return literal(c);
+        }
+
+        private char rangeEnd() {
+            char c = pattern.charAt(position++);
+            if (c == '\\') {
+                if (position == end || Character.isLetterOrDigit(pattern.charAt(position))) {
+                    throw error("invalid range");
+                }
+                c = pattern.charAt(position++);
+            }
+            if (c >= ALPHABET || c == '[') {
+                throw error("invalid range");
+            }
+            return c;
+        }
+
+        private long[] escape(boolean inClass) {
+            if (position == end) {
+                throw error("trailing '\\'");
+            }
+
+            char c = pattern.charAt(position);
+            if (c == 'd') {
+                position++;
+                return range('0', '9');
+            }
+            if (c == 'w') {
+                position++;
+                long[] set = range('a', 'z');
+                or(set, range('A', 'Z'));
+                or(set, range('0', '9'));
+                or(set, literal('_'));
+                return set;
+            }
+            if (c >= '1' && c <= '9' && !inClass) {
+                throw error("back-references are not supported");
+            }
+            if (Character.isLetterOrDigit(c) || c >= ALPHABET) {
+                throw error("unsupported escape '\\" + c + "'");
+            }
+            position++;
+            return set(c);
+        }
+
+        private long[] literal(char c) {
+            if (c >= ALPHABET) {
+                throw error("non-ASCII character, use the punycode form of the host");
+            }
+            long[] set = set(c);
+            fold(set);
+            return set;
+        }
+
+        private boolean escaped(int index) {
+            int backslashes = 0;
+            while (index > 0 && pattern.charAt(index - 1) == '\\') {
+                backslashes++;
+                index--;
+            }
+            return (backslashes & 1) == 1;
+        }
+
+        private boolean isQuantifier(char c) {
+            return c == '?' || c == '*' || c == '+' || c == '{';
+        }
+
+        private IllegalArgumentException error(String reason) {
+            return new IllegalArgumentException(
+                    "Invalid origin pattern '" + pattern + "' at index " + position + ": " + reason);
+        }
+    }
+
+    private static long[] any() {
+        return new long[] {-1L, -1L};
+    }
+
+    private static long[] set(char c) {
+        long[] set = new long[2];
+        set[c >> 6] |= 1L << c;
+        return set;
+    }
+
+    private static long[] range(char low, char high) {
+        long[] set = new long[2];
+        for (char c = low; c <= high; c++) {
+            set[c >> 6] |= 1L << c;
+        }
+        return set;
+    }
+
+    private static void or(long[] set, long[] other) {
+        set[0] |= other[0];
+        set[1] |= other[1];
+    }
+
+    private static boolean contains(long[] set, int c) {
+        return (set[c >> 6] & (1L << c)) != 0;
+    }
+
+    /**
+     * Replace upper-case letters by their lower-case counterpart.
+     */
+    private static void fold(long[] set) {
+        for (char c = 'A'; c <= 'Z'; c++) {
+            if (contains(set, c)) {
+                set[c >> 6] &= ~(1L << c);
+                char lower = (char) (c + ('a' - 'A'));
+                set[lower >> 6] |= 1L << lower;
+            }
+        }
+    }
+
+    /**
+     * Node of the syntax tree of a pattern, compiled into a Thompson NFA from the end of the pattern to its start.
+     */
+    private abstract static class Node {
+
+        /**
+         * @param next the state following this node
+         * @return the state starting this node
+         */
+        abstract int compile(Nfa nfa, int next);
+    }
+
+    private static final class CharacterSet extends Node {
+
+        private final long[] set;
+
+        CharacterSet(long[] set) {
+            this.set = set;
+        }
+
+        @Override
+        int compile(Nfa nfa, int next) {
+            return nfa.state(set, next);
+        }
+    }
+
+    private static final class Sequence extends Node {
+
+        static final Sequence EMPTY = new Sequence(new ArrayList<Node>(0));
+
+        private final List<Node> nodes;
+
+        Sequence(List<Node> nodes) {
+            this.nodes = nodes;
+        }
+
+        @Override
+        int compile(Nfa nfa, int next) {
+            for (int i = nodes.size() - 1; i >= 0; i--) {
+                next = nodes.get(i).compile(nfa, next);
+            }
+            return next;
+        }
+    }
+
+    private static final class Alternation extends Node {
+
+        private final List<Node> alternatives;
+
+        Alternation(List<Node> alternatives) {
+            this.alternatives = alternatives;
+        }
+
+        @Override
+        int compile(Nfa nfa, int next) {
+            int[] starts = new int[alternatives.size()];
+            for (int i = 0; i < starts.length; i++) {
+                starts[i] = alternatives.get(i).compile(nfa, next);
+            }
+            return nfa.split(starts);
+        }
+    }
+
+    private static final class Repetition extends Node {
+
+        static final int UNBOUNDED = -1;
+
+        private final Node node;
+
+        private final int min;
+
+        private final int max;
+
+        Repetition(Node node, int min, int max) {
+            this.node = node;
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        int compile(Nfa nfa, int next) {
+            int start = next;
+            if (max == UNBOUNDED) {
+                int loop = nfa.split(null);
+                nfa.link(loop, node.compile(nfa, loop), next);
+                start = loop;
+            } else {
+                for (int i = min; i < max; i++) {
+                    start = nfa.split(new int[] {node.compile(nfa, start), next});
+                }
+            }
+
+            for (int i = 0; i < min; i++) {
+                start = node.compile(nfa, start);
+            }
+            return start;
+        }
+    }
+
+    /**
+     * Thompson NFA: a state either consumes a character of its set, or has epsilon transitions only.
+     */
+    private static final class Nfa {
+
+        static final int MATCH = 0;
+
+        private final List<long[]> sets = new ArrayList<>();
+
+        private final List<int[]> epsilons = new ArrayList<>();
+
+        private int[] targets = new int[64];
+
+        Nfa() {
+            split(new int[0]);
+        }
+
+        int state(long[] set, int target) {
+            int state = add(set, null);
+            targets[state] = target;
+            return state;
+        }
+
+        int split(int[] targets) {
+            return add(null, targets);
+        }
+
+        void link(int state, int... targets) {
+            epsilons.set(state, targets);
+        }
+
+        private int add(long[] set, int[] epsilon) {
+            int state = sets.size();
+            if (state == MAX_NFA_STATES) {
+                throw new IllegalArgumentException("Origin patterns are too large: more than " + MAX_NFA_STATES + " NFA states");
+            }
+            if (state == targets.length) {
+                targets = Arrays.copyOf(targets, state * 2);
+            }
+            sets.add(set);
+            epsilons.add(epsilon);
+            return state;
+        }
+
+        /**
+         * Subset construction, over classes of characters which are not told apart by any state.
+         */
+        OriginPatterns determinize(int start, int patterns) {
+            byte[] classes = new byte[ALPHABET];
+            List<Character> representatives = new ArrayList<>();
+            Map<BitSet, Integer> signatures = new HashMap<>();
+            for (char c = 0; c < ALPHABET; c++) {
+                BitSet signature = new BitSet();
+                for (int state = 0; state < sets.size(); state++) {
+                    long[] set = sets.get(state);
+                    if (set != null && contains(set, c)) {
+                        signature.set(state);
+                    }
+                }
+                Integer id = signatures.get(signature);
+                if (id == null) {
+                    id = representatives.size();
+                    signatures.put(signature, id);
+                    representatives.add(c);
+                }
+                classes[c] = (byte) (int) id;
+            }
+
+            int classCount = representatives.size();
+            Map<BitSet, Integer> ids = new LinkedHashMap<>();
+            Deque<BitSet> pending = new ArrayDeque<>();
+            BitSet initial = closure(singleton(start));
+            ids.put(initial, 0);
+            pending.add(initial);
+
+            int[] transitions = new int[classCount * 16];
+            while (!pending.isEmpty()) {
+                BitSet current = pending.poll();
+                int id = ids.get(current);
+                if ((id + 1) * classCount > transitions.length) {
+                    transitions = Arrays.copyOf(transitions, Math.max(transitions.length * 2, (id + 1) * classCount));
+                }
+
+                for (int clazz = 0; clazz < classCount; clazz++) {
+                    char c = representatives.get(clazz);
+                    BitSet moved = new BitSet();
+                    for (int state = current.nextSetBit(0); state >= 0; state = current.nextSetBit(state + 1)) {
+                        long[] set = sets.get(state);
+                        if (set != null && contains(set, c)) {
+                            moved.set(targets[state]);
+                        }
+                    }
+
+                    if (moved.isEmpty()) {
+                        transitions[id * classCount + clazz] = DEAD;
+                        continue;
+                    }
+
+                    BitSet next = closure(moved);
+                    Integer nextId = ids.get(next);
+                    if (nextId == null) {
+                        nextId = ids.size();
+                        if (nextId == MAX_STATES) {
+                            throw new IllegalArgumentException(
+                                    "Origin patterns are too complex: more than " + MAX_STATES + " states");
+                        }
+                        ids.put(next, nextId);
+                        pending.add(next);
+                    }
+                    transitions[id * classCount + clazz] = nextId;
+                }
+            }
+
+            boolean[] accepting = new boolean[ids.size()];
+            for (Map.Entry<BitSet, Integer> state : ids.entrySet()) {
+                accepting[state.getValue()] = state.getKey().get(MATCH);
+            }
+
+            return new OriginPatterns(patterns, classes, classCount,
+                    Arrays.copyOf(transitions, ids.size() * classCount), accepting);
+        }
+
+        private BitSet closure(BitSet states) {
+            BitSet closure = new BitSet();
+            Deque<Integer> stack = new ArrayDeque<>();
+            for (int state = states.nextSetBit(0); state >= 0; state = states.nextSetBit(state + 1)) {
+                stack.push(state);
+            }
+
+            while (!stack.isEmpty()) {
+                int state = stack.pop();
+                if (closure.get(state)) {
+                    continue;
+                }
+                closure.set(state);
+                int[] epsilon = epsilons.get(state);
+                if (epsilon != null) {
+                    for (int target : epsilon) {
+                        stack.push(target);
+                    }
+                }
+            }
+            return closure;
+        }
+
+        private static BitSet singleton(int state) {
+            BitSet set = new BitSet();
+            set.set(state);
+            return set;
+        }
+    }
+}
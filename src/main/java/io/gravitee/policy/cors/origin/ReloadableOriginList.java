@@ -0,0 +1,203 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.origin;
+
+import io.gravitee.policy.cors.origin.source.OriginSource;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Allowed origins loaded from an {@link OriginSource}, which can be reloaded while requests are served.
+ *
+ * Each reload compiles a new {@link OriginMatcher} on the loader executor, never on a request thread, and publishes
+ * it with a single volatile write: lookups never lock nor wait for a reload, they see either the previous or the new
+ * list. A reload which fails, including one returning an empty list in place of a non-empty one (such as a file being
+ * rewritten), keeps the last good list in place.
+ *
+ * Reloads are serialized, and reloads requested while one is waiting to start are merged into it.
+ *
+ * @author GraviteeSource Team
+ */
+public final class ReloadableOriginList implements AutoCloseable {
+
+    private final OriginSource source;
+
+    private final Executor executor;
+
+    private volatile Snapshot snapshot = new Snapshot(OriginMatcher.of(Collections.emptySet()), 0, 0);
+
+    private final LongAdder failures = new LongAdder();
+
+    private volatile Throwable lastFailure;
+
+    private volatile long lastReloadNanos;
+
+    // Guarded by this
+    private CompletableFuture<?> tail = CompletableFuture.completedFuture(null);
+
+    // Guarded by this, the reload not started yet
+    private CompletableFuture<Boolean> queued;
+
+    public ReloadableOriginList(OriginSource source, Executor executor) {
+        this.source = source;
+        this.executor = executor;
+    }
+
+    /**
+     * Load the origins for the first time and reload them each time the source reports a change.
+     *
+     * @return the first load, completed with <code>true</code> if it succeeded
+     */
+    public CompletableFuture<Boolean> start() {
+        CompletableFuture<Boolean> load = refresh();
+        source.watch(this::refresh);
+        return load;
+    }
+
+    /**
+     * Reload the origins.
+     *
+     * @return the reload, completed with <code>true</code> if the new origins are in use or <code>false</code> if the
+     * reload failed and the previous origins are kept
+     */
+    public synchronized CompletableFuture<Boolean> refresh() {
+        if (queued != null) {
+            return queued;
+        }
+
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        queued = result;
+        tail = tail
+                .handle((ignored, failure) -> null)
+                .thenComposeAsync(ignored -> {
+                    synchronized (this) {
+                        queued = null;
+                    }
+                    return reload().thenApply(reloaded -> {
+                        result.complete(reloaded);
+                        return reloaded;
+                    });
+                }, executor);
+
+        return result;
+    }
+
+    private CompletionStage<Boolean> reload() {
+        final long start = System.nanoTime();
+
+        CompletionStage<Collection<String>> origins;
+        try {
+            origins = source.load();
+        } catch (RuntimeException re) {
+            CompletableFuture<Collection<String>> failed = new CompletableFuture<>();
+            failed.completeExceptionally(re);
+            origins = failed;
+        }
+
+        return origins
+                .thenApplyAsync(loaded -> {
+                    Snapshot current = snapshot;
+                    if ((loaded == null || loaded.isEmpty()) && current.size > 0) {
+                        throw new IllegalStateException("The origin source returned no origin, keeping the " +
+                                current.size + " previous ones");
+                    }
+
+                    OriginMatcher matcher = OriginMatcher.of(loaded);
+                    snapshot = new Snapshot(matcher, current.generation + 1, loaded == null ? 0 : loaded.size());
+                    lastReloadNanos = System.nanoTime() - start;
+                    return true;
+                }, executor)
+                .exceptionally(failure -> {
+                    failures.increment();
+                    lastFailure = failure;
+                    return false;
+                });
+    }
+
+    /**
+     * @param origin the value of the <code>Origin</code> header
+     * @return <code>true</code> if the origin is part of the last loaded origins
+     */
+    public boolean isAllowed(String origin) {
+        return snapshot.matcher.isAllowed(origin);
+    }
+
+    /**
+     * @return <code>true</code> once the origins have been loaded, until then no origin is allowed
+     */
+    public boolean isLoaded() {
+        return snapshot.generation > 0;
+    }
+
+    /**
+     * @return the number of successful loads, which changes each time new origins are published
+     */
+    public long generation() {
+        return snapshot.generation;
+    }
+
+    /**
+     * @return the number of origins in use
+     */
+    public int size() {
+        return snapshot.size;
+    }
+
+    /**
+     * @return the number of failed reloads
+     */
+    public long failures() {
+        return failures.sum();
+    }
+
+    /**
+     * @return the cause of the last failed reload, or <code>null</code>
+     */
+    public Throwable lastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * @return the time the last successful reload took, from the start of the load to the publication of the new
+     * origins, in nanoseconds
+     */
+    public long lastReloadNanos() {
+        return lastReloadNanos;
+    }
+
+    @Override
+    public void close() {
+        source.close();
+    }
+
+    private static final class Snapshot {
+
+        private final OriginMatcher matcher;
+        private final long generation;
+        private final int size;
+
+        private Snapshot(OriginMatcher matcher, long generation, int size) {
+            this.matcher = matcher;
+            this.generation = generation;
+            this.size = size;
+        }
+    }
+}
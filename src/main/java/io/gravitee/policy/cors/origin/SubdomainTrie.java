@@ -0,0 +1,199 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.origin;
+
+import io.gravitee.policy.cors.utils.AsciiCase;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Trie of host labels, stored from the right-most one (<code>com</code>, then <code>example</code>, ...), matching
+ * origins against wildcard entries such as <code>https://*.example.com</code>. A wildcard entry matches any
+ * sub-domain, at any depth, but not the domain itself.
+ *
+ * The trie is frozen once built: each node keeps its children in an open-addressing table so that labels are looked
+ * up directly on the origin string, without extracting them.
+ *
+ * @author GraviteeSource Team
+ */
+final class SubdomainTrie {
+
+    private final Node root;
+
+    private SubdomainTrie(Builder.MutableNode root) {
+        this.root = root.freeze();
+    }
+
+    boolean isEmpty() {
+        return root.children.length == 0;
+    }
+
+    /**
+     * @param origin the origin, as sent by the user-agent
+     * @param schemeEnd index of the <code>://</code> separator
+     * @param hostStart index of the first character of the host
+     * @param hostEnd index following the last character of the host
+     * @return <code>true</code> if one of the wildcard entries matches the origin
+     */
+    boolean matches(String origin, int schemeEnd, int hostStart, int hostEnd) {
+        Node node = root;
+        int end = hostEnd;
+
+        while (end > hostStart) {
+            int dot = end - 1;
+            while (dot >= hostStart && origin.charAt(dot) != '.') {
+                dot--;
+            }
+
+            node = node.child(origin, dot + 1, end);
+            if (node == null) {
+                return false;
+            }
+
+            // A wildcard only matches when there is at least one more label on the left
+            if (node.targets != null && dot > hostStart && node.matchesTarget(origin, schemeEnd, hostEnd)) {
+                return true;
+            }
+
+            end = dot;
+        }
+
+        return false;
+    }
+
+    static final class Builder {
+
+        private final MutableNode root = new MutableNode();
+
+        private int size;
+
+        /**
+         * @param scheme the scheme, without <code>://</code>
+         * @param domain the domain following the <code>*.</code> wildcard
+         * @param port the port including its leading <code>:</code>, or an empty string
+         */
+        Builder add(String scheme, String domain, String port) {
+            MutableNode node = root;
+            int end = domain.length();
+            while (end > 0) {
+                int dot = domain.lastIndexOf('.', end - 1);
+                String label = lower(domain.substring(dot + 1, end));
+                node = node.children.computeIfAbsent(label, key -> new MutableNode());
+                end = dot;
+            }
+
+            node.targets.add(new Target(lower(scheme), port));
+            size++;
+            return this;
+        }
+
+        int size() {
+            return size;
+        }
+
+        SubdomainTrie build() {
+            return new SubdomainTrie(root);
+        }
+
+        private static String lower(String value) {
+            StringBuilder builder = new StringBuilder(value.length());
+            for (int i = 0; i < value.length(); i++) {
+                builder.append(AsciiCase.toLowerCase(value.charAt(i)));
+            }
+            return builder.toString();
+        }
+
+        private static final class MutableNode {
+            private final Map<String, MutableNode> children = new LinkedHashMap<>();
+            private final List<Target> targets = new ArrayList<>();
+
+            Node freeze() {
+                int capacity = children.isEmpty() ? 0 : Integer.highestOneBit(Math.max(2, children.size() * 2 - 1)) << 1;
+                String[] labels = new String[capacity];
+                int[] hashes = new int[capacity];
+                Node[] nodes = new Node[capacity];
+
+                for (Map.Entry<String, MutableNode> child : children.entrySet()) {
+                    String label = child.getKey();
+                    int hash = AsciiCase.hash(label, 0, label.length());
+                    int i = hash & (capacity - 1);
+                    while (labels[i] != null) {
+                        i = (i + 1) & (capacity - 1);
+                    }
+                    labels[i] = label;
+                    hashes[i] = hash;
+                    nodes[i] = child.getValue().freeze();
+                }
+
+                return new Node(labels, hashes, nodes, targets.isEmpty() ? null : targets.toArray(new Target[0]));
+            }
+        }
+    }
+
+    private static final class Node {
+        private final String[] labels;
+        private final int[] hashes;
+        private final Node[] children;
+        private final Target[] targets;
+
+        private Node(String[] labels, int[] hashes, Node[] children, Target[] targets) {
+            this.labels = labels;
+            this.hashes = hashes;
+            this.children = children;
+            this.targets = targets;
+        }
+
+        Node child(String origin, int start, int end) {
+            if (labels.length == 0) {
+                return null;
+            }
+
+            int mask = labels.length - 1;
+            int hash = AsciiCase.hash(origin, start, end);
+            for (int i = hash & mask; labels[i] != null; i = (i + 1) & mask) {
+                if (hashes[i] == hash && AsciiCase.regionEquals(labels[i], origin, start, end)) {
+                    return children[i];
+                }
+            }
+
+            return null;
+        }
+
+        boolean matchesTarget(String origin, int schemeEnd, int hostEnd) {
+            for (Target target : targets) {
+                if (AsciiCase.regionEquals(target.scheme, origin, 0, schemeEnd) &&
+                        AsciiCase.regionEquals(target.port, origin, hostEnd, origin.length())) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    private static final class Target {
+        private final String scheme;
+        private final String port;
+
+        private Target(String scheme, String port) {
+            this.scheme = scheme;
+            this.port = port;
+        }
+    }
+}
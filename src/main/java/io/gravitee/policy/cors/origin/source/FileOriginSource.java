@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.origin.source;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+
+/**
+ * Origins listed in a text file, one per line. Blank lines and lines starting with <code>#</code> are ignored.
+ *
+ * The parent directory of the file is watched so that the origins are reloaded whenever the file is modified or
+ * replaced. Replacing the file (write to a temporary file, then rename) is preferred over rewriting it in place, which
+ * may be seen half-written.
+ *
+ * @author GraviteeSource Team
+ */
+public class FileOriginSource implements OriginSource {
+
+    private static final String COMMENT = "#";
+
+    private final Path file;
+
+    private final Executor executor;
+
+    private volatile WatchService watchService;
+
+    // Guarded by this
+    private Thread watcher;
+
+    public FileOriginSource(Path file, Executor executor) {
+        this.file = file.toAbsolutePath();
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletionStage<Collection<String>> load() {
+        return CompletableFuture.supplyAsync(this::read, executor);
+    }
+
+    private Collection<String> read() {
+        try {
+            List<String> origins = new ArrayList<>();
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                String origin = line.trim();
+                if (! origin.isEmpty() && ! origin.startsWith(COMMENT)) {
+                    origins.add(origin);
+                }
+            }
+            return origins;
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Unable to read origins from " + file, ioe);
+        }
+    }
+
+    @Override
+    public synchronized void watch(Runnable listener) {
+        if (watchService != null) {
+            return;
+        }
+
+        try {
+            Path directory = file.getParent();
+            WatchService service = FileSystems.getDefault().newWatchService();
+            directory.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            watchService = service;
+
+            watcher = new Thread(() -> poll(service, listener), "cors-origin-watcher-" + file.getFileName());
+            watcher.setDaemon(true);
+            watcher.start();
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Unable to watch " + file, ioe);
+        }
+    }
+
+    private void poll(WatchService service, Runnable listener) {
+        try {
+            while (! Thread.currentThread().isInterrupted()) {
+                WatchKey key = service.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (file.getFileName().equals(event.context()) || event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        changed = true;
+                    }
+                }
+                key.reset();
+
+                if (changed) {
+                    listener.run();
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException cwse) {
+            // Closed
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException ioe) {
+                // Nothing more to release
+            }
+            watchService = null;
+        }
+
+        // Also stops a watcher busy notifying its listener: it would otherwise keep the classes of the policy
+        if (watcher != null) {
+            watcher.interrupt();
+            watcher = null;
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+}
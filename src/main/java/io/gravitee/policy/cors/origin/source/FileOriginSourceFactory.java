@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.origin.source;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Create {@link FileOriginSource}s for <code>file:</code> locations, such as <code>file:origins.txt</code>.
+ *
+ * Files are read from the directory set by the gateway operator in the {@value #DIRECTORY_PROPERTY} system property
+ * (or the <code>GRAVITEE_POLICY_CORS_ORIGINS_DIRECTORY</code> environment variable), against which locations are
+ * resolved: an API publisher can not read any other file of the gateway. Locations outside of it, even through a
+ * symbolic link, are refused, and so are all of them if no directory is set.
+ *
+ * @author GraviteeSource Team
+ */
+public class FileOriginSourceFactory implements OriginSourceFactory {
+
+    /**
+     * The system property holding the directory of the origin files
+     */
+    public static final String DIRECTORY_PROPERTY = "gravitee.policy.cors.origins.directory";
+
+    private static final String DIRECTORY_VARIABLE = "GRAVITEE_POLICY_CORS_ORIGINS_DIRECTORY";
+
+    private static final String SCHEME = "file:";
+
+    private final Path directory;
+
+    public FileOriginSourceFactory() {
+        this(null);
+    }
+
+    /**
+     * @param directory the directory of the origin files, or <code>null</code> to read it from the system property
+     */
+    public FileOriginSourceFactory(Path directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public boolean supports(String location) {
+        return location.startsWith(SCHEME);
+    }
+
+    @Override
+    public OriginSource create(String location) {
+        return new FileOriginSource(resolve(location.substring(SCHEME.length())), OriginSources.executor());
+    }
+
+    /**
+     * Resolve a file name against the directory of the origin files.
+     *
+     * @param name the name of the file, relative to the directory or absolute
+     * @return the absolute path of the file
+     * @throws IllegalArgumentException if no directory is set, or if the file is not in it
+     */
+    Path resolve(String name) {
+        Path base = directory();
+        if (base == null) {
+            throw new IllegalArgumentException("Origin files are disabled: the gateway has to set the "
+                    + DIRECTORY_PROPERTY + " system property to the directory holding them");
+        }
+
+        try {
+            base = base.toRealPath();
+            Path file = base.resolve(name).normalize();
+            // Nothing is looked up outside of the directory: it would tell which files exist
+            if (file.startsWith(base) && ! file.equals(base) && file.getParent().toRealPath().startsWith(base)
+                    && (! Files.exists(file) || file.toRealPath().startsWith(base))) {
+                return file;
+            }
+        } catch (IOException ioe) {
+            throw new IllegalArgumentException("Unable to resolve origin file " + name);
+        }
+
+        throw new IllegalArgumentException("Origin file " + name + " is outside of the origins directory");
+    }
+
+    private Path directory() {
+        if (directory != null) {
+            return directory;
+        }
+
+        String configured = System.getProperty(DIRECTORY_PROPERTY, System.getenv(DIRECTORY_VARIABLE));
+        return configured == null || configured.trim().isEmpty() ? null : Paths.get(configured.trim());
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.origin.source;
+
+import java.util.Collection;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * A source of allowed origins living outside of the policy configuration, such as a file or a remote service, whose
+ * content can change without redeploying the API.
+ *
+ * Implementations are provided by an {@link OriginSourceFactory}.
+ *
+ * @author GraviteeSource Team
+ */
+public interface OriginSource extends AutoCloseable {
+
+    /**
+     * Load the current list of origins. The list must be fetched asynchronously, never on the calling thread, since
+     * loads may be triggered while serving requests.
+     *
+     * @return the origins, or a stage completed exceptionally if they can not be loaded
+     */
+    CompletionStage<Collection<String>> load();
+
+    /**
+     * Start notifying changes of the origins. Sources which can not detect changes do not have to implement it.
+     *
+     * @param listener called, from any thread, each time the origins may have changed
+     */
+    default void watch(Runnable listener) {
+    }
+
+    /**
+     * Stop watching changes and release resources.
+     */
+    @Override
+    default void close() {
+    }
+}
@@ -0,0 +1,37 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.origin.source;
+
+/**
+ * Service provider of {@link OriginSource}s, discovered through {@link java.util.ServiceLoader}: implementations are
+ * declared in <code>META-INF/services/io.gravitee.policy.cors.origin.source.OriginSourceFactory</code>.
+ *
+ * @author GraviteeSource Team
+ */
+public interface OriginSourceFactory {
+
+    /**
+     * @param location the location of the origins, as configured by <code>accessControlAllowOriginSource</code>
+     * @return <code>true</code> if this factory handles the location
+     */
+    boolean supports(String location);
+
+    /**
+     * @param location the location of the origins
+     * @return the source of the origins
+     */
+    OriginSource create(String location);
+}
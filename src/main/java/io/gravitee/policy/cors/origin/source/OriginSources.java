@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.origin.source;
+
+import io.gravitee.policy.cors.origin.ReloadableOriginList;
+
+import java.util.ServiceLoader;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Registry of the {@link ReloadableOriginList}s, one per location so that every API using the same source shares the
+ * loaded origins and the watcher. They are reference counted: the watcher of a location is stopped once the last
+ * plan using it is released.
+ *
+ * @author GraviteeSource Team
+ */
+public final class OriginSources {
+
+    private final static ConcurrentMap<String, Lease> LISTS = new ConcurrentHashMap<>();
+
+    // How long acquiring a location waits for its origins to be loaded
+    final static long FIRST_LOAD_TIMEOUT_MILLIS = 5000;
+
+    // How long the loader thread is kept once it has nothing left to load
+    final static long LOADER_KEEP_ALIVE_MILLIS = 1000;
+
+    private static volatile ExecutorService executor;
+
+    private OriginSources() {
+    }
+
+    /**
+     * Get the origins of the given location, loading them and watching their changes on first use. Every call must
+     * be balanced by a call to {@link #release(String)}.
+     *
+     * The first load is waited for, up to {@value #FIRST_LOAD_TIMEOUT_MILLIS} ms, so that the sourced origins are
+     * allowed as soon as an API is deployed. Past that, or if it failed, the origins are used once they are loaded.
+     *
+     * @param location the location of the origins, such as <code>file:origins.txt</code>
+     * @return the origins
+     * @throws IllegalArgumentException if no {@link OriginSourceFactory} supports the location, or if it refuses it
+     */
+    public static ReloadableOriginList acquire(String location) {
+        Lease lease = LISTS.compute(location, (key, current) -> {
+            Lease acquired = current != null ? current : new Lease(key);
+            acquired.count++;
+            return acquired;
+        });
+
+        // Out of the map: other locations are not held up meanwhile
+        try {
+            lease.loaded.get(FIRST_LOAD_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            // Still loading, or reported by the failures of the list
+        }
+
+        return lease.list;
+    }
+
+    /**
+     * Release the origins of the given location, and stop watching them if they are not used anymore.
+     *
+     * @param location the location of the origins
+     */
+    public static void release(String location) {
+        LISTS.computeIfPresent(location, (key, lease) -> {
+            if (--lease.count > 0) {
+                return lease;
+            }
+
+            lease.list.close();
+            return null;
+        });
+    }
+
+    private static OriginSource create(String location) {
+        for (OriginSourceFactory factory : ServiceLoader.load(OriginSourceFactory.class, OriginSourceFactory.class.getClassLoader())) {
+            if (factory.supports(location)) {
+                return factory.create(location);
+            }
+        }
+
+        throw new IllegalArgumentException("No origin source supports " + location);
+    }
+
+    /**
+     * @return the executor loading and compiling origins, off the request threads. Its thread stops once idle, so
+     * that it does not keep the classes of the policy once the plugin is unloaded
+     */
+    public static ExecutorService executor() {
+        ExecutorService current = executor;
+        if (current == null) {
+            synchronized (OriginSources.class) {
+                current = executor;
+                if (current == null) {
+                    ThreadPoolExecutor loader = new ThreadPoolExecutor(1, 1, LOADER_KEEP_ALIVE_MILLIS,
+                            TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                                Thread thread = new Thread(runnable, "cors-origin-loader");
+                                thread.setDaemon(true);
+                                return thread;
+                            });
+                    loader.allowCoreThreadTimeOut(true);
+                    executor = current = loader;
+                }
+            }
+        }
+
+        return current;
+    }
+
+    private static final class Lease {
+
+        private final ReloadableOriginList list;
+
+        // The first load of the origins
+        private final CompletableFuture<Boolean> loaded;
+
+        // Guarded by the map
+        private int count;
+
+        private Lease(String location) {
+            this.list = new ReloadableOriginList(create(location), executor());
+            this.loaded = list.start();
+        }
+    }
+}
@@ -0,0 +1,613 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.plan;
+
+import io.gravitee.common.http.HttpHeaders;
+import io.gravitee.common.http.HttpMethod;
+import io.gravitee.common.http.HttpStatusCode;
+import io.gravitee.policy.cors.configuration.CorsPolicyConfiguration;
+import io.gravitee.policy.cors.metrics.CorsMetrics;
+import io.gravitee.policy.cors.origin.OriginMatcher;
+import io.gravitee.policy.cors.origin.ReloadableOriginList;
+import io.gravitee.policy.cors.origin.source.OriginSources;
+import io.gravitee.policy.cors.utils.AsciiCase;
+import io.gravitee.policy.cors.utils.FrozenCaseInsensitiveSet;
+import io.gravitee.policy.cors.utils.HeaderListScanner;
+import io.gravitee.policy.cors.utils.HeaderTrie;
+import io.gravitee.policy.cors.utils.TokenMatcher;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Immutable view of a {@link CorsPolicyConfiguration} where every CORS response header value has been computed
+ * up-front, so that the request / response phases only have to write ready-made values.
+ *
+ * @author GraviteeSource Team
+ */
+public final class CorsPlan {
+
+    private final static String JOINER_CHAR_SEQUENCE = ", ";
+
+    private final static HttpMethod[] METHODS = HttpMethod.values();
+
+    private final static String WILDCARD = "*";
+
+    private final static TokenMatcher ANY_TOKEN = (value, start, end) -> true;
+
+    // Access-Control-Expose-Headers (null if not set), without the header name prefixes
+    private final String exposeHeaders;
+
+    // Header name prefixes, and names, of the exposed headers (null if there is no prefix)
+    private final HeaderTrie exposedHeaderPatterns;
+
+    // Access-Control-Allow-Headers, without the header name prefixes
+    private final String allowHeaders;
+
+    // The requested headers matching a header name prefix are added to Access-Control-Allow-Headers, browsers do not
+    // expand the prefixes
+    private final boolean reflectAllowedHeaders;
+
+    // Access-Control-Allow-Methods
+    private final String allowMethods;
+
+    // Access-Control-Max-Age (null if disabled)
+    private final String maxAge;
+
+    private final long maxAgeNanos;
+
+    private final boolean preflightVolumeReduction;
+
+    private final boolean allowCredentials;
+
+    private final int allowedMethods;
+
+    private final OriginMatcher allowedOrigins;
+
+    // Origins loaded from an external source (null if none)
+    private final ReloadableOriginList sourcedOrigins;
+
+    // A FrozenCaseInsensitiveSet, or a HeaderTrie when header name prefixes are allowed
+    private final TokenMatcher allowedHeaders;
+
+    private final TokenMatcher allowedMethodMatcher = this::isMethodAllowed;
+
+    private final int maxRequestHeadersLength;
+
+    private final int maxRequestHeadersCount;
+
+    private final int errorStatusCode;
+
+    private final boolean preflightDirectResponse;
+
+    private final boolean preflightShortCircuit;
+
+    private final boolean enforceAllowedOrigins;
+
+    private final boolean skipRequestsWithoutOrigin;
+
+    private final boolean varyOrigin;
+
+    private final PreflightResult[] preflightRejected;
+
+    private final int rejectionLogSampling;
+
+    // The limiters themselves belong to the APIs, this plan is shared (0 if preflight requests are not rate limited)
+    private final int preflightRateLimit;
+
+    private final int preflightRateLimitBurst;
+
+    private final int preflightCacheSize;
+
+    private final long preflightCacheTtl;
+
+    // Decisions depend on the sourced origins: they are cached for a given generation of them only
+    private volatile CacheGeneration preflightCache;
+
+    // Plans of the path rules, null entries for the paths CORS is disabled for (null if there is no rule)
+    private final PathRuleTree<CorsPlan> pathRules;
+
+    final CorsPlanKey key;
+
+    CorsPlan(CorsPlanKey key) {
+        this.key = key;
+        this.exposeHeaders = joinNames(key.exposeHeaders);
+        this.exposedHeaderPatterns = HeaderTrie.hasPattern(key.exposeHeaders) ? HeaderTrie.of(key.exposeHeaders) : null;
+
+        boolean allowHeaderPatterns = HeaderTrie.hasPattern(key.allowHeaders);
+        this.allowedHeaders = allowHeaderPatterns ?
+                HeaderTrie.of(key.allowHeaders) : FrozenCaseInsensitiveSet.of(key.allowHeaders);
+        this.allowedMethods = toBitmask(key.allowMethods);
+        this.preflightVolumeReduction = key.preflightVolumeReduction;
+
+        if (preflightVolumeReduction && ! key.allowCredentials) {
+            // Let browsers cache a single preflight for any method and header. The wildcard does not cover
+            // Authorization, which has to be listed explicitly.
+            boolean authorization = allowedHeaders.matches(HttpHeaders.AUTHORIZATION, 0,
+                    HttpHeaders.AUTHORIZATION.length());
+            this.allowHeaders = authorization ? WILDCARD + JOINER_CHAR_SEQUENCE + HttpHeaders.AUTHORIZATION : WILDCARD;
+            this.reflectAllowedHeaders = false;
+            this.allowMethods = WILDCARD;
+        } else {
+            String names = joinNames(key.allowHeaders);
+            this.allowHeaders = names == null ? "" : names;
+            this.reflectAllowedHeaders = allowHeaderPatterns;
+            this.allowMethods = key.allowMethods
+                    .stream()
+                    .map(String::toUpperCase)
+                    .collect(Collectors.joining(JOINER_CHAR_SEQUENCE));
+        }
+
+        this.allowedOrigins = OriginMatcher.of(key.allowOrigin);
+
+        int maxAgeSeconds = preflightVolumeReduction && key.maxAge < 0 ?
+                CorsPolicyConfiguration.DEFAULT_REDUCED_PREFLIGHT_MAX_AGE : key.maxAge;
+        this.maxAge = maxAgeSeconds > -1 ? Integer.toString(maxAgeSeconds) : null;
+        this.maxAgeNanos = maxAgeSeconds > 0 ? TimeUnit.SECONDS.toNanos(maxAgeSeconds) : 0;
+        this.allowCredentials = key.allowCredentials;
+        // Only a wildcard without credentials gives the same Access-Control-Allow-Origin to every origin
+        this.varyOrigin = allowCredentials || ! allowedOrigins.isAllowAll();
+        this.errorStatusCode = key.errorStatusCode;
+        this.preflightDirectResponse = key.preflightDirectResponse;
+        this.preflightShortCircuit = key.preflightShortCircuit;
+        this.enforceAllowedOrigins = key.enforceAllowedOrigins;
+        this.skipRequestsWithoutOrigin = key.skipRequestsWithoutOrigin;
+        this.maxRequestHeadersLength = key.maxRequestHeadersLength;
+        this.maxRequestHeadersCount = key.maxRequestHeadersCount;
+
+        this.preflightRejected = new PreflightResult[RejectionReason.values().length];
+        for (RejectionReason reason : RejectionReason.values()) {
+            this.preflightRejected[reason.ordinal()] = PreflightResult.rejected(
+                    reason == RejectionReason.RATE_LIMIT ? HttpStatusCode.TOO_MANY_REQUESTS_429 : errorStatusCode, reason);
+        }
+        this.rejectionLogSampling = Math.max(0, key.rejectionLogSampling);
+        this.preflightRateLimit = Math.max(0, key.preflightRateLimit);
+        this.preflightRateLimitBurst = key.preflightRateLimitBurst > 0 ? key.preflightRateLimitBurst : preflightRateLimit;
+        this.preflightCacheSize = key.preflightCacheSize;
+        this.preflightCacheTtl = TimeUnit.SECONDS.toNanos(key.preflightCacheTtl);
+
+        if (key.paths.isEmpty()) {
+            this.pathRules = null;
+        } else {
+            List<CorsPlan> plans = new ArrayList<>(key.pathRules.size());
+            for (CorsPlanKey rule : key.pathRules) {
+                plans.add(rule == null ? null : CorsPlanRegistry.intern(rule));
+            }
+            this.pathRules = PathRuleTree.of(key.paths, plans);
+        }
+
+        // Last, so that nothing can fail once the source is acquired: it is released along with the plan
+        this.sourcedOrigins = key.allowOriginSource != null && ! allowedOrigins.isAllowAll() ?
+                OriginSources.acquire(key.allowOriginSource) : null;
+        this.preflightCache = preflightCacheSize > 0 ? new CacheGeneration(originsGeneration(),
+                new PreflightCache(preflightCacheSize, preflightCacheTtl)) : null;
+    }
+
+    /**
+     * Get the plan compiled for the given configuration. The plan is resolved once, through the
+     * {@link CorsPlanRegistry}, and kept alongside the configuration so every policy instance created from the same
+     * configuration shares it.
+     *
+     * @param configuration the CORS policy configuration
+     * @return the compiled plan
+     */
+    public static CorsPlan of(CorsPolicyConfiguration configuration) {
+        CorsPlan plan = configuration.getPlan();
+        return plan != null ? plan : CorsPlanRegistry.intern(configuration);
+    }
+
+    /**
+     * @param path the path of the request, relative to the context path of the API
+     * @return the plan of the path rule matching the path, this plan if there is none, or <code>null</code> if CORS
+     * is disabled for the path
+     */
+    public CorsPlan resolve(String path) {
+        return pathRules == null ? this : pathRules.find(path, this);
+    }
+
+    public String getExposeHeaders() {
+        return exposeHeaders;
+    }
+
+    /**
+     * @param responseHeaders the headers of the response
+     * @return the <code>Access-Control-Expose-Headers</code> value of the response, with the headers of the response
+     * matching a header name prefix, or <code>null</code> if there is none
+     */
+    public String getExposeHeaders(HttpHeaders responseHeaders) {
+        if (exposedHeaderPatterns == null) {
+            return exposeHeaders;
+        }
+
+        StringBuilder value = exposeHeaders == null ? new StringBuilder() : new StringBuilder(exposeHeaders);
+        for (String name : responseHeaders.keySet()) {
+            if (exposedHeaderPatterns.match(name, 0, name.length()) == HeaderTrie.PREFIX) {
+                append(value, name, 0, name.length());
+            }
+        }
+
+        return value.length() == 0 ? null : value.toString();
+    }
+
+    public String getAllowHeaders() {
+        return allowHeaders;
+    }
+
+    /**
+     * @param accessControlRequestHeaders the value of the <code>Access-Control-Request-Headers</code> header of an
+     * allowed preflight request
+     * @return the <code>Access-Control-Allow-Headers</code> value of the response, with the requested headers
+     * matching a header name prefix
+     */
+    public String getAllowHeaders(String accessControlRequestHeaders) {
+        if (! reflectAllowedHeaders || accessControlRequestHeaders == null) {
+            return allowHeaders;
+        }
+
+        final HeaderTrie trie = (HeaderTrie) allowedHeaders;
+        final StringBuilder value = new StringBuilder(allowHeaders);
+        HeaderListScanner.scan(accessControlRequestHeaders, Integer.MAX_VALUE, Integer.MAX_VALUE, (header, start, end) -> {
+            if (trie.match(header, start, end) == HeaderTrie.PREFIX) {
+                append(value, header, start, end);
+            }
+            return true;
+        });
+
+        return value.toString();
+    }
+
+    public String getAllowMethods() {
+        return allowMethods;
+    }
+
+    public String getMaxAge() {
+        return maxAge;
+    }
+
+    public boolean isAllowCredentials() {
+        return allowCredentials;
+    }
+
+    public int getErrorStatusCode() {
+        return errorStatusCode;
+    }
+
+    public boolean isPreflightDirectResponse() {
+        return preflightDirectResponse;
+    }
+
+    public boolean isPreflightShortCircuit() {
+        return preflightShortCircuit;
+    }
+
+    public boolean isEnforceAllowedOrigins() {
+        return enforceAllowedOrigins;
+    }
+
+    public boolean isPreflightVolumeReduction() {
+        return preflightVolumeReduction;
+    }
+
+    /**
+     * @return how long browsers may cache a preflight response, in nanoseconds, 0 if they may not
+     */
+    public long getMaxAgeNanos() {
+        return maxAgeNanos;
+    }
+
+    public boolean isSkipRequestsWithoutOrigin() {
+        return skipRequestsWithoutOrigin;
+    }
+
+    /**
+     * @return <code>true</code> if the CORS headers depend on the <code>Origin</code> of the request, in which case
+     * responses must carry <code>Vary: Origin</code>
+     */
+    public boolean isVaryOrigin() {
+        return varyOrigin;
+    }
+
+    /**
+     * @return <code>true</code> if the configuration allows any origin
+     */
+    public boolean isAllowAllOrigins() {
+        return allowedOrigins.isAllowAll();
+    }
+
+    /**
+     * @param origin the value of the <code>Origin</code> header
+     * @return <code>true</code> if the origin is part of the allowed origins
+     */
+    public boolean isOriginAllowed(String origin) {
+        return allowedOrigins.isAllowed(origin) || (sourcedOrigins != null && sourcedOrigins.isAllowed(origin));
+    }
+
+    /**
+     * Decide on a preflight request, from the decision cache when possible.
+     *
+     * @param origin the value of the <code>Origin</code> header
+     * @param accessControlRequestMethod the value of the <code>Access-Control-Request-Method</code> header
+     * @param accessControlRequestHeaders the value of the <code>Access-Control-Request-Headers</code> header
+     * @return the status and headers of the response to the preflight request
+     */
+    public PreflightResult preflight(String origin, String accessControlRequestMethod, String accessControlRequestHeaders) {
+        return preflight(origin, accessControlRequestMethod, accessControlRequestHeaders, null);
+    }
+
+    /**
+     * Decide on a preflight request, from the decision cache when possible, and record the hits of the cache.
+     *
+     * @param origin the value of the <code>Origin</code> header
+     * @param accessControlRequestMethod the value of the <code>Access-Control-Request-Method</code> header
+     * @param accessControlRequestHeaders the value of the <code>Access-Control-Request-Headers</code> header
+     * @param metrics the metrics of the API, may be <code>null</code>
+     * @return the status and headers of the response to the preflight request
+     */
+    public PreflightResult preflight(String origin, String accessControlRequestMethod, String accessControlRequestHeaders,
+                                     CorsMetrics metrics) {
+        final PreflightCache preflightCache = getPreflightCache();
+        // The limits apply to the values as received, while the cache key ignores whitespaces and empty elements:
+        // check them before looking the cache up, and never cache a request exceeding them. Until the sourced origins
+        // are loaded, decisions are not final and not cached either
+        if (preflightCache == null || (sourcedOrigins != null && ! sourcedOrigins.isLoaded()) ||
+                exceedsLimits(accessControlRequestMethod) || exceedsLimits(accessControlRequestHeaders)) {
+            return decide(origin, accessControlRequestMethod, accessControlRequestHeaders);
+        }
+
+        PreflightResult result = preflightCache.get(origin, accessControlRequestMethod, accessControlRequestHeaders);
+        if (result != null) {
+            if (metrics != null) {
+                metrics.preflightCacheHit();
+            }
+        } else {
+            result = decide(origin, accessControlRequestMethod, accessControlRequestHeaders);
+            preflightCache.put(origin, accessControlRequestMethod, accessControlRequestHeaders, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * @return <code>true</code> if the value is longer, or lists more elements, than allowed for a preflight request
+     */
+    private boolean exceedsLimits(String value) {
+        if (value == null) {
+            return false;
+        }
+        if (value.length() > maxRequestHeadersLength) {
+            return true;
+        }
+
+        // Elements are at least one character long, and separated by commas: only count them when there may be too many
+        return (value.length() + 1) / 2 > maxRequestHeadersCount &&
+                HeaderListScanner.scan(value, Integer.MAX_VALUE, maxRequestHeadersCount, ANY_TOKEN) ==
+                        HeaderListScanner.LIMIT_EXCEEDED;
+    }
+
+    /**
+     * @return the preflight decision cache, or <code>null</code> if disabled
+     */
+    public PreflightCache getPreflightCache() {
+        CacheGeneration current = preflightCache;
+        if (current == null) {
+            return null;
+        }
+
+        // Read the generation before deciding: a decision is never cached for a generation older than the
+        // origins it has been made with
+        long generation = originsGeneration();
+        if (current.generation != generation) {
+            current = new CacheGeneration(generation, new PreflightCache(preflightCacheSize, preflightCacheTtl));
+            preflightCache = current;
+        }
+
+        return current.cache;
+    }
+
+    /**
+     * @return the number of rejected requests out of which one is recorded in the rejection log, 0 if none is
+     */
+    public int getRejectionLogSampling() {
+        return rejectionLogSampling;
+    }
+
+    /**
+     * @param accessControlRequestHeaders the value of the <code>Access-Control-Request-Headers</code> header
+     * @return the first requested header which is not allowed, or <code>null</code> if there is none or if the value
+     * exceeds the limits
+     */
+    public String getRejectedRequestHeader(String accessControlRequestHeaders) {
+        int index = checkRequestHeaders(accessControlRequestHeaders);
+        return index >= 0 ? HeaderListScanner.tokenAt(accessControlRequestHeaders, index) : null;
+    }
+
+    /**
+     * @return the number of preflight requests per second allowed to an origin, or 0 if they are not limited
+     */
+    public int getPreflightRateLimit() {
+        return preflightRateLimit;
+    }
+
+    /**
+     * @return the number of preflight requests an idle origin may send at once
+     */
+    public int getPreflightRateLimitBurst() {
+        return preflightRateLimitBurst;
+    }
+
+    /**
+     * @return the origins loaded from the configured source, or <code>null</code> if there is none
+     */
+    public ReloadableOriginList getSourcedOrigins() {
+        return sourcedOrigins;
+    }
+
+    private long originsGeneration() {
+        return sourcedOrigins == null ? 0 : sourcedOrigins.generation();
+    }
+
+    /**
+     * @param reason the check the preflight request failed
+     * @return the result of a preflight request rejected for the given reason
+     */
+    public PreflightResult getPreflightRejected(RejectionReason reason) {
+        return preflightRejected[reason.ordinal()];
+    }
+
+    private PreflightResult decide(String origin, String accessControlRequestMethod, String accessControlRequestHeaders) {
+        // 1. If the Origin header is not present terminate this set of steps. The request is outside the scope of
+        //  this specification.
+        // 2. If the value of the Origin header is not a case-sensitive match for any of the values in list of
+        //  origins, do not set any additional headers and terminate this set of steps.
+        if (! isOriginAllowed(origin)) {
+            return getPreflightRejected(RejectionReason.ORIGIN);
+        }
+
+        // 3. Let method be the value as result of parsing the Access-Control-Request-Method header.
+        // If there is no Access-Control-Request-Method header or if parsing failed, do not set any additional
+        //  headers and terminate this set of steps. The request is outside the scope of this specification.
+        if (checkRequestMethod(accessControlRequestMethod) != HeaderListScanner.ACCEPTED) {
+            return getPreflightRejected(RejectionReason.METHOD);
+        }
+
+        if (checkRequestHeaders(accessControlRequestHeaders) != HeaderListScanner.ACCEPTED) {
+            return getPreflightRejected(RejectionReason.HEADERS);
+        }
+
+        List<String> names = new ArrayList<>(6);
+        List<String> values = new ArrayList<>(6);
+        names.add(HttpHeaders.ACCESS_CONTROL_ALLOW_HEADERS);
+        values.add(getAllowHeaders(accessControlRequestHeaders));
+        names.add(HttpHeaders.ACCESS_CONTROL_ALLOW_METHODS);
+        values.add(allowMethods);
+        if (maxAge != null) {
+            names.add(HttpHeaders.ACCESS_CONTROL_MAX_AGE);
+            values.add(maxAge);
+        }
+        if (allowCredentials) {
+            names.add(HttpHeaders.ACCESS_CONTROL_ALLOW_CREDENTIALS);
+            values.add(Boolean.TRUE.toString());
+        }
+        names.add(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN);
+        values.add(varyOrigin ? origin : OriginMatcher.ALLOW_ALL);
+        if (varyOrigin) {
+            names.add(HttpHeaders.VARY);
+            values.add(HttpHeaders.ORIGIN);
+        }
+
+        return new PreflightResult(HttpStatusCode.OK_200,
+                names.toArray(new String[0]), values.toArray(new String[0]));
+    }
+
+    /**
+     * Validate the <code>Access-Control-Request-Headers</code> value of a preflight request.
+     *
+     * @param accessControlRequestHeaders the header value, may be <code>null</code>
+     * @return {@link HeaderListScanner#ACCEPTED}, {@link HeaderListScanner#LIMIT_EXCEEDED} or the index of the first
+     * header which is not allowed
+     */
+    public int checkRequestHeaders(String accessControlRequestHeaders) {
+        return HeaderListScanner.scan(accessControlRequestHeaders,
+                maxRequestHeadersLength, maxRequestHeadersCount, allowedHeaders);
+    }
+
+    /**
+     * Validate the <code>Access-Control-Request-Method</code> value of a preflight request.
+     *
+     * @param accessControlRequestMethod the header value, may be <code>null</code>
+     * @return {@link HeaderListScanner#ACCEPTED}, {@link HeaderListScanner#LIMIT_EXCEEDED} or the index of the first
+     * method which is not allowed
+     */
+    public int checkRequestMethod(String accessControlRequestMethod) {
+        return HeaderListScanner.scan(accessControlRequestMethod,
+                maxRequestHeadersLength, maxRequestHeadersCount, allowedMethodMatcher);
+    }
+
+    /**
+     * Verify that the given method is part of the allowed methods, ignoring case.
+     *
+     * @param method the method name
+     * @return <code>true</code> if the method is allowed
+     */
+    public boolean isMethodAllowed(String method) {
+        return method != null && isMethodAllowed(method, 0, method.length());
+    }
+
+    private boolean isMethodAllowed(CharSequence value, int start, int end) {
+        HttpMethod httpMethod = lookup(value, start, end);
+        return httpMethod != null && (allowedMethods & bit(httpMethod)) != 0;
+    }
+
+    /**
+     * @return the header names, without the header name prefixes, separated by commas, or <code>null</code> if there
+     * is none
+     */
+    private static String joinNames(Collection<String> headers) {
+        String names = headers.stream()
+                .filter(header -> ! HeaderTrie.isPattern(header))
+                .collect(Collectors.joining(JOINER_CHAR_SEQUENCE));
+        return names.isEmpty() ? null : names;
+    }
+
+    private static void append(StringBuilder value, CharSequence header, int start, int end) {
+        if (value.length() > 0) {
+            value.append(JOINER_CHAR_SEQUENCE);
+        }
+        value.append(header, start, end);
+    }
+
+    private static int toBitmask(Collection<String> methods) {
+        int mask = 0;
+        if (methods != null) {
+            for (String method : methods) {
+                HttpMethod httpMethod = method == null ? null : lookup(method, 0, method.length());
+                if (httpMethod != null) {
+                    mask |= bit(httpMethod);
+                }
+            }
+        }
+
+        return mask;
+    }
+
+    private static HttpMethod lookup(CharSequence value, int start, int end) {
+        for (HttpMethod httpMethod : METHODS) {
+            if (AsciiCase.regionEquals(httpMethod.name(), value, start, end)) {
+                return httpMethod;
+            }
+        }
+
+        return null;
+    }
+
+    private static int bit(HttpMethod method) {
+        return 1 << method.ordinal();
+    }
+
+    private static final class CacheGeneration {
+
+        private final long generation;
+        private final PreflightCache cache;
+
+        private CacheGeneration(long generation, PreflightCache cache) {
+            this.generation = generation;
+            this.cache = cache;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.plan;
+
+import io.gravitee.policy.cors.configuration.CorsPathRule;
+import io.gravitee.policy.cors.configuration.CorsPolicyConfiguration;
+import io.gravitee.policy.cors.utils.FrozenCaseInsensitiveSet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Immutable snapshot of the values of a {@link CorsPolicyConfiguration}, taken under its lock so that it never mixes
+ * values from before and after a change, and compared structurally so that identical
+ * configurations, even coming from different APIs, resolve to the same {@link CorsPlan}.
+ *
+ * @author GraviteeSource Team
+ */
+final class CorsPlanKey {
+
+    final Set<String> allowOrigin;
+    final Set<String> exposeHeaders;
+    final Set<String> allowHeaders;
+    final Set<String> allowMethods;
+    final int maxAge;
+    final boolean allowCredentials;
+    final int errorStatusCode;
+    final int maxRequestHeadersLength;
+    final int maxRequestHeadersCount;
+    final boolean preflightDirectResponse;
+    final int preflightCacheSize;
+    final int preflightCacheTtl;
+    final boolean skipRequestsWithoutOrigin;
+    final boolean preflightVolumeReduction;
+    final String allowOriginSource;
+    final boolean preflightShortCircuit;
+    final boolean enforceAllowedOrigins;
+    final int preflightRateLimit;
+    final int preflightRateLimitBurst;
+    final int rejectionLogSampling;
+    final List<String> paths;
+    // Key of the settings of each path pattern, null if CORS is disabled for it
+    final List<CorsPlanKey> pathRules;
+
+    private final int hash;
+
+    CorsPlanKey(CorsPolicyConfiguration configuration) {
+        this.allowOrigin = copy(configuration.getAccessControlAllowOrigin(), false);
+        this.exposeHeaders = copy(configuration.getAccessControlExposeHeaders(), true);
+        this.allowHeaders = copy(configuration.getAccessControlAllowHeaders(), true);
+        this.allowMethods = copy(configuration.getAccessControlAllowMethods(), true);
+        this.maxAge = configuration.getAccessControlMaxAge();
+        this.allowCredentials = configuration.isAccessControlAllowCredentials();
+        this.errorStatusCode = configuration.getCorsErrorStatusCode();
+        this.maxRequestHeadersLength = configuration.getMaxRequestHeadersLength() > 0 ?
+                configuration.getMaxRequestHeadersLength() : CorsPolicyConfiguration.DEFAULT_MAX_REQUEST_HEADERS_LENGTH;
+        this.maxRequestHeadersCount = configuration.getMaxRequestHeadersCount() > 0 ?
+                configuration.getMaxRequestHeadersCount() : CorsPolicyConfiguration.DEFAULT_MAX_REQUEST_HEADERS_COUNT;
+        this.preflightDirectResponse = configuration.isPreflightDirectResponse();
+        this.preflightCacheSize = Math.max(0, configuration.getPreflightCacheSize());
+        this.preflightCacheTtl = Math.max(0, configuration.getPreflightCacheTtl());
+        this.skipRequestsWithoutOrigin = configuration.isSkipRequestsWithoutOrigin();
+        this.preflightVolumeReduction = configuration.isPreflightVolumeReduction();
+        this.allowOriginSource = trimToNull(configuration.getAccessControlAllowOriginSource());
+        this.preflightShortCircuit = configuration.isPreflightShortCircuit();
+        this.enforceAllowedOrigins = configuration.isEnforceAllowedOrigins();
+        this.preflightRateLimit = configuration.getPreflightRateLimit();
+        this.preflightRateLimitBurst = configuration.getPreflightRateLimitBurst();
+        this.rejectionLogSampling = configuration.getRejectionLogSampling();
+
+        List<String> paths = new ArrayList<>();
+        List<CorsPlanKey> pathRules = new ArrayList<>();
+        if (configuration.getPaths() != null) {
+            for (CorsPathRule rule : configuration.getPaths()) {
+                synchronized (rule) {
+                    paths.add(rule.getPath());
+                    pathRules.add(rule.isEnabled() ? new CorsPlanKey(rule) : null);
+                }
+            }
+        }
+        this.paths = Collections.unmodifiableList(paths);
+        this.pathRules = Collections.unmodifiableList(pathRules);
+
+        this.hash = Objects.hash(allowOrigin, exposeHeaders, allowHeaders, allowMethods, maxAge, allowCredentials,
+                errorStatusCode, maxRequestHeadersLength, maxRequestHeadersCount, preflightDirectResponse,
+                preflightCacheSize, preflightCacheTtl, skipRequestsWithoutOrigin, preflightVolumeReduction,
+                allowOriginSource, preflightShortCircuit, enforceAllowedOrigins, preflightRateLimit,
+                preflightRateLimitBurst, rejectionLogSampling, paths, pathRules);
+    }
+
+    private static String trimToNull(String value) {
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+
+    private static Set<String> copy(Collection<String> values, boolean caseInsensitive) {
+        if (caseInsensitive) {
+            return FrozenCaseInsensitiveSet.of(values);
+        }
+        if (values == null || values.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        Set<String> copy = new LinkedHashSet<>();
+        for (String value : values) {
+            if (value != null) {
+                copy.add(value);
+            }
+        }
+
+        return Collections.unmodifiableSet(copy);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        CorsPlanKey that = (CorsPlanKey) o;
+        return hash == that.hash &&
+                maxAge == that.maxAge &&
+                allowCredentials == that.allowCredentials &&
+                errorStatusCode == that.errorStatusCode &&
+                maxRequestHeadersLength == that.maxRequestHeadersLength &&
+                maxRequestHeadersCount == that.maxRequestHeadersCount &&
+                preflightDirectResponse == that.preflightDirectResponse &&
+                preflightCacheSize == that.preflightCacheSize &&
+                preflightCacheTtl == that.preflightCacheTtl &&
+                skipRequestsWithoutOrigin == that.skipRequestsWithoutOrigin &&
+                preflightVolumeReduction == that.preflightVolumeReduction &&
+                Objects.equals(allowOriginSource, that.allowOriginSource) &&
+                preflightShortCircuit == that.preflightShortCircuit &&
+                enforceAllowedOrigins == that.enforceAllowedOrigins &&
+                preflightRateLimit == that.preflightRateLimit &&
+                preflightRateLimitBurst == that.preflightRateLimitBurst &&
+                rejectionLogSampling == that.rejectionLogSampling &&
+                allowOrigin.equals(that.allowOrigin) &&
+                exposeHeaders.equals(that.exposeHeaders) &&
+                allowHeaders.equals(that.allowHeaders) &&
+                allowMethods.equals(that.allowMethods) &&
+                paths.equals(that.paths) &&
+                pathRules.equals(that.pathRules);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
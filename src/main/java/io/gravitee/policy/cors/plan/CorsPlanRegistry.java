@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.plan;
+
+import io.gravitee.policy.cors.configuration.CorsPolicyConfiguration;
+import io.gravitee.policy.cors.origin.source.OriginSources;
+import io.gravitee.policy.cors.utils.Releaser;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Process-wide registry of {@link CorsPlan}s, keyed by the structure of their configuration. APIs sharing the same
+ * CORS settings share a single plan. The plan keeps its own immutable copies of the configured collections: the
+ * configuration itself is left untouched.
+ *
+ * Plans are weakly referenced: they are kept alive by the configurations using them, and dropped from the registry
+ * once no deployed API refers to them anymore. The origin source of a dropped plan is released along with it.
+ *
+ * @author GraviteeSource Team
+ */
+public final class CorsPlanRegistry {
+
+    private static final ConcurrentMap<CorsPlanKey, PlanReference> PLANS = new ConcurrentHashMap<>();
+
+    private CorsPlanRegistry() {
+    }
+
+    /**
+     * Get the plan for the given configuration, compiling it only if no structurally identical configuration has
+     * been compiled before. The plan is then published for the configuration, unless it changed meanwhile.
+     *
+     * The configuration is only locked while its settings are read: the plan is compiled out of the lock.
+     *
+     * @param configuration the CORS policy configuration
+     * @return the shared plan
+     */
+    public static CorsPlan intern(CorsPolicyConfiguration configuration) {
+        CorsPlanKey key;
+        long version;
+        synchronized (configuration) {
+            key = new CorsPlanKey(configuration);
+            version = configuration.getVersion();
+        }
+
+        CorsPlan plan = intern(key);
+        configuration.publish(plan, version);
+        return plan;
+    }
+
+    /**
+     * Get the plan for the given key, compiling it only if no identical key has been compiled before.
+     */
+    static CorsPlan intern(CorsPlanKey key) {
+        CorsPlan plan;
+        do {
+            PlanReference reference = PLANS.get(key);
+            plan = reference == null ? null : reference.get();
+
+            if (plan == null) {
+                CorsPlan compiled = new CorsPlan(key);
+                PlanReference created = new PlanReference(compiled, key);
+                boolean registered = reference == null ?
+                        PLANS.putIfAbsent(key, created) == null : PLANS.replace(key, reference, created);
+                if (registered) {
+                    plan = compiled;
+                } else {
+                    // Compiled by another thread meanwhile
+                    created.release();
+                }
+            }
+        } while (plan == null);
+
+        return plan;
+    }
+
+    /**
+     * @return the number of distinct plans currently registered
+     */
+    public static int size() {
+        return PLANS.size();
+    }
+
+    private static final class PlanReference extends Releaser.Reference<CorsPlan> {
+
+        private final CorsPlanKey key;
+
+        // The origin source the plan uses, if any
+        private final String originSource;
+
+        PlanReference(CorsPlan plan, CorsPlanKey key) {
+            super(plan);
+            this.key = key;
+            this.originSource = plan.getSourcedOrigins() != null ? key.allowOriginSource : null;
+        }
+
+        @Override
+        protected void released() {
+            PLANS.remove(key, this);
+            if (originSource != null) {
+                OriginSources.release(originSource);
+            }
+        }
+    }
+}
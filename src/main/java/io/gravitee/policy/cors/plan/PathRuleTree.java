@@ -0,0 +1,337 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.plan;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Radix tree of path patterns, each one associated to a value, resolving the pattern matching a request path in a
+ * single walk of its characters: the cost of a lookup depends on the length of the path, not on the number of
+ * patterns.
+ *
+ * A pattern is a path made of segments, each one being either literal, <code>*</code> (any single, non empty,
+ * segment) or, for the last one only, <code>**</code> (the path up to there and anything below it). Paths are matched
+ * case-sensitively. When several patterns match a path, the most specific one wins:
+ * <ol>
+ * <li>a pattern without <code>**</code> wins over the ones with it,</li>
+ * <li>among the ones with <code>**</code>, the one whose <code>**</code> starts the deepest wins: with
+ * <code>/partners/**</code> and <code>/*&#47;admin/**</code>, <code>/partners/admin/users</code> matches the latter,</li>
+ * <li>otherwise, the first segment telling them apart decides: a literal segment wins over <code>*</code>.</li>
+ * </ol>
+ * The tree is walked literal segments first, and goes back to the segment wildcards they shadow: a pattern matching
+ * the path is always found.
+ *
+ * @param <T> the type of the values
+ * @author GraviteeSource Team
+ */
+public final class PathRuleTree<T> {
+
+    /**
+     * A single segment wildcard
+     */
+    public static final String SEGMENT_WILDCARD = "*";
+
+    /**
+     * A subtree wildcard, as last segment only
+     */
+    public static final String SUBTREE_WILDCARD = "**";
+
+    private static final char SEPARATOR = '/';
+
+    private static final int NONE = -1;
+
+    // Rank of the patterns without subtree wildcard, above the rank of any subtree wildcard
+    private static final int EXACT = Integer.MAX_VALUE;
+
+    private static final long NO_MATCH = -1L;
+
+    private final Node root;
+
+    private final Object[] values;
+
+    private PathRuleTree(Node root, Object[] values) {
+        this.root = root;
+        this.values = values;
+    }
+
+    /**
+     * Compile the given patterns.
+     *
+     * @param patterns the path patterns
+     * @param values the value of each pattern, in the same order
+     * @return the compiled tree
+     * @throws IllegalArgumentException if a pattern is invalid or listed twice
+     */
+    public static <T> PathRuleTree<T> of(List<String> patterns, List<? extends T> values) {
+        if (patterns.size() != values.size()) {
+            throw new IllegalArgumentException("Expected one value per path pattern");
+        }
+
+        MutableNode root = new MutableNode();
+        for (int i = 0; i < patterns.size(); i++) {
+            root.insert(patterns.get(i), i);
+        }
+
+        return new PathRuleTree<>(root.freeze(), values.toArray());
+    }
+
+    /**
+     * Check that the given patterns can be compiled.
+     *
+     * @throws IllegalArgumentException if a pattern is invalid or listed twice
+     */
+    public static void validate(Collection<String> patterns) {
+        Set<String> seen = new HashSet<>();
+        for (String pattern : patterns) {
+            validate(pattern);
+            if (! seen.add(pattern)) {
+                throw invalid(pattern, "listed twice");
+            }
+        }
+    }
+
+    /**
+     * @param path the path of a request
+     * @param fallback the value to return when no pattern matches the path
+     * @return the value of the pattern matching the path, or <code>fallback</code>
+     */
+    @SuppressWarnings("unchecked")
+    public T find(String path, T fallback) {
+        int index = lookup(path == null || path.isEmpty() ? "/" : path);
+        return index == NONE ? fallback : (T) values[index];
+    }
+
+    /**
+     * @return the number of patterns
+     */
+    public int size() {
+        return values.length;
+    }
+
+    private int lookup(String path) {
+        long match = search(root, path, 0, NO_MATCH);
+        return match == NO_MATCH ? NONE : (int) match;
+    }
+
+    /**
+     * Search the best match below the given node, which matched the path up to the given position.
+     *
+     * @return the best match so far, as its rank (high bits) and its pattern index (low bits)
+     */
+    private static long search(Node node, String path, int position, long best) {
+        final int length = path.length();
+
+        if (node.subtree != NONE && (position == length || path.charAt(position) == SEPARATOR)
+                && position > rank(best)) {
+            // The deeper the subtree wildcard, the higher its rank
+            best = match(position, node.subtree);
+        }
+
+        if (position == length) {
+            return node.exact != NONE ? match(EXACT, node.exact) : best;
+        }
+
+        Node child = node.child(path.charAt(position));
+        if (child != null && child.match(path, position) == child.label.length) {
+            best = search(child, path, position + child.label.length, best);
+            if (rank(best) == EXACT) {
+                return best;
+            }
+        }
+
+        if (node.star != null && path.charAt(position) != SEPARATOR) {
+            int end = path.indexOf(SEPARATOR, position);
+            best = search(node.star, path, end == -1 ? length : end, best);
+        }
+
+        return best;
+    }
+
+    private static long match(int rank, int index) {
+        return ((long) rank << Integer.SIZE) | index;
+    }
+
+    private static int rank(long match) {
+        return (int) (match >> Integer.SIZE);
+    }
+
+    private static void validate(String pattern) {
+        if (pattern == null || pattern.isEmpty() || pattern.charAt(0) != SEPARATOR) {
+            throw invalid(pattern, "must start with '/'");
+        }
+
+        int start = 1;
+        while (start <= pattern.length()) {
+            int end = pattern.indexOf(SEPARATOR, start);
+            if (end == -1) {
+                end = pattern.length();
+            }
+
+            String segment = pattern.substring(start, end);
+            if (SUBTREE_WILDCARD.equals(segment)) {
+                if (end != pattern.length()) {
+                    throw invalid(pattern, "'**' is only allowed as last segment");
+                }
+            } else if (! SEGMENT_WILDCARD.equals(segment) && segment.indexOf('*') != -1) {
+                throw invalid(pattern, "wildcards must be whole segments");
+            }
+
+            start = end + 1;
+        }
+    }
+
+    private static IllegalArgumentException invalid(String pattern, String reason) {
+        return new IllegalArgumentException("Invalid path pattern '" + pattern + "': " + reason);
+    }
+
+    private static final class Node {
+
+        private final char[] label;
+        private final char[] firsts;
+        private final Node[] children;
+        private final Node star;
+        private final int exact;
+        private final int subtree;
+
+        private Node(char[] label, char[] firsts, Node[] children, Node star, int exact, int subtree) {
+            this.label = label;
+            this.firsts = firsts;
+            this.children = children;
+            this.star = star;
+            this.exact = exact;
+            this.subtree = subtree;
+        }
+
+        private Node child(char c) {
+            int low = 0;
+            int high = firsts.length - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                char first = firsts[middle];
+                if (first < c) {
+                    low = middle + 1;
+                } else if (first > c) {
+                    high = middle - 1;
+                } else {
+                    return children[middle];
+                }
+            }
+
+            return null;
+        }
+
+        /**
+         * @return the number of characters of the label matching the path from the given position
+         */
+        private int match(String path, int position) {
+            int max = Math.min(label.length, path.length() - position);
+            int i = 0;
+            while (i < max && label[i] == path.charAt(position + i)) {
+                i++;
+            }
+
+            return i;
+        }
+    }
+
+    private static final class MutableNode {
+
+        private final Map<Character, MutableNode> children = new TreeMap<>();
+        private MutableNode star;
+        private int exact = NONE;
+        private int subtree = NONE;
+
+        private void insert(String pattern, int index) {
+            validate(pattern);
+
+            MutableNode node = this;
+            int start = 1;
+            while (true) {
+                int end = pattern.indexOf(SEPARATOR, start);
+                if (end == -1) {
+                    end = pattern.length();
+                }
+
+                String segment = pattern.substring(start, end);
+                if (SUBTREE_WILDCARD.equals(segment)) {
+                    // The separator is part of the wildcard: /assets/** matches /assets too
+                    if (node.subtree != NONE) {
+                        throw invalid(pattern, "listed twice");
+                    }
+                    node.subtree = index;
+                    return;
+                }
+
+                node = node.child(SEPARATOR);
+                if (SEGMENT_WILDCARD.equals(segment)) {
+                    if (node.star == null) {
+                        node.star = new MutableNode();
+                    }
+                    node = node.star;
+                } else {
+                    for (int i = 0; i < segment.length(); i++) {
+                        node = node.child(segment.charAt(i));
+                    }
+                }
+
+                if (end == pattern.length()) {
+                    if (node.exact != NONE) {
+                        throw invalid(pattern, "listed twice");
+                    }
+                    node.exact = index;
+                    return;
+                }
+
+                start = end + 1;
+            }
+        }
+
+        private MutableNode child(char c) {
+            return children.computeIfAbsent(c, k -> new MutableNode());
+        }
+
+        private Node freeze() {
+            return freeze(new char[0]);
+        }
+
+        private Node freeze(char[] label) {
+            char[] firsts = new char[children.size()];
+            Node[] frozen = new Node[children.size()];
+            int i = 0;
+            for (Map.Entry<Character, MutableNode> entry : children.entrySet()) {
+                // Merge the chains of nodes having a single literal child into one edge
+                StringBuilder edge = new StringBuilder().append(entry.getKey().charValue());
+                MutableNode node = entry.getValue();
+                while (node.children.size() == 1 && node.star == null && node.exact == NONE && node.subtree == NONE) {
+                    Map.Entry<Character, MutableNode> only = node.children.entrySet().iterator().next();
+                    edge.append(only.getKey().charValue());
+                    node = only.getValue();
+                }
+
+                firsts[i] = entry.getKey();
+                frozen[i] = node.freeze(edge.toString().toCharArray());
+                i++;
+            }
+
+            return new Node(label, firsts, frozen, star == null ? null : star.freeze(), exact, subtree);
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.plan;
+
+import io.gravitee.policy.cors.utils.AsciiCase;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded, concurrent cache of {@link PreflightResult}s keyed by the canonical form of a preflight request: its
+ * origin, its <code>Access-Control-Request-Method</code> and the case-folded <i>set</i> of its
+ * <code>Access-Control-Request-Headers</code>, whatever their order.
+ *
+ * The cache is a fixed array of slots, two of which are candidates for a given key. Hashing the key and comparing it
+ * with a slot are done on the request values in place, so a hit neither locks nor allocates. Entries are replaced
+ * when their slots are needed by a more recent key, or once their time-to-live has elapsed.
+ *
+ * @author GraviteeSource Team
+ */
+public final class PreflightCache {
+
+    /**
+     * Preflight requests listing more headers than this are not cached.
+     */
+    static final int MAX_CACHED_HEADERS = Long.SIZE;
+
+    private final AtomicReferenceArray<Entry> slots;
+    private final int mask;
+    private final long ttl;
+    private final LongSupplier clock;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param size the maximum number of entries, rounded up to a power of two
+     * @param ttl the time-to-live of the entries, in nanoseconds
+     */
+    PreflightCache(int size, long ttl) {
+        this(size, ttl, System::nanoTime);
+    }
+
+    /**
+     * @param size the maximum number of entries, rounded up to a power of two
+     * @param ttl the time-to-live of the entries, in nanoseconds
+     * @param clock the current time, in nanoseconds
+     */
+    PreflightCache(int size, long ttl, LongSupplier clock) {
+        int capacity = Integer.highestOneBit(Math.max(2, size - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+        this.ttl = ttl;
+        this.clock = clock;
+    }
+
+    /**
+     * @return the cached result, or <code>null</code> on a miss
+     */
+    PreflightResult get(String origin, String method, String headers) {
+        int hash = hash(origin, method, headers);
+        if (hash != 0) {
+            long now = clock.getAsLong();
+            int index = hash & mask;
+            for (int i = 0; i < 2; i++, index = (index + 1) & mask) {
+                Entry entry = slots.get(index);
+                if (entry != null && entry.hash == hash && entry.expiresAt - now > 0 &&
+                        entry.matches(origin, method, headers)) {
+                    hits.increment();
+                    return entry.result;
+                }
+            }
+        }
+
+        misses.increment();
+        return null;
+    }
+
+    void put(String origin, String method, String headers, PreflightResult result) {
+        int hash = hash(origin, method, headers);
+        if (hash == 0) {
+            return;
+        }
+
+        Entry entry = new Entry(hash, origin, method, tokens(headers), result, clock.getAsLong() + ttl);
+
+        // Use the slot of the entry expiring first
+        int index = hash & mask;
+        int next = (index + 1) & mask;
+        Entry first = slots.get(index);
+        Entry second = slots.get(next);
+        if (first != null && (second == null || second.expiresAt - first.expiresAt < 0)) {
+            index = next;
+        }
+
+        slots.set(index, entry);
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * Hash the canonical form of a preflight request. Each header contributes independently of its position.
+     *
+     * @return the hash, or <code>0</code> if the request can not be cached
+     */
+    static int hash(String origin, String method, String headers) {
+        if (origin == null || method == null) {
+            return 0;
+        }
+
+        int hash = origin.hashCode() * 31 + AsciiCase.hash(method, 0, method.length());
+
+        if (headers != null) {
+            int count = 0;
+            int length = headers.length();
+            int index = 0;
+            while (index < length) {
+                int start = skipWhitespaces(headers, index, length);
+                int separator = headers.indexOf(',', start);
+                if (separator == -1) {
+                    separator = length;
+                }
+                int end = trimEnd(headers, start, separator);
+
+                if (end > start) {
+                    if (++count > MAX_CACHED_HEADERS) {
+                        return 0;
+                    }
+                    hash += mix(AsciiCase.hash(headers, start, end));
+                }
+
+                index = separator + 1;
+            }
+        }
+
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 15);
+    }
+
+    private static int skipWhitespaces(String value, int index, int length) {
+        while (index < length && value.charAt(index) <= ' ') {
+            index++;
+        }
+        return index;
+    }
+
+    private static int trimEnd(String value, int start, int end) {
+        while (end > start && value.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    private static String[] tokens(String headers) {
+        if (headers == null) {
+            return new String[0];
+        }
+
+        String[] values = headers.split(",");
+        int count = 0;
+        for (String value : values) {
+            String token = value.trim();
+            if (! token.isEmpty()) {
+                values[count++] = token;
+            }
+        }
+
+        String[] tokens = new String[count];
+        System.arraycopy(values, 0, tokens, 0, count);
+        return tokens;
+    }
+
+    private static final class Entry {
+        private final int hash;
+        private final String origin;
+        private final String method;
+        private final String[] headers;
+        private final PreflightResult result;
+        private final long expiresAt;
+
+        private Entry(int hash, String origin, String method, String[] headers, PreflightResult result, long expiresAt) {
+            this.hash = hash;
+            this.origin = origin;
+            this.method = method;
+            this.headers = headers;
+            this.result = result;
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * Compare the request headers with the ones of this entry as multi-sets, recording the already matched
+         * entries in a bit mask.
+         */
+        boolean matches(String origin, String method, String requestHeaders) {
+            if (! this.origin.equals(origin) || ! AsciiCase.regionEquals(this.method, method, 0, method.length())) {
+                return false;
+            }
+
+            long matched = 0;
+            int count = 0;
+            if (requestHeaders != null) {
+                int length = requestHeaders.length();
+                int index = 0;
+                while (index < length) {
+                    int start = skipWhitespaces(requestHeaders, index, length);
+                    int separator = requestHeaders.indexOf(',', start);
+                    if (separator == -1) {
+                        separator = length;
+                    }
+                    int end = trimEnd(requestHeaders, start, separator);
+
+                    if (end > start) {
+                        int found = -1;
+                        for (int i = 0; i < headers.length && found == -1; i++) {
+                            if ((matched & (1L << i)) == 0 &&
+                                    AsciiCase.regionEquals(headers[i], requestHeaders, start, end)) {
+                                found = i;
+                            }
+                        }
+                        if (found == -1) {
+                            return false;
+                        }
+                        matched |= 1L << found;
+                        count++;
+                    }
+
+                    index = separator + 1;
+                }
+            }
+
+            return count == headers.length;
+        }
+    }
+}
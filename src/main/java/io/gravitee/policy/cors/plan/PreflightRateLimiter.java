@@ -0,0 +1,223 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.plan;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Per-origin rate limit of preflight requests: each origin may send a burst of preflight requests, then preflight
+ * requests at the sustained rate.
+ *
+ * The state of an origin is a single <code>long</code> holding a tag of the origin hash and the time at which its
+ * bucket is full again (the theoretical arrival time of the generic cell rate algorithm, equivalent to a token
+ * bucket). States live in a fixed array of sets of {@value #WAYS} slots, updated with compare-and-set only: an origin
+ * neither locks nor allocates, origins in different sets never contend, and memory does not depend on the number of
+ * origins. A new origin takes the slot of the origin of its set which has been idle for the longest time.
+ *
+ * Origins are hashed with a seed drawn for each limiter, so that a client cannot craft origins sharing the state of
+ * another one.
+ *
+ * @author GraviteeSource Team
+ */
+public final class PreflightRateLimiter {
+
+    /**
+     * Number of origins tracked by default
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    static final int WAYS = 4;
+
+    private static final int TIME_BITS = 44;
+
+    private static final long TIME_MASK = (1L << TIME_BITS) - 1;
+
+    private static final long MICROS_PER_SECOND = TimeUnit.SECONDS.toMicros(1);
+
+    private static final String[] RETRY_AFTER = new String[61];
+
+    static {
+        for (int i = 0; i < RETRY_AFTER.length; i++) {
+            RETRY_AFTER[i] = Integer.toString(i);
+        }
+    }
+
+    private final int rate;
+
+    private final int burst;
+
+    private final AtomicLongArray slots;
+
+    private final int setMask;
+
+    // Time between two preflight requests at the sustained rate, in microseconds
+    private final long interval;
+
+    // How far ahead of the current time the bucket of an origin may be full again, in microseconds
+    private final long tolerance;
+
+    private final LongSupplier clock;
+
+    private final long epoch;
+
+    private final long seed = ThreadLocalRandom.current().nextLong();
+
+    /**
+     * @param rate the sustained number of preflight requests per second of an origin
+     * @param burst the number of preflight requests an idle origin may send at once
+     * @param capacity the number of origins tracked, rounded up to a power of two
+     */
+    PreflightRateLimiter(int rate, int burst, int capacity) {
+        this(rate, burst, capacity, System::nanoTime);
+    }
+
+    /**
+     * @param rate the sustained number of preflight requests per second of an origin
+     * @param burst the number of preflight requests an idle origin may send at once
+     * @param capacity the number of origins tracked, rounded up to a power of two
+     * @param clock the current time, in nanoseconds
+     */
+    PreflightRateLimiter(int rate, int burst, int capacity, LongSupplier clock) {
+        this.clock = clock;
+        this.epoch = clock.getAsLong();
+        this.rate = rate;
+        this.burst = burst;
+        int sets = Integer.highestOneBit(Math.max(2, capacity / WAYS - 1)) << 1;
+        this.slots = new AtomicLongArray(sets * WAYS);
+        this.setMask = sets - 1;
+        this.interval = Math.max(1, MICROS_PER_SECOND / Math.max(1, rate));
+        this.tolerance = (Math.max(1, burst) - 1) * interval;
+    }
+
+    /**
+     * @param rate the sustained number of preflight requests per second of an origin
+     * @param burst the number of preflight requests an idle origin may send at once
+     * @return a limiter tracking {@value #DEFAULT_CAPACITY} origins
+     */
+    public static PreflightRateLimiter of(int rate, int burst) {
+        return new PreflightRateLimiter(rate, burst, DEFAULT_CAPACITY);
+    }
+
+    public int rate() {
+        return rate;
+    }
+
+    public int burst() {
+        return burst;
+    }
+
+    /**
+     * Take a preflight request of the given origin into account.
+     *
+     * @param origin the value of the <code>Origin</code> header
+     * @return 0 if the preflight request is allowed, otherwise the time to wait before the next one is, in nanoseconds
+     */
+    public long acquire(String origin) {
+        final long hash = hash(origin);
+        final long tag = hash >>> TIME_BITS;
+        final int set = ((int) hash & setMask) * WAYS;
+        final long now = ((clock.getAsLong() - epoch) / 1000) & TIME_MASK;
+
+        for (;;) {
+            int index = -1;
+            long value = 0;
+            int victim = set;
+            long victimValue = 0;
+            long victimIdle = Long.MIN_VALUE;
+
+            for (int way = 0; way < WAYS; way++) {
+                long slot = slots.get(set + way);
+                if (slot != 0 && slot >>> TIME_BITS == tag) {
+                    index = set + way;
+                    value = slot;
+                    break;
+                }
+
+                long idle = slot == 0 ? Long.MAX_VALUE : -ahead(slot, now);
+                if (idle > victimIdle) {
+                    victim = set + way;
+                    victimValue = slot;
+                    victimIdle = idle;
+                }
+            }
+
+            if (index == -1) {
+                // First preflight request of the origin, or its state has been replaced since
+                if (slots.compareAndSet(victim, victimValue, pack(tag, now + interval))) {
+                    return 0;
+                }
+                continue;
+            }
+
+            long ahead = ahead(value, now);
+            if (ahead < 0 || ahead > tolerance + interval) {
+                // The bucket is full, or the state is too old to be compared with the current time
+                ahead = 0;
+            }
+
+            if (ahead > tolerance) {
+                return (ahead - tolerance) * 1000;
+            }
+
+            if (slots.compareAndSet(index, value, pack(tag, now + ahead + interval))) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * @return the number of origins which can be tracked
+     */
+    public int capacity() {
+        return slots.length();
+    }
+
+    /**
+     * @param waitNanos the time to wait returned by {@link #acquire(String)}
+     * @return the value of the <code>Retry-After</code> header, in whole seconds
+     */
+    public static String retryAfter(long waitNanos) {
+        long seconds = Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+        return seconds < RETRY_AFTER.length ? RETRY_AFTER[(int) seconds] : Long.toString(seconds);
+    }
+
+    private static long pack(long tag, long time) {
+        return tag << TIME_BITS | (time & TIME_MASK);
+    }
+
+    /**
+     * @return how far the time of a state is ahead of the current time, in microseconds, negative if it is behind
+     */
+    private static long ahead(long slot, long now) {
+        return ((slot - now) << (Long.SIZE - TIME_BITS)) >> (Long.SIZE - TIME_BITS);
+    }
+
+    private long hash(String origin) {
+        long hash = seed;
+        for (int i = 0; i < origin.length(); i++) {
+            hash = (hash ^ origin.charAt(i)) * 0x100000001b3L;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+}
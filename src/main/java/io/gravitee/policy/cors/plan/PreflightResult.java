@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.plan;
+
+import io.gravitee.common.http.HttpHeaders;
+import io.gravitee.policy.api.PolicyResult;
+
+/**
+ * Fully built answer to a preflight request: its status and the block of headers to write.
+ *
+ * @author GraviteeSource Team
+ */
+public final class PreflightResult {
+
+    private static final String[] NO_HEADERS = new String[0];
+
+    private final int status;
+    private final String[] names;
+    private final String[] values;
+    private final RejectionReason rejectionReason;
+
+    // Created on first use, only the request phase ending the chain needs it. Racing threads create equivalent,
+    // immutable, results.
+    private PolicyResult policyResult;
+
+    PreflightResult(int status, String[] names, String[] values) {
+        this(status, names, values, null);
+    }
+
+    private PreflightResult(int status, String[] names, String[] values, RejectionReason rejectionReason) {
+        this.status = status;
+        this.names = names;
+        this.values = values;
+        this.rejectionReason = rejectionReason;
+    }
+
+    static PreflightResult rejected(int status, RejectionReason rejectionReason) {
+        return new PreflightResult(status, NO_HEADERS, NO_HEADERS, rejectionReason);
+    }
+
+    public int status() {
+        return status;
+    }
+
+    public boolean isAllowed() {
+        return rejectionReason == null;
+    }
+
+    /**
+     * @return the check the preflight request failed, or <code>null</code> if it is allowed
+     */
+    public RejectionReason rejectionReason() {
+        return rejectionReason;
+    }
+
+    /**
+     * @return the result ending the policy chain with the status of this result, and no body: a failure for a
+     * rejected preflight request only.
+     */
+    public PolicyResult policyResult() {
+        PolicyResult result = policyResult;
+        if (result == null) {
+            result = isAllowed() ? PolicyResult.build(false, status, null) : PolicyResult.failure(status, null);
+            policyResult = result;
+        }
+
+        return result;
+    }
+
+    /**
+     * Write the header block of this result.
+     */
+    public void writeTo(HttpHeaders headers) {
+        for (int i = 0; i < names.length; i++) {
+            headers.set(names[i], values[i]);
+        }
+    }
+}
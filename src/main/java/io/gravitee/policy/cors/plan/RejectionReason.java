@@ -0,0 +1,49 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.plan;
+
+/**
+ * The check a rejected CORS request failed.
+ *
+ * @author GraviteeSource Team
+ */
+public enum RejectionReason {
+
+    /**
+     * The origin is not part of the allowed origins
+     */
+    ORIGIN,
+
+    /**
+     * The requested method is not allowed, or the Access-Control-Request-Method header is invalid
+     */
+    METHOD,
+
+    /**
+     * A requested header is not allowed, or the Access-Control-Request-Headers header is too large
+     */
+    HEADERS,
+
+    /**
+     * The preflight request carries a body
+     */
+    BODY,
+
+    /**
+     * The origin sent more preflight requests than allowed by the preflight rate limit
+     */
+    RATE_LIMIT
+}
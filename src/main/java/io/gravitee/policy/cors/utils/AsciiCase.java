@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.utils;
+
+/**
+ * ASCII-only case folding helpers. HTTP header names and methods are tokens, so folding the ASCII range is enough
+ * and, unlike {@link String#toLowerCase()}, does not depend on the default locale nor allocate.
+ *
+ * @author GraviteeSource Team
+ */
+public final class AsciiCase {
+
+    private AsciiCase() {
+    }
+
+    public static char toLowerCase(char c) {
+        return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    /**
+     * Case-insensitive hash of a region of the given value.
+     */
+    public static int hash(CharSequence value, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + toLowerCase(value.charAt(i));
+        }
+
+        // Spread the higher bits, hash tables are indexed by the lower ones
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Compare the given string with a region of the given value, ignoring the ASCII case.
+     */
+    public static boolean regionEquals(String expected, CharSequence value, int start, int end) {
+        if (expected.length() != end - start) {
+            return false;
+        }
+
+        for (int i = 0; i < expected.length(); i++) {
+            if (toLowerCase(expected.charAt(i)) != toLowerCase(value.charAt(start + i))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -54,11 +54,11 @@ public class CaseInsensitiveHashSet extends LinkedHashSet<String> {
      * Verify containment by ignoring case.
      */
     public boolean contains(String element) {
-        return super.contains(element.toLowerCase());
+        return element != null && super.contains(element.toLowerCase());
     }
 
     @Override
     public boolean contains(Object o) {
-        return contains(o.toString());
+        return o instanceof String && contains((String) o);
     }
 }
\ No newline at end of file
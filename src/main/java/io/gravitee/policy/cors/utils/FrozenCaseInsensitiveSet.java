@@ -0,0 +1,242 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable, ASCII case-insensitive set of strings, used for the header names and methods of a configuration once
+ * it has been read.
+ *
+ * Values are folded to lower case and stored as ISO-8859-1 bytes, one after the other in a single array, and indexed
+ * by an open-addressing table of entry numbers with their precomputed hashes: an entry costs its length plus a few
+ * ints, instead of a linked node, a string and its characters. Lookups fold the case while hashing and comparing,
+ * so they can be done directly on a region of a larger string without allocating.
+ *
+ * Iterating returns the folded values, in insertion order. Characters outside of ISO-8859-1, which can not be sent
+ * in a header anyway, are replaced by <code>?</code>.
+ *
+ * @author GraviteeSource Team
+ */
+public final class FrozenCaseInsensitiveSet extends AbstractSet<String> implements TokenMatcher {
+
+    private static final FrozenCaseInsensitiveSet EMPTY = new FrozenCaseInsensitiveSet(Collections.emptyList());
+
+    // Folded values, one after the other
+    private final byte[] bytes;
+
+    // Start of each entry in bytes, and end of the last one
+    private final int[] offsets;
+
+    // Hash of each entry
+    private final int[] hashes;
+
+    // Entry number + 1 of each slot, 0 for an empty slot
+    private final int[] table;
+
+    private final int mask;
+
+    private final int size;
+
+    // Hash code of the folded strings, as defined by Set
+    private final int hashCode;
+
+    private FrozenCaseInsensitiveSet(Collection<String> values) {
+        int entries = 0;
+        int length = 0;
+        for (String value : values) {
+            if (value != null) {
+                entries++;
+                length += value.length();
+            }
+        }
+
+        int capacity = Integer.highestOneBit(Math.max(2, entries * 2 - 1)) << 1;
+        byte[] bytes = new byte[length];
+        int[] offsets = new int[entries + 1];
+        int[] hashes = new int[entries];
+        this.table = new int[capacity];
+        this.mask = capacity - 1;
+
+        int count = 0;
+        int hashCode = 0;
+        for (String value : values) {
+            if (value == null) {
+                continue;
+            }
+
+            int start = offsets[count];
+            int end = start + value.length();
+            int stringHash = 0;
+            for (int i = 0; i < value.length(); i++) {
+                char c = AsciiCase.toLowerCase(value.charAt(i));
+                bytes[start + i] = (byte) (c <= 0xFF ? c : '?');
+                stringHash = 31 * stringHash + (bytes[start + i] & 0xFF);
+            }
+
+            // Same as AsciiCase.hash, which folds the characters the same way
+            int hash = stringHash ^ (stringHash >>> 16);
+            if (insert(bytes, offsets, hashes, count, end, hash)) {
+                hashes[count] = hash;
+                offsets[++count] = end;
+                hashCode += stringHash;
+            }
+        }
+
+        // Duplicates have been skipped, release the room they were given
+        this.bytes = count == entries ? bytes : Arrays.copyOf(bytes, offsets[count]);
+        this.offsets = count == entries ? offsets : Arrays.copyOf(offsets, count + 1);
+        this.hashes = count == entries ? hashes : Arrays.copyOf(hashes, count);
+        this.size = count;
+        this.hashCode = hashCode;
+    }
+
+    public static FrozenCaseInsensitiveSet of(Collection<String> values) {
+        if (values == null || values.isEmpty()) {
+            return EMPTY;
+        }
+        if (values instanceof FrozenCaseInsensitiveSet) {
+            return (FrozenCaseInsensitiveSet) values;
+        }
+
+        return new FrozenCaseInsensitiveSet(values);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (! (o instanceof CharSequence)) {
+            return false;
+        }
+
+        CharSequence value = (CharSequence) o;
+        return matches(value, 0, value.length());
+    }
+
+    @Override
+    public boolean matches(CharSequence value, int start, int end) {
+        int hash = AsciiCase.hash(value, start, end);
+        for (int i = hash & mask, entry; (entry = table[i]) != 0; i = (i + 1) & mask) {
+            if (hashes[entry - 1] == hash && regionEquals(entry - 1, value, start, end)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+
+            private int entry;
+
+            @Override
+            public boolean hasNext() {
+                return entry < size;
+            }
+
+            @Override
+            public String next() {
+                if (entry >= size) {
+                    throw new NoSuchElementException();
+                }
+
+                int start = offsets[entry];
+                int end = offsets[++entry];
+                return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o instanceof FrozenCaseInsensitiveSet) {
+            FrozenCaseInsensitiveSet that = (FrozenCaseInsensitiveSet) o;
+            if (size != that.size || hashCode != that.hashCode) {
+                return false;
+            }
+        }
+
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    private boolean regionEquals(int entry, CharSequence value, int start, int end) {
+        int offset = offsets[entry];
+        if (offsets[entry + 1] - offset != end - start) {
+            return false;
+        }
+
+        for (int i = start; i < end; i++) {
+            if (AsciiCase.toLowerCase(value.charAt(i)) != (bytes[offset++] & 0xFF)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Add the entry written at the end of the given bytes to the table, unless an equal entry is already there.
+     */
+    private boolean insert(byte[] bytes, int[] offsets, int[] hashes, int entry, int end, int hash) {
+        int start = offsets[entry];
+        int i = hash & mask;
+        for (int other; (other = table[i]) != 0; i = (i + 1) & mask) {
+            int otherStart = offsets[other - 1];
+            if (hashes[other - 1] == hash && offsets[other] - otherStart == end - start
+                    && rangeEquals(bytes, otherStart, start, end - start)) {
+                return false;
+            }
+        }
+
+        table[i] = entry + 1;
+        return true;
+    }
+
+    private static boolean rangeEquals(byte[] bytes, int first, int second, int length) {
+        for (int i = 0; i < length; i++) {
+            if (bytes[first + i] != bytes[second + i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.utils;
+
+/**
+ * Single-pass scanner for comma separated header values such as <code>Access-Control-Request-Headers</code>.
+ * Tokens are trimmed and checked in place, so no intermediate array or string is created. Empty list elements are
+ * ignored, as required by RFC 7230 section 7.
+ *
+ * @author GraviteeSource Team
+ */
+public final class HeaderListScanner {
+
+    /**
+     * Every token has been accepted.
+     */
+    public static final int ACCEPTED = -1;
+
+    /**
+     * The value is longer, or contains more tokens, than allowed.
+     */
+    public static final int LIMIT_EXCEEDED = -2;
+
+    private HeaderListScanner() {
+    }
+
+    /**
+     * Check each token of the given value, stopping on the first one which is not accepted.
+     *
+     * @param value the header value, may be <code>null</code>
+     * @param maxLength maximum length of the value
+     * @param maxTokens maximum number of tokens
+     * @param matcher the predicate each token must satisfy
+     * @return {@link #ACCEPTED}, {@link #LIMIT_EXCEEDED} or the start index of the first rejected token
+     */
+    public static int scan(String value, int maxLength, int maxTokens, TokenMatcher matcher) {
+        if (value == null) {
+            return ACCEPTED;
+        }
+
+        final int length = value.length();
+        if (length > maxLength) {
+            return LIMIT_EXCEEDED;
+        }
+
+        int tokens = 0;
+        int index = 0;
+        while (index < length) {
+            int start = index;
+            while (start < length && isWhitespace(value.charAt(start))) {
+                start++;
+            }
+
+            int separator = start;
+            while (separator < length && value.charAt(separator) != ',') {
+                separator++;
+            }
+
+            int end = separator;
+            while (end > start && isWhitespace(value.charAt(end - 1))) {
+                end--;
+            }
+
+            if (end > start) {
+                if (++tokens > maxTokens) {
+                    return LIMIT_EXCEEDED;
+                }
+                if (! matcher.matches(value, start, end)) {
+                    return start;
+                }
+            }
+
+            index = separator + 1;
+        }
+
+        return ACCEPTED;
+    }
+
+    /**
+     * Extract the token starting at the given index, as returned by {@link #scan(String, int, int, TokenMatcher)}.
+     */
+    public static String tokenAt(String value, int start) {
+        int end = start;
+        while (end < value.length() && value.charAt(end) != ',') {
+            end++;
+        }
+        while (end > start && isWhitespace(value.charAt(end - 1))) {
+            end--;
+        }
+
+        return value.substring(start, end);
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c <= ' ';
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.utils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Case-insensitive set of header names and header name prefixes, such as <code>X-Acme-Trace-*</code>, compiled into
+ * a single trie: a header is matched against every name and prefix in one walk of its characters, in place and
+ * without allocating.
+ *
+ * The trie is stored in flat arrays: the edges of a node are contiguous and sorted by their (lower-cased) character.
+ *
+ * @author GraviteeSource Team
+ */
+public final class HeaderTrie implements TokenMatcher {
+
+    /**
+     * Suffix of a header name prefix
+     */
+    public static final String WILDCARD = "*";
+
+    /**
+     * The header is not matched
+     */
+    public static final int NONE = 0;
+
+    /**
+     * The header is one of the names
+     */
+    public static final int EXACT = 1;
+
+    /**
+     * The header starts with one of the prefixes, and is not one of the names
+     */
+    public static final int PREFIX = 2;
+
+    private static final byte TERMINAL = 1;
+
+    private static final byte WILDCARD_CHILDREN = 2;
+
+    // Edges of node n: [edges[n], edges[n + 1])
+    private final int[] edges;
+
+    private final char[] labels;
+
+    private final int[] targets;
+
+    private final byte[] flags;
+
+    private HeaderTrie(int[] edges, char[] labels, int[] targets, byte[] flags) {
+        this.edges = edges;
+        this.labels = labels;
+        this.targets = targets;
+        this.flags = flags;
+    }
+
+    /**
+     * @param headers header names, and header name prefixes ending with {@link #WILDCARD}
+     */
+    public static HeaderTrie of(Collection<String> headers) {
+        Node root = new Node();
+        for (String header : headers) {
+            if (header == null) {
+                continue;
+            }
+
+            boolean prefix = isPattern(header);
+            int length = prefix ? header.length() - WILDCARD.length() : header.length();
+            Node node = root;
+            for (int i = 0; i < length; i++) {
+                node = node.children.computeIfAbsent(AsciiCase.toLowerCase(header.charAt(i)), c -> new Node());
+            }
+            node.flags |= prefix ? WILDCARD_CHILDREN : TERMINAL;
+        }
+
+        // Number the nodes breadth first, then lay their edges out
+        List<Node> nodes = new ArrayList<>();
+        Deque<Node> pending = new ArrayDeque<>();
+        pending.add(root);
+        int edgeCount = 0;
+        while (! pending.isEmpty()) {
+            Node node = pending.poll();
+            node.id = nodes.size();
+            nodes.add(node);
+            edgeCount += node.children.size();
+            pending.addAll(node.children.values());
+        }
+
+        int[] edges = new int[nodes.size() + 1];
+        char[] labels = new char[edgeCount];
+        int[] targets = new int[edgeCount];
+        byte[] flags = new byte[nodes.size()];
+        int edge = 0;
+        for (Node node : nodes) {
+            edges[node.id] = edge;
+            flags[node.id] = node.flags;
+            for (Map.Entry<Character, Node> child : node.children.entrySet()) {
+                labels[edge] = child.getKey();
+                targets[edge] = child.getValue().id;
+                edge++;
+            }
+        }
+        edges[nodes.size()] = edge;
+
+        return new HeaderTrie(edges, labels, targets, flags);
+    }
+
+    /**
+     * @return <code>true</code> if the header is a header name prefix, ending with {@link #WILDCARD}
+     */
+    public static boolean isPattern(String header) {
+        return header.endsWith(WILDCARD);
+    }
+
+    /**
+     * @return <code>true</code> if one of the headers is a header name prefix
+     */
+    public static boolean hasPattern(Collection<String> headers) {
+        for (String header : headers) {
+            if (header != null && isPattern(header)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public boolean matches(CharSequence value, int start, int end) {
+        return match(value, start, end) != NONE;
+    }
+
+    /**
+     * @param value the whole header value
+     * @param start start index of the header name (inclusive)
+     * @param end end index of the header name (exclusive)
+     * @return {@link #EXACT}, {@link #PREFIX} or {@link #NONE}
+     */
+    public int match(CharSequence value, int start, int end) {
+        boolean prefixed = false;
+        int node = 0;
+        for (int i = start; i < end; i++) {
+            prefixed |= (flags[node] & WILDCARD_CHILDREN) != 0;
+            node = child(node, AsciiCase.toLowerCase(value.charAt(i)));
+            if (node == -1) {
+                return prefixed ? PREFIX : NONE;
+            }
+        }
+
+        if ((flags[node] & TERMINAL) != 0) {
+            return EXACT;
+        }
+        return prefixed || (flags[node] & WILDCARD_CHILDREN) != 0 ? PREFIX : NONE;
+    }
+
+    private int child(int node, char c) {
+        int low = edges[node];
+        int high = edges[node + 1] - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            char label = labels[middle];
+            if (label < c) {
+                low = middle + 1;
+            } else if (label > c) {
+                high = middle - 1;
+            } else {
+                return targets[middle];
+            }
+        }
+
+        return -1;
+    }
+
+    private static final class Node {
+
+        private final Map<Character, Node> children = new TreeMap<>();
+
+        private byte flags;
+
+        private int id;
+    }
+}
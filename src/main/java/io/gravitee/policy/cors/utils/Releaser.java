@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.utils;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Release resources once the object owning them is garbage collected. The gateway gives policies no hook when an
+ * API is undeployed, but it drops the configuration of its policies: what the policy keeps for an API (origin
+ * watchers, metrics) is tied to the configuration, and released once it is collected.
+ *
+ * A single daemon thread runs the releases. They must be quick, and must not refer to their owner, which would
+ * otherwise never be collected. The thread stops once nothing is tracked anymore, so that it does not keep the classes
+ * of the policy once the plugin is unloaded, and is started again by the next owner tracked.
+ *
+ * @author GraviteeSource Team
+ */
+public final class Releaser {
+
+    private static final ReferenceQueue<Object> QUEUE = new ReferenceQueue<>();
+
+    // A reference which is not reachable itself is never enqueued: keep them until they are released
+    private static final Set<Reference<?>> TRACKED = ConcurrentHashMap.newKeySet();
+
+    // How long the thread waits for a release before checking whether anything is still tracked
+    static final long IDLE_MILLIS = 1000;
+
+    // Guarded by the class
+    private static Thread thread;
+
+    private Releaser() {
+    }
+
+    /**
+     * Run an action once the given owner is garbage collected.
+     *
+     * @param owner the object owning the resources
+     * @param action the action releasing them, which must not refer to the owner
+     * @return the reference to the owner
+     */
+    public static Reference<Object> track(Object owner, Runnable action) {
+        return new Reference<Object>(owner) {
+            @Override
+            protected void released() {
+                action.run();
+            }
+        };
+    }
+
+    /**
+     * @return the number of owners not released yet
+     */
+    public static int size() {
+        return TRACKED.size();
+    }
+
+    /**
+     * @return whether the releasing thread is running
+     */
+    static synchronized boolean isRunning() {
+        return thread != null;
+    }
+
+    // Called once the reference is tracked: either the thread sees it, or it has stopped and a new one is started
+    private static synchronized void start() {
+        if (thread == null) {
+            thread = new Thread(Releaser::run, "cors-releaser");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private static synchronized boolean stopIfIdle() {
+        if (TRACKED.isEmpty()) {
+            thread = null;
+            return true;
+        }
+        return false;
+    }
+
+    private static void run() {
+        while (true) {
+            try {
+                Reference<?> reference = (Reference<?>) QUEUE.remove(IDLE_MILLIS);
+                if (reference != null) {
+                    reference.release();
+                } else if (stopIfIdle()) {
+                    return;
+                }
+            } catch (InterruptedException ie) {
+                // Only stopped once idle
+            } catch (RuntimeException re) {
+                // A failed release must not prevent the next ones
+            }
+        }
+    }
+
+    /**
+     * Weak reference running its release once its referent is garbage collected, or once it is released explicitly.
+     */
+    public abstract static class Reference<T> extends WeakReference<T> {
+
+        protected Reference(T referent) {
+            super(referent, QUEUE);
+            TRACKED.add(this);
+            start();
+        }
+
+        /**
+         * Release now, at most once: the referent is not tracked anymore.
+         */
+        public final void release() {
+            clear();
+            if (TRACKED.remove(this)) {
+                released();
+            }
+        }
+
+        protected abstract void released();
+    }
+}
@@ -0,0 +1,261 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors;
+
+import io.gravitee.common.http.HttpHeaders;
+import io.gravitee.common.http.HttpMethod;
+import io.gravitee.gateway.api.ExecutionContext;
+import io.gravitee.gateway.api.Invoker;
+import io.gravitee.policy.cors.configuration.CorsPolicyConfiguration;
+import io.gravitee.policy.cors.stub.StubExecutionContext;
+import io.gravitee.policy.cors.stub.StubPolicyChain;
+import io.gravitee.policy.cors.stub.StubReadStream;
+import io.gravitee.policy.cors.stub.StubRequest;
+import io.gravitee.policy.cors.stub.StubResponse;
+import io.gravitee.policy.cors.utils.CaseInsensitiveHashSet;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.StringJoiner;
+import java.util.function.Consumer;
+
+/**
+ * Bytes allocated by the policy to handle a request, from the request phase to the response phase, for a mix of
+ * requests. The scenarios with a budget of 0 in <code>allocation-budgets.properties</code> must not allocate at all.
+ * The others fail when they allocate clearly more than their budget, by half of it and at least {@link #MARGIN}
+ * bytes: a change allocating more on purpose has to raise the budget.
+ *
+ * @author GraviteeSource Team
+ */
+@RunWith(Parameterized.class)
+public class AllocationBudgetTest {
+
+    private static final String ORIGIN = "https://app.gravitee.io";
+
+    private static final String BUDGETS = "/allocation-budgets.properties";
+
+    private static final int WARMUP = 50_000;
+
+    private static final int ROUNDS = 5;
+
+    private static final int ITERATIONS = 20_000;
+
+    // Bytes a path which must not allocate may still report, from objects allocated once in a while
+    private static final long NOISE = 8;
+
+    // Least margin over a budget, for the objects the JIT does not always remove
+    private static final long MARGIN = 64;
+
+    @Parameterized.Parameter(0)
+    public String scenario;
+
+    @Parameterized.Parameter(1)
+    public Exchange exchange;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> scenarios() {
+        List<Object[]> scenarios = new ArrayList<>();
+
+        for (boolean credentials : Arrays.asList(false, true)) {
+            String suffix = credentials ? ".credentials" : "";
+
+            scenarios.add(scenario("simple" + suffix, configuration(credentials, c -> {}),
+                    simpleRequest(ORIGIN)));
+            scenarios.add(scenario("simple.rejectedOrigin" + suffix, configuration(credentials, c -> {}),
+                    simpleRequest("https://evil.io")));
+            scenarios.add(scenario("preflight.invoker" + suffix, configuration(credentials, c -> {}),
+                    preflightRequest(ORIGIN, "x-gravitee-api-key")));
+            scenarios.add(scenario("preflight.direct" + suffix, configuration(credentials,
+                    c -> c.setPreflightDirectResponse(true)), preflightRequest(ORIGIN, "x-gravitee-api-key")));
+            scenarios.add(scenario("preflight.shortCircuit" + suffix, configuration(credentials,
+                    c -> c.setPreflightShortCircuit(true)), preflightRequest(ORIGIN, "x-gravitee-api-key")));
+        }
+
+        scenarios.add(scenario("simple.withoutOrigin", configuration(false, c -> {}),
+                new StubRequest().method(HttpMethod.GET)));
+        scenarios.add(scenario("simple.withoutOrigin.skipped", configuration(false,
+                c -> c.setSkipRequestsWithoutOrigin(true)), new StubRequest().method(HttpMethod.GET)));
+        scenarios.add(scenario("simple.rejectedOrigin.enforced", configuration(false,
+                c -> c.setEnforceAllowedOrigins(true)), simpleRequest("https://evil.io")));
+        scenarios.add(scenario("preflight.rejectedOrigin", configuration(false, c -> {}),
+                preflightRequest("https://evil.io", "x-gravitee-api-key")));
+        scenarios.add(scenario("preflight.rejectedMethod", configuration(false, c -> {}),
+                preflightRequest(ORIGIN, null).header(HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD, "DELETE")));
+        scenarios.add(scenario("preflight.rejectedHeaders", configuration(false, c -> {}),
+                preflightRequest(ORIGIN, "x-gravitee-api-key, x-unknown")));
+        scenarios.add(scenario("preflight.rejectedHeaders.notSampled", configuration(false,
+                c -> c.setRejectionLogSampling(Integer.MAX_VALUE)),
+                preflightRequest(ORIGIN, "x-gravitee-api-key, x-unknown")));
+        scenarios.add(scenario("preflight.largeHeaderList", configuration(false, c -> {}),
+                preflightRequest(ORIGIN, headerList(100))));
+        scenarios.add(scenario("preflight.largeHeaderList.uncached", configuration(false,
+                c -> c.setPreflightCacheSize(0)), preflightRequest(ORIGIN, headerList(100))));
+
+        return scenarios;
+    }
+
+    @Test
+    public void shouldStayWithinBudget() throws IOException {
+        Assume.assumeTrue(AllocationMeter.isSupported());
+
+        long budget = budget(scenario);
+        // What the gateway allocates around the policy is not part of the budget
+        long bytes = Math.max(0, lowest(exchange::run) - lowest(exchange::harness));
+
+        if (budget == 0) {
+            Assert.assertTrue(scenario + " allocates " + bytes + " bytes per request, it must not allocate",
+                    bytes <= NOISE);
+        } else {
+            long limit = budget + Math.max(MARGIN, budget / 2);
+            Assert.assertTrue(scenario + " allocates " + bytes + " bytes per request, over its budget of " + budget +
+                    " bytes (" + limit + " with the margin)", bytes <= limit);
+        }
+    }
+
+    /**
+     * Keep the lowest of a few rounds: compilations happening during a round only make it allocate more.
+     */
+    private static long lowest(Runnable operation) {
+        long bytes = AllocationMeter.bytesPerOperation(operation, WARMUP, ITERATIONS);
+        for (int round = 1; round < ROUNDS; round++) {
+            bytes = Math.min(bytes, AllocationMeter.bytesPerOperation(operation, 0, ITERATIONS));
+        }
+        return bytes;
+    }
+
+    private static long budget(String scenario) throws IOException {
+        Properties budgets = new Properties();
+        try (InputStream in = AllocationBudgetTest.class.getResourceAsStream(BUDGETS)) {
+            budgets.load(in);
+        }
+
+        String budget = budgets.getProperty(scenario);
+        Assert.assertNotNull("No budget recorded for " + scenario, budget);
+        return Long.parseLong(budget.trim());
+    }
+
+    private static Object[] scenario(String name, CorsPolicyConfiguration configuration, StubRequest request) {
+        return new Object[] { name, new Exchange(configuration, request) };
+    }
+
+    private static CorsPolicyConfiguration configuration(boolean credentials, Consumer<CorsPolicyConfiguration> customizer) {
+        CorsPolicyConfiguration configuration = new CorsPolicyConfiguration();
+        configuration.setAccessControlAllowOrigin(Collections.singleton(ORIGIN));
+        configuration.setAccessControlAllowCredentials(credentials);
+        configuration.setAccessControlMaxAge(600);
+        configuration.setAccessControlAllowMethods(new CaseInsensitiveHashSet(Arrays.asList("GET", "POST", "PUT")));
+        List<String> headers = new ArrayList<>(Arrays.asList("X-Gravitee-Api-Key", "Content-Type"));
+        for (int i = 0; i < 100; i++) {
+            headers.add("X-Custom-Header-" + i);
+        }
+        configuration.setAccessControlAllowHeaders(new CaseInsensitiveHashSet(headers));
+        configuration.setAccessControlExposeHeaders(new CaseInsensitiveHashSet(Collections.singleton("X-Gravitee-Transaction-Id")));
+        customizer.accept(configuration);
+        return configuration;
+    }
+
+    private static String headerList(int count) {
+        StringJoiner joiner = new StringJoiner(", ");
+        for (int i = 0; i < count; i++) {
+            joiner.add("x-custom-header-" + i);
+        }
+        return joiner.toString();
+    }
+
+    private static StubRequest simpleRequest(String origin) {
+        return new StubRequest()
+                .method(HttpMethod.POST)
+                .header(HttpHeaders.ORIGIN, origin);
+    }
+
+    private static StubRequest preflightRequest(String origin, String headers) {
+        StubRequest request = new StubRequest()
+                .method(HttpMethod.OPTIONS)
+                .header(HttpHeaders.ORIGIN, origin)
+                .header(HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD, "POST");
+        if (headers != null) {
+            request.header(HttpHeaders.ACCESS_CONTROL_REQUEST_HEADERS, headers);
+        }
+        return request;
+    }
+
+    /**
+     * Request going through the policy as the gateway runs it: request phase, then the invoker replaced by the policy
+     * if any, and response phase unless the policy ended the exchange.
+     */
+    static final class Exchange {
+
+        private final CorsPolicyConfiguration configuration;
+        private final StubRequest request;
+        private final StubResponse response = new StubResponse();
+        private final StubExecutionContext executionContext = new StubExecutionContext();
+        private final StubPolicyChain policyChain = new StubPolicyChain();
+        private final StubReadStream stream = new StubReadStream();
+
+        Exchange(CorsPolicyConfiguration configuration, StubRequest request) {
+            this.configuration = configuration;
+            this.request = request;
+            this.executionContext.setAttribute(ExecutionContext.ATTR_API, "allocation-budget");
+        }
+
+        // The policy instances of the exchange, kept so that they are allocated whatever the JIT removes
+        private CorsPolicy requestPolicy;
+        private CorsPolicy responsePolicy;
+
+        void run() {
+            harness();
+
+            requestPolicy.onRequest(request, response, executionContext, policyChain);
+            if (policyChain.next() == 0) {
+                // The policy ended the exchange
+                return;
+            }
+
+            Invoker invoker = (Invoker) executionContext.getAttribute(ExecutionContext.ATTR_INVOKER);
+            if (invoker == null) {
+                responsePolicy.onResponse(request, response, executionContext, policyChain);
+            } else {
+                invoker.invoke(executionContext, request, stream, connection -> connection.responseHandler(proxyResponse -> {
+                    response.status(proxyResponse.status());
+                    proxyResponse.endHandler(result -> responsePolicy.onResponse(request, response, executionContext, policyChain));
+                }));
+                stream.end();
+            }
+        }
+
+        /**
+         * What the gateway does for each request whatever the policy does: reset the exchange and create the policy
+         * instances of both phases.
+         */
+        void harness() {
+            response.reset();
+            policyChain.reset();
+            requestPolicy = new CorsPolicy(configuration);
+            responsePolicy = new CorsPolicy(configuration);
+        }
+    }
+}
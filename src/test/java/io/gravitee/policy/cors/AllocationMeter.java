@@ -0,0 +1,56 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measure the bytes allocated by the current thread, relying on the HotSpot
+ * {@link com.sun.management.ThreadMXBean} extension.
+ *
+ * @author GraviteeSource Team
+ */
+public final class AllocationMeter {
+
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private AllocationMeter() {
+    }
+
+    public static boolean isSupported() {
+        return THREAD_MX_BEAN.isThreadAllocatedMemorySupported() && THREAD_MX_BEAN.isThreadAllocatedMemoryEnabled();
+    }
+
+    /**
+     * Run the given operation <code>warmup</code> times, then <code>iterations</code> times while measuring, and
+     * return the average number of bytes allocated by one run.
+     */
+    public static long bytesPerOperation(Runnable operation, int warmup, int iterations) {
+        for (int i = 0; i < warmup; i++) {
+            operation.run();
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = THREAD_MX_BEAN.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            operation.run();
+        }
+        long after = THREAD_MX_BEAN.getThreadAllocatedBytes(threadId);
+
+        return (after - before) / iterations;
+    }
+}
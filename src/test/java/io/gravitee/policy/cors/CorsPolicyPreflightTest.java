@@ -0,0 +1,561 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors;
+
+import io.gravitee.common.http.HttpHeaders;
+import io.gravitee.common.http.HttpMethod;
+import io.gravitee.common.http.HttpStatusCode;
+import io.gravitee.gateway.api.ExecutionContext;
+import io.gravitee.gateway.api.Invoker;
+import io.gravitee.policy.cors.configuration.CorsPathRule;
+import io.gravitee.policy.cors.configuration.CorsPolicyConfiguration;
+import io.gravitee.policy.cors.metrics.CorsMetricsRegistry;
+import io.gravitee.policy.cors.metrics.PreflightRepeatTracker;
+import io.gravitee.policy.cors.metrics.RejectionLog;
+import io.gravitee.policy.cors.origin.ReloadableOriginList;
+import io.gravitee.policy.cors.origin.source.FileOriginSourceFactory;
+import io.gravitee.policy.cors.origin.source.OriginSources;
+import io.gravitee.policy.cors.plan.CorsPlan;
+import io.gravitee.policy.cors.plan.RejectionReason;
+import io.gravitee.policy.cors.stub.StubExecutionContext;
+import io.gravitee.policy.cors.stub.StubPolicyChain;
+import io.gravitee.policy.cors.stub.StubRequest;
+import io.gravitee.policy.cors.stub.StubResponse;
+import io.gravitee.policy.cors.utils.CaseInsensitiveHashSet;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class CorsPolicyPreflightTest {
+
+    private static final String ORIGIN = "https://app.gravitee.io";
+
+    private CorsPolicyConfiguration configuration;
+    private final StubResponse response = new StubResponse();
+    private final StubExecutionContext executionContext = new StubExecutionContext();
+    private final StubPolicyChain policyChain = new StubPolicyChain();
+
+    @Before
+    public void init() {
+        configuration = new CorsPolicyConfiguration();
+        configuration.setAccessControlAllowOrigin(Collections.singleton(ORIGIN));
+        configuration.setAccessControlAllowMethods(new CaseInsensitiveHashSet(Arrays.asList("GET", "POST")));
+        configuration.setAccessControlAllowHeaders(new CaseInsensitiveHashSet(Collections.singleton("X-Gravitee-Api-Key")));
+        configuration.setAccessControlMaxAge(600);
+        configuration.setPreflightDirectResponse(true);
+    }
+
+    @Test
+    public void shouldUseInvokerByDefault() {
+        configuration.setPreflightDirectResponse(false);
+
+        new CorsPolicy(configuration).onRequest(preflight("POST", null), response, executionContext, policyChain);
+
+        Assert.assertTrue(executionContext.getAttribute(ExecutionContext.ATTR_INVOKER) instanceof Invoker);
+        Assert.assertEquals(1, policyChain.next());
+        Assert.assertFalse(response.ended());
+    }
+
+    @Test
+    public void shouldAnswerAllowedPreflightDirectly() {
+        new CorsPolicy(configuration).onRequest(preflight("POST", "x-gravitee-api-key"), response, executionContext, policyChain);
+
+        Assert.assertEquals(HttpStatusCode.OK_200, status());
+        Assert.assertNotNull(policyChain.failure());
+        Assert.assertEquals(0, policyChain.next());
+        Assert.assertNull(executionContext.getAttribute(ExecutionContext.ATTR_INVOKER));
+        Assert.assertEquals(ORIGIN, response.headers().getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+        Assert.assertEquals("GET, POST", response.headers().getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_METHODS));
+        Assert.assertEquals("x-gravitee-api-key", response.headers().getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_HEADERS));
+        Assert.assertEquals("600", response.headers().getFirst(HttpHeaders.ACCESS_CONTROL_MAX_AGE));
+        Assert.assertEquals(HttpHeaders.ORIGIN, response.headers().getFirst(HttpHeaders.VARY));
+    }
+
+    @Test
+    public void shouldApplyPathRules() {
+        CorsPathRule partners = new CorsPathRule();
+        partners.setPath("/partners/**");
+        partners.setAccessControlAllowOrigin(Collections.singleton("https://partner.io"));
+        partners.setAccessControlAllowMethods(new CaseInsensitiveHashSet(Collections.singleton("PUT")));
+        partners.setAccessControlAllowCredentials(true);
+        partners.setPreflightDirectResponse(true);
+        CorsPathRule admin = new CorsPathRule();
+        admin.setPath("/admin/**");
+        admin.setEnabled(false);
+        configuration.setPaths(Arrays.asList(partners, admin));
+        CorsPolicy policy = new CorsPolicy(configuration);
+
+        policy.onRequest(preflight("PUT", null).header(HttpHeaders.ORIGIN, "https://partner.io").path("/partners/orders"),
+                response, executionContext, policyChain);
+
+        Assert.assertEquals(HttpStatusCode.OK_200, status());
+        Assert.assertEquals("https://partner.io", response.headers().getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+        Assert.assertEquals("true", response.headers().getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_CREDENTIALS));
+        Assert.assertEquals("PUT", response.headers().getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_METHODS));
+
+        // The settings of the policy apply to the other paths
+        policy.onRequest(preflight("PUT", null).header(HttpHeaders.ORIGIN, "https://partner.io").path("/orders"),
+                response.reset(), executionContext, policyChain.reset());
+
+        assertRejected();
+
+        // CORS is disabled: the preflight request goes through the chain untouched
+        policy.onRequest(preflight("POST", null).path("/admin/users"), response.reset(), executionContext, policyChain.reset());
+
+        Assert.assertFalse(response.ended());
+        Assert.assertEquals(1, policyChain.next());
+        Assert.assertNull(response.headers().getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+    }
+
+    @Test
+    public void shouldReflectHeadersMatchingPrefixes() {
+        configuration.setAccessControlAllowHeaders(new CaseInsensitiveHashSet(
+                Arrays.asList("X-Gravitee-Api-Key", "X-Acme-Trace-*", "X-Acme-Feature-*")));
+
+        new CorsPolicy(configuration).onRequest(preflight("POST", "x-acme-trace-id, X-Gravitee-Api-Key,X-Acme-Feature-Beta"),
+                response, executionContext, policyChain);
+
+        Assert.assertEquals(HttpStatusCode.OK_200, status());
+        Assert.assertEquals("x-gravitee-api-key, x-acme-trace-id, X-Acme-Feature-Beta",
+                response.headers().getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_HEADERS));
+
+        new CorsPolicy(configuration).onRequest(preflight("POST", "x-acme-trace-id, x-acme-other"),
+                response.reset(), executionContext, policyChain.reset());
+
+        assertRejected();
+    }
+
+    @Test
+    public void shouldNotCacheRequestsExceedingLimits() {
+        // Settings of their own, so that the decision cache is not shared with other tests
+        configuration.setAccessControlAllowOrigin(Collections.singleton("https://padded.gravitee.io"));
+        configuration.setAccessControlAllowHeaders(new CaseInsensitiveHashSet(Arrays.asList("X-A", "X-B")));
+        configuration.setMaxRequestHeadersLength(20);
+        String padded = "x-a," + String.join("", Collections.nCopies(40, " ")) + "x-b";
+
+        new CorsPolicy(configuration).onRequest(preflight("POST", padded).header(HttpHeaders.ORIGIN, "https://padded.gravitee.io"),
+                response, executionContext, policyChain);
+
+        assertRejected();
+
+        // The rejection of the padded value is not cached for the same set of headers
+        new CorsPolicy(configuration).onRequest(preflight("POST", "x-a, x-b").header(HttpHeaders.ORIGIN, "https://padded.gravitee.io"),
+                response.reset(), executionContext, policyChain.reset());
+
+        Assert.assertEquals(HttpStatusCode.OK_200, status());
+        Assert.assertEquals("x-a, x-b", response.headers().getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_HEADERS));
+
+        // The padded value is not allowed from the cache either
+        new CorsPolicy(configuration).onRequest(preflight("POST", padded).header(HttpHeaders.ORIGIN, "https://padded.gravitee.io"),
+                response.reset(), executionContext, policyChain.reset());
+
+        assertRejected();
+    }
+
+    @Test
+    public void shouldNotAllowTooManyHeadersFromCache() {
+        configuration.setAccessControlAllowOrigin(Collections.singleton("https://counted.gravitee.io"));
+        configuration.setAccessControlAllowHeaders(new CaseInsensitiveHashSet(Arrays.asList("X-A", "X-B")));
+        configuration.setMaxRequestHeadersCount(2);
+
+        new CorsPolicy(configuration).onRequest(preflight("POST", "x-a, x-b").header(HttpHeaders.ORIGIN, "https://counted.gravitee.io"),
+                response, executionContext, policyChain);
+
+        Assert.assertEquals(HttpStatusCode.OK_200, status());
+
+        new CorsPolicy(configuration).onRequest(preflight("POST", "x-a, x-b, x-a").header(HttpHeaders.ORIGIN, "https://counted.gravitee.io"),
+                response.reset(), executionContext, policyChain.reset());
+
+        assertRejected();
+    }
+
+    @Test
+    public void shouldRejectPreflightDirectly_method() {
+        new CorsPolicy(configuration).onRequest(preflight("DELETE", null), response, executionContext, policyChain);
+
+        assertRejected();
+    }
+
+    @Test
+    public void shouldRejectPreflightDirectly_header() {
+        new CorsPolicy(configuration).onRequest(preflight("GET", "X-Unknown"), response, executionContext, policyChain);
+
+        assertRejected();
+    }
+
+    @Test
+    public void shouldRejectPreflightDirectly_origin() {
+        StubRequest request = preflight("GET", null).header(HttpHeaders.ORIGIN, "https://evil.io");
+
+        new CorsPolicy(configuration).onRequest(request, response, executionContext, policyChain);
+
+        assertRejected();
+    }
+
+    @Test
+    public void shouldRejectPreflightWithBody() {
+        StubRequest request = preflight("GET", null).header(HttpHeaders.CONTENT_LENGTH, "12");
+
+        new CorsPolicy(configuration).onRequest(request, response, executionContext, policyChain);
+
+        assertRejected();
+    }
+
+    @Test
+    public void shouldAcceptPreflightWithEmptyBody() {
+        StubRequest request = preflight("GET", null).header(HttpHeaders.CONTENT_LENGTH, "0");
+
+        new CorsPolicy(configuration).onRequest(request, response, executionContext, policyChain);
+
+        Assert.assertEquals(HttpStatusCode.OK_200, status());
+        Assert.assertNotNull(policyChain.failure());
+    }
+
+    @Test
+    public void shouldContinueChainForSimpleRequest() {
+        StubRequest request = new StubRequest().method(HttpMethod.GET).header(HttpHeaders.ORIGIN, ORIGIN);
+
+        new CorsPolicy(configuration).onRequest(request, response, executionContext, policyChain);
+
+        Assert.assertEquals(1, policyChain.next());
+        Assert.assertFalse(response.ended());
+    }
+
+    @Test
+    public void shouldEndChainWithAllowedPreflight() {
+        configuration.setPreflightShortCircuit(true);
+
+        new CorsPolicy(configuration).onRequest(preflight("POST", "x-gravitee-api-key"), response, executionContext, policyChain);
+
+        Assert.assertEquals(0, policyChain.next());
+        Assert.assertEquals(HttpStatusCode.OK_200, policyChain.failure().httpStatusCode());
+        Assert.assertFalse(policyChain.failure().isFailure());
+        Assert.assertNull(policyChain.failure().message());
+        Assert.assertFalse(response.ended());
+        Assert.assertNull(executionContext.getAttribute(ExecutionContext.ATTR_INVOKER));
+        Assert.assertEquals(ORIGIN, response.headers().getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+        Assert.assertEquals("GET, POST", response.headers().getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_METHODS));
+        Assert.assertEquals("600", response.headers().getFirst(HttpHeaders.ACCESS_CONTROL_MAX_AGE));
+    }
+
+    @Test
+    public void shouldAnswerPreflightFloodDirectly() {
+        String api = "flood-" + System.nanoTime();
+        executionContext.setAttribute(ExecutionContext.ATTR_API, api);
+        configuration.setPreflightRateLimit(1);
+        configuration.setPreflightRateLimitBurst(2);
+
+        for (int i = 0; i < 2; i++) {
+            new CorsPolicy(configuration).onRequest(preflight("POST", null), response.reset(), executionContext, policyChain.reset());
+            Assert.assertEquals(HttpStatusCode.OK_200, status());
+        }
+
+        new CorsPolicy(configuration).onRequest(preflight("POST", null), response.reset(), executionContext, policyChain.reset());
+
+        Assert.assertEquals(HttpStatusCode.TOO_MANY_REQUESTS_429, status());
+        Assert.assertNotNull(policyChain.failure());
+        Assert.assertEquals("1", response.headers().getFirst(HttpHeaders.RETRY_AFTER));
+        Assert.assertNull(response.headers().getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+        Assert.assertEquals(1, CorsMetricsRegistry.get(api).getRejections(RejectionReason.RATE_LIMIT));
+
+        // Other origins are not limited
+        StubRequest other = preflight("POST", null).header(HttpHeaders.ORIGIN, "https://evil.io");
+        new CorsPolicy(configuration).onRequest(other, response.reset(), executionContext, policyChain.reset());
+        Assert.assertEquals(HttpStatusCode.BAD_REQUEST_400, status());
+    }
+
+    @Test
+    public void shouldEndChainWithPreflightFlood() {
+        executionContext.setAttribute(ExecutionContext.ATTR_API, "flood-chain-" + System.nanoTime());
+        configuration.setPreflightDirectResponse(false);
+        configuration.setPreflightRateLimit(1);
+
+        new CorsPolicy(configuration).onRequest(preflight("POST", null), response, executionContext, policyChain);
+        Assert.assertEquals(1, policyChain.next());
+
+        new CorsPolicy(configuration).onRequest(preflight("POST", null), response, executionContext, policyChain.reset());
+
+        Assert.assertEquals(0, policyChain.next());
+        Assert.assertEquals(HttpStatusCode.TOO_MANY_REQUESTS_429, policyChain.failure().httpStatusCode());
+        Assert.assertEquals("1", response.headers().getFirst(HttpHeaders.RETRY_AFTER));
+    }
+
+    @Test
+    public void shouldRateLimitEachApiOnItsOwn() {
+        configuration.setPreflightRateLimit(1);
+        CorsPolicyConfiguration other = new CorsPolicyConfiguration();
+        other.setAccessControlAllowOrigin(configuration.getAccessControlAllowOrigin());
+        other.setAccessControlAllowMethods(configuration.getAccessControlAllowMethods());
+        other.setAccessControlAllowHeaders(configuration.getAccessControlAllowHeaders());
+        other.setPreflightDirectResponse(configuration.isPreflightDirectResponse());
+        other.setAccessControlMaxAge(configuration.getAccessControlMaxAge());
+        other.setPreflightRateLimit(1);
+        Assert.assertSame(CorsPlan.of(configuration), CorsPlan.of(other));
+
+        StubExecutionContext first = new StubExecutionContext();
+        first.setAttribute(ExecutionContext.ATTR_API, "limited-" + System.nanoTime());
+        StubExecutionContext second = new StubExecutionContext();
+        second.setAttribute(ExecutionContext.ATTR_API, "limited-other-" + System.nanoTime());
+
+        new CorsPolicy(configuration).onRequest(preflight("POST", null), response.reset(), first, policyChain.reset());
+        Assert.assertEquals(HttpStatusCode.OK_200, status());
+
+        // Same settings, but another API
+        new CorsPolicy(other).onRequest(preflight("POST", null), response.reset(), second, policyChain.reset());
+        Assert.assertEquals(HttpStatusCode.OK_200, status());
+
+        // Another change of the settings does not reset the limit
+        configuration.setAccessControlMaxAge(60);
+        new CorsPolicy(configuration).onRequest(preflight("POST", null), response.reset(), first, policyChain.reset());
+        Assert.assertEquals(HttpStatusCode.TOO_MANY_REQUESTS_429, status());
+    }
+
+    @Test
+    public void shouldLogSampledRejections() {
+        String api = "rejections-" + System.nanoTime();
+        executionContext.setAttribute(ExecutionContext.ATTR_API, api);
+        configuration.setRejectionLogSampling(1);
+
+        new CorsPolicy(configuration).onRequest(preflight("POST", "x-gravitee-api-key, X-Unknown ,x-other"),
+                response, executionContext, policyChain);
+        new CorsPolicy(configuration).onRequest(preflight("DELETE", null), response.reset(), executionContext,
+                policyChain);
+        new CorsPolicy(configuration).onRequest(preflight("POST", null), response.reset(), executionContext,
+                policyChain);
+
+        List<RejectionLog.Event> events = CorsMetricsRegistry.get(api).getRejectionLog().events();
+        Assert.assertEquals(2, events.size());
+        Assert.assertEquals(RejectionReason.HEADERS, events.get(0).reason());
+        Assert.assertEquals(ORIGIN, events.get(0).origin());
+        Assert.assertEquals("POST", events.get(0).method());
+        Assert.assertEquals("X-Unknown", events.get(0).header());
+        Assert.assertEquals(RejectionReason.METHOD, events.get(1).reason());
+        Assert.assertEquals("DELETE", events.get(1).method());
+        Assert.assertNull(events.get(1).header());
+    }
+
+    @Test
+    public void shouldEndChainWithRejectedPreflight() {
+        configuration.setPreflightShortCircuit(true);
+
+        new CorsPolicy(configuration).onRequest(preflight("DELETE", null), response, executionContext, policyChain);
+
+        Assert.assertEquals(0, policyChain.next());
+        Assert.assertEquals(HttpStatusCode.BAD_REQUEST_400, policyChain.failure().httpStatusCode());
+        Assert.assertTrue(policyChain.failure().isFailure());
+        Assert.assertNull(response.headers().getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+    }
+
+    @Test
+    public void shouldEndChainWithPreflightCarryingBody() {
+        configuration.setPreflightShortCircuit(true);
+        configuration.setPreflightDirectResponse(false);
+
+        new CorsPolicy(configuration).onRequest(preflight("GET", null).header(HttpHeaders.TRANSFER_ENCODING, "chunked"),
+                response, executionContext, policyChain);
+
+        Assert.assertEquals(HttpStatusCode.BAD_REQUEST_400, policyChain.failure().httpStatusCode());
+        Assert.assertFalse(response.ended());
+    }
+
+    @Test
+    public void shouldNotEndChainForSimpleRequest() {
+        configuration.setPreflightShortCircuit(true);
+        StubRequest request = new StubRequest().method(HttpMethod.GET).header(HttpHeaders.ORIGIN, ORIGIN);
+
+        new CorsPolicy(configuration).onRequest(request, response, executionContext, policyChain);
+
+        Assert.assertEquals(1, policyChain.next());
+        Assert.assertNull(policyChain.failure());
+    }
+
+    /**
+     * @return the status the gateway answers with: the one the chain has been ended with, if any
+     */
+    private int status() {
+        return policyChain.failure() != null ? policyChain.failure().httpStatusCode() : response.status();
+    }
+
+    private void assertRejected() {
+        Assert.assertEquals(HttpStatusCode.BAD_REQUEST_400, status());
+        Assert.assertNotNull(policyChain.failure());
+        Assert.assertEquals(0, policyChain.next());
+        Assert.assertNull(response.headers().getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+    }
+
+    @Test
+    public void shouldGrantWildcardsWhenReducingPreflightVolume() {
+        configuration.setPreflightVolumeReduction(true);
+        configuration.setAccessControlMaxAge(-1);
+        configuration.setAccessControlAllowHeaders(new CaseInsensitiveHashSet(Arrays.asList("X-Gravitee-Api-Key", "authorization")));
+
+        new CorsPolicy(configuration).onRequest(preflight("POST", "x-gravitee-api-key"), response, executionContext, policyChain);
+
+        Assert.assertEquals(HttpStatusCode.OK_200, status());
+        Assert.assertEquals("*", response.headers().getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_METHODS));
+        Assert.assertEquals("*, Authorization", response.headers().getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_HEADERS));
+        Assert.assertEquals("7200", response.headers().getFirst(HttpHeaders.ACCESS_CONTROL_MAX_AGE));
+    }
+
+    @Test
+    public void shouldStillCheckRequestWhenReducingPreflightVolume() {
+        configuration.setPreflightVolumeReduction(true);
+
+        new CorsPolicy(configuration).onRequest(preflight("DELETE", null), response, executionContext, policyChain);
+
+        Assert.assertEquals(HttpStatusCode.BAD_REQUEST_400, status());
+    }
+
+    @Test
+    public void shouldListGrantsWithCredentialsWhenReducingPreflightVolume() {
+        configuration.setPreflightVolumeReduction(true);
+        configuration.setAccessControlAllowCredentials(true);
+
+        new CorsPolicy(configuration).onRequest(preflight("POST", null), response, executionContext, policyChain);
+
+        Assert.assertEquals("GET, POST", response.headers().getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_METHODS));
+        Assert.assertEquals("x-gravitee-api-key", response.headers().getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_HEADERS));
+        Assert.assertEquals("600", response.headers().getFirst(HttpHeaders.ACCESS_CONTROL_MAX_AGE));
+    }
+
+    @Test
+    public void shouldReportRepeatedPreflightsWhenReducingPreflightVolume() {
+        String api = "repeats-" + System.nanoTime();
+        configuration.setPreflightVolumeReduction(true);
+        executionContext.setAttribute(ExecutionContext.ATTR_API, api);
+
+        for (int i = 0; i < 3; i++) {
+            new CorsPolicy(configuration).onRequest(preflight("POST", null).contextPath("/shop").path("/orders"),
+                    response.reset(), executionContext, policyChain.reset());
+        }
+
+        PreflightRepeatTracker repeats = CorsMetricsRegistry.get(api).getPreflightRepeats();
+        Assert.assertEquals(2, repeats.repeats());
+        Assert.assertEquals(ORIGIN, repeats.report(1).get(0).origin());
+        // Relative to the context path, as the path rules
+        Assert.assertEquals("/orders", repeats.report(1).get(0).path());
+    }
+
+    @Test
+    public void shouldAllowOriginsReloadedFromSource() throws Exception {
+        Path file = Files.createTempFile("origins", ".txt");
+        String location = "file:" + file.getFileName();
+        System.setProperty(FileOriginSourceFactory.DIRECTORY_PROPERTY, file.getParent().toString());
+        try {
+            Files.write(file, Collections.singletonList("https://console.gravitee.io"));
+            configuration.setAccessControlAllowOriginSource(location);
+            ReloadableOriginList origins = OriginSources.acquire(location);
+            awaitGeneration(origins, 1);
+
+            CorsPolicy policy = new CorsPolicy(configuration);
+            policy.onRequest(preflight("GET", null).header(HttpHeaders.ORIGIN, "https://console.gravitee.io"),
+                    response, executionContext, policyChain);
+            Assert.assertEquals(HttpStatusCode.OK_200, status());
+
+            policy.onRequest(preflight("GET", null).header(HttpHeaders.ORIGIN, "https://portal.gravitee.io"),
+                    response.reset(), executionContext, policyChain.reset());
+            Assert.assertEquals(HttpStatusCode.BAD_REQUEST_400, status());
+
+            // The cached rejection must not outlive the reload
+            Files.write(file, Arrays.asList("https://console.gravitee.io", "https://portal.gravitee.io"));
+            origins.refresh().get(5, TimeUnit.SECONDS);
+
+            policy.onRequest(preflight("GET", null).header(HttpHeaders.ORIGIN, "https://portal.gravitee.io"),
+                    response.reset(), executionContext, policyChain.reset());
+            Assert.assertEquals(HttpStatusCode.OK_200, status());
+        } finally {
+            OriginSources.release(location);
+            System.clearProperty(FileOriginSourceFactory.DIRECTORY_PROPERTY);
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void shouldAllowSourcedOriginsOnceDeployed() throws Exception {
+        Path file = Files.createTempFile("origins", ".txt");
+        System.setProperty(FileOriginSourceFactory.DIRECTORY_PROPERTY, file.getParent().toString());
+        try {
+            Files.write(file, Collections.singletonList("https://deployed.gravitee.io"));
+            configuration.setAccessControlAllowOriginSource("file:" + file.getFileName());
+
+            // The first load is waited for by the compilation of the plan
+            new CorsPolicy(configuration).onRequest(preflight("GET", null)
+                    .header(HttpHeaders.ORIGIN, "https://deployed.gravitee.io"), response, executionContext, policyChain);
+            Assert.assertEquals(HttpStatusCode.OK_200, status());
+        } finally {
+            System.clearProperty(FileOriginSourceFactory.DIRECTORY_PROPERTY);
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void shouldNotCacheDecisionsBeforeOriginsAreLoaded() throws Exception {
+        Path file = Files.createTempFile("origins", ".txt");
+        Files.delete(file);
+        System.setProperty(FileOriginSourceFactory.DIRECTORY_PROPERTY, file.getParent().toString());
+        try {
+            configuration.setAccessControlAllowOriginSource("file:" + file.getFileName());
+            CorsPlan plan = CorsPlan.of(configuration);
+            Assert.assertFalse(plan.getSourcedOrigins().isLoaded());
+
+            CorsPolicy policy = new CorsPolicy(configuration);
+            for (int i = 0; i < 2; i++) {
+                policy.onRequest(preflight("GET", null).header(HttpHeaders.ORIGIN, "https://loaded.gravitee.io"),
+                        response.reset(), executionContext, policyChain.reset());
+                Assert.assertEquals(HttpStatusCode.BAD_REQUEST_400, status());
+            }
+            Assert.assertEquals(0, plan.getPreflightCache().hits());
+
+            Files.write(file, Collections.singletonList("https://loaded.gravitee.io"));
+            Assert.assertTrue(plan.getSourcedOrigins().refresh().get(5, TimeUnit.SECONDS));
+            policy.onRequest(preflight("GET", null).header(HttpHeaders.ORIGIN, "https://loaded.gravitee.io"),
+                    response.reset(), executionContext, policyChain.reset());
+            Assert.assertEquals(HttpStatusCode.OK_200, status());
+        } finally {
+            System.clearProperty(FileOriginSourceFactory.DIRECTORY_PROPERTY);
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void awaitGeneration(ReloadableOriginList origins, long generation) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (origins.generation() < generation && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(origins.generation() >= generation);
+    }
+
+    private static StubRequest preflight(String method, String headers) {
+        StubRequest request = new StubRequest()
+                .method(HttpMethod.OPTIONS)
+                .header(HttpHeaders.ORIGIN, ORIGIN)
+                .header(HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD, method);
+        if (headers != null) {
+            request.header(HttpHeaders.ACCESS_CONTROL_REQUEST_HEADERS, headers);
+        }
+        return request;
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors;
+
+import io.gravitee.common.http.HttpHeaders;
+import io.gravitee.common.http.HttpMethod;
+import io.gravitee.common.http.HttpStatusCode;
+import io.gravitee.gateway.api.ExecutionContext;
+import io.gravitee.policy.cors.configuration.CorsPolicyConfiguration;
+import io.gravitee.policy.cors.metrics.CorsMetricsRegistry;
+import io.gravitee.policy.cors.plan.RejectionReason;
+import io.gravitee.policy.cors.stub.StubExecutionContext;
+import io.gravitee.policy.cors.stub.StubPolicyChain;
+import io.gravitee.policy.cors.stub.StubRequest;
+import io.gravitee.policy.cors.stub.StubResponse;
+import io.gravitee.policy.cors.utils.CaseInsensitiveHashSet;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class CorsPolicyRequestTest {
+
+    private static final String ORIGIN = "https://app.gravitee.io";
+
+    private CorsPolicyConfiguration configuration;
+    private final StubResponse response = new StubResponse();
+    private final StubExecutionContext executionContext = new StubExecutionContext();
+    private final StubPolicyChain policyChain = new StubPolicyChain();
+
+    @Before
+    public void init() {
+        configuration = new CorsPolicyConfiguration();
+        configuration.setAccessControlAllowOrigin(Collections.singleton(ORIGIN));
+        configuration.setAccessControlAllowMethods(new CaseInsensitiveHashSet(Arrays.asList("GET", "POST")));
+        configuration.setEnforceAllowedOrigins(true);
+    }
+
+    @Test
+    public void shouldRejectDisallowedOrigin() {
+        String api = "enforce-" + System.nanoTime();
+        executionContext.setAttribute(ExecutionContext.ATTR_API, api);
+
+        new CorsPolicy(configuration).onRequest(request("https://evil.io"), response, executionContext, policyChain);
+
+        Assert.assertEquals(0, policyChain.next());
+        Assert.assertEquals(HttpStatusCode.BAD_REQUEST_400, policyChain.failure().httpStatusCode());
+        Assert.assertEquals(HttpHeaders.ORIGIN, response.headers().getFirst(HttpHeaders.VARY));
+        Assert.assertNull(response.headers().getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+        Assert.assertEquals(1, CorsMetricsRegistry.get(api).getRejections(RejectionReason.ORIGIN));
+    }
+
+    @Test
+    public void shouldRejectDisallowedOriginWithErrorStatusCode() {
+        configuration.setCorsErrorStatusCode(HttpStatusCode.FORBIDDEN_403);
+
+        new CorsPolicy(configuration).onRequest(request("https://evil.io"), response, executionContext, policyChain);
+
+        Assert.assertEquals(HttpStatusCode.FORBIDDEN_403, policyChain.failure().httpStatusCode());
+    }
+
+    @Test
+    public void shouldContinueForAllowedOrigin() {
+        new CorsPolicy(configuration).onRequest(request(ORIGIN), response, executionContext, policyChain);
+
+        Assert.assertEquals(1, policyChain.next());
+        Assert.assertNull(policyChain.failure());
+    }
+
+    @Test
+    public void shouldContinueWithoutOrigin() {
+        new CorsPolicy(configuration).onRequest(request(null), response, executionContext, policyChain);
+
+        Assert.assertEquals(1, policyChain.next());
+        Assert.assertNull(policyChain.failure());
+    }
+
+    @Test
+    public void shouldContinueForDisallowedOriginByDefault() {
+        configuration.setEnforceAllowedOrigins(false);
+
+        new CorsPolicy(configuration).onRequest(request("https://evil.io"), response, executionContext, policyChain);
+
+        Assert.assertEquals(1, policyChain.next());
+        Assert.assertNull(policyChain.failure());
+    }
+
+    @Test
+    public void shouldLeavePreflightRequestsToPreflightHandling() {
+        StubRequest preflight = request("https://evil.io")
+                .method(HttpMethod.OPTIONS)
+                .header(HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD, "GET");
+
+        new CorsPolicy(configuration).onRequest(preflight, response, executionContext, policyChain);
+
+        Assert.assertEquals(1, policyChain.next());
+        Assert.assertNotNull(executionContext.getAttribute(ExecutionContext.ATTR_INVOKER));
+    }
+
+    private static StubRequest request(String origin) {
+        StubRequest request = new StubRequest().method(HttpMethod.POST);
+        if (origin != null) {
+            request.header(HttpHeaders.ORIGIN, origin);
+        }
+        return request;
+    }
+}
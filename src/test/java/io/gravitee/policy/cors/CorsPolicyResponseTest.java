@@ -0,0 +1,367 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors;
+
+import io.gravitee.common.http.HttpHeaders;
+import io.gravitee.common.http.HttpMethod;
+import io.gravitee.policy.cors.configuration.CorsPathRule;
+import io.gravitee.policy.cors.configuration.CorsPolicyConfiguration;
+import io.gravitee.policy.cors.stub.StubExecutionContext;
+import io.gravitee.policy.cors.stub.StubPolicyChain;
+import io.gravitee.policy.cors.stub.StubRequest;
+import io.gravitee.policy.cors.stub.StubResponse;
+import io.gravitee.policy.cors.utils.CaseInsensitiveHashSet;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.stream.Collectors;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class CorsPolicyResponseTest {
+
+    private static final String ORIGIN = "https://app.gravitee.io";
+
+    @Test
+    public void shouldWriteSameHeadersAsBefore_simpleRequest() {
+        CorsPolicyConfiguration configuration = configuration(false, 600);
+
+        assertSameHeaders(configuration, simpleRequest());
+    }
+
+    @Test
+    public void shouldWriteSameHeadersAsBefore_preflightRequest() {
+        CorsPolicyConfiguration configuration = configuration(false, 600);
+
+        assertSameHeaders(configuration, preflightRequest());
+    }
+
+    @Test
+    public void shouldWriteSameHeadersAsBefore_withCredentials() {
+        CorsPolicyConfiguration configuration = configuration(true, -1);
+
+        assertSameHeaders(configuration, simpleRequest());
+        assertSameHeaders(configuration, preflightRequest());
+    }
+
+    @Test
+    public void shouldWriteSameHeadersAsBefore_emptyConfiguration() {
+        CorsPolicyConfiguration configuration = new CorsPolicyConfiguration();
+        configuration.setAccessControlAllowOrigin(Collections.singleton("*"));
+
+        assertSameHeaders(configuration, simpleRequest());
+        assertSameHeaders(configuration, preflightRequest());
+    }
+
+    @Test
+    public void shouldReflectAllowedOrigin() {
+        CorsPolicyConfiguration configuration = configuration(false, 600);
+        configuration.setAccessControlAllowOrigin(new HashSet<>(Arrays.asList("https://*.gravitee.io", "https://console.io")));
+
+        StubResponse response = new StubResponse();
+        StubPolicyChain chain = new StubPolicyChain();
+        new CorsPolicy(configuration).onResponse(simpleRequest(), response, chain);
+
+        Assert.assertEquals(ORIGIN, response.headers().getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+        Assert.assertEquals(1, chain.next());
+    }
+
+    @Test
+    public void shouldExposeResponseHeadersMatchingPrefixes() {
+        CorsPolicyConfiguration configuration = configuration(false, 600);
+        configuration.setAccessControlExposeHeaders(new CaseInsensitiveHashSet(
+                Arrays.asList("X-Gravitee-Transaction-Id", "X-Acme-*")));
+
+        StubResponse response = new StubResponse();
+        response.headers().set("X-Acme-Trace-Id", "42");
+        response.headers().set("X-Other", "1");
+        new CorsPolicy(configuration).onResponse(simpleRequest(), response, new StubPolicyChain());
+
+        Assert.assertEquals("x-gravitee-transaction-id, X-Acme-Trace-Id",
+                response.headers().getFirst(HttpHeaders.ACCESS_CONTROL_EXPOSE_HEADERS));
+    }
+
+    @Test
+    public void shouldReflectHeadersMatchingPrefixesInResponsePhase() {
+        CorsPolicyConfiguration configuration = configuration(false, 600);
+        configuration.setAccessControlAllowHeaders(new CaseInsensitiveHashSet(Arrays.asList("Content-Type", "X-Acme-*")));
+
+        StubResponse response = new StubResponse();
+        new CorsPolicy(configuration).onResponse(preflightRequest()
+                .header(HttpHeaders.ACCESS_CONTROL_REQUEST_HEADERS, "content-type, x-acme-trace-id"),
+                response, new StubPolicyChain());
+
+        Assert.assertEquals("content-type, x-acme-trace-id",
+                response.headers().getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_HEADERS));
+    }
+
+    @Test
+    public void shouldWriteHeadersOfPathRule() {
+        CorsPolicyConfiguration configuration = configuration(true, 600);
+        CorsPathRule assets = new CorsPathRule();
+        assets.setPath("/assets/**");
+        assets.setAccessControlAllowOrigin(Collections.singleton("*"));
+        assets.setAccessControlExposeHeaders(new CaseInsensitiveHashSet(Collections.singleton("ETag")));
+        CorsPathRule admin = new CorsPathRule();
+        admin.setPath("/admin/**");
+        admin.setEnabled(false);
+        configuration.setPaths(Arrays.asList(assets, admin));
+        CorsPolicy policy = new CorsPolicy(configuration);
+
+        StubResponse response = new StubResponse();
+        policy.onResponse(simpleRequest().path("/assets/logo.png"), response, new StubPolicyChain());
+
+        Assert.assertEquals("*", response.headers().getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+        Assert.assertEquals("etag", response.headers().getFirst(HttpHeaders.ACCESS_CONTROL_EXPOSE_HEADERS));
+        Assert.assertNull(response.headers().getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_CREDENTIALS));
+
+        policy.onResponse(simpleRequest().path("/orders"), response.reset(), new StubPolicyChain());
+
+        Assert.assertEquals(ORIGIN, response.headers().getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+        Assert.assertEquals("true", response.headers().getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_CREDENTIALS));
+
+        policy.onResponse(simpleRequest().path("/admin/users"), response.reset(), new StubPolicyChain());
+
+        Assert.assertEquals(0, response.headers().size());
+    }
+
+    @Test
+    public void shouldNotWriteHeadersForDisallowedOrigin() {
+        CorsPolicyConfiguration configuration = configuration(true, 600);
+        configuration.setAccessControlAllowOrigin(Collections.singleton("https://console.io"));
+
+        StubResponse response = new StubResponse();
+        StubPolicyChain chain = new StubPolicyChain();
+        new CorsPolicy(configuration).onResponse(preflightRequest(), response, chain);
+
+        // Only Vary: Origin, the response to an allowed origin would differ
+        Assert.assertEquals(1, response.headers().size());
+        Assert.assertEquals(HttpHeaders.ORIGIN, response.headers().getFirst(HttpHeaders.VARY));
+        Assert.assertEquals(1, chain.next());
+    }
+
+    @Test
+    public void shouldShareCompiledPlanBetweenInstances() {
+        CorsPolicyConfiguration configuration = configuration(false, 600);
+
+        new CorsPolicy(configuration).onResponse(simpleRequest(), new StubResponse(), new StubPolicyChain());
+        Assert.assertNotNull(configuration.getPlan());
+
+        Object plan = configuration.getPlan();
+        new CorsPolicy(configuration).onResponse(preflightRequest(), new StubResponse(), new StubPolicyChain());
+        Assert.assertSame(plan, configuration.getPlan());
+    }
+
+    @Test
+    public void shouldNotAllocateWhenWritingResponseHeaders() {
+        Assume.assumeTrue(AllocationMeter.isSupported());
+
+        CorsPolicyConfiguration configuration = configuration(true, 600);
+        CorsPolicy policy = new CorsPolicy(configuration);
+        StubRequest simple = simpleRequest();
+        StubRequest preflight = preflightRequest();
+        StubResponse response = new StubResponse();
+        StubPolicyChain chain = new StubPolicyChain();
+
+        long bytes = AllocationMeter.bytesPerOperation(() -> {
+            policy.onResponse(simple, response.reset(), chain);
+            policy.onResponse(preflight, response.reset(), chain);
+        }, 20_000, 100_000);
+
+        Assert.assertTrue("Expected no allocation per response but got " + bytes + " bytes", bytes < 16);
+    }
+
+    @Test
+    public void shouldSkipRequestsWithoutOrigin() {
+        CorsPolicyConfiguration configuration = configuration(true, 600);
+        configuration.setSkipRequestsWithoutOrigin(true);
+        StubRequest request = new StubRequest().method(HttpMethod.GET);
+        StubResponse response = new StubResponse();
+        StubPolicyChain chain = new StubPolicyChain();
+        StubExecutionContext executionContext = new StubExecutionContext();
+
+        new CorsPolicy(configuration).onRequest(request, response, executionContext, chain);
+        new CorsPolicy(configuration).onResponse(request, response, executionContext, chain);
+
+        Assert.assertEquals(2, chain.next());
+        Assert.assertEquals(1, response.headers().size());
+        Assert.assertEquals(HttpHeaders.ORIGIN, response.headers().getFirst(HttpHeaders.VARY));
+    }
+
+    @Test
+    public void shouldSkipRequestsWithoutOrigin_publicWildcard() {
+        CorsPolicyConfiguration configuration = configuration(false, 600);
+        configuration.setSkipRequestsWithoutOrigin(true);
+        StubResponse response = new StubResponse();
+
+        new CorsPolicy(configuration).onResponse(new StubRequest().method(HttpMethod.GET), response, new StubPolicyChain());
+
+        Assert.assertTrue(response.headers().isEmpty());
+    }
+
+    @Test
+    public void shouldNotReflectMissingOrigin() {
+        CorsPolicyConfiguration configuration = configuration(true, 600);
+        StubResponse response = new StubResponse();
+
+        new CorsPolicy(configuration).onResponse(new StubRequest().method(HttpMethod.GET), response, new StubPolicyChain());
+
+        Assert.assertNull(response.headers().getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+        Assert.assertNull(response.headers().getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_CREDENTIALS));
+        Assert.assertEquals(HttpHeaders.ORIGIN, response.headers().getFirst(HttpHeaders.VARY));
+    }
+
+    @Test
+    public void shouldVaryOnOriginWhenReflectingIt() {
+        CorsPolicyConfiguration configuration = configuration(false, 600);
+        configuration.setAccessControlAllowOrigin(Collections.singleton(ORIGIN));
+
+        Assert.assertEquals(HttpHeaders.ORIGIN, varyOf(configuration, simpleRequest(), null));
+        Assert.assertEquals(HttpHeaders.ORIGIN, varyOf(configuration,
+                new StubRequest().method(HttpMethod.GET).header(HttpHeaders.ORIGIN, "https://evil.io"), null));
+        Assert.assertEquals("Accept-Encoding, Origin", varyOf(configuration, simpleRequest(), "Accept-Encoding"));
+        Assert.assertEquals("accept-encoding, origin", varyOf(configuration, simpleRequest(), "accept-encoding, origin"));
+        Assert.assertEquals("*", varyOf(configuration, simpleRequest(), "*"));
+    }
+
+    @Test
+    public void shouldNotVaryOnOriginForPublicWildcard() {
+        CorsPolicyConfiguration configuration = configuration(false, 600);
+
+        Assert.assertNull(varyOf(configuration, simpleRequest(), null));
+        Assert.assertEquals("Accept-Encoding", varyOf(configuration, simpleRequest(), "Accept-Encoding"));
+    }
+
+    @Test
+    public void shouldNotAllocateForRequestsWithoutOrigin() {
+        Assume.assumeTrue(AllocationMeter.isSupported());
+
+        CorsPolicyConfiguration configuration = configuration(true, 600);
+        configuration.setSkipRequestsWithoutOrigin(true);
+        CorsPolicy policy = new CorsPolicy(configuration);
+        StubRequest request = new StubRequest().method(HttpMethod.POST);
+        StubResponse response = new StubResponse();
+        StubPolicyChain chain = new StubPolicyChain();
+        StubExecutionContext executionContext = new StubExecutionContext();
+
+        long bytes = AllocationMeter.bytesPerOperation(() -> {
+            policy.onRequest(request, response.reset(), executionContext, chain);
+            policy.onResponse(request, response, executionContext, chain);
+        }, 20_000, 100_000);
+
+        Assert.assertTrue("Expected no allocation per request but got " + bytes + " bytes", bytes < 16);
+    }
+
+    private static String varyOf(CorsPolicyConfiguration configuration, StubRequest request, String backendVary) {
+        StubResponse response = new StubResponse();
+        if (backendVary != null) {
+            response.headers().set(HttpHeaders.VARY, backendVary);
+        }
+
+        new CorsPolicy(configuration).onResponse(request, response, new StubPolicyChain());
+        return response.headers().getFirst(HttpHeaders.VARY);
+    }
+
+    private static void assertSameHeaders(CorsPolicyConfiguration configuration, StubRequest request) {
+        StubResponse response = new StubResponse();
+        StubPolicyChain chain = new StubPolicyChain();
+
+        new CorsPolicy(configuration).onResponse(request, response, chain);
+
+        StubResponse expected = legacyHeaders(configuration, request);
+        for (String header : Arrays.asList(
+                HttpHeaders.ACCESS_CONTROL_EXPOSE_HEADERS,
+                HttpHeaders.ACCESS_CONTROL_ALLOW_HEADERS,
+                HttpHeaders.ACCESS_CONTROL_ALLOW_METHODS,
+                HttpHeaders.ACCESS_CONTROL_MAX_AGE,
+                HttpHeaders.ACCESS_CONTROL_ALLOW_CREDENTIALS,
+                HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN)) {
+            Assert.assertEquals(header, expected.headers().getFirst(header), response.headers().getFirst(header));
+        }
+        // Vary was not written before
+        int vary = response.headers().containsKey(HttpHeaders.VARY) ? 1 : 0;
+        Assert.assertEquals(expected.headers().size(), response.headers().size() - vary);
+        Assert.assertEquals(1, chain.next());
+    }
+
+    /**
+     * Headers as they were computed on every response before the plan was introduced.
+     */
+    private static StubResponse legacyHeaders(CorsPolicyConfiguration configuration, StubRequest request) {
+        StubResponse response = new StubResponse();
+        boolean preflight = request.method() == HttpMethod.OPTIONS &&
+                request.headers().getFirst(HttpHeaders.ORIGIN) != null &&
+                request.headers().getFirst(HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD) != null;
+
+        if (! preflight) {
+            if (configuration.getAccessControlExposeHeaders() != null && ! configuration.getAccessControlExposeHeaders().isEmpty()) {
+                response.headers().set(HttpHeaders.ACCESS_CONTROL_EXPOSE_HEADERS,
+                        String.join(", ", configuration.getAccessControlExposeHeaders()));
+            }
+        } else {
+            response.headers().set(HttpHeaders.ACCESS_CONTROL_ALLOW_HEADERS,
+                    String.join(", ", configuration.getAccessControlAllowHeaders()));
+            response.headers().set(HttpHeaders.ACCESS_CONTROL_ALLOW_METHODS,
+                    configuration.getAccessControlAllowMethods()
+                            .stream()
+                            .map(String::toUpperCase)
+                            .collect(Collectors.joining(", ")));
+            if (configuration.getAccessControlMaxAge() > -1) {
+                response.headers().set(HttpHeaders.ACCESS_CONTROL_MAX_AGE,
+                        Integer.toString(configuration.getAccessControlMaxAge()));
+            }
+        }
+
+        if (configuration.isAccessControlAllowCredentials()) {
+            response.headers().set(HttpHeaders.ACCESS_CONTROL_ALLOW_CREDENTIALS, Boolean.TRUE.toString());
+            response.headers().set(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, request.headers().getFirst(HttpHeaders.ORIGIN));
+        } else {
+            response.headers().set(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, "*");
+        }
+
+        return response;
+    }
+
+    private static CorsPolicyConfiguration configuration(boolean credentials, int maxAge) {
+        CorsPolicyConfiguration configuration = new CorsPolicyConfiguration();
+        configuration.setAccessControlAllowOrigin(Collections.singleton("*"));
+        configuration.setAccessControlAllowCredentials(credentials);
+        configuration.setAccessControlMaxAge(maxAge);
+        configuration.setAccessControlAllowMethods(new CaseInsensitiveHashSet(Arrays.asList("get", "POST", "Put")));
+        configuration.setAccessControlAllowHeaders(new CaseInsensitiveHashSet(Arrays.asList("X-Gravitee-Api-Key", "Content-Type")));
+        configuration.setAccessControlExposeHeaders(new CaseInsensitiveHashSet(Arrays.asList("X-Gravitee-Transaction-Id", "X-Rate-Limit")));
+        return configuration;
+    }
+
+    private static StubRequest simpleRequest() {
+        return new StubRequest()
+                .method(HttpMethod.GET)
+                .header(HttpHeaders.ORIGIN, ORIGIN);
+    }
+
+    private static StubRequest preflightRequest() {
+        return new StubRequest()
+                .method(HttpMethod.OPTIONS)
+                .header(HttpHeaders.ORIGIN, ORIGIN)
+                .header(HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD, "POST")
+                .header(HttpHeaders.ACCESS_CONTROL_REQUEST_HEADERS, "X-Gravitee-Api-Key");
+    }
+}
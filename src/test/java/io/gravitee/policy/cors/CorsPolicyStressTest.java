@@ -0,0 +1,436 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors;
+
+import io.gravitee.common.http.HttpHeaders;
+import io.gravitee.common.http.HttpMethod;
+import io.gravitee.common.http.HttpStatusCode;
+import io.gravitee.gateway.api.ExecutionContext;
+import io.gravitee.gateway.api.Invoker;
+import io.gravitee.policy.cors.configuration.CorsPathRule;
+import io.gravitee.policy.cors.configuration.CorsPolicyConfiguration;
+import io.gravitee.policy.cors.stub.StubExecutionContext;
+import io.gravitee.policy.cors.stub.StubPolicyChain;
+import io.gravitee.policy.cors.stub.StubReadStream;
+import io.gravitee.policy.cors.stub.StubRequest;
+import io.gravitee.policy.cors.stub.StubResponse;
+import io.gravitee.policy.cors.utils.CaseInsensitiveHashSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Requests going through a single policy instance from many threads while its configuration is switched back and
+ * forth between two sets of settings which have nothing in common. Every response must be the one of either set, as
+ * a whole: an origin of one set never gets the methods, credentials or exposed headers of the other one. Requests
+ * never wait for an update to complete.
+ *
+ * @author GraviteeSource Team
+ */
+public class CorsPolicyStressTest {
+
+    private static final String BLUE_ORIGIN = "https://blue.stress.gravitee.io";
+
+    private static final String GREEN_ORIGIN = "https://green.stress.gravitee.io";
+
+    private static final int THREADS = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+    private static final int UPDATES = 2_000;
+
+    // Requests each thread sends at least, whatever the time taken by the updates
+    private static final int MIN_REQUESTS = 5_000;
+
+    private static final int MAX_REPORTED_ERRORS = 10;
+
+    // Credentials, preflight answered from the request phase, CORS disabled under /private
+    private static final Settings BLUE = new Settings(BLUE_ORIGIN, "GET", "X-Blue", "X-Blue-Id", true, 600, true,
+            rule("/private/**", false, null));
+
+    // No credentials, preflight answered through the invoker, any origin under /private
+    private static final Settings GREEN = new Settings(GREEN_ORIGIN, "PUT", "X-Green", "X-Green-Id", false, 60, false,
+            rule("/private/**", true, "*"));
+
+    @Test
+    public void shouldNeverMixSettingsWhileConfigurationIsReplaced() throws InterruptedException {
+        final CorsPolicyConfiguration configuration = new CorsPolicyConfiguration();
+        configuration.update(BLUE::applyTo);
+        final CorsPolicy policy = new CorsPolicy(configuration);
+
+        final Queue<String> errors = new ConcurrentLinkedQueue<>();
+        final AtomicLong blue = new AtomicLong();
+        final AtomicLong green = new AtomicLong();
+        final AtomicBoolean updating = new AtomicBoolean(true);
+        final CountDownLatch start = new CountDownLatch(1);
+
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            Thread worker = new Thread(() -> {
+                Client client = new Client(policy);
+                await(start);
+                for (int request = 0; request < MIN_REQUESTS || updating.get(); request++) {
+                    String error = client.check(request, blue, green);
+                    if (error != null) {
+                        errors.add(error);
+                        return;
+                    }
+                }
+            }, "cors-stress-" + i);
+            worker.start();
+            workers.add(worker);
+        }
+
+        Thread updater = new Thread(() -> {
+            await(start);
+            for (int i = 0; i < UPDATES; i++) {
+                configuration.update((i & 1) == 0 ? GREEN::applyTo : BLUE::applyTo);
+                Thread.yield();
+            }
+            updating.set(false);
+        }, "cors-stress-updater");
+        updater.start();
+
+        start.countDown();
+        updater.join();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        Assert.assertTrue(errors.size() + " wrong responses, including: " + first(errors), errors.isEmpty());
+        Assert.assertTrue("No request decided with the blue settings", blue.get() > 0);
+        Assert.assertTrue("No request decided with the green settings", green.get() > 0);
+
+        // The last update is the blue one
+        Client client = new Client(policy);
+        long before = blue.get();
+        Assert.assertNull(client.check(0, blue, green));
+        Assert.assertNull(client.check(2, blue, green));
+        Assert.assertEquals(before + 1, blue.get());
+    }
+
+    @Test
+    public void shouldNotBlockRequestsWhileConfigurationIsUpdated() throws InterruptedException {
+        final CorsPolicyConfiguration configuration = new CorsPolicyConfiguration();
+        configuration.update(BLUE::applyTo);
+        final CorsPolicy policy = new CorsPolicy(configuration);
+        Assert.assertNull(new Client(policy).check(0, new AtomicLong(), new AtomicLong()));
+
+        // A single change, then an update which does not complete until the requests are done
+        configuration.setAccessControlMaxAge(BLUE.maxAge);
+        final CountDownLatch updating = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread updater = new Thread(() -> configuration.update(changes -> {
+            GREEN.applyTo(changes);
+            updating.countDown();
+            await(release);
+        }), "cors-stress-updater");
+        updater.start();
+        updating.await();
+
+        final Queue<String> errors = new ConcurrentLinkedQueue<>();
+        final AtomicLong blue = new AtomicLong();
+        final AtomicLong green = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread worker = new Thread(() -> {
+            Client client = new Client(policy);
+            for (int request = 0; request < MIN_REQUESTS; request++) {
+                String error = client.check(request, blue, green);
+                if (error != null) {
+                    errors.add(error);
+                }
+            }
+            done.countDown();
+        }, "cors-stress-0");
+        worker.start();
+
+        boolean completed = done.await(10, TimeUnit.SECONDS);
+        release.countDown();
+        updater.join();
+        worker.join();
+
+        Assert.assertTrue("Requests waited for the update to complete", completed);
+        Assert.assertTrue(errors.size() + " wrong responses, including: " + first(errors), errors.isEmpty());
+        Assert.assertEquals("Requests decided with the settings of an update in progress", 0, green.get());
+        Assert.assertTrue(blue.get() > 0);
+
+        // Published once complete
+        Assert.assertNull(new Client(policy).check(2, blue, green));
+        Assert.assertEquals(1, green.get());
+    }
+
+    @Test
+    public void shouldCompileConfigurationOnceUnderContention() throws InterruptedException {
+        final CorsPolicyConfiguration configuration = new CorsPolicyConfiguration();
+        configuration.update(GREEN::applyTo);
+        final Queue<Object> plans = new ConcurrentLinkedQueue<>();
+        final CountDownLatch start = new CountDownLatch(1);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            Thread thread = new Thread(() -> {
+                Client client = new Client(new CorsPolicy(configuration));
+                await(start);
+                client.check(2, new AtomicLong(), new AtomicLong());
+                plans.add(configuration.getPlan());
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Set<Object> distinct = Collections.newSetFromMap(new IdentityHashMap<>());
+        distinct.addAll(plans);
+        Assert.assertEquals(1, distinct.size());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String first(Queue<String> errors) {
+        List<String> first = new ArrayList<>();
+        for (String error : errors) {
+            if (first.size() == MAX_REPORTED_ERRORS) {
+                break;
+            }
+            first.add(error);
+        }
+        return first.toString();
+    }
+
+    private static CorsPathRule rule(String path, boolean enabled, String origin) {
+        CorsPathRule rule = new CorsPathRule();
+        rule.setPath(path);
+        rule.setEnabled(enabled);
+        if (origin != null) {
+            rule.setAccessControlAllowOrigin(Collections.singleton(origin));
+            rule.setAccessControlAllowMethods(new CaseInsensitiveHashSet(Collections.singleton("GET")));
+        }
+        return rule;
+    }
+
+    private static final class Settings {
+
+        private final String origin;
+        private final String method;
+        private final String allowHeader;
+        private final String exposeHeader;
+        private final boolean credentials;
+        private final int maxAge;
+        private final boolean directResponse;
+        private final List<CorsPathRule> paths;
+
+        Settings(String origin, String method, String allowHeader, String exposeHeader, boolean credentials,
+                 int maxAge, boolean directResponse, CorsPathRule rule) {
+            this.origin = origin;
+            this.method = method;
+            this.allowHeader = allowHeader;
+            this.exposeHeader = exposeHeader;
+            this.credentials = credentials;
+            this.maxAge = maxAge;
+            this.directResponse = directResponse;
+            this.paths = Collections.singletonList(rule);
+        }
+
+        void applyTo(CorsPolicyConfiguration configuration) {
+            configuration.setAccessControlAllowOrigin(new LinkedHashSet<>(Collections.singleton(origin)));
+            configuration.setAccessControlAllowMethods(new CaseInsensitiveHashSet(Collections.singleton(method)));
+            configuration.setAccessControlAllowHeaders(new CaseInsensitiveHashSet(Collections.singleton(allowHeader)));
+            configuration.setAccessControlExposeHeaders(new CaseInsensitiveHashSet(Collections.singleton(exposeHeader)));
+            configuration.setAccessControlAllowCredentials(credentials);
+            configuration.setAccessControlMaxAge(maxAge);
+            configuration.setPreflightDirectResponse(directResponse);
+            configuration.setPaths(paths);
+        }
+    }
+
+    /**
+     * Sends requests as the gateway runs them, one thread at a time, and checks their responses.
+     */
+    private static final class Client {
+
+        private final CorsPolicy policy;
+        private final StubResponse response = new StubResponse();
+        private final StubExecutionContext executionContext = new StubExecutionContext();
+        private final StubPolicyChain policyChain = new StubPolicyChain();
+        private final StubReadStream stream = new StubReadStream();
+        private final StubRequest[] requests = {
+                // Allowed by blue only
+                preflight(BLUE_ORIGIN, "GET", "X-Blue"),
+                // Never allowed: blue origin, green method and header
+                preflight(BLUE_ORIGIN, "PUT", "X-Green"),
+                // Allowed by green only
+                preflight(GREEN_ORIGIN, "PUT", "X-Green"),
+                // Never allowed: green origin, blue method and header
+                preflight(GREEN_ORIGIN, "GET", "X-Blue"),
+                actual(BLUE_ORIGIN, "/orders"),
+                actual(GREEN_ORIGIN, "/orders"),
+                // Not a CORS request with blue, any origin with green
+                actual(BLUE_ORIGIN, "/private/reports")
+        };
+
+        private int status;
+
+        Client(CorsPolicy policy) {
+            this.policy = policy;
+        }
+
+        /**
+         * @return a description of the response if it is wrong, <code>null</code> otherwise
+         */
+        String check(int index, AtomicLong blue, AtomicLong green) {
+            final int kind = index % requests.length;
+            final StubRequest request = requests[kind];
+            send(request);
+
+            final HttpHeaders headers = response.headers();
+            final String allowOrigin = headers.getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN);
+            final boolean allowed = status == HttpStatusCode.OK_200;
+            final boolean preflight = request.method() == HttpMethod.OPTIONS;
+            final String requestOrigin = request.headers().getFirst(HttpHeaders.ORIGIN);
+
+            Settings settings = null;
+            boolean consistent;
+            if (BLUE_ORIGIN.equals(allowOrigin)) {
+                settings = BLUE;
+                consistent = matches(headers, BLUE, preflight);
+            } else if (GREEN_ORIGIN.equals(allowOrigin)) {
+                settings = GREEN;
+                consistent = matches(headers, GREEN, preflight);
+            } else if ("*".equals(allowOrigin)) {
+                // Path rule of the green settings
+                settings = GREEN;
+                consistent = kind == 6 && headers.getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_CREDENTIALS) == null &&
+                        headers.getFirst(HttpHeaders.ACCESS_CONTROL_EXPOSE_HEADERS) == null;
+            } else {
+                consistent = allowOrigin == null &&
+                        headers.getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_CREDENTIALS) == null &&
+                        headers.getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_METHODS) == null &&
+                        headers.getFirst(HttpHeaders.ACCESS_CONTROL_EXPOSE_HEADERS) == null;
+            }
+
+            if (allowOrigin != null && ! "*".equals(allowOrigin) && ! allowOrigin.equals(requestOrigin)) {
+                consistent = false;
+            }
+
+            boolean right;
+            switch (kind) {
+                case 0:
+                    right = allowed == (settings == BLUE);
+                    break;
+                case 2:
+                    right = allowed == (settings == GREEN);
+                    break;
+                case 1:
+                case 3:
+                    right = ! allowed;
+                    break;
+                default:
+                    right = allowed;
+            }
+
+            if (! consistent || ! right) {
+                return request.method() + " " + request.path() + " from " + requestOrigin + " -> " + status + " " +
+                        headers.toSingleValueMap();
+            }
+
+            if (settings == BLUE) {
+                blue.incrementAndGet();
+            } else if (settings == GREEN) {
+                green.incrementAndGet();
+            }
+            return null;
+        }
+
+        private static boolean matches(HttpHeaders headers, Settings settings, boolean preflight) {
+            if (settings.credentials != "true".equals(headers.getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_CREDENTIALS))) {
+                return false;
+            }
+
+            if (preflight) {
+                return settings.method.equals(headers.getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_METHODS)) &&
+                        settings.allowHeader.equalsIgnoreCase(headers.getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_HEADERS)) &&
+                        String.valueOf(settings.maxAge).equals(headers.getFirst(HttpHeaders.ACCESS_CONTROL_MAX_AGE));
+            }
+
+            return settings.exposeHeader.equalsIgnoreCase(headers.getFirst(HttpHeaders.ACCESS_CONTROL_EXPOSE_HEADERS)) &&
+                    headers.getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_METHODS) == null;
+        }
+
+        private void send(StubRequest request) {
+            response.reset();
+            policyChain.reset();
+            executionContext.reset();
+            executionContext.setAttribute(ExecutionContext.ATTR_API, "cors-stress");
+            status = 0;
+
+            policy.onRequest(request, response, executionContext, policyChain);
+            if (policyChain.next() == 0) {
+                // Answered from the request phase
+                status = policyChain.failure() != null ? policyChain.failure().httpStatusCode() : response.status();
+                return;
+            }
+
+            Invoker invoker = (Invoker) executionContext.getAttribute(ExecutionContext.ATTR_INVOKER);
+            if (invoker == null) {
+                // Actual request: the backend answers
+                status = HttpStatusCode.OK_200;
+                policy.onResponse(request, response, executionContext, policyChain);
+            } else {
+                invoker.invoke(executionContext, request, stream, connection -> connection.responseHandler(proxyResponse -> {
+                    status = proxyResponse.status();
+                    proxyResponse.endHandler(result -> policy.onResponse(request, response, executionContext, policyChain));
+                }));
+                stream.end();
+            }
+        }
+
+        private static StubRequest preflight(String origin, String method, String header) {
+            return new StubRequest()
+                    .method(HttpMethod.OPTIONS)
+                    .path("/orders")
+                    .header(HttpHeaders.ORIGIN, origin)
+                    .header(HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD, method)
+                    .header(HttpHeaders.ACCESS_CONTROL_REQUEST_HEADERS, header);
+        }
+
+        private static StubRequest actual(String origin, String path) {
+            return new StubRequest()
+                    .method(HttpMethod.GET)
+                    .path(path)
+                    .header(HttpHeaders.ORIGIN, origin);
+        }
+    }
+}
@@ -17,6 +17,7 @@ package io.gravitee.policy.cors;
 
 import io.gravitee.policy.cors.configuration.CorsPolicyConfiguration;
 import io.gravitee.policy.cors.utils.CaseInsensitiveHashSet;
+import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -49,6 +50,12 @@ public class CorsPolicyTest {
         corsPolicy = new CorsPolicy(corsPolicyConfiguration);
     }
 
+    @After
+    public void reset() {
+        // Mockito keeps the last invocation, and the plan it was given, past the test
+        Mockito.reset(corsPolicyConfiguration);
+    }
+
     @Test
     public void testAccessControlRequestHeaders01() {
         Mockito.when(corsPolicyConfiguration.getAccessControlAllowHeaders()).thenReturn(null);
@@ -0,0 +1,164 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors;
+
+import io.gravitee.common.http.HttpHeaders;
+import io.gravitee.common.http.HttpMethod;
+import io.gravitee.gateway.api.ExecutionContext;
+import io.gravitee.gateway.api.Invoker;
+import io.gravitee.policy.cors.configuration.CorsPolicyConfiguration;
+import io.gravitee.policy.cors.plan.CorsPlan;
+import io.gravitee.policy.cors.stub.StubExecutionContext;
+import io.gravitee.policy.cors.stub.StubPolicyChain;
+import io.gravitee.policy.cors.stub.StubReadStream;
+import io.gravitee.policy.cors.stub.StubRequest;
+import io.gravitee.policy.cors.stub.StubResponse;
+import io.gravitee.policy.cors.utils.CaseInsensitiveHashSet;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class CorsRequestContextTest {
+
+    private static final String ORIGIN = "https://app.gravitee.io";
+
+    private CorsPolicyConfiguration configuration;
+    private final StubResponse response = new StubResponse();
+    private final StubExecutionContext executionContext = new StubExecutionContext();
+    private final StubPolicyChain policyChain = new StubPolicyChain();
+
+    @Before
+    public void init() {
+        configuration = new CorsPolicyConfiguration();
+        configuration.setAccessControlAllowOrigin(Collections.singleton(ORIGIN));
+        configuration.setAccessControlAllowMethods(new CaseInsensitiveHashSet(Arrays.asList("GET", "POST")));
+        configuration.setAccessControlAllowHeaders(new CaseInsensitiveHashSet(Collections.singleton("X-Gravitee-Api-Key")));
+    }
+
+    @Test
+    public void shouldClassifyPreflightRequest() {
+        CorsRequestContext cors = CorsRequestContext.of(preflight(ORIGIN), CorsPlan.of(configuration));
+
+        Assert.assertTrue(cors.isPreflight());
+        Assert.assertEquals(ORIGIN, cors.origin());
+        Assert.assertTrue(cors.isOriginAllowed());
+        Assert.assertEquals("POST", cors.requestMethod());
+        Assert.assertEquals("x-gravitee-api-key", cors.requestHeaders());
+    }
+
+    @Test
+    public void shouldClassifySimpleRequest() {
+        StubRequest request = new StubRequest().method(HttpMethod.OPTIONS).header(HttpHeaders.ORIGIN, "https://evil.io");
+
+        CorsRequestContext cors = CorsRequestContext.of(request, CorsPlan.of(configuration));
+
+        Assert.assertFalse(cors.isPreflight());
+        Assert.assertFalse(cors.isOriginAllowed());
+        Assert.assertNull(cors.requestMethod());
+        Assert.assertNull(cors.requestHeaders());
+    }
+
+    @Test
+    public void shouldShareContextOfRequestsWithoutOrigin() {
+        StubRequest request = new StubRequest().method(HttpMethod.OPTIONS)
+                .header(HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD, "GET");
+
+        CorsRequestContext cors = CorsRequestContext.of(request, CorsPlan.of(configuration));
+
+        Assert.assertSame(CorsRequestContext.WITHOUT_ORIGIN, cors);
+        Assert.assertFalse(cors.isPreflight());
+    }
+
+    @Test
+    public void shouldDecideResponseFromRequestPhase() {
+        StubRequest request = new StubRequest().method(HttpMethod.GET).header(HttpHeaders.ORIGIN, ORIGIN);
+        CorsPolicy policy = new CorsPolicy(configuration);
+
+        policy.onRequest(request, response, executionContext, policyChain);
+        // Policies running afterwards cannot change what the request has been classified as
+        request.headers().remove(HttpHeaders.ORIGIN);
+        policy.onResponse(request, response, executionContext, policyChain);
+
+        Assert.assertTrue(executionContext.getAttribute(configuration.getRequestAttribute()) instanceof CorsRequestContext);
+        Assert.assertEquals(ORIGIN, response.headers().getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+    }
+
+    @Test
+    public void shouldAnswerPreflightFromRequestPhase() {
+        StubRequest request = preflight(ORIGIN);
+        new CorsPolicy(configuration).onRequest(request, response, executionContext, policyChain);
+        request.headers().remove(HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD);
+
+        Invoker invoker = (Invoker) executionContext.getAttribute(ExecutionContext.ATTR_INVOKER);
+        StubReadStream stream = new StubReadStream();
+        invoker.invoke(executionContext, request, stream, connection -> connection.responseHandler(proxyResponse -> {
+            response.status(proxyResponse.status());
+            proxyResponse.endHandler(result -> response.end());
+        }));
+        stream.end();
+
+        Assert.assertEquals(200, response.status());
+    }
+
+    @Test
+    public void shouldWriteHeadersForRequestsWithoutOrigin() {
+        configuration.setAccessControlAllowOrigin(Collections.singleton("*"));
+        StubRequest request = new StubRequest().method(HttpMethod.GET);
+        CorsPolicy policy = new CorsPolicy(configuration);
+
+        policy.onRequest(request, response, executionContext, policyChain);
+        policy.onResponse(request, response, executionContext, policyChain);
+
+        Assert.assertEquals("*", response.headers().getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+    }
+
+    @Test
+    public void shouldKeepDecisionOfEachPolicyOfChain() {
+        CorsPolicyConfiguration other = new CorsPolicyConfiguration();
+        other.setAccessControlAllowOrigin(Collections.singleton("https://other.gravitee.io"));
+        other.setAccessControlAllowCredentials(true);
+        CorsPolicy api = new CorsPolicy(configuration);
+        CorsPolicy plan = new CorsPolicy(other);
+        StubRequest request = new StubRequest().method(HttpMethod.GET).header(HttpHeaders.ORIGIN, ORIGIN);
+
+        api.onRequest(request, response, executionContext, policyChain);
+        plan.onRequest(request, response, executionContext, policyChain);
+
+        StubResponse planResponse = new StubResponse();
+        plan.onResponse(request, planResponse, executionContext, policyChain);
+        Assert.assertNull(planResponse.headers().getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+        Assert.assertNull(planResponse.headers().getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_CREDENTIALS));
+
+        api.onResponse(request, response, executionContext, policyChain);
+        Assert.assertEquals(ORIGIN, response.headers().getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+        Assert.assertNull(response.headers().getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_CREDENTIALS));
+        Assert.assertEquals(4, policyChain.next());
+    }
+
+    private static StubRequest preflight(String origin) {
+        return new StubRequest()
+                .method(HttpMethod.OPTIONS)
+                .header(HttpHeaders.ORIGIN, origin)
+                .header(HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD, "POST")
+                .header(HttpHeaders.ACCESS_CONTROL_REQUEST_HEADERS, "x-gravitee-api-key");
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.configuration;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.gravitee.policy.cors.plan.CorsPlan;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class CorsPolicyConfigurationTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void shouldReadSingleAllowedOrigin() throws Exception {
+        CorsPolicyConfiguration configuration = mapper.readValue(
+                "{\"accessControlAllowOrigin\": \"https://gravitee.io\", \"accessControlAllowMethods\": [\"GET\"]}",
+                CorsPolicyConfiguration.class);
+
+        Assert.assertEquals(Collections.singleton("https://gravitee.io"), configuration.getAccessControlAllowOrigin());
+    }
+
+    @Test
+    public void shouldReadAllowedOrigins() throws Exception {
+        CorsPolicyConfiguration configuration = mapper.readValue(
+                "{\"accessControlAllowOrigin\": [\"https://gravitee.io\", \"https://*.gravitee.io\"], " +
+                        "\"accessControlAllowMethods\": [\"GET\"]}",
+                CorsPolicyConfiguration.class);
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList("https://gravitee.io", "https://*.gravitee.io")),
+                configuration.getAccessControlAllowOrigin());
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void shouldAllowAnyOriginUnlessSet() {
+        CorsPolicyConfiguration configuration = new CorsPolicyConfiguration();
+        Assert.assertEquals(Collections.singleton("*"), configuration.getAccessControlAllowOrigin());
+        Assert.assertTrue(CorsPlan.of(configuration).isAllowAllOrigins());
+
+        configuration.setAccessControlAllowOrigin("https://gravitee.io");
+        Assert.assertEquals(Collections.singleton("https://gravitee.io"), configuration.getAccessControlAllowOrigin());
+        Assert.assertTrue(new CorsPathRule().getAccessControlAllowOrigin().isEmpty());
+    }
+
+    @Test
+    public void shouldRejectInvalidOriginPatternsOnLoad() throws Exception {
+        try {
+            mapper.readValue("{\"accessControlAllowOrigin\": [\"~https://(?=a)a\\\\.example\\\\.com\"]}",
+                    CorsPolicyConfiguration.class);
+            Assert.fail("Configuration should be rejected");
+        } catch (JsonMappingException jme) {
+            Assert.assertTrue(jme.getMessage(), jme.getMessage().contains("look-arounds and named groups are not supported"));
+        }
+    }
+
+    @Test
+    public void shouldReadPathRules() throws Exception {
+        CorsPolicyConfiguration configuration = mapper.readValue("{" +
+                        "\"accessControlAllowOrigin\": [\"https://gravitee.io\"], \"accessControlAllowMethods\": [\"GET\"], " +
+                        "\"paths\": [" +
+                        "{\"path\": \"/partners/**\", \"accessControlAllowOrigin\": [\"https://partner.io\"], " +
+                        "\"accessControlAllowCredentials\": true}, " +
+                        "{\"path\": \"/admin/**\", \"enabled\": false}]}",
+                CorsPolicyConfiguration.class);
+
+        Assert.assertEquals(2, configuration.getPaths().size());
+        CorsPathRule partners = configuration.getPaths().get(0);
+        Assert.assertEquals("/partners/**", partners.getPath());
+        Assert.assertTrue(partners.isEnabled());
+        Assert.assertTrue(partners.isAccessControlAllowCredentials());
+        Assert.assertEquals(Collections.singleton("https://partner.io"), partners.getAccessControlAllowOrigin());
+        Assert.assertFalse(configuration.getPaths().get(1).isEnabled());
+    }
+
+    @Test
+    public void shouldRejectInvalidPathRulesOnLoad() throws Exception {
+        try {
+            mapper.readValue("{\"paths\": [{\"path\": \"/assets/**/css\"}]}", CorsPolicyConfiguration.class);
+            Assert.fail("Configuration should be rejected");
+        } catch (JsonMappingException jme) {
+            Assert.assertTrue(jme.getMessage(), jme.getMessage().contains("'**' is only allowed as last segment"));
+        }
+    }
+
+    @Test
+    public void shouldNotNestPathRules() throws Exception {
+        assertRejected("{\"accessControlAllowOrigin\": \"*\", \"accessControlAllowMethods\": [\"GET\"], " +
+                        "\"paths\": [{\"path\": \"/assets/**\", \"paths\": [{\"path\": \"/css/**\"}]}]}",
+                "paths[0].paths: path rules do not nest");
+
+        CorsPolicyConfiguration configuration = new CorsPolicyConfiguration();
+        CorsPathRule rule = new CorsPathRule();
+        rule.setPath("/assets/**");
+        CorsPathRule nested = new CorsPathRule();
+        nested.setPath("/css/**");
+        rule.setPaths(Collections.singletonList(nested));
+        try {
+            configuration.setPaths(Collections.singletonList(rule));
+            Assert.fail("Nested path rules should be rejected");
+        } catch (IllegalArgumentException iae) {
+            Assert.assertEquals("Path rule '/assets/**' cannot have path rules", iae.getMessage());
+        }
+    }
+
+    @Test
+    public void shouldCompileOnLoad() throws Exception {
+        // The gateway ignores the properties it does not know
+        ObjectMapper mapper = new ObjectMapper().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        CorsPolicyConfiguration configuration = mapper.readValue("{" +
+                        "\"accessControlAllowOrigin\": [\"https://compiled.gravitee.io\"], " +
+                        "\"accessControlAllowMethods\": [\"get\", \"POST\"], " +
+                        "\"accessControlAllowHeaders\": [\"X-Gravitee-Api-Key\"], " +
+                        "\"accessControlMaxAge\": 600, \"corsErrorStatusCode\": 403, \"unknown\": {\"a\": [1]}, " +
+                        "\"paths\": [{\"path\": \"/admin/**\", \"enabled\": false}]}",
+                CorsPolicyConfiguration.class);
+
+        Assert.assertNotNull(configuration.getPlan());
+        Assert.assertTrue(configuration.getPlan().isOriginAllowed("https://compiled.gravitee.io"));
+        Assert.assertEquals("GET, POST", configuration.getPlan().getAllowMethods());
+        Assert.assertEquals("600", configuration.getPlan().getMaxAge());
+        Assert.assertEquals(403, configuration.getCorsErrorStatusCode());
+        Assert.assertNull(configuration.getPlan().resolve("/admin/users"));
+    }
+
+    @Test
+    public void shouldRejectInvalidValuesOnLoad() {
+        String valid = "\"accessControlAllowOrigin\": \"*\", \"accessControlAllowMethods\": [\"GET\"]";
+
+        assertRejected("{\"accessControlAllowOrigin\": \"*\", \"accessControlAllowMethods\": [\"GET\", \"FETCH\"]}",
+                "accessControlAllowMethods[1]: 'FETCH' is not one of GET, DELETE, PATCH, POST, PUT, TRACE, HEAD");
+        assertRejected("{" + valid + ", \"accessControlAllowHeaders\": [\"X-Api-Key\", null]}",
+                "accessControlAllowHeaders[1]: must be a string");
+        assertRejected("{" + valid + ", \"accessControlMaxAge\": \"600\"}",
+                "accessControlMaxAge: must be an integer");
+        assertRejected("{" + valid + ", \"preflightCacheSize\": 10000000000}",
+                "preflightCacheSize: 10000000000 is out of range");
+        assertRejected("{" + valid + ", \"accessControlAllowCredentials\": \"yes\"}",
+                "accessControlAllowCredentials: must be a boolean");
+        assertRejected("{\"accessControlAllowOrigin\": [\"app.gravitee.io\"], \"accessControlAllowMethods\": [\"GET\"]}",
+                "accessControlAllowOrigin: Invalid origin 'app.gravitee.io'");
+        assertRejected("{\"accessControlAllowMethods\": [\"GET\"]}",
+                "accessControlAllowOrigin: is required");
+        assertRejected("{\"accessControlAllowOrigin\": [], \"accessControlAllowMethods\": [\"GET\"]}",
+                "accessControlAllowOrigin: must list at least one origin");
+        assertRejected("{\"accessControlAllowOrigin\": \"\", \"accessControlAllowMethods\": [\"GET\"]}",
+                "accessControlAllowOrigin: must list at least one origin");
+        assertRejected("{" + valid + ", \"paths\": [{\"path\": \"/partners/**\"}]}",
+                "paths[0].accessControlAllowOrigin: must list at least one origin");
+        assertRejected("{" + valid + ", \"paths\": [{\"accessControlAllowOrigin\": \"*\"}]}",
+                "paths[0].path: is required");
+        assertRejected("{" + valid + ", \"paths\": [\"/assets/**\"]}",
+                "paths[0]: must be an object");
+    }
+
+    @Test
+    public void shouldReportLocation() {
+        try {
+            mapper.readValue("{\n  \"accessControlAllowOrigin\": \"*\",\n  \"accessControlAllowMethods\": [\"GET\", 1]\n}",
+                    CorsPolicyConfiguration.class);
+            Assert.fail("Configuration should be rejected");
+        } catch (Exception e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("line: 3"));
+        }
+    }
+
+    private void assertRejected(String json, String message) {
+        try {
+            mapper.readValue(json, CorsPolicyConfiguration.class);
+            Assert.fail("Configuration should be rejected: " + json);
+        } catch (Exception e) {
+            Assert.assertTrue(e.getMessage(), e instanceof JsonMappingException);
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid CORS configuration, " + message));
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.metrics;
+
+import io.gravitee.common.http.HttpHeaders;
+import io.gravitee.common.http.HttpMethod;
+import io.gravitee.gateway.api.ExecutionContext;
+import io.gravitee.gateway.api.Invoker;
+import io.gravitee.policy.cors.CorsPolicy;
+import io.gravitee.policy.cors.configuration.CorsPolicyConfiguration;
+import io.gravitee.policy.cors.plan.RejectionReason;
+import io.gravitee.policy.cors.stub.StubExecutionContext;
+import io.gravitee.policy.cors.stub.StubPolicyChain;
+import io.gravitee.policy.cors.stub.StubReadStream;
+import io.gravitee.policy.cors.stub.StubRequest;
+import io.gravitee.policy.cors.stub.StubResponse;
+import io.gravitee.policy.cors.utils.CaseInsensitiveHashSet;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.function.BooleanSupplier;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class CorsMetricsTest {
+
+    private static final String ORIGIN = "https://app.gravitee.io";
+
+    private CorsPolicyConfiguration configuration;
+    private final StubExecutionContext executionContext = new StubExecutionContext();
+    private String api;
+
+    @Before
+    public void init() {
+        configuration = new CorsPolicyConfiguration();
+        configuration.setAccessControlAllowOrigin(Collections.singleton(ORIGIN));
+        configuration.setAccessControlAllowMethods(new CaseInsensitiveHashSet(Arrays.asList("GET", "POST")));
+        configuration.setAccessControlAllowHeaders(new CaseInsensitiveHashSet(Collections.singleton("X-Gravitee-Api-Key")));
+        configuration.setPreflightDirectResponse(true);
+
+        api = "metrics-" + System.nanoTime();
+        executionContext.setAttribute(ExecutionContext.ATTR_API, api);
+    }
+
+    @Test
+    public void shouldCountRequestsPerApi() {
+        request(simple(ORIGIN));
+        request(simple(ORIGIN));
+        request(preflight(ORIGIN, "POST", null));
+
+        CorsMetrics metrics = CorsMetricsRegistry.get(api);
+        Assert.assertEquals(2, metrics.getSimpleRequests());
+        Assert.assertEquals(1, metrics.getPreflightRequests());
+        Assert.assertTrue(CorsMetricsRegistry.all().contains(metrics));
+    }
+
+    @Test
+    public void shouldSampleLatencies() {
+        int requests = 100 * CorsMetrics.LATENCY_SAMPLING;
+        for (int i = 0; i < requests; i++) {
+            request(simple(ORIGIN));
+        }
+
+        CorsMetrics metrics = CorsMetricsRegistry.get(api);
+        long sampled = metrics.getLatency(CorsMetrics.Phase.REQUEST).count();
+        Assert.assertEquals(requests, metrics.getSimpleRequests());
+        Assert.assertTrue(sampled > 0 && sampled < requests / 4);
+        Assert.assertTrue(metrics.getLatency(CorsMetrics.Phase.RESPONSE).count() > 0);
+    }
+
+    @Test
+    public void shouldCountRejectionsByReason() {
+        request(preflight("https://evil.io", "POST", null));
+        request(preflight(ORIGIN, "DELETE", null));
+        request(preflight(ORIGIN, "POST", "x-gravitee-api-key, x-forbidden"));
+        request(preflight(ORIGIN, "POST", null).header(HttpHeaders.CONTENT_LENGTH, "12"));
+        request(simple("https://evil.io"));
+
+        CorsMetrics metrics = CorsMetricsRegistry.get(api);
+        Assert.assertEquals(2, metrics.getRejections(RejectionReason.ORIGIN));
+        Assert.assertEquals(1, metrics.getRejections(RejectionReason.METHOD));
+        Assert.assertEquals(1, metrics.getRejections(RejectionReason.HEADERS));
+        Assert.assertEquals(1, metrics.getRejections(RejectionReason.BODY));
+    }
+
+    @Test
+    public void shouldCountPreflightCacheHits() {
+        request(preflight(ORIGIN, "POST", "x-gravitee-api-key"));
+        request(preflight(ORIGIN, "POST", "x-gravitee-api-key"));
+        request(preflight(ORIGIN, "POST", "x-gravitee-api-key"));
+
+        Assert.assertEquals(2, CorsMetricsRegistry.get(api).getPreflightCacheHits());
+    }
+
+    @Test
+    public void shouldTimePreflightAnsweredThroughInvoker() {
+        configuration.setPreflightDirectResponse(false);
+        StubRequest request = preflight("https://evil.io", "POST", null);
+        StubReadStream stream = new StubReadStream();
+
+        new CorsPolicy(configuration).onRequest(request, new StubResponse(), executionContext, new StubPolicyChain());
+        Invoker invoker = (Invoker) executionContext.getAttribute(ExecutionContext.ATTR_INVOKER);
+        invoker.invoke(executionContext, request, stream,
+                connection -> connection.responseHandler(response -> response.endHandler(result -> {})));
+        stream.end();
+
+        CorsMetrics metrics = CorsMetricsRegistry.get(api);
+        Assert.assertEquals(1, metrics.getPreflightRequests());
+        Assert.assertEquals(1, metrics.getRejections(RejectionReason.ORIGIN));
+        Assert.assertTrue(metrics.getLatency(CorsMetrics.Phase.PREFLIGHT).count() <= 1);
+    }
+
+    @Test
+    public void shouldRecordWithoutApi() {
+        new CorsPolicy(configuration).onResponse(simple(ORIGIN), new StubResponse(), new StubPolicyChain());
+
+        Assert.assertNotNull(CorsMetricsRegistry.get(CorsMetricsRegistry.UNKNOWN_API));
+    }
+
+    @Test
+    public void shouldDropMetricsOfUndeployedApis() throws InterruptedException {
+        request(simple(ORIGIN));
+        CorsMetrics metrics = CorsMetricsRegistry.get(api);
+
+        // Redeployed: the previous configuration is dropped, not the metrics
+        init();
+        executionContext.setAttribute(ExecutionContext.ATTR_API, metrics.getApi());
+        request(simple(ORIGIN));
+        awaitCollection(() -> false);
+        Assert.assertSame(metrics, CorsMetricsRegistry.get(metrics.getApi()));
+        Assert.assertEquals(2, metrics.getSimpleRequests());
+
+        // Undeployed
+        configuration = null;
+        Assert.assertTrue(awaitCollection(() -> CorsMetricsRegistry.get(metrics.getApi()) == null));
+    }
+
+    private static boolean awaitCollection(BooleanSupplier released) throws InterruptedException {
+        for (int i = 0; i < 50; i++) {
+            System.gc();
+            Thread.sleep(10);
+            if (released.getAsBoolean()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void request(StubRequest request) {
+        StubResponse response = new StubResponse();
+        StubPolicyChain policyChain = new StubPolicyChain();
+        CorsPolicy policy = new CorsPolicy(configuration);
+
+        policy.onRequest(request, response, executionContext, policyChain);
+        if (policyChain.next() == 1) {
+            policy.onResponse(request, response, executionContext, policyChain);
+        }
+    }
+
+    private static StubRequest simple(String origin) {
+        return new StubRequest()
+                .method(HttpMethod.GET)
+                .header(HttpHeaders.ORIGIN, origin);
+    }
+
+    private static StubRequest preflight(String origin, String method, String headers) {
+        StubRequest request = new StubRequest()
+                .method(HttpMethod.OPTIONS)
+                .header(HttpHeaders.ORIGIN, origin)
+                .header(HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD, method);
+        return headers == null ? request : request.header(HttpHeaders.ACCESS_CONTROL_REQUEST_HEADERS, headers);
+    }
+}
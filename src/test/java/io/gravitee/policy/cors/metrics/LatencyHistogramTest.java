@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void shouldBoundEveryValueByItsBucket() {
+        long[] values = {0, 1, 3, 4, 5, 7, 8, 9, 15, 16, 100, 1_000, 123_456, 999_999_999L, 1L << 40};
+        for (long value : values) {
+            int bucket = LatencyHistogram.bucket(value);
+            Assert.assertTrue(value + " above its bucket", value <= LatencyHistogram.upperBound(bucket));
+            Assert.assertTrue(value + " below its bucket", bucket == 0 || value > LatencyHistogram.upperBound(bucket - 1));
+            // Buckets are at most 25% wide
+            Assert.assertTrue(LatencyHistogram.upperBound(bucket) <= value + value / 4 + 1);
+        }
+    }
+
+    @Test
+    public void shouldComputePercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        Assert.assertEquals(1000, histogram.count());
+        Assert.assertEquals(500_500_000L, histogram.totalNanos());
+        Assert.assertEquals(1_000_000L, histogram.maxNanos());
+        assertWithin(500_000L, histogram.percentile(50));
+        assertWithin(990_000L, histogram.percentile(99));
+        Assert.assertEquals(1_000_000L, histogram.percentile(100));
+    }
+
+    @Test
+    public void shouldBeEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        Assert.assertEquals(0, histogram.count());
+        Assert.assertEquals(0, histogram.percentile(99));
+    }
+
+    @Test
+    public void shouldCountNegativeDurationsAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-10);
+
+        Assert.assertEquals(1, histogram.count());
+        Assert.assertEquals(0, histogram.totalNanos());
+    }
+
+    @Test
+    public void shouldNotLoseConcurrentRecordings() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int thread = 0; thread < 4; thread++) {
+            executor.execute(() -> {
+                for (int i = 0; i < 100_000; i++) {
+                    histogram.record(i);
+                }
+            });
+        }
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        Assert.assertEquals(400_000, histogram.count());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        Assert.assertTrue(actual + " not within 25% of " + expected,
+                actual >= expected && actual <= expected + expected / 4);
+    }
+}
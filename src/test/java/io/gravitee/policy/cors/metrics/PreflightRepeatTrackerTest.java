@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class PreflightRepeatTrackerTest {
+
+    private static final long MAX_AGE = TimeUnit.HOURS.toNanos(2);
+
+    private final PreflightRepeatTracker tracker = new PreflightRepeatTracker(64);
+
+    @Test
+    public void shouldDetectRepeatWithinMaxAge() {
+        Assert.assertFalse(tracker.record("https://app.io", "/orders", MAX_AGE));
+        Assert.assertTrue(tracker.record("https://app.io", "/orders", MAX_AGE));
+        Assert.assertTrue(tracker.record("https://app.io", "/orders", MAX_AGE));
+
+        Assert.assertEquals(2, tracker.repeats());
+    }
+
+    @Test
+    public void shouldNotDetectRepeatAfterMaxAge() {
+        Assert.assertFalse(tracker.record("https://app.io", "/orders", 1));
+        Assert.assertFalse(tracker.record("https://app.io", "/orders", 1));
+
+        Assert.assertEquals(0, tracker.repeats());
+    }
+
+    @Test
+    public void shouldTrackOriginAndPathSeparately() {
+        tracker.record("https://app.io", "/orders", MAX_AGE);
+
+        Assert.assertFalse(tracker.record("https://app.io", "/products", MAX_AGE));
+        Assert.assertFalse(tracker.record("https://console.io", "/orders", MAX_AGE));
+    }
+
+    @Test
+    public void shouldReportMostRepeatedFirst() {
+        for (int i = 0; i < 3; i++) {
+            tracker.record("https://app.io", "/orders", MAX_AGE);
+        }
+        for (int i = 0; i < 5; i++) {
+            tracker.record("https://app.io", "/products", MAX_AGE);
+        }
+        tracker.record("https://console.io", "/orders", MAX_AGE);
+
+        List<PreflightRepeatTracker.Entry> report = tracker.report(10);
+        Assert.assertEquals(2, report.size());
+        Assert.assertEquals("/products", report.get(0).path());
+        Assert.assertEquals(4, report.get(0).repeats());
+        Assert.assertEquals("/orders", report.get(1).path());
+        Assert.assertEquals(2, report.get(1).repeats());
+        Assert.assertEquals(1, tracker.report(1).size());
+    }
+
+    @Test
+    public void shouldStayBounded() {
+        for (int i = 0; i < 100_000; i++) {
+            tracker.record("https://app" + i + ".io", "/orders", MAX_AGE);
+            tracker.record("https://app" + i + ".io", "/orders", MAX_AGE);
+        }
+
+        Assert.assertEquals(100_000, tracker.repeats());
+        Assert.assertTrue(tracker.report(Integer.MAX_VALUE).size() <= 64);
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.metrics;
+
+import io.gravitee.policy.cors.plan.RejectionReason;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class RejectionLogTest {
+
+    @Test
+    public void shouldRecordEvents() {
+        RejectionLog log = new RejectionLog(8);
+        long before = System.currentTimeMillis();
+
+        log.record(RejectionReason.HEADERS, "https://app.gravitee.io", "POST", "x-unknown");
+        log.record(RejectionReason.ORIGIN, "https://evil.io", null, null);
+
+        List<RejectionLog.Event> events = log.events();
+        Assert.assertEquals(2, log.recorded());
+        Assert.assertEquals(2, events.size());
+
+        RejectionLog.Event event = events.get(0);
+        Assert.assertEquals(RejectionReason.HEADERS, event.reason());
+        Assert.assertEquals("https://app.gravitee.io", event.origin());
+        Assert.assertEquals("POST", event.method());
+        Assert.assertEquals("x-unknown", event.header());
+        Assert.assertTrue(event.timestamp() >= before);
+        Assert.assertEquals(RejectionReason.ORIGIN, events.get(1).reason());
+    }
+
+    @Test
+    public void shouldKeepLastEvents() {
+        RejectionLog log = new RejectionLog(8);
+
+        for (int i = 0; i < 20; i++) {
+            log.record(RejectionReason.ORIGIN, "https://" + i + ".io", null, null);
+        }
+
+        List<RejectionLog.Event> events = log.events();
+        Assert.assertEquals(20, log.recorded());
+        Assert.assertEquals(8, events.size());
+        Assert.assertEquals("https://12.io", events.get(0).origin());
+        Assert.assertEquals("https://19.io", events.get(7).origin());
+    }
+
+    @Test
+    public void shouldRecordFromConcurrentThreads() throws InterruptedException {
+        RejectionLog log = new RejectionLog(RejectionLog.DEFAULT_CAPACITY);
+        int threads = 4;
+        CountDownLatch done = new CountDownLatch(threads);
+
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    log.record(RejectionReason.METHOD, "https://app.gravitee.io", "DELETE", null);
+                    if ((i & 127) == 0) {
+                        Assert.assertTrue(log.events().size() <= RejectionLog.DEFAULT_CAPACITY);
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+
+        Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+        Assert.assertEquals(40_000, log.recorded());
+        Assert.assertEquals(RejectionLog.DEFAULT_CAPACITY, log.events().size());
+    }
+}
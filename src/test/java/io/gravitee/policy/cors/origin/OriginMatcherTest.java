@@ -0,0 +1,171 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.origin;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class OriginMatcherTest {
+
+    @Test
+    public void shouldAllowAnyOrigin() {
+        OriginMatcher matcher = OriginMatcher.of(Collections.singleton("*"));
+
+        Assert.assertTrue(matcher.isAllowAll());
+        Assert.assertTrue(matcher.isAllowed("https://whatever.io"));
+        Assert.assertFalse(matcher.isAllowed(null));
+    }
+
+    @Test
+    public void shouldNotAllowAnyOriginWhenEmpty() {
+        Assert.assertFalse(OriginMatcher.of(null).isAllowed("https://gravitee.io"));
+        Assert.assertFalse(OriginMatcher.of(Collections.emptySet()).isAllowed("https://gravitee.io"));
+    }
+
+    @Test
+    public void shouldMatchExactOrigins() {
+        OriginMatcher matcher = OriginMatcher.of(Arrays.asList("https://gravitee.io", "HTTP://Localhost:8080/", "null"));
+
+        Assert.assertFalse(matcher.isAllowAll());
+        Assert.assertTrue(matcher.isAllowed("https://gravitee.io"));
+        Assert.assertTrue(matcher.isAllowed("http://localhost:8080"));
+        Assert.assertTrue(matcher.isAllowed("null"));
+        Assert.assertFalse(matcher.isAllowed("http://gravitee.io"));
+        Assert.assertFalse(matcher.isAllowed("https://gravitee.io:8443"));
+        Assert.assertFalse(matcher.isAllowed("https://evil-gravitee.io"));
+        Assert.assertFalse(matcher.isAllowed("http://localhost"));
+    }
+
+    @Test
+    public void shouldMatchSubdomainWildcards() {
+        OriginMatcher matcher = OriginMatcher.of(Arrays.asList("https://*.gravitee.io", "http://*.example.com:8080"));
+
+        Assert.assertTrue(matcher.isAllowed("https://apim.gravitee.io"));
+        Assert.assertTrue(matcher.isAllowed("https://a.b.gravitee.io"));
+        Assert.assertTrue(matcher.isAllowed("https://APIM.Gravitee.IO"));
+        Assert.assertTrue(matcher.isAllowed("http://www.example.com:8080"));
+
+        // The wildcard does not cover the domain itself
+        Assert.assertFalse(matcher.isAllowed("https://gravitee.io"));
+        Assert.assertFalse(matcher.isAllowed("https://.gravitee.io"));
+        // Scheme and port must match
+        Assert.assertFalse(matcher.isAllowed("http://apim.gravitee.io"));
+        Assert.assertFalse(matcher.isAllowed("https://apim.gravitee.io:8443"));
+        Assert.assertFalse(matcher.isAllowed("http://www.example.com"));
+        // Suffix is label based
+        Assert.assertFalse(matcher.isAllowed("https://apim.evilgravitee.io"));
+        Assert.assertFalse(matcher.isAllowed("https://gravitee.io.evil.com"));
+        Assert.assertFalse(matcher.isAllowed("gravitee.io"));
+    }
+
+    @Test
+    public void shouldMatchPatterns() {
+        OriginMatcher matcher = OriginMatcher.of(Arrays.asList(
+                "https://gravitee.io", " ~https://pr-[0-9]+\\.preview\\.example\\.com", "https://*.gravitee.io"));
+
+        Assert.assertTrue(matcher.isAllowed("https://gravitee.io"));
+        Assert.assertTrue(matcher.isAllowed("https://apim.gravitee.io"));
+        Assert.assertTrue(matcher.isAllowed("https://pr-42.preview.example.com"));
+        Assert.assertFalse(matcher.isAllowed("https://pr-x.preview.example.com"));
+        // Patterns are not matched as exact origins
+        Assert.assertFalse(matcher.isAllowed("~https://pr-[0-9]+\\.preview\\.example\\.com"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidPatterns() {
+        OriginMatcher.validate(Arrays.asList("https://gravitee.io", "~https://(a)\\1\\.example\\.com"));
+    }
+
+    @Test
+    public void shouldAcceptWellFormedOrigins() {
+        OriginMatcher.validate(Arrays.asList("*", "null", "https://gravitee.io/", "http://localhost:8080",
+                "https://*.gravitee.io", "HTTPS://APIM.GRAVITEE.IO", "http://[::1]:3000", "chrome-extension://abcdef", null));
+    }
+
+    @Test
+    public void shouldRejectMalformedOrigins() {
+        for (String origin : Arrays.asList("gravitee.io", "https://gravitee.io/console", "https://gravitee.io:http",
+                "https://api.*.gravitee.io", "https://gravitee io", "https://")) {
+            try {
+                OriginMatcher.validate(Collections.singleton(origin));
+                Assert.fail("Origin should be rejected: " + origin);
+            } catch (IllegalArgumentException iae) {
+                Assert.assertTrue(iae.getMessage(), iae.getMessage().startsWith("Invalid origin '" + origin + "'"));
+            }
+        }
+    }
+
+    @Test
+    public void shouldCacheDecisions() {
+        OriginMatcher matcher = OriginMatcher.of(Collections.singleton("https://*.gravitee.io"));
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(matcher.isAllowed("https://apim.gravitee.io"));
+            Assert.assertFalse(matcher.isAllowed("https://evil.io"));
+        }
+    }
+
+    @Test
+    public void shouldBoundDecisionCache() {
+        OriginDecisionCache cache = new OriginDecisionCache(16);
+
+        for (int i = 0; i < 1_000; i++) {
+            cache.put("https://" + i + ".io", i % 2 == 0);
+        }
+
+        Assert.assertEquals(16, cache.size());
+        Assert.assertEquals(Boolean.FALSE, cache.get("https://999.io"));
+        Assert.assertNull(cache.get("https://0.io"));
+    }
+
+    @Test
+    public void shouldGiveSecondChanceToReferencedEntries() {
+        OriginDecisionCache cache = new OriginDecisionCache(2);
+        cache.put("a", true);
+        cache.put("b", true);
+        cache.get("a");
+
+        cache.put("c", true);
+
+        Assert.assertEquals(Boolean.TRUE, cache.get("a"));
+        Assert.assertNull(cache.get("b"));
+        Assert.assertEquals(Boolean.TRUE, cache.get("c"));
+    }
+
+    @Test
+    public void shouldHandleLargeAllowLists() {
+        List<String> origins = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            origins.add("https://app" + i + ".gravitee.io");
+            origins.add("https://*.tenant" + i + ".example.com");
+        }
+
+        OriginMatcher matcher = OriginMatcher.of(origins);
+
+        Assert.assertTrue(matcher.isAllowed("https://app99999.gravitee.io"));
+        Assert.assertTrue(matcher.isAllowed("https://portal.tenant42.example.com"));
+        Assert.assertFalse(matcher.isAllowed("https://app100000.gravitee.io"));
+        Assert.assertFalse(matcher.isAllowed("https://portal.tenant100000.example.com"));
+    }
+}
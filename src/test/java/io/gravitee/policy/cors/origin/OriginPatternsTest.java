@@ -0,0 +1,172 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.origin;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class OriginPatternsTest {
+
+    @Test
+    public void shouldMatchWholeOrigin() {
+        OriginPatterns patterns = compile("https://pr-[0-9]+\\.preview\\.example\\.com");
+
+        Assert.assertTrue(patterns.matches("https://pr-1.preview.example.com"));
+        Assert.assertTrue(patterns.matches("https://pr-4242.preview.example.com"));
+        Assert.assertFalse(patterns.matches("https://pr-.preview.example.com"));
+        Assert.assertFalse(patterns.matches("https://pr-12xpreview.example.com"));
+        Assert.assertFalse(patterns.matches("https://pr-12.preview.example.com.evil.io"));
+        Assert.assertFalse(patterns.matches("http://pr-12.preview.example.com"));
+        Assert.assertFalse(patterns.matches(""));
+    }
+
+    @Test
+    public void shouldSupportSafeSyntax() {
+        OriginPatterns patterns = compile(
+                "^https?://(?:app|admin)\\.example\\.(com|io)$",
+                "https://[^.]+\\.eu\\.example\\.com(:\\d{2,5})?",
+                "http://localhost:\\d{4}",
+                "https://[a-z0-9-]*-team\\.example\\.com",
+                "https://v\\w\\.example\\.com",
+                "https://.*\\.cdn\\.example\\.com");
+
+        Assert.assertEquals(6, patterns.size());
+        Assert.assertTrue(patterns.matches("http://app.example.com"));
+        Assert.assertTrue(patterns.matches("https://admin.example.io"));
+        Assert.assertFalse(patterns.matches("https://api.example.io"));
+        Assert.assertTrue(patterns.matches("https://shop.eu.example.com"));
+        Assert.assertTrue(patterns.matches("https://shop.eu.example.com:8443"));
+        Assert.assertFalse(patterns.matches("https://shop.eu.example.com:8"));
+        Assert.assertFalse(patterns.matches("https://a.b.eu.example.com"));
+        Assert.assertTrue(patterns.matches("http://localhost:8080"));
+        Assert.assertFalse(patterns.matches("http://localhost:80"));
+        Assert.assertTrue(patterns.matches("https://-team.example.com"));
+        Assert.assertTrue(patterns.matches("https://red-team.example.com"));
+        Assert.assertTrue(patterns.matches("https://v2.example.com"));
+        Assert.assertTrue(patterns.matches("https://a.b.cdn.example.com"));
+        Assert.assertFalse(patterns.matches("https://cdn.example.com"));
+    }
+
+    @Test
+    public void shouldMatchLettersCaseInsensitively() {
+        OriginPatterns patterns = compile("HTTPS://App[A-C]\\.Example\\.com", "https://[^X]\\.example\\.com");
+
+        Assert.assertTrue(patterns.matches("https://appb.example.com"));
+        Assert.assertFalse(patterns.matches("https://appd.example.com"));
+        Assert.assertTrue(patterns.matches("https://y.example.com"));
+        Assert.assertFalse(patterns.matches("https://x.example.com"));
+    }
+
+    @Test
+    public void shouldNotMatchNonAsciiOrigins() {
+        OriginPatterns patterns = compile("https://.+\\.example\\.com");
+
+        Assert.assertTrue(patterns.matches("https://xn--caf-dma.example.com"));
+        Assert.assertFalse(patterns.matches("https://caf\u00e9.example.com"));
+    }
+
+    @Test
+    public void shouldRejectUnsupportedConstructs() {
+        assertRejected("https://(a)\\1\\.example\\.com", "back-references");
+        assertRejected("https://(?=a)a\\.example\\.com", "look-arounds");
+        assertRejected("https://(?!a)b\\.example\\.com", "look-arounds");
+        assertRejected("https://(?<=a)b\\.example\\.com", "look-arounds");
+        assertRejected("(?i)https://a\\.example\\.com", "inline flags");
+        assertRejected("https://a+?\\.example\\.com", "lazy, possessive");
+        assertRejected("https://a++\\.example\\.com", "lazy, possessive");
+        assertRejected("https://a{1,100}\\.example\\.com", "repetition count");
+        assertRejected("https://a{3,1}\\.example\\.com", "invalid quantifier range");
+        assertRejected("https://\\bexample\\.com", "unsupported escape");
+        assertRejected("https://a$|b", "anchors");
+        assertRejected("https://[a-z&&[^b]]\\.example\\.com", "nested classes");
+        assertRejected("https://[z-a]\\.example\\.com", "invalid range");
+        assertRejected("https://[]\\.example\\.com", "empty character class");
+        assertRejected("https://(a\\.example\\.com", "unbalanced '('");
+        assertRejected("https://a)\\.example\\.com", "unbalanced ')'");
+        assertRejected("*\\.example\\.com", "quantifier without operand");
+        assertRejected("https://caf\u00e9\\.example\\.com", "non-ASCII");
+        assertRejected("", "empty pattern");
+    }
+
+    @Test
+    public void shouldRejectPatternsWithTooManyStates() {
+        // Any DFA for this pattern needs to remember the last 20 characters
+        assertRejected("https://.*a.{20}", "too complex");
+        assertRejected("((((a{64}){64}){64}){64})", "too large");
+    }
+
+    @Test
+    public void shouldCombinePatternsIntoOneAutomaton() {
+        List<String> sources = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            sources.add("https://pr-[0-9]+\\.preview" + i + "\\.example\\.com");
+        }
+        OriginPatterns patterns = OriginPatterns.compile(sources);
+
+        Assert.assertEquals(100, patterns.size());
+        Assert.assertTrue(patterns.states() < OriginPatterns.MAX_STATES);
+        Assert.assertTrue(patterns.matches("https://pr-7.preview0.example.com"));
+        Assert.assertTrue(patterns.matches("https://pr-123.preview99.example.com"));
+        Assert.assertFalse(patterns.matches("https://pr-123.preview100.example.com"));
+    }
+
+    @Test
+    public void shouldMatchAdversarialOriginsInLinearTime() {
+        // Catastrophic backtracking for java.util.regex
+        String pattern = "https://(a+)+\\.example\\.com";
+        OriginPatterns patterns = compile(pattern);
+
+        StringBuilder origin = new StringBuilder("https://");
+        for (int i = 0; i < 100_000; i++) {
+            origin.append('a');
+        }
+        origin.append('!');
+
+        for (int i = 0; i < 10; i++) {
+            patterns.matches(origin);
+        }
+        long start = System.nanoTime();
+        Assert.assertFalse(patterns.matches(origin));
+        long elapsed = System.nanoTime() - start;
+
+        Assert.assertTrue("Matching took " + elapsed + " ns", elapsed < TimeUnit.MILLISECONDS.toNanos(50));
+        Assert.assertTrue(Pattern.compile(pattern).matcher("https://aaaa.example.com").matches());
+        Assert.assertTrue(patterns.matches("https://aaaa.example.com"));
+    }
+
+    private static OriginPatterns compile(String... patterns) {
+        return OriginPatterns.compile(Arrays.asList(patterns));
+    }
+
+    private static void assertRejected(String pattern, String reason) {
+        try {
+            OriginPatterns.compile(Collections.singleton(pattern));
+            Assert.fail("Pattern should be rejected: " + pattern);
+        } catch (IllegalArgumentException iae) {
+            Assert.assertTrue(iae.getMessage(), iae.getMessage().contains(reason));
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.origin;
+
+import io.gravitee.policy.cors.metrics.LatencyHistogram;
+import io.gravitee.policy.cors.origin.source.OriginSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class ReloadableOriginListTest {
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private final StubOriginSource source = new StubOriginSource();
+
+    private final ReloadableOriginList origins = new ReloadableOriginList(source, executor);
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void shouldLoadOriginsAsynchronously() throws Exception {
+        CompletableFuture<Boolean> load = origins.start();
+
+        Assert.assertFalse(origins.isAllowed("https://app.io"));
+        Assert.assertFalse(origins.isLoaded());
+        Assert.assertEquals(0, origins.generation());
+
+        source.complete(Arrays.asList("https://app.io", "https://*.tenant.io"));
+
+        Assert.assertTrue(load.get(5, TimeUnit.SECONDS));
+        Assert.assertTrue(origins.isLoaded());
+        Assert.assertTrue(origins.isAllowed("https://app.io"));
+        Assert.assertTrue(origins.isAllowed("https://console.tenant.io"));
+        Assert.assertEquals(1, origins.generation());
+        Assert.assertEquals(2, origins.size());
+    }
+
+    @Test
+    public void shouldKeepLastGoodOriginsOnFailure() throws Exception {
+        source.next(Collections.singletonList("https://app.io"));
+        Assert.assertTrue(origins.refresh().get(5, TimeUnit.SECONDS));
+
+        CompletableFuture<Boolean> reload = origins.refresh();
+        source.fail(new IllegalStateException("Service unavailable"));
+
+        Assert.assertFalse(reload.get(5, TimeUnit.SECONDS));
+        Assert.assertTrue(origins.isAllowed("https://app.io"));
+        Assert.assertEquals(1, origins.generation());
+        Assert.assertEquals(1, origins.failures());
+        Assert.assertTrue(origins.lastFailure().getMessage().contains("Service unavailable"));
+    }
+
+    @Test
+    public void shouldKeepLastGoodOriginsWhenSourceThrows() throws Exception {
+        source.next(Collections.singletonList("https://app.io"));
+        Assert.assertTrue(origins.refresh().get(5, TimeUnit.SECONDS));
+
+        source.throwOnLoad = true;
+
+        Assert.assertFalse(origins.refresh().get(5, TimeUnit.SECONDS));
+        Assert.assertTrue(origins.isAllowed("https://app.io"));
+    }
+
+    @Test
+    public void shouldRejectEmptyOriginsReplacingNonEmptyOnes() throws Exception {
+        source.next(Collections.singletonList("https://app.io"));
+        Assert.assertTrue(origins.refresh().get(5, TimeUnit.SECONDS));
+
+        source.next(Collections.emptyList());
+
+        Assert.assertFalse(origins.refresh().get(5, TimeUnit.SECONDS));
+        Assert.assertTrue(origins.isAllowed("https://app.io"));
+    }
+
+    @Test
+    public void shouldMergeQueuedReloads() throws Exception {
+        // Keep the loader busy so that the reloads wait to start
+        CountDownLatch busy = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                busy.await();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        CompletableFuture<Boolean> first = origins.refresh();
+        CompletableFuture<Boolean> second = origins.refresh();
+        CompletableFuture<Boolean> third = origins.refresh();
+        Assert.assertSame(first, second);
+        Assert.assertSame(first, third);
+
+        busy.countDown();
+        source.complete(Collections.singletonList("https://app.io"));
+
+        Assert.assertTrue(third.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, origins.generation());
+        Assert.assertEquals(1, source.loads);
+    }
+
+    @Test
+    public void shouldServeLookupsWhileReloading() throws Exception {
+        List<String> large = new ArrayList<>();
+        for (int i = 0; i < 50_000; i++) {
+            large.add("https://app" + i + ".tenant.io");
+        }
+        large.add("https://app.io");
+        source.next(large);
+        Assert.assertTrue(origins.refresh().get(30, TimeUnit.SECONDS));
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicBoolean denied = new AtomicBoolean();
+        LatencyHistogram lookups = new LatencyHistogram();
+        Thread requests = new Thread(() -> {
+            while (running.get()) {
+                long start = System.nanoTime();
+                if (! origins.isAllowed("https://app.io")) {
+                    denied.set(true);
+                }
+                lookups.record(System.nanoTime() - start);
+            }
+        });
+        requests.start();
+
+        long swaps = 0;
+        for (int i = 0; i < 10; i++) {
+            source.next(new ArrayList<>(large));
+            Assert.assertTrue(origins.refresh().get(30, TimeUnit.SECONDS));
+            swaps += origins.lastReloadNanos();
+        }
+
+        running.set(false);
+        requests.join();
+
+        Assert.assertFalse("An allowed origin has been denied during a reload", denied.get());
+        Assert.assertTrue(lookups.count() > 0);
+        // Lookups only read the published list: they are not slowed down by the reloads
+        Assert.assertTrue("p99 lookup of " + lookups.percentile(99) + " ns",
+                lookups.percentile(99) < TimeUnit.MILLISECONDS.toNanos(1));
+        Assert.assertEquals(11, origins.generation());
+        // Reloading 50k origins takes milliseconds, lookups are never blocked by it
+        Assert.assertTrue("Average reload of " + TimeUnit.NANOSECONDS.toMillis(swaps / 10) + " ms",
+                swaps / 10 < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    /**
+     * Asynchronous source completed by the test, or immediately with the next origins if given.
+     */
+    private static class StubOriginSource implements OriginSource {
+
+        private final List<CompletableFuture<Collection<String>>> pending = new ArrayList<>();
+        private Collection<String> next;
+        private volatile boolean throwOnLoad;
+        private volatile int loads;
+
+        @Override
+        public synchronized CompletionStage<Collection<String>> load() {
+            loads++;
+            if (throwOnLoad) {
+                throw new IllegalStateException("Unable to load");
+            }
+
+            if (next != null) {
+                Collection<String> origins = next;
+                next = null;
+                return CompletableFuture.supplyAsync(() -> origins);
+            }
+
+            CompletableFuture<Collection<String>> load = new CompletableFuture<>();
+            pending.add(load);
+            notifyAll();
+            return load;
+        }
+
+        synchronized void next(Collection<String> origins) {
+            next = origins;
+        }
+
+        void complete(Collection<String> origins) throws InterruptedException {
+            CompletableFuture<Collection<String>> load = take();
+            CompletableFuture.runAsync(() -> load.complete(origins));
+        }
+
+        void fail(Throwable failure) throws InterruptedException {
+            CompletableFuture<Collection<String>> load = take();
+            CompletableFuture.runAsync(() -> load.completeExceptionally(failure));
+        }
+
+        private synchronized CompletableFuture<Collection<String>> take() throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (pending.isEmpty() && System.currentTimeMillis() < deadline) {
+                wait(100);
+            }
+            Assert.assertFalse("No pending load", pending.isEmpty());
+            return pending.remove(0);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.origin.source;
+
+import io.gravitee.policy.cors.origin.ReloadableOriginList;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class FileOriginSourceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private ReloadableOriginList origins;
+
+    @After
+    public void close() {
+        if (origins != null) {
+            origins.close();
+        }
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void shouldReadOriginsSkippingCommentsAndBlankLines() throws Exception {
+        Path file = write(folder.getRoot().toPath().resolve("origins.txt"),
+                "# Tenants", "https://app.io", "", "  https://*.tenant.io  ");
+        origins = new ReloadableOriginList(new FileOriginSource(file, executor), executor);
+
+        Assert.assertTrue(origins.refresh().get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(2, origins.size());
+        Assert.assertTrue(origins.isAllowed("https://app.io"));
+        Assert.assertTrue(origins.isAllowed("https://console.tenant.io"));
+        Assert.assertFalse(origins.isAllowed("# Tenants"));
+    }
+
+    @Test
+    public void shouldReloadReplacedFile() throws Exception {
+        Path file = write(folder.getRoot().toPath().resolve("origins.txt"), "https://app.io");
+        origins = new ReloadableOriginList(new FileOriginSource(file, executor), executor);
+        Assert.assertTrue(origins.start().get(5, TimeUnit.SECONDS));
+
+        // Replace the file atomically, as a deployment tool would
+        Path next = write(folder.getRoot().toPath().resolve("origins.txt.tmp"), "https://app.io", "https://console.io");
+        Files.move(next, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        Assert.assertTrue(awaitAllowed("https://console.io"));
+        Assert.assertTrue(origins.isAllowed("https://app.io"));
+    }
+
+    @Test
+    public void shouldKeepLastGoodOriginsWhenFileDisappears() throws Exception {
+        Path file = write(folder.getRoot().toPath().resolve("origins.txt"), "https://app.io");
+        origins = new ReloadableOriginList(new FileOriginSource(file, executor), executor);
+        Assert.assertTrue(origins.refresh().get(5, TimeUnit.SECONDS));
+
+        Files.delete(file);
+
+        Assert.assertFalse(origins.refresh().get(5, TimeUnit.SECONDS));
+        Assert.assertTrue(origins.isAllowed("https://app.io"));
+        Assert.assertEquals(1, origins.failures());
+    }
+
+    @Test
+    public void shouldCreateFileSourcesFromLocation() throws IOException {
+        Path directory = folder.newFolder("origins").toPath();
+        FileOriginSourceFactory factory = new FileOriginSourceFactory(directory);
+
+        Assert.assertTrue(factory.supports("file:origins.txt"));
+        Assert.assertFalse(factory.supports("https://origins.gravitee.io"));
+        Assert.assertEquals(directory.toRealPath().resolve("origins.txt"),
+                ((FileOriginSource) factory.create("file:origins.txt")).getFile());
+        Assert.assertEquals(directory.toRealPath().resolve("tenants.txt"),
+                ((FileOriginSource) factory.create("file:" + directory.toRealPath().resolve("tenants.txt"))).getFile());
+    }
+
+    @Test
+    public void shouldRefuseFilesOutsideOfDirectory() throws IOException {
+        Path directory = folder.newFolder("origins").toPath();
+        Path secret = write(folder.getRoot().toPath().resolve("secret.txt"), "password");
+        Files.createSymbolicLink(directory.resolve("link.txt"), secret);
+        FileOriginSourceFactory factory = new FileOriginSourceFactory(directory);
+
+        for (String location : Arrays.asList("file:" + secret, "file:../secret.txt", "file:link.txt", "file:/etc/passwd",
+                "file:", "file:missing/origins.txt")) {
+            try {
+                factory.create(location);
+                Assert.fail(location + " must be refused");
+            } catch (IllegalArgumentException iae) {
+                // Expected
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRefuseFilesWithoutDirectory() {
+        String directory = System.clearProperty(FileOriginSourceFactory.DIRECTORY_PROPERTY);
+        try {
+            Assume.assumeTrue(System.getenv("GRAVITEE_POLICY_CORS_ORIGINS_DIRECTORY") == null);
+            new FileOriginSourceFactory().create("file:origins.txt");
+        } finally {
+            if (directory != null) {
+                System.setProperty(FileOriginSourceFactory.DIRECTORY_PROPERTY, directory);
+            }
+        }
+    }
+
+    @Test
+    public void shouldStopWatchingOnceReleased() throws Exception {
+        Path file = write(folder.getRoot().toPath().resolve("released-origins.txt"), "https://app.io");
+        String location = "file:" + file.getFileName();
+        System.setProperty(FileOriginSourceFactory.DIRECTORY_PROPERTY, folder.getRoot().toString());
+        try {
+            ReloadableOriginList list = OriginSources.acquire(location);
+            Assert.assertSame(list, OriginSources.acquire(location));
+            Assert.assertTrue(watching(file));
+
+            OriginSources.release(location);
+            Assert.assertTrue(watching(file));
+
+            OriginSources.release(location);
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (watching(file) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertFalse(watching(file));
+
+            // Nor is the loader, once idle
+            deadline = System.currentTimeMillis() + 5_000;
+            while (loading() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertFalse(loading());
+        } finally {
+            System.clearProperty(FileOriginSourceFactory.DIRECTORY_PROPERTY);
+        }
+    }
+
+    /**
+     * @return whether a thread watches the given file
+     */
+    static boolean watching(Path file) {
+        String name = "cors-origin-watcher-" + file.getFileName();
+        return Thread.getAllStackTraces().keySet().stream().anyMatch(thread -> name.equals(thread.getName()));
+    }
+
+    /**
+     * @return whether the thread loading origins is running
+     */
+    static boolean loading() {
+        return Thread.getAllStackTraces().keySet().stream().anyMatch(thread -> "cors-origin-loader".equals(thread.getName()));
+    }
+
+    private boolean awaitAllowed(String origin) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 15_000;
+        while (System.currentTimeMillis() < deadline) {
+            if (origins.isAllowed(origin)) {
+                return true;
+            }
+            Thread.sleep(10);
+        }
+        return false;
+    }
+
+    private static Path write(Path file, String... lines) throws IOException {
+        return Files.write(file, Arrays.asList(lines), StandardCharsets.UTF_8);
+    }
+}
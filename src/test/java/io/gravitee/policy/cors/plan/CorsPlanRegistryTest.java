@@ -0,0 +1,219 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.plan;
+
+import io.gravitee.policy.cors.configuration.CorsPathRule;
+import io.gravitee.policy.cors.configuration.CorsPolicyConfiguration;
+import io.gravitee.policy.cors.origin.source.FileOriginSourceFactory;
+import io.gravitee.policy.cors.utils.CaseInsensitiveHashSet;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class CorsPlanRegistryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldShareIdenticalConfigurations() {
+        CorsPolicyConfiguration first = configuration("https://registry-shared.io");
+        CorsPolicyConfiguration second = configuration("https://registry-shared.io");
+
+        CorsPlan plan = CorsPlan.of(first);
+
+        Assert.assertSame(plan, CorsPlan.of(second));
+        Assert.assertNotSame(first.getAccessControlAllowOrigin(), second.getAccessControlAllowOrigin());
+        Assert.assertNotSame(first.getAccessControlAllowHeaders(), second.getAccessControlAllowHeaders());
+    }
+
+    @Test
+    public void shouldIgnoreCaseAndOrderOfHeaders() {
+        CorsPolicyConfiguration first = configuration("https://registry-case.io");
+        CorsPolicyConfiguration second = configuration("https://registry-case.io");
+        second.setAccessControlAllowHeaders(new CaseInsensitiveHashSet(Arrays.asList("content-type", "X-GRAVITEE-API-KEY")));
+
+        Assert.assertSame(CorsPlan.of(first), CorsPlan.of(second));
+    }
+
+    @Test
+    public void shouldNotShareDifferentConfigurations() {
+        CorsPolicyConfiguration first = configuration("https://registry-different.io");
+        CorsPolicyConfiguration second = configuration("https://registry-different.io");
+        second.setAccessControlAllowCredentials(true);
+
+        Assert.assertNotSame(CorsPlan.of(first), CorsPlan.of(second));
+    }
+
+    @Test
+    public void shouldSharePathRules() {
+        CorsPolicyConfiguration first = configuration("https://registry-paths.io");
+        first.setPaths(Collections.singletonList(rule("/partners/**", "https://registry-partner.io")));
+        CorsPolicyConfiguration second = configuration("https://registry-paths.io");
+        second.setPaths(Collections.singletonList(rule("/partners/**", "https://registry-partner.io")));
+        CorsPolicyConfiguration third = configuration("https://registry-paths.io");
+        third.setPaths(Collections.singletonList(rule("/partners/**", "https://registry-other.io")));
+
+        CorsPlan plan = CorsPlan.of(first);
+
+        Assert.assertSame(plan, CorsPlan.of(second));
+        Assert.assertNotSame(plan, CorsPlan.of(third));
+        Assert.assertSame(plan.resolve("/partners/orders"), CorsPlan.of(second).resolve("/partners/orders"));
+        Assert.assertSame(plan, plan.resolve("/orders"));
+        Assert.assertTrue(plan.resolve("/partners/orders").isOriginAllowed("https://registry-partner.io"));
+        Assert.assertFalse(plan.resolve("/partners/orders").isOriginAllowed("https://registry-paths.io"));
+    }
+
+    @Test
+    public void shouldLeaveConfigurationCollectionsAlone() {
+        CorsPolicyConfiguration configuration = configuration("https://registry-untouched.io");
+        CorsPlan plan = CorsPlan.of(configuration);
+
+        Assert.assertTrue(configuration.getAccessControlAllowHeaders() instanceof CaseInsensitiveHashSet);
+        configuration.getAccessControlAllowHeaders().add("X-Other");
+        configuration.getAccessControlAllowOrigin().add("https://registry-other.io");
+
+        // The plan keeps its own copies
+        Assert.assertFalse(plan.isOriginAllowed("https://registry-other.io"));
+        Assert.assertTrue(plan.isOriginAllowed("https://registry-untouched.io"));
+    }
+
+    @Test
+    public void shouldReplacePlanOnChange() {
+        CorsPolicyConfiguration configuration = configuration("https://registry-changed.io");
+        CorsPlan plan = CorsPlan.of(configuration);
+
+        configuration.setAccessControlAllowOrigin(new LinkedHashSet<>(Collections.singleton("https://registry-new.io")));
+
+        // Compiled and published by the change
+        CorsPlan replaced = configuration.getPlan();
+        Assert.assertNotSame(plan, replaced);
+        Assert.assertSame(replaced, CorsPlan.of(configuration));
+        Assert.assertTrue(replaced.isOriginAllowed("https://registry-new.io"));
+        Assert.assertFalse(replaced.isOriginAllowed("https://registry-changed.io"));
+        Assert.assertTrue(plan.isOriginAllowed("https://registry-changed.io"));
+    }
+
+    @Test
+    public void shouldApplyUpdatesAtOnce() {
+        CorsPolicyConfiguration configuration = configuration("https://registry-update.io");
+        CorsPlan plan = CorsPlan.of(configuration);
+
+        configuration.update(c -> {
+            c.setAccessControlAllowCredentials(true);
+            c.setAccessControlMaxAge(300);
+        });
+
+        CorsPlan updated = CorsPlan.of(configuration);
+        Assert.assertNotSame(plan, updated);
+        Assert.assertTrue(updated.isAllowCredentials());
+        Assert.assertEquals("300", updated.getMaxAge());
+        Assert.assertSame(updated, CorsPlan.of(configuration));
+    }
+
+    @Test
+    public void shouldNotPublishOutdatedPlans() {
+        CorsPolicyConfiguration configuration = configuration("https://registry-outdated.io");
+        CorsPlan plan = CorsPlan.of(configuration);
+        long version = configuration.getVersion();
+
+        configuration.setAccessControlAllowCredentials(true);
+        CorsPlan updated = configuration.getPlan();
+        configuration.publish(plan, version);
+
+        Assert.assertNotSame(plan, updated);
+        Assert.assertSame(updated, configuration.getPlan());
+    }
+
+    @Test
+    public void shouldCompileOnFirstUseOnly() {
+        CorsPolicyConfiguration configuration = configuration("https://registry-lazy.io");
+        configuration.setAccessControlAllowCredentials(true);
+        Assert.assertNull(configuration.getPlan());
+
+        Assert.assertTrue(CorsPlan.of(configuration).isAllowCredentials());
+        Assert.assertNotNull(configuration.getPlan());
+    }
+
+    @Test
+    public void shouldReleaseUnusedPlans() throws InterruptedException {
+        CorsPolicyConfiguration configuration = configuration("https://registry-released.io");
+        WeakReference<CorsPlan> plan = new WeakReference<>(CorsPlan.of(configuration));
+        configuration = null;
+
+        for (int i = 0; i < 50 && plan.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        Assert.assertNull(plan.get());
+        Assert.assertNotNull(CorsPlan.of(configuration("https://registry-released.io")));
+    }
+
+    @Test
+    public void shouldReleaseOriginSourcesOfUnusedPlans() throws Exception {
+        Path file = Files.write(folder.newFile("registry-origins.txt").toPath(),
+                Collections.singletonList("https://registry-sourced.io"));
+        System.setProperty(FileOriginSourceFactory.DIRECTORY_PROPERTY, folder.getRoot().toString());
+        try {
+            CorsPolicyConfiguration configuration = configuration("https://registry-source.io");
+            configuration.setAccessControlAllowOriginSource("file:" + file.getFileName());
+            CorsPlan.of(configuration);
+            Assert.assertTrue(watching(file));
+
+            configuration = null;
+            for (int i = 0; i < 50 && watching(file); i++) {
+                System.gc();
+                Thread.sleep(10);
+            }
+
+            Assert.assertFalse(watching(file));
+        } finally {
+            System.clearProperty(FileOriginSourceFactory.DIRECTORY_PROPERTY);
+        }
+    }
+
+    private static boolean watching(Path file) {
+        String name = "cors-origin-watcher-" + file.getFileName();
+        return Thread.getAllStackTraces().keySet().stream().anyMatch(thread -> name.equals(thread.getName()));
+    }
+
+    private static CorsPolicyConfiguration configuration(String origin) {
+        CorsPolicyConfiguration configuration = new CorsPolicyConfiguration();
+        configuration.setAccessControlAllowOrigin(new LinkedHashSet<>(Collections.singleton(origin)));
+        configuration.setAccessControlAllowMethods(new CaseInsensitiveHashSet(Arrays.asList("GET", "POST")));
+        configuration.setAccessControlAllowHeaders(new CaseInsensitiveHashSet(Arrays.asList("X-Gravitee-Api-Key", "Content-Type")));
+        return configuration;
+    }
+
+    private static CorsPathRule rule(String path, String origin) {
+        CorsPathRule rule = new CorsPathRule();
+        rule.setPath(path);
+        rule.setAccessControlAllowOrigin(new LinkedHashSet<>(Collections.singleton(origin)));
+        return rule;
+    }
+}
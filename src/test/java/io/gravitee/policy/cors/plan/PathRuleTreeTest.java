@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.plan;
+
+import io.gravitee.policy.cors.AllocationMeter;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class PathRuleTreeTest {
+
+    private final PathRuleTree<String> tree = tree(
+            "/assets/**", "/partners/**", "/partners/public/**", "/users/*/avatar", "/users/me", "/users/*",
+            "/health", "/");
+
+    @Test
+    public void shouldMatchLiteralPaths() {
+        Assert.assertEquals("/health", tree.find("/health", "default"));
+        Assert.assertEquals("/", tree.find("/", "default"));
+        Assert.assertEquals("/", tree.find("", "default"));
+        Assert.assertEquals("default", tree.find("/healthz", "default"));
+        Assert.assertEquals("default", tree.find("/health/", "default"));
+        Assert.assertEquals("default", tree.find("/Health", "default"));
+    }
+
+    @Test
+    public void shouldMatchSubtrees() {
+        Assert.assertEquals("/assets/**", tree.find("/assets", "default"));
+        Assert.assertEquals("/assets/**", tree.find("/assets/", "default"));
+        Assert.assertEquals("/assets/**", tree.find("/assets/css/main.css", "default"));
+        Assert.assertEquals("default", tree.find("/assetsx", "default"));
+        Assert.assertEquals("/partners/**", tree.find("/partners/orders/1", "default"));
+        Assert.assertEquals("/partners/public/**", tree.find("/partners/public/logo.png", "default"));
+        Assert.assertEquals("/partners/**", tree.find("/partners/publications", "default"));
+    }
+
+    @Test
+    public void shouldMatchSegmentWildcards() {
+        Assert.assertEquals("/users/*/avatar", tree.find("/users/42/avatar", "default"));
+        Assert.assertEquals("/users/*", tree.find("/users/42", "default"));
+        Assert.assertEquals("/users/me", tree.find("/users/me", "default"));
+        // The literal segment does not lead anywhere: the wildcard takes over on the same segment
+        Assert.assertEquals("/users/*/avatar", tree.find("/users/me/avatar", "default"));
+        Assert.assertEquals("/users/*", tree.find("/users/m", "default"));
+        Assert.assertEquals("default", tree.find("/users/", "default"));
+        Assert.assertEquals("default", tree.find("/users/42/avatar/large", "default"));
+    }
+
+    @Test
+    public void shouldPreferMostSpecificPattern() {
+        PathRuleTree<String> overlapping = tree("/partners/**", "/*/admin/**", "/*/admin", "/partners/orders",
+                "/*/reports/*", "/eu/*/reports/**", "/eu/reports/*");
+
+        // The deepest subtree wildcard wins, whatever the segments before it
+        Assert.assertEquals("/*/admin/**", overlapping.find("/partners/admin/users", "default"));
+        Assert.assertEquals("/partners/**", overlapping.find("/partners/users/admin", "default"));
+        // Any pattern without subtree wildcard wins over the ones with it
+        Assert.assertEquals("/*/admin", overlapping.find("/partners/admin", "default"));
+        Assert.assertEquals("/*/reports/*", overlapping.find("/partners/reports/2024", "default"));
+        // Otherwise the first segment telling them apart decides
+        Assert.assertEquals("/eu/reports/*", overlapping.find("/eu/reports/2024", "default"));
+        Assert.assertEquals("/eu/*/reports/**", overlapping.find("/eu/fr/reports/2024", "default"));
+        // A literal segment leading nowhere goes back to the segment wildcard of an earlier segment
+        Assert.assertEquals("/*/admin", overlapping.find("/eu/admin", "default"));
+        Assert.assertEquals("/partners/orders", overlapping.find("/partners/orders", "default"));
+    }
+
+    @Test
+    public void shouldMatchEveryPathWithRootSubtree() {
+        PathRuleTree<String> any = tree("/**", "/admin/**");
+
+        Assert.assertEquals("/**", any.find("/", "default"));
+        Assert.assertEquals("/**", any.find("/orders", "default"));
+        Assert.assertEquals("/admin/**", any.find("/admin/users", "default"));
+    }
+
+    @Test
+    public void shouldKeepNullValues() {
+        PathRuleTree<String> disabled = PathRuleTree.of(Collections.singletonList("/admin/**"),
+                Collections.singletonList(null));
+
+        Assert.assertNull(disabled.find("/admin", "default"));
+        Assert.assertEquals("default", disabled.find("/orders", "default"));
+    }
+
+    @Test
+    public void shouldRejectInvalidPatterns() {
+        for (String pattern : Arrays.asList(null, "", "assets/**", "/assets/**/css", "/assets/*.css", "/a**")) {
+            try {
+                PathRuleTree.validate(Collections.singletonList(pattern));
+                Assert.fail("Pattern should be rejected: " + pattern);
+            } catch (IllegalArgumentException iae) {
+                Assert.assertTrue(iae.getMessage(), iae.getMessage().startsWith("Invalid path pattern"));
+            }
+        }
+
+        try {
+            tree("/assets/**", "/orders", "/assets/**");
+            Assert.fail("Duplicate pattern should be rejected");
+        } catch (IllegalArgumentException iae) {
+            Assert.assertEquals("Invalid path pattern '/assets/**': listed twice", iae.getMessage());
+        }
+    }
+
+    @Test
+    public void shouldFindWithoutAllocating() {
+        Assume.assumeTrue(AllocationMeter.isSupported());
+
+        List<String> patterns = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            patterns.add("/resources-" + i + "/*/items/**");
+        }
+        PathRuleTree<String> large = PathRuleTree.of(patterns, patterns);
+
+        long bytes = AllocationMeter.bytesPerOperation(
+                () -> large.find("/resources-499/42/items/7", null), 20_000, 100_000);
+
+        Assert.assertEquals("/resources-499/*/items/**", large.find("/resources-499/42/items/7", null));
+        Assert.assertTrue("Expected no allocation but got " + bytes + " bytes", bytes < 16);
+    }
+
+    private static PathRuleTree<String> tree(String... patterns) {
+        return PathRuleTree.of(Arrays.asList(patterns), Arrays.asList(patterns));
+    }
+}
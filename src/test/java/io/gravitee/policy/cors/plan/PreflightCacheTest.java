@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.plan;
+
+import io.gravitee.common.http.HttpHeaders;
+import io.gravitee.common.http.HttpStatusCode;
+import io.gravitee.policy.cors.AllocationMeter;
+import io.gravitee.policy.cors.configuration.CorsPolicyConfiguration;
+import io.gravitee.policy.cors.utils.CaseInsensitiveHashSet;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class PreflightCacheTest {
+
+    private static final String ORIGIN = "https://app.gravitee.io";
+
+    private final PreflightResult allowed = new PreflightResult(HttpStatusCode.OK_200, new String[0], new String[0]);
+
+    @Test
+    public void shouldHitWithCanonicalKey() {
+        PreflightCache cache = new PreflightCache(16, TimeUnit.MINUTES.toNanos(1));
+        cache.put(ORIGIN, "POST", "Content-Type, X-Gravitee-Api-Key", allowed);
+
+        Assert.assertSame(allowed, cache.get(ORIGIN, "POST", "Content-Type, X-Gravitee-Api-Key"));
+        Assert.assertSame(allowed, cache.get(ORIGIN, "post", " x-gravitee-api-key,CONTENT-TYPE "));
+        Assert.assertEquals(2, cache.hits());
+        Assert.assertEquals(0, cache.misses());
+    }
+
+    @Test
+    public void shouldMissOnDifferentKey() {
+        PreflightCache cache = new PreflightCache(16, TimeUnit.MINUTES.toNanos(1));
+        cache.put(ORIGIN, "POST", "content-type, x-a", allowed);
+
+        Assert.assertNull(cache.get("https://other.io", "POST", "content-type, x-a"));
+        Assert.assertNull(cache.get(ORIGIN, "PUT", "content-type, x-a"));
+        Assert.assertNull(cache.get(ORIGIN, "POST", "content-type"));
+        Assert.assertNull(cache.get(ORIGIN, "POST", "content-type, x-a, x-b"));
+        Assert.assertNull(cache.get(ORIGIN, "POST", "content-type, content-type"));
+        Assert.assertEquals(5, cache.misses());
+    }
+
+    @Test
+    public void shouldHitWithoutRequestHeaders() {
+        PreflightCache cache = new PreflightCache(16, TimeUnit.MINUTES.toNanos(1));
+        cache.put(ORIGIN, "GET", null, allowed);
+
+        Assert.assertSame(allowed, cache.get(ORIGIN, "GET", null));
+        Assert.assertSame(allowed, cache.get(ORIGIN, "GET", ""));
+        Assert.assertNull(cache.get(ORIGIN, "GET", "x-a"));
+    }
+
+    @Test
+    public void shouldExpireEntries() {
+        PreflightCache cache = new PreflightCache(16, 0);
+        cache.put(ORIGIN, "GET", null, allowed);
+
+        Assert.assertNull(cache.get(ORIGIN, "GET", null));
+    }
+
+    @Test
+    public void shouldNotCacheHugeHeaderLists() {
+        StringBuilder headers = new StringBuilder("x-0");
+        for (int i = 1; i <= PreflightCache.MAX_CACHED_HEADERS; i++) {
+            headers.append(", x-").append(i);
+        }
+
+        PreflightCache cache = new PreflightCache(16, TimeUnit.MINUTES.toNanos(1));
+        cache.put(ORIGIN, "GET", headers.toString(), allowed);
+
+        Assert.assertNull(cache.get(ORIGIN, "GET", headers.toString()));
+    }
+
+    @Test
+    public void shouldBeBounded() {
+        PreflightCache cache = new PreflightCache(16, TimeUnit.MINUTES.toNanos(1));
+        for (int i = 0; i < 10_000; i++) {
+            cache.put("https://" + i + ".io", "GET", null, allowed);
+        }
+
+        int cached = 0;
+        for (int i = 0; i < 10_000; i++) {
+            if (cache.get("https://" + i + ".io", "GET", null) != null) {
+                cached++;
+            }
+        }
+
+        Assert.assertTrue(cached <= 16);
+        Assert.assertNotNull(cache.get("https://9999.io", "GET", null));
+    }
+
+    @Test
+    public void shouldNotAllocateOnHit() {
+        Assume.assumeTrue(AllocationMeter.isSupported());
+
+        PreflightCache cache = new PreflightCache(16, TimeUnit.MINUTES.toNanos(1));
+        cache.put(ORIGIN, "POST", "content-type, x-gravitee-api-key, authorization", allowed);
+
+        long bytes = AllocationMeter.bytesPerOperation(
+                () -> cache.get(ORIGIN, "POST", "authorization, content-type, x-gravitee-api-key"),
+                20_000, 100_000);
+
+        Assert.assertTrue("Expected no allocation but got " + bytes + " bytes", bytes < 16);
+    }
+
+    @Test
+    public void shouldCacheDecisionsOfThePlan() {
+        CorsPolicyConfiguration configuration = new CorsPolicyConfiguration();
+        configuration.setAccessControlAllowOrigin(Collections.singleton("https://preflight-cache.io"));
+        configuration.setAccessControlAllowMethods(new CaseInsensitiveHashSet(Arrays.asList("GET", "POST")));
+        configuration.setAccessControlAllowHeaders(new CaseInsensitiveHashSet(Collections.singleton("X-Gravitee-Api-Key")));
+        CorsPlan plan = CorsPlan.of(configuration);
+
+        PreflightResult result = plan.preflight("https://preflight-cache.io", "POST", "x-gravitee-api-key");
+        Assert.assertTrue(result.isAllowed());
+        Assert.assertSame(result, plan.preflight("https://preflight-cache.io", "POST", "X-Gravitee-Api-Key"));
+
+        PreflightResult rejected = plan.preflight("https://preflight-cache.io", "DELETE", null);
+        Assert.assertFalse(rejected.isAllowed());
+        Assert.assertEquals(HttpStatusCode.BAD_REQUEST_400, rejected.status());
+
+        Assert.assertEquals(1, plan.getPreflightCache().hits());
+        Assert.assertEquals(2, plan.getPreflightCache().misses());
+
+        HttpHeaders headers = new HttpHeaders();
+        result.writeTo(headers);
+        Assert.assertEquals("https://preflight-cache.io", headers.getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+        Assert.assertEquals("GET, POST", headers.getFirst(HttpHeaders.ACCESS_CONTROL_ALLOW_METHODS));
+    }
+
+    @Test
+    public void shouldDisableCache() {
+        CorsPolicyConfiguration configuration = new CorsPolicyConfiguration();
+        configuration.setAccessControlAllowOrigin(Collections.singleton("https://preflight-no-cache.io"));
+        configuration.setPreflightCacheSize(0);
+
+        Assert.assertNull(CorsPlan.of(configuration).getPreflightCache());
+    }
+}
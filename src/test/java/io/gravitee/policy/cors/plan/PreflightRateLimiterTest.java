@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.plan;
+
+import io.gravitee.policy.cors.AllocationMeter;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class PreflightRateLimiterTest {
+
+    private static final String ORIGIN = "https://app.gravitee.io";
+
+    private static final long NOW = TimeUnit.HOURS.toNanos(1);
+
+    private long now = NOW;
+
+    @Test
+    public void shouldLimitAfterBurst() {
+        PreflightRateLimiter limiter = new PreflightRateLimiter(2, 3, 64, () -> now);
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(0, limiter.acquire(ORIGIN));
+        }
+
+        // One preflight request every 500ms at the sustained rate
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(500), limiter.acquire(ORIGIN));
+        now = NOW + TimeUnit.MILLISECONDS.toNanos(100);
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(400), limiter.acquire(ORIGIN));
+        now = NOW + TimeUnit.MILLISECONDS.toNanos(500);
+        Assert.assertEquals(0, limiter.acquire(ORIGIN));
+        Assert.assertTrue(limiter.acquire(ORIGIN) > 0);
+    }
+
+    @Test
+    public void shouldRefillWhenIdle() {
+        PreflightRateLimiter limiter = new PreflightRateLimiter(10, 5, 64, () -> now);
+
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(0, limiter.acquire(ORIGIN));
+        }
+        Assert.assertTrue(limiter.acquire(ORIGIN) > 0);
+
+        now = NOW + TimeUnit.MINUTES.toNanos(1);
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(0, limiter.acquire(ORIGIN));
+        }
+        Assert.assertTrue(limiter.acquire(ORIGIN) > 0);
+    }
+
+    @Test
+    public void shouldLimitOriginsIndependently() {
+        PreflightRateLimiter limiter = new PreflightRateLimiter(1, 1, 64, () -> now);
+
+        Assert.assertEquals(0, limiter.acquire(ORIGIN));
+        Assert.assertTrue(limiter.acquire(ORIGIN) > 0);
+        Assert.assertEquals(0, limiter.acquire("https://other.gravitee.io"));
+        Assert.assertTrue(limiter.acquire("https://other.gravitee.io") > 0);
+    }
+
+    @Test
+    public void shouldFormatRetryAfterInSeconds() {
+        Assert.assertEquals("1", PreflightRateLimiter.retryAfter(1));
+        Assert.assertEquals("1", PreflightRateLimiter.retryAfter(TimeUnit.SECONDS.toNanos(1)));
+        Assert.assertEquals("2", PreflightRateLimiter.retryAfter(TimeUnit.MILLISECONDS.toNanos(1001)));
+        Assert.assertEquals("3600", PreflightRateLimiter.retryAfter(TimeUnit.HOURS.toNanos(1)));
+    }
+
+    @Test
+    public void shouldKeepMemoryConstantWithMillionOrigins() {
+        Assume.assumeTrue(AllocationMeter.isSupported());
+
+        PreflightRateLimiter limiter = new PreflightRateLimiter(1, 2, PreflightRateLimiter.DEFAULT_CAPACITY, () -> now);
+        int capacity = limiter.capacity();
+        String flooding = "https://flood.example.com";
+        limiter.acquire(flooding);
+        limiter.acquire(flooding);
+
+        String[] origins = new String[10_000];
+        AtomicInteger next = new AtomicInteger();
+        long bytes = 0;
+        for (int batch = 0; batch < 100; batch++) {
+            for (int i = 0; i < origins.length; i++) {
+                origins[i] = "https://app" + (batch * origins.length + i) + ".example.com";
+            }
+
+            next.set(0);
+            bytes += AllocationMeter.bytesPerOperation(() -> {
+                int index = next.getAndIncrement();
+                Assert.assertEquals(0, limiter.acquire(origins[index]));
+                if ((index & 1023) == 0) {
+                    Assert.assertTrue(limiter.acquire(flooding) > 0);
+                }
+            }, 0, origins.length);
+        }
+
+        Assert.assertEquals(capacity, limiter.capacity());
+        Assert.assertTrue("Expected no allocation but got " + bytes + " bytes", bytes < 16);
+        // An origin over its limit is never the one replaced by a new origin
+        Assert.assertTrue(limiter.acquire(flooding) > 0);
+    }
+
+    @Test
+    public void shouldNotGrantMoreThanBurstToConcurrentThreads() throws InterruptedException {
+        PreflightRateLimiter limiter = new PreflightRateLimiter(1, 100, 64, () -> now);
+        int threads = 4;
+        AtomicInteger granted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < 10_000; i++) {
+                        if (limiter.acquire(ORIGIN) == 0) {
+                            granted.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        start.countDown();
+        Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+        Assert.assertEquals(100, granted.get());
+    }
+}
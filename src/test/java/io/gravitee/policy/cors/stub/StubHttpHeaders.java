@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.stub;
+
+import io.gravitee.common.http.HttpHeaders;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Allocation-free {@link HttpHeaders} keeping single-valued headers in plain arrays, so that measurements only
+ * account for what the policy itself allocates.
+ *
+ * @author GraviteeSource Team
+ */
+public class StubHttpHeaders extends HttpHeaders {
+
+    private final String[] names = new String[32];
+    private final String[] values = new String[32];
+    private final ValueView[] views = new ValueView[32];
+    private int size;
+
+    public StubHttpHeaders() {
+        for (int i = 0; i < views.length; i++) {
+            views[i] = new ValueView(i);
+        }
+    }
+
+    @Override
+    public void set(String name, String value) {
+        int index = indexOf(name);
+        if (index == -1) {
+            index = size++;
+            names[index] = name;
+        }
+        values[index] = value;
+    }
+
+    @Override
+    public void add(String name, String value) {
+        // Multiple values are folded in a single comma separated one
+        String current = getFirst(name);
+        set(name, current == null ? value : current + ", " + value);
+    }
+
+    @Override
+    public String getFirst(String name) {
+        int index = indexOf(name);
+        return index == -1 ? null : values[index];
+    }
+
+    @Override
+    public List<String> get(Object name) {
+        int index = name instanceof String ? indexOf((String) name) : -1;
+        return index == -1 ? null : views[index];
+    }
+
+    @Override
+    public boolean containsKey(Object name) {
+        return name instanceof String && indexOf((String) name) != -1;
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return new LinkedHashSet<>(Arrays.asList(names).subList(0, size));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            names[i] = null;
+            values[i] = null;
+        }
+        size = 0;
+    }
+
+    private class ValueView extends AbstractList<String> {
+
+        private final int index;
+
+        private ValueView(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public String get(int i) {
+            return values[index];
+        }
+
+        @Override
+        public int size() {
+            return 1;
+        }
+    }
+
+    private int indexOf(String name) {
+        for (int i = 0; i < size; i++) {
+            if (names[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.stub;
+
+import io.gravitee.gateway.api.Request;
+import io.gravitee.gateway.api.Response;
+import io.gravitee.policy.api.PolicyChain;
+import io.gravitee.policy.api.PolicyResult;
+
+/**
+ * {@link PolicyChain} recording how the policy left the chain.
+ *
+ * @author GraviteeSource Team
+ */
+public class StubPolicyChain implements PolicyChain {
+
+    private int next;
+    private PolicyResult failure;
+
+    @Override
+    public void doNext(Request request, Response response) {
+        next++;
+    }
+
+    @Override
+    public void failWith(PolicyResult policyResult) {
+        failure = policyResult;
+    }
+
+    @Override
+    public void streamFailWith(PolicyResult policyResult) {
+        failure = policyResult;
+    }
+
+    public int next() {
+        return next;
+    }
+
+    public PolicyResult failure() {
+        return failure;
+    }
+
+    public StubPolicyChain reset() {
+        next = 0;
+        failure = null;
+        return this;
+    }
+}
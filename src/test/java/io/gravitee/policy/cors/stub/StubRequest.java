@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.stub;
+
+import io.gravitee.common.http.HttpHeaders;
+import io.gravitee.common.http.HttpMethod;
+import io.gravitee.common.http.HttpVersion;
+import io.gravitee.common.util.MultiValueMap;
+import io.gravitee.gateway.api.Request;
+import io.gravitee.gateway.api.buffer.Buffer;
+import io.gravitee.gateway.api.handler.Handler;
+import io.gravitee.gateway.api.stream.ReadStream;
+import io.gravitee.reporter.api.http.Metrics;
+
+import java.time.Instant;
+
+/**
+ * Lightweight {@link Request} used by tests and benchmarks in place of Mockito mocks.
+ *
+ * @author GraviteeSource Team
+ */
+public class StubRequest implements Request {
+
+    private final StubHttpHeaders headers = new StubHttpHeaders();
+    private HttpMethod method = HttpMethod.GET;
+    private String contextPath = "";
+    private String path = "/";
+
+    public StubRequest method(HttpMethod method) {
+        this.method = method;
+        return this;
+    }
+
+    /**
+     * @param path the path of the request, relative to the context path
+     */
+    public StubRequest path(String path) {
+        this.path = path;
+        return this;
+    }
+
+    /**
+     * @param contextPath the context path of the API, without trailing slash
+     */
+    public StubRequest contextPath(String contextPath) {
+        this.contextPath = contextPath;
+        return this;
+    }
+
+    public StubRequest header(String name, String value) {
+        headers.set(name, value);
+        return this;
+    }
+
+    @Override
+    public String id() {
+        return null;
+    }
+
+    @Override
+    public String transactionId() {
+        return null;
+    }
+
+    @Override
+    public String uri() {
+        return path();
+    }
+
+    @Override
+    public String path() {
+        return contextPath + path;
+    }
+
+    @Override
+    public String pathInfo() {
+        return path;
+    }
+
+    @Override
+    public String contextPath() {
+        return contextPath + "/";
+    }
+
+    @Override
+    public MultiValueMap<String, String> parameters() {
+        return null;
+    }
+
+    @Override
+    public HttpHeaders headers() {
+        return headers;
+    }
+
+    @Override
+    public HttpMethod method() {
+        return method;
+    }
+
+    @Override
+    public HttpVersion version() {
+        return HttpVersion.HTTP_1_1;
+    }
+
+    @Override
+    public Instant timestamp() {
+        return null;
+    }
+
+    @Override
+    public String remoteAddress() {
+        return null;
+    }
+
+    @Override
+    public String localAddress() {
+        return null;
+    }
+
+    @Override
+    public Metrics metrics() {
+        return null;
+    }
+
+    @Override
+    public ReadStream<Buffer> bodyHandler(Handler<Buffer> bodyHandler) {
+        return this;
+    }
+
+    @Override
+    public ReadStream<Buffer> endHandler(Handler<Void> endHandler) {
+        return this;
+    }
+}
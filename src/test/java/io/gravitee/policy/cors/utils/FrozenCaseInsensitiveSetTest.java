@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.utils;
+
+import io.gravitee.policy.cors.AllocationMeter;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class FrozenCaseInsensitiveSetTest {
+
+    private final FrozenCaseInsensitiveSet set = FrozenCaseInsensitiveSet.of(
+            Arrays.asList("Content-Type", "X-Gravitee-Api-Key", "content-type", null, "Authorization"));
+
+    @Test
+    public void shouldIgnoreCaseAndDuplicates() {
+        Assert.assertEquals(3, set.size());
+        Assert.assertTrue(set.contains("CONTENT-TYPE"));
+        Assert.assertTrue(set.contains("x-gravitee-api-key"));
+        Assert.assertTrue(set.contains(new StringBuilder("authorization")));
+        Assert.assertFalse(set.contains("X-Gravitee-Api"));
+        Assert.assertFalse(set.contains("X-Gravitee-Api-Keys"));
+    }
+
+    @Test
+    public void shouldNotContainNullOrOtherTypes() {
+        Assert.assertFalse(set.contains(null));
+        Assert.assertFalse(set.contains(42));
+    }
+
+    @Test
+    public void shouldMatchRegion() {
+        String value = "accept, Content-Type, x-other";
+
+        Assert.assertTrue(set.matches(value, 8, 20));
+        Assert.assertFalse(set.matches(value, 0, 6));
+    }
+
+    @Test
+    public void shouldIterateOverFoldedValuesInInsertionOrder() {
+        Assert.assertEquals(Arrays.asList("content-type", "x-gravitee-api-key", "authorization"), new ArrayList<>(set));
+        Assert.assertEquals("content-type, x-gravitee-api-key, authorization", String.join(", ", set));
+    }
+
+    @Test
+    public void shouldBeEqualToSetsOfFoldedValues() {
+        FrozenCaseInsensitiveSet other = FrozenCaseInsensitiveSet.of(
+                Arrays.asList("authorization", "X-GRAVITEE-API-KEY", "Content-Type"));
+        HashSet<String> folded = new HashSet<>(Arrays.asList("content-type", "x-gravitee-api-key", "authorization"));
+
+        Assert.assertEquals(set, other);
+        Assert.assertEquals(set.hashCode(), other.hashCode());
+        Assert.assertEquals(folded, set);
+        Assert.assertEquals(folded.hashCode(), set.hashCode());
+        Assert.assertNotEquals(set, FrozenCaseInsensitiveSet.of(Collections.singleton("Content-Type")));
+    }
+
+    @Test
+    public void shouldBeImmutable() {
+        try {
+            set.add("X-Other");
+            Assert.fail("The set must not be modifiable");
+        } catch (UnsupportedOperationException expected) {
+            Assert.assertFalse(set.contains("X-Other"));
+        }
+    }
+
+    @Test
+    public void shouldShareEmptySet() {
+        Assert.assertTrue(FrozenCaseInsensitiveSet.of(null).isEmpty());
+        Assert.assertSame(FrozenCaseInsensitiveSet.of(null), FrozenCaseInsensitiveSet.of(Collections.emptyList()));
+        Assert.assertFalse(FrozenCaseInsensitiveSet.of(null).contains(""));
+    }
+
+    @Test
+    public void shouldHandleLargeSets() {
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            values.add("X-Header-" + i);
+        }
+        FrozenCaseInsensitiveSet large = FrozenCaseInsensitiveSet.of(values);
+
+        Assert.assertEquals(10_000, large.size());
+        for (String value : values) {
+            Assert.assertTrue(large.contains(value.toUpperCase()));
+        }
+        Assert.assertFalse(large.contains("X-Header-10000"));
+    }
+
+    @Test
+    public void shouldNotAllocateOnLookup() {
+        Assume.assumeTrue(AllocationMeter.isSupported());
+
+        long bytes = AllocationMeter.bytesPerOperation(() -> {
+            set.contains("X-GRAVITEE-API-KEY");
+            set.contains("X-Unknown");
+        }, 20_000, 100_000);
+
+        Assert.assertTrue("Expected no allocation per lookup but got " + bytes + " bytes", bytes < 16);
+    }
+
+    @Test
+    public void shouldBeSmallerThanCaseInsensitiveHashSet() {
+        Assume.assumeTrue(AllocationMeter.isSupported());
+
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            values.add("X-Gravitee-Header-" + i);
+        }
+
+        // Building a set allocates its footprint, apart from the small transient arrays used while building it
+        long frozen = AllocationMeter.bytesPerOperation(() -> FrozenCaseInsensitiveSet.of(values), 1_000, 1_000);
+        long hashSet = AllocationMeter.bytesPerOperation(() -> new CaseInsensitiveHashSet(values), 1_000, 1_000);
+
+        Assert.assertTrue("Expected less than half of " + hashSet / 100 + " bytes per entry but got " + frozen / 100,
+                frozen * 2 < hashSet);
+    }
+}
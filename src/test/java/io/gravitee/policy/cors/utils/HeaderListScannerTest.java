@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.utils;
+
+import io.gravitee.policy.cors.AllocationMeter;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.StringJoiner;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class HeaderListScannerTest {
+
+    private final FrozenCaseInsensitiveSet allowed = FrozenCaseInsensitiveSet.of(
+            Arrays.asList("Content-Type", "X-Gravitee-Api-Key", "Authorization"));
+
+    @Test
+    public void shouldAcceptNullOrBlankValue() {
+        Assert.assertEquals(HeaderListScanner.ACCEPTED, scan(null));
+        Assert.assertEquals(HeaderListScanner.ACCEPTED, scan(""));
+        Assert.assertEquals(HeaderListScanner.ACCEPTED, scan("  "));
+    }
+
+    @Test
+    public void shouldAcceptAllowedTokensIgnoringCaseAndWhitespaces() {
+        Assert.assertEquals(HeaderListScanner.ACCEPTED, scan("content-type"));
+        Assert.assertEquals(HeaderListScanner.ACCEPTED, scan(" AUTHORIZATION ,x-gravitee-api-key\t"));
+    }
+
+    @Test
+    public void shouldIgnoreEmptyListElements() {
+        Assert.assertEquals(HeaderListScanner.ACCEPTED, scan("content-type,, ,authorization,"));
+    }
+
+    @Test
+    public void shouldReturnFirstRejectedToken() {
+        String value = "content-type, X-Unknown, X-Other";
+        int rejected = scan(value);
+
+        Assert.assertEquals(14, rejected);
+        Assert.assertEquals("X-Unknown", HeaderListScanner.tokenAt(value, rejected));
+    }
+
+    @Test
+    public void shouldNotMatchPrefix() {
+        Assert.assertEquals(0, scan("content"));
+        Assert.assertEquals(0, scan("content-type-extra"));
+    }
+
+    @Test
+    public void shouldRejectTooLongValue() {
+        Assert.assertEquals(HeaderListScanner.LIMIT_EXCEEDED,
+                HeaderListScanner.scan("content-type", 11, 10, allowed));
+        Assert.assertEquals(HeaderListScanner.ACCEPTED,
+                HeaderListScanner.scan("content-type", 12, 10, allowed));
+    }
+
+    @Test
+    public void shouldRejectTooManyTokens() {
+        Assert.assertEquals(HeaderListScanner.LIMIT_EXCEEDED,
+                HeaderListScanner.scan("content-type, authorization, content-type", 100, 2, allowed));
+        Assert.assertEquals(HeaderListScanner.ACCEPTED,
+                HeaderListScanner.scan("content-type, authorization", 100, 2, allowed));
+    }
+
+    @Test
+    public void shouldNotAllocate() {
+        Assume.assumeTrue(AllocationMeter.isSupported());
+
+        StringJoiner joiner = new StringJoiner(", ");
+        for (int i = 0; i < 100; i++) {
+            joiner.add(i % 2 == 0 ? "Content-Type" : "x-gravitee-api-key");
+        }
+        String value = joiner.toString();
+
+        long bytes = AllocationMeter.bytesPerOperation(
+                () -> Assert.assertEquals(HeaderListScanner.ACCEPTED, HeaderListScanner.scan(value, 8192, 128, allowed)),
+                20_000, 50_000);
+
+        Assert.assertTrue("Expected no allocation but got " + bytes + " bytes", bytes < 16);
+    }
+
+    private int scan(String value) {
+        return HeaderListScanner.scan(value, 8192, 128, allowed);
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.utils;
+
+import io.gravitee.policy.cors.AllocationMeter;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class HeaderTrieTest {
+
+    private final HeaderTrie trie = HeaderTrie.of(Arrays.asList(
+            "Content-Type", "X-Acme-Trace-*", "X-Acme-Feature-*", "X-Acme-Trace-Id", "X-Acme", null));
+
+    @Test
+    public void shouldMatchNamesIgnoringCase() {
+        Assert.assertEquals(HeaderTrie.EXACT, match("content-type"));
+        Assert.assertEquals(HeaderTrie.EXACT, match("CONTENT-TYPE"));
+        Assert.assertEquals(HeaderTrie.EXACT, match("x-acme"));
+        Assert.assertEquals(HeaderTrie.NONE, match("content-typ"));
+        Assert.assertEquals(HeaderTrie.NONE, match("content-types"));
+        Assert.assertEquals(HeaderTrie.NONE, match(""));
+    }
+
+    @Test
+    public void shouldMatchPrefixes() {
+        Assert.assertEquals(HeaderTrie.PREFIX, match("X-Acme-Trace-Span"));
+        Assert.assertEquals(HeaderTrie.PREFIX, match("x-acme-feature-dark-mode"));
+        Assert.assertEquals(HeaderTrie.PREFIX, match("x-acme-trace-"));
+        // A name listed along with a prefix covering it is still an exact match
+        Assert.assertEquals(HeaderTrie.EXACT, match("X-ACME-TRACE-ID"));
+        Assert.assertEquals(HeaderTrie.PREFIX, match("X-ACME-TRACE-IDS"));
+        Assert.assertEquals(HeaderTrie.NONE, match("x-acme-trace"));
+        Assert.assertEquals(HeaderTrie.NONE, match("x-acme-other"));
+    }
+
+    @Test
+    public void shouldMatchTokensInPlace() {
+        String value = "content-type, x-acme-trace-span, x-unknown";
+
+        Assert.assertTrue(trie.matches(value, 0, 12));
+        Assert.assertTrue(trie.matches(value, 14, 31));
+        Assert.assertFalse(trie.matches(value, 33, value.length()));
+        Assert.assertEquals(33, HeaderListScanner.scan(value, 1024, 16, trie));
+    }
+
+    @Test
+    public void shouldMatchAnyHeaderWithWildcardOnly() {
+        HeaderTrie any = HeaderTrie.of(Collections.singleton("*"));
+
+        Assert.assertEquals(HeaderTrie.PREFIX, any.match("x-whatever", 0, 10));
+        Assert.assertEquals(HeaderTrie.NONE, HeaderTrie.of(Collections.emptySet()).match("x-whatever", 0, 10));
+    }
+
+    @Test
+    public void shouldDetectPatterns() {
+        Assert.assertTrue(HeaderTrie.hasPattern(Arrays.asList("Content-Type", "X-Acme-*")));
+        Assert.assertFalse(HeaderTrie.hasPattern(Arrays.asList("Content-Type", null)));
+    }
+
+    @Test
+    public void shouldMatchWithoutAllocating() {
+        Assume.assumeTrue(AllocationMeter.isSupported());
+
+        List<String> headers = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            headers.add("X-Custom-Header-" + i);
+        }
+        headers.add("X-Acme-Trace-*");
+        HeaderTrie large = HeaderTrie.of(headers);
+        String value = "X-CUSTOM-HEADER-299, x-acme-trace-span";
+
+        long bytes = AllocationMeter.bytesPerOperation(
+                () -> HeaderListScanner.scan(value, 1024, 16, large), 20_000, 100_000);
+
+        Assert.assertEquals(HeaderListScanner.ACCEPTED, HeaderListScanner.scan(value, 1024, 16, large));
+        Assert.assertTrue("Expected no allocation but got " + bytes + " bytes", bytes < 16);
+    }
+
+    private int match(String header) {
+        return trie.match(header, 0, header.length());
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.cors.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class ReleaserTest {
+
+    @Test
+    public void shouldReleaseOnceOwnerIsCollected() throws Exception {
+        CountDownLatch released = new CountDownLatch(1);
+        Releaser.track(new Object(), released::countDown);
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (! released.await(10, TimeUnit.MILLISECONDS) && System.currentTimeMillis() < deadline) {
+            System.gc();
+        }
+        Assert.assertEquals(0, released.getCount());
+    }
+
+    @Test
+    public void shouldStopOnceNothingIsTracked() throws Exception {
+        Object owner = new Object();
+        Releaser.Reference<Object> reference = Releaser.track(owner, () -> { });
+        Assert.assertTrue(Releaser.isRunning());
+
+        reference.release();
+        // Owners tracked by other tests are released once collected
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (Releaser.isRunning() && System.currentTimeMillis() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertFalse(Releaser.isRunning());
+        Assert.assertFalse(running());
+
+        // Started again by the next owner
+        reference = Releaser.track(owner, () -> { });
+        Assert.assertTrue(Releaser.isRunning());
+        reference.release();
+    }
+
+    private static boolean running() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .anyMatch(thread -> "cors-releaser".equals(thread.getName()) && thread.isAlive());
+    }
+}